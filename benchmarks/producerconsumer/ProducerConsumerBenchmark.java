@@ -0,0 +1,80 @@
+package producerconsumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Measures the time it takes the actual {@link producerconsumer.Producer} and {@link producerconsumer.Consumer}
+ * classes, wired by {@link producerconsumer.ProducerConsumerTopology}, to pass producers * MESSAGES_PER_PRODUCER
+ * messages through the queue - from starting the threads to the last consumer halting on its closing message.
+ * The producer and consumer counts are benchmark parameters, e.g.:
+ * java -jar target/benchmarks.jar ProducerConsumerBenchmark -p producers=1,4,16 -p consumers=1,4,16
+ *
+ * The producerconsumer loggers are turned off for the run, since per-message console logging would otherwise be
+ * all there is to measure.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProducerConsumerBenchmark {
+    static final int MESSAGES_PER_PRODUCER = 100_000;
+    // keeps a reference to the logger so that the level set on it isn't garbage collected along with it
+    private static final Logger PRODUCER_CONSUMER_LOGGER = Logger.getLogger("producerconsumer");
+
+    @Param({"1", "4"})
+    public int producers;
+
+    @Param({"1", "4"})
+    public int consumers;
+
+    @Param({"linkedlist", "mpmc", "batched"})
+    public String queue;
+
+    private ProducerConsumerTopology topology;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        PRODUCER_CONSUMER_LOGGER.setLevel(java.util.logging.Level.OFF);
+        ProducerConsumerTopology.Builder builder = new ProducerConsumerTopology.Builder()
+                .producers(producers)
+                .consumers(consumers)
+                .messagesPerProducer(MESSAGES_PER_PRODUCER);
+        switch (queue){
+            case "linkedlist":
+                builder.queue(LinkedList::new);
+                break;
+            case "mpmc":
+                builder.queue(() -> new MpmcRingBufferQueue<>(1024));
+                break;
+            case "batched":
+                builder.queue(LinkedList::new).producerBatchSize(16).consumerBatchSize(64);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown queue: "+queue);
+        }
+        topology = builder.build();
+    }
+
+    @Benchmark
+    public ProducerConsumerTopology passAllMessages() throws InterruptedException {
+        topology.run();
+        return topology;
+    }
+}
@@ -0,0 +1,240 @@
+package producerconsumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Exchanger;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Measures the rate (ops/ms) and the latency percentiles (sample mode) of handing a message over from producer
+ * threads to consumer threads, for:
+ * - waitnotify: the synchronized(queue)/notifyAll()/wait() handoff over a LinkedList used by
+ * {@link producerconsumer.Producer} and {@link producerconsumer.Consumer}, bounded at CAPACITY (the producer waits on
+ * a full list instead of giving up, so that it can't race ahead of the consumer for the whole run).
+ * - ArrayBlockingQueue: put()/take() with the same capacity.
+ * - LinkedTransferQueue: transfer()/take(), i.e. the producer waits for a consumer to receive the message.
+ * - SynchronousQueue: put()/take().
+ * - Exchanger: the producer exchanges the message for the consumer's null.
+ * - mpmc: offer()/poll() on {@link producerconsumer.MpmcRingBufferQueue}, spinning and then yielding when full/empty.
+ *
+ * Every blocking call is made with a short time-out and retried until JMH signals the end of the iteration through
+ * {@link org.openjdk.jmh.infra.Control}; otherwise a producer blocked on a full queue (or a consumer blocked on an
+ * empty one) would never return once its counterpart has stopped.
+ *
+ * The number of producer and consumer threads is given with the JMH thread groups option, e.g. for 4 producers and
+ * 2 consumers:
+ * java -jar target/benchmarks.jar QueueHandoffBenchmark -tg 4,2
+ * The Exchanger pairs up any two threads: only an exchange between a producer and a consumer counts as a handoff,
+ * the producer telling it apart by the consumer's null; with more than one producer or consumer, the exchanges
+ * between two producers (or two consumers) are retried, costing the time they took.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class QueueHandoffBenchmark {
+    static final int CAPACITY = 1024;
+    static final long TIMEOUT_MICROS = 100;
+    static final String MESSAGE = "Message";
+
+    @Param({"waitnotify", "ArrayBlockingQueue", "LinkedTransferQueue", "SynchronousQueue", "Exchanger", "mpmc"})
+    public String channel;
+
+    private Handoff handoff;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        switch (channel){
+            case "waitnotify":
+                handoff = new WaitNotifyHandoff();
+                break;
+            case "ArrayBlockingQueue":
+                handoff = new BlockingQueueHandoff(new ArrayBlockingQueue<>(CAPACITY), false);
+                break;
+            case "LinkedTransferQueue":
+                handoff = new BlockingQueueHandoff(new LinkedTransferQueue<>(), true);
+                break;
+            case "SynchronousQueue":
+                handoff = new BlockingQueueHandoff(new SynchronousQueue<>(), false);
+                break;
+            case "Exchanger":
+                handoff = new ExchangerHandoff();
+                break;
+            case "mpmc":
+                handoff = new RingBufferHandoff(new MpmcRingBufferQueue<>(CAPACITY));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown channel: "+channel);
+        }
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public boolean produce(Control control) throws InterruptedException {
+        while (!control.stopMeasurement){
+            if (handoff.put(MESSAGE)){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public String consume(Control control) throws InterruptedException {
+        while (!control.stopMeasurement){
+            String message = handoff.take();
+            if (message != null){
+                return message;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * One attempt at handing a message over; both methods give up after about TIMEOUT_MICROS.
+     */
+    interface Handoff {
+        boolean put(String message) throws InterruptedException;
+
+        String take() throws InterruptedException;
+    }
+
+    static class WaitNotifyHandoff implements Handoff {
+        private final Queue<String> queue = new LinkedList<>();
+
+        @Override
+        public boolean put(String message) throws InterruptedException {
+            synchronized (queue){
+                if (queue.size() >= CAPACITY){
+                    TimeUnit.MICROSECONDS.timedWait(queue, TIMEOUT_MICROS);
+                    if (queue.size() >= CAPACITY){
+                        return false;
+                    }
+                }
+                queue.offer(message);
+                queue.notifyAll();
+                return true;
+            }
+        }
+
+        @Override
+        public String take() throws InterruptedException {
+            synchronized (queue){
+                if (queue.peek() == null){
+                    TimeUnit.MICROSECONDS.timedWait(queue, TIMEOUT_MICROS);
+                }
+                String message = queue.poll();
+                if (message != null){
+                    // wake up a producer waiting on a full queue
+                    queue.notifyAll();
+                }
+                return message;
+            }
+        }
+    }
+
+    static class BlockingQueueHandoff implements Handoff {
+        private final BlockingQueue<String> queue;
+        private final boolean transfer;
+
+        BlockingQueueHandoff(BlockingQueue<String> queue, boolean transfer) {
+            this.queue = queue;
+            this.transfer = transfer;
+        }
+
+        @Override
+        public boolean put(String message) throws InterruptedException {
+            if (transfer){
+                return ((LinkedTransferQueue<String>) queue).tryTransfer(message, TIMEOUT_MICROS,
+                        TimeUnit.MICROSECONDS);
+            }
+            return queue.offer(message, TIMEOUT_MICROS, TimeUnit.MICROSECONDS);
+        }
+
+        @Override
+        public String take() throws InterruptedException {
+            return queue.poll(TIMEOUT_MICROS, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    static class ExchangerHandoff implements Handoff {
+        private final Exchanger<String> exchanger = new Exchanger<>();
+
+        @Override
+        public boolean put(String message) throws InterruptedException {
+            try {
+                // a message in return means a producer was paired up with another producer
+                return exchanger.exchange(message, TIMEOUT_MICROS, TimeUnit.MICROSECONDS) == null;
+            } catch (TimeoutException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public String take() throws InterruptedException {
+            try {
+                // null in return means a consumer was paired up with another consumer
+                return exchanger.exchange(null, TIMEOUT_MICROS, TimeUnit.MICROSECONDS);
+            } catch (TimeoutException e) {
+                return null;
+            }
+        }
+    }
+
+    static class RingBufferHandoff implements Handoff {
+        private final RingBufferQueue<String> queue;
+
+        RingBufferHandoff(RingBufferQueue<String> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public boolean put(String message) {
+            for (int tries = 0; tries < Consumer.SPIN_TRIES + Consumer.YIELD_TRIES; tries++) {
+                if (queue.offer(message)){
+                    return true;
+                }
+                Producer.backOff(tries);
+            }
+            return false;
+        }
+
+        @Override
+        public String take() {
+            for (int tries = 0; tries < Consumer.SPIN_TRIES + Consumer.YIELD_TRIES; tries++) {
+                String message = queue.poll();
+                if (message != null){
+                    return message;
+                }
+                Producer.backOff(tries);
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package sequencegeneration;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Control;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the handoff rate (turns/ms) and the latency percentiles of a turn (sample mode) of the odd/even
+ * ping-pong of {@link sequencegeneration.OddNumberGenerator} and {@link sequencegeneration.EvenNumberGenerator},
+ * in both of their modes:
+ * - atomicInteger: the AtomicInteger is the monitor as well as the counter.
+ * - classLock: OddEvenTurnByTurnGenerationSnippet.class is the monitor and its static currentNumber the counter.
+ *
+ * A turn is exactly the generators' synchronized block - wait() until it's this side's parity, increment and
+ * notify() - minus the Thread.sleep(1000) and the logging that the generators do for human monitoring.
+ * The wait() is timed so that a side can notice the end of the iteration through {@link org.openjdk.jmh.infra.Control}
+ * rather than waiting forever on the other side, which has stopped taking turns.
+ *
+ * The number of odd and even threads is given with the JMH thread groups option, e.g.
+ * java -jar target/benchmarks.jar TurnByTurnHandoffBenchmark -tg 2,2
+ * With more than one thread per side the notify() may well wake up a thread of the same parity, which then only
+ * gets going again on its wait() time-out - which is exactly why the generators only support two threads.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Group)
+public class TurnByTurnHandoffBenchmark {
+    static final long WAIT_MILLIS = 1;
+
+    @Param({"atomicInteger", "classLock"})
+    public String lockMode;
+
+    private AtomicInteger aiLock;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        aiLock = new AtomicInteger(0);
+        OddEvenTurnByTurnGenerationSnippet.setCurrentNumber(0);
+    }
+
+    @Benchmark
+    @Group("oddEven")
+    @GroupThreads(1)
+    public int odd(Control control) throws InterruptedException {
+        return lockMode.equals("atomicInteger") ? turnWithAtomicInteger(0, control) : turnWithClassLock(0, control);
+    }
+
+    @Benchmark
+    @Group("oddEven")
+    @GroupThreads(1)
+    public int even(Control control) throws InterruptedException {
+        return lockMode.equals("atomicInteger") ? turnWithAtomicInteger(1, control) : turnWithClassLock(1, control);
+    }
+
+    private int turnWithAtomicInteger(int parity, Control control) throws InterruptedException {
+        synchronized (aiLock){
+            while (aiLock.get() % 2 != parity){
+                if (control.stopMeasurement){
+                    return -1;
+                }
+                aiLock.wait(WAIT_MILLIS);
+            }
+            int next = aiLock.addAndGet(1);
+            aiLock.notify();
+            return next;
+        }
+    }
+
+    private int turnWithClassLock(int parity, Control control) throws InterruptedException {
+        Class<OddEvenTurnByTurnGenerationSnippet> lock = OddEvenTurnByTurnGenerationSnippet.class;
+        synchronized (lock){
+            while (OddEvenTurnByTurnGenerationSnippet.getCurrentNumber() % 2 != parity){
+                if (control.stopMeasurement){
+                    return -1;
+                }
+                lock.wait(WAIT_MILLIS);
+            }
+            OddEvenTurnByTurnGenerationSnippet.setCurrentNumber(
+                    OddEvenTurnByTurnGenerationSnippet.getCurrentNumber() + 1);
+            lock.notify();
+            return OddEvenTurnByTurnGenerationSnippet.getCurrentNumber();
+        }
+    }
+}
@@ -1,22 +1,38 @@
+import main.Scenario;
+import main.ScenarioRunner;
 import main.Snippet;
 
+import java.io.IOException;
 import java.util.Arrays;
 
 public class Main {
     public static void main(String[] args){
+        boolean scenario = args.length > 0 && args[0].equals("--scenario");
+        if (scenario){
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
         if(args.length > 0){
             try {
                 Class<? extends Snippet> clazz = (Class<? extends Snippet>)Class.forName(args[0]);
                 Snippet snippet =  clazz.newInstance();
 
                 String[] snippetArgs = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : null;
-                snippet.runSnippet(snippetArgs);
+                if (scenario){
+                    // java Main --scenario <snippet class> [key=value...]; see main.ScenarioRunner
+                    new ScenarioRunner(snippet, Scenario.of(snippetArgs != null ? snippetArgs : new String[0])).run();
+                }else {
+                    snippet.runSnippet(snippetArgs);
+                }
             } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
                 e.printStackTrace();
+            } catch (IOException | InterruptedException e) {
+                e.printStackTrace();
             }
             return;
         }
         System.out.println("Error: missing test code snippet to invoke! \nPlease pass a fully qualified classname " +
-                "of the code snippet to test; such class shall implement interface: main.TestSnippet");
+                "of the code snippet to test; such class shall implement interface: main.TestSnippet\n" +
+                "To run it as a repeatable, timed scenario: --scenario <classname> [key=value...]; see " +
+                "main.ScenarioRunner");
     }
 }
@@ -0,0 +1,43 @@
+package eventlog;
+
+import java.util.logging.Level;
+
+/**
+ * The events recorded by an {@link eventlog.EventRecorder}; each one is a fixed-size binary record of the event,
+ * a timestamp and a single long payload, and is only turned into text - as per its label - on the recorder's
+ * background thread.
+ */
+public enum Event {
+    // payload: the index of the message produced
+    PRODUCED(Level.INFO, "Produced message #"),
+    // payload: the number of messages consumed so far
+    CONSUMED(Level.INFO, "Consumed message #"),
+    // payload: the number of messages in the batch
+    PRODUCED_BATCH(Level.INFO, "Produced batch of messages: "),
+    CONSUMED_BATCH(Level.INFO, "Consumed batch of messages: "),
+    // payload: the number generated
+    NEXT_ODD_NUMBER(Level.INFO, "Next odd number: "),
+    NEXT_EVEN_NUMBER(Level.INFO, "Next even number: "),
+    NEXT_NUMBER(Level.INFO, "Next number: ");
+
+    private static final Event[] VALUES = values();
+    private final Level level;
+    private final String label;
+
+    Event(Level level, String label) {
+        this.level = level;
+        this.label = label;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    static Event of(int ordinal) {
+        return VALUES[ordinal];
+    }
+}
@@ -0,0 +1,95 @@
+package eventlog;
+
+import producerconsumer.Sequence;
+
+/**
+ * Single-writer/single-reader ring of fixed-size event records owned by one recording thread; the records are laid
+ * out flat in a long[] - RECORD_SIZE longs each: timestamp, event ordinal, payload - so recording an event neither
+ * allocates nor formats anything.
+ * The owner thread never waits on a full ring: the record is dropped and counted instead, as the hot path is worth
+ * more than the log.
+ */
+class EventBuffer {
+    static final int RECORD_SIZE = 3;
+    private final Thread owner;
+    private final int capacity;
+    private final int mask;
+    private final long[] records;
+    // written by the background thread
+    private final Sequence head = new Sequence();
+    // written by the owner thread
+    private final Sequence tail = new Sequence();
+    // the owner's view of the head
+    private long headCache;
+    // owner thread only
+    private long sampleCounter;
+    private volatile long dropped;
+
+    EventBuffer(Thread owner, int requestedCapacity) {
+        this.owner = owner;
+        this.capacity = requestedCapacity <= 1 ? 1 : Integer.highestOneBit(requestedCapacity - 1) << 1;
+        this.mask = capacity - 1;
+        this.records = new long[capacity * RECORD_SIZE];
+    }
+
+    Thread getOwner() {
+        return owner;
+    }
+
+    /**
+     * To be called by the owner thread only.
+     * @return whether this is the sampleRate-th event since the last one that was sampled.
+     */
+    boolean sample(int sampleRate) {
+        return sampleRate <= 1 || sampleCounter++ % sampleRate == 0;
+    }
+
+    /**
+     * To be called by the owner thread only.
+     */
+    void record(long timestamp, Event event, long payload) {
+        long currentTail = tail.getPlain();
+        if (currentTail - headCache >= capacity){
+            headCache = head.get();
+            if (currentTail - headCache >= capacity){
+                // single writer, so a plain read-modify-write will do
+                dropped = dropped + 1;
+                return;
+            }
+        }
+        int offset = (int) (currentTail & mask) * RECORD_SIZE;
+        records[offset] = timestamp;
+        records[offset + 1] = event.ordinal();
+        records[offset + 2] = payload;
+        tail.set(currentTail + 1);
+    }
+
+    /**
+     * To be called by the background thread only.
+     * @return the number of records drained.
+     */
+    int drain(RecordHandler handler) {
+        long currentHead = head.getPlain();
+        long available = tail.get() - currentHead;
+        for (long i = 0; i < available; i++) {
+            int offset = (int) ((currentHead + i) & mask) * RECORD_SIZE;
+            handler.handle(owner.getName(), records[offset], Event.of((int) records[offset + 1]), records[offset + 2]);
+        }
+        if (available > 0){
+            head.set(currentHead + available);
+        }
+        return (int) available;
+    }
+
+    boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    long getDropped() {
+        return dropped;
+    }
+
+    interface RecordHandler {
+        void handle(String threadName, long timestamp, Event event, long payload);
+    }
+}
@@ -0,0 +1,186 @@
+package eventlog;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Asynchronous event log for the hot paths of the producers, consumers and generators, in place of a
+ * logger.info("Produced: "+message) per message.
+ * The characteristics exhibited by this class are:
+ * - record() writes a fixed-size binary record (timestamp, {@link eventlog.Event}, long payload) into a ring buffer
+ * of the calling thread's own, so recording neither contends with other threads, nor allocates, nor formats a String,
+ * nor does any I/O - and costs next to nothing within a synchronized block.
+ * - a background daemon thread (Event-Recorder-cs0x65) drains the per-thread buffers every flushIntervalMillis and
+ * formats the records into this class' logger - i.e. onto the same console as the rest of the log - as
+ * "[&lt;thread&gt;] +&lt;micros since start&gt; &lt;label&gt;&lt;payload&gt;". The records come out in order per thread,
+ * but not necessarily across threads - the timestamps tell the order.
+ * - level-gated: the events below the given level are discarded before anything is written.
+ * - sampled: with a sample rate N > 1, only every Nth event of each thread is recorded.
+ * - if a thread records faster than the background thread drains, its records are dropped rather than letting the
+ * thread wait; the dropped count is logged on close().
+ * - close() stops the background thread after a final drain. A JVM shutdown does the same, but only on a best effort
+ * basis: the LogManager may have closed the console handler by then, so close the recorder once the recording
+ * threads have halted.
+ *
+ * Every recording thread gets a buffer of bufferCapacity records (24 bytes each), so keep the capacity small when
+ * running thousands of (virtual) threads through the same recorder.
+ */
+public class EventRecorder implements AutoCloseable {
+    public static final int DEFAULT_BUFFER_CAPACITY = 4096;
+    public static final long DEFAULT_FLUSH_INTERVAL_MILLIS = 10;
+
+    private final int levelThreshold;
+    private final int sampleRate;
+    private final int bufferCapacity;
+    private final long flushIntervalNanos;
+    private final ThreadLocal<EventBuffer> buffers = ThreadLocal.withInitial(this::newBuffer);
+    private final List<EventBuffer> registeredBuffers = new CopyOnWriteArrayList<>();
+    private final long startedAt = System.nanoTime();
+    private final Thread flusher;
+    private final Thread shutdownHook;
+    private final StringBuilder line = new StringBuilder(128);
+    private long droppedOfFinishedThreads;
+    private volatile boolean closed;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    public EventRecorder(Level level, int sampleRate, int bufferCapacity, long flushIntervalMillis) {
+        if (sampleRate < 1){
+            throw new IllegalArgumentException("The sample rate needs to be at least 1. Received sampleRate = "+
+                    sampleRate);
+        }
+        this.levelThreshold = level.intValue();
+        this.sampleRate = sampleRate;
+        this.bufferCapacity = bufferCapacity;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        this.flusher = new Thread(this::flushPeriodically, "Event-Recorder-cs0x65");
+        flusher.setDaemon(true);
+        this.shutdownHook = new Thread(this::flushOnShutdown, "Event-Recorder-Shutdown-cs0x65");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+        flusher.start();
+    }
+
+    /**
+     * Records every event at or above the given level.
+     */
+    public EventRecorder(Level level) {
+        this(level, 1, DEFAULT_BUFFER_CAPACITY, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Records every sampleRate-th event of each thread at or above the given level.
+     */
+    public EventRecorder(Level level, int sampleRate) {
+        this(level, sampleRate, DEFAULT_BUFFER_CAPACITY, DEFAULT_FLUSH_INTERVAL_MILLIS);
+    }
+
+    public boolean isRecordable(Event event) {
+        return event.getLevel().intValue() >= levelThreshold;
+    }
+
+    /**
+     * Records the event for the background thread to log; cheap enough to be called while holding a lock.
+     */
+    public void record(Event event, long payload) {
+        if (closed || !isRecordable(event)){
+            return;
+        }
+        EventBuffer buffer = buffers.get();
+        if (buffer.sample(sampleRate)){
+            buffer.record(System.nanoTime(), event, payload);
+        }
+    }
+
+    /**
+     * @return the number of records dropped so far on full buffers.
+     */
+    public long getDroppedCount() {
+        long dropped = droppedOfFinishedThreads;
+        for (EventBuffer buffer : registeredBuffers) {
+            dropped += buffer.getDropped();
+        }
+        return dropped;
+    }
+
+    private EventBuffer newBuffer() {
+        EventBuffer buffer = new EventBuffer(Thread.currentThread(), bufferCapacity);
+        registeredBuffers.add(buffer);
+        return buffer;
+    }
+
+    private void flushPeriodically() {
+        while (!closed){
+            if (flush() == 0){
+                LockSupport.parkNanos(flushIntervalNanos);
+            }
+        }
+    }
+
+    /**
+     * Drains every buffer once; to be called by one thread at a time (the flusher, or the closing thread once the
+     * flusher has halted).
+     * @return the number of records drained.
+     */
+    private int flush() {
+        int drained = 0;
+        for (EventBuffer buffer : registeredBuffers) {
+            drained += buffer.drain(this::format);
+            // forget the buffers of the threads which have halted, once they're drained
+            if (!buffer.getOwner().isAlive() && buffer.isEmpty()){
+                droppedOfFinishedThreads += buffer.getDropped();
+                registeredBuffers.remove(buffer);
+            }
+        }
+        return drained;
+    }
+
+    private void format(String threadName, long timestamp, Event event, long payload) {
+        if (!logger.isLoggable(event.getLevel())){
+            return;
+        }
+        line.setLength(0);
+        line.append('[').append(threadName).append("] +")
+                .append(TimeUnit.NANOSECONDS.toMicros(timestamp - startedAt)).append("us ")
+                .append(event.getLabel()).append(payload);
+        logger.log(event.getLevel(), line.toString());
+    }
+
+    private synchronized void flushOnShutdown() {
+        stopFlushing();
+    }
+
+    /**
+     * Stops the flusher and drains what it left behind; to be called with the lock held.
+     * @return false if it's been stopped already.
+     */
+    private boolean stopFlushing() {
+        if (closed){
+            return false;
+        }
+        closed = true;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        flush();
+        return true;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!stopFlushing()){
+            return;
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // the JVM is shutting down already
+        }
+        logger.info("Event recorder closed: dropped "+getDroppedCount()+" records");
+    }
+}
@@ -0,0 +1,62 @@
+package main;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How the snippets run their threads:
+ * - PLATFORM: a java.lang.Thread backed by an OS thread each - the way the snippets have always run.
+ * - VIRTUAL: a virtual thread each (JDK 21+), multiplexed over a handful of carrier threads; cheap enough to run
+ * tens of thousands of producer/consumer pairs.
+ *
+ * The build targets JDK 17, so the virtual thread factory is looked up reflectively (Thread.ofVirtual()) and
+ * VIRTUAL fails with an UnsupportedOperationException on a JVM without virtual threads.
+ *
+ * Note that a virtual thread blocking inside a synchronized block - e.g. in wait() - pins its carrier thread (up to
+ * JDK 23); the snippets' virtual thread modes hence stick to java.util.concurrent locks and queues, which park the
+ * virtual thread and release the carrier.
+ */
+public enum ExecutionMode {
+    PLATFORM,
+    VIRTUAL;
+
+    /**
+     * @return a thread factory naming the threads &lt;namePrefix&gt;0, &lt;namePrefix&gt;1...
+     */
+    public ThreadFactory threadFactory(String namePrefix) {
+        if (this == VIRTUAL){
+            return virtualThreadFactory(namePrefix);
+        }
+        AtomicLong counter = new AtomicLong();
+        return runnable -> new Thread(runnable, namePrefix + counter.getAndIncrement());
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    public static ExecutionMode of(String name) {
+        return valueOf(name.toUpperCase());
+    }
+
+    private static ThreadFactory virtualThreadFactory(String namePrefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Method name = builderClass.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, namePrefix, 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException | ClassNotFoundException e) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21 or later; running on JDK "+
+                    System.getProperty("java.version"), e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Unable to create a virtual thread factory", e);
+        }
+    }
+}
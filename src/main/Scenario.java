@@ -0,0 +1,198 @@
+package main;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The parameters of a repeatable, timed run of a {@link main.Snippet} mode, as run by the
+ * {@link main.ScenarioRunner}; what threads, messages and capacity stand for exactly is up to the snippet and its
+ * mode (e.g. the producers and consumers of a topology, or the generators taking turns).
+ * The parameters given on the command line as key=value pairs are:
+ * - mode: the snippet mode to run (default 1).
+ * - threads: the number of threads (default 1).
+ * - messages: the number of messages or numbers per iteration (default DEFAULT_MESSAGES).
+ * - capacity: the queue/buffer capacity (default DEFAULT_CAPACITY).
+ * - execution: platform (default) or virtual; see {@link main.ExecutionMode}.
+ * - warmup: the number of iterations run and thrown away before the measured ones, to let the JIT compile the hot
+ * paths (default 1).
+ * - iterations: the number of measured iterations (default 3).
+ * - format: csv (default) or json; see ScenarioRunner.
+ * - out: the file to append the results to, rather than stdout.
+ * Any other key=value pair is kept as an option for the snippet (e.g. queue=blocking).
+ */
+public class Scenario {
+    public static final int DEFAULT_MESSAGES = 100_000;
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int mode;
+    private final int threads;
+    private final int messages;
+    private final int capacity;
+    private final ExecutionMode executionMode;
+    private final int warmupIterations;
+    private final int iterations;
+    private final Map<String, String> options;
+
+    private Scenario(Builder builder) {
+        this.mode = builder.mode;
+        this.threads = builder.threads;
+        this.messages = builder.messages;
+        this.capacity = builder.capacity;
+        this.executionMode = builder.executionMode;
+        this.warmupIterations = builder.warmupIterations;
+        this.iterations = builder.iterations;
+        this.options = Collections.unmodifiableMap(new LinkedHashMap<>(builder.options));
+    }
+
+    /**
+     * @return the scenario of the given key=value pairs.
+     */
+    public static Scenario of(String[] keyValues) {
+        Builder builder = new Builder();
+        for (String keyValue : keyValues) {
+            int equals = keyValue.indexOf('=');
+            if (equals < 1){
+                throw new IllegalArgumentException("Expected key=value. Received "+keyValue);
+            }
+            String key = keyValue.substring(0, equals);
+            String value = keyValue.substring(equals + 1);
+            switch (key){
+                case "mode":
+                    builder.mode(Integer.parseInt(value));
+                    break;
+
+                case "threads":
+                    builder.threads(Integer.parseInt(value));
+                    break;
+
+                case "messages":
+                    builder.messages(Integer.parseInt(value));
+                    break;
+
+                case "capacity":
+                    builder.capacity(Integer.parseInt(value));
+                    break;
+
+                case "execution":
+                    builder.executionMode(ExecutionMode.of(value));
+                    break;
+
+                case "warmup":
+                    builder.warmupIterations(Integer.parseInt(value));
+                    break;
+
+                case "iterations":
+                    builder.iterations(Integer.parseInt(value));
+                    break;
+
+                default:
+                    builder.option(key, value);
+            }
+        }
+        return builder.build();
+    }
+
+    public int getMode() {
+        return mode;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getMessages() {
+        return messages;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    public int getWarmupIterations() {
+        return warmupIterations;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public Map<String, String> getOptions() {
+        return options;
+    }
+
+    public String getOption(String key, String defaultValue) {
+        return options.getOrDefault(key, defaultValue);
+    }
+
+    @Override
+    public String toString() {
+        return "Scenario[mode="+mode+", threads="+threads+", messages="+messages+", capacity="+capacity+
+                ", execution="+executionMode+", warmup="+warmupIterations+", iterations="+iterations+
+                ", options="+options+"]";
+    }
+
+    public static class Builder {
+        private int mode = 1;
+        private int threads = 1;
+        private int messages = DEFAULT_MESSAGES;
+        private int capacity = DEFAULT_CAPACITY;
+        private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+        private int warmupIterations = 1;
+        private int iterations = 3;
+        private final Map<String, String> options = new LinkedHashMap<>();
+
+        public Builder mode(int mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        public Builder threads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        public Builder messages(int messages) {
+            this.messages = messages;
+            return this;
+        }
+
+        public Builder capacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        public Builder executionMode(ExecutionMode executionMode) {
+            this.executionMode = executionMode;
+            return this;
+        }
+
+        public Builder warmupIterations(int warmupIterations) {
+            this.warmupIterations = warmupIterations;
+            return this;
+        }
+
+        public Builder iterations(int iterations) {
+            this.iterations = iterations;
+            return this;
+        }
+
+        public Builder option(String key, String value) {
+            options.put(key, value);
+            return this;
+        }
+
+        public Scenario build() {
+            if (threads < 1 || messages < 1 || capacity < 1 || warmupIterations < 0 || iterations < 1){
+                throw new IllegalArgumentException("Expected threads, messages, capacity and iterations > 0 and " +
+                        "warmup >= 0. Received threads="+threads+", messages="+messages+
+                        ", capacity="+capacity+", warmup="+warmupIterations+", iterations="+iterations);
+            }
+            return new Scenario(this);
+        }
+    }
+}
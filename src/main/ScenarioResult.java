@@ -0,0 +1,48 @@
+package main;
+
+import metrics.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of one iteration of a {@link main.Scenario}: how many messages made it through and how long it took,
+ * from starting the threads to the last of them halting, and - if the snippet measures them - the latencies.
+ */
+public class ScenarioResult {
+    private final long messages;
+    private final long elapsedNanos;
+    // null if the snippet doesn't measure the latencies
+    private final LatencyHistogram latency;
+
+    public ScenarioResult(long messages, long elapsedNanos, LatencyHistogram latency) {
+        this.messages = messages;
+        this.elapsedNanos = elapsedNanos;
+        this.latency = latency;
+    }
+
+    public ScenarioResult(long messages, long elapsedNanos) {
+        this(messages, elapsedNanos, null);
+    }
+
+    public long getMessages() {
+        return messages;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public long getMessagesPerSecond() {
+        return elapsedNanos > 0 ? messages * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+    }
+
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return messages+" messages in "+TimeUnit.NANOSECONDS.toMillis(elapsedNanos)+" ms = "+getMessagesPerSecond()+
+                " messages/sec"+(latency != null ? ", latency{"+latency+"}" : "");
+    }
+}
@@ -0,0 +1,122 @@
+package main;
+
+import metrics.LatencyHistogram;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Runs a {@link main.Scenario} of a {@link main.Snippet} repeatably, for the results to be compared across modes,
+ * machines and nights:
+ * java Main --scenario &lt;snippet class&gt; [key=value...]
+ * For e.g:   java Main --scenario producerconsumer.ProducerConsumerSnippet mode=8 threads=4 messages=1000000
+ * The characteristics exhibited by this class are:
+ * - the warmup iterations run first and their results are only logged; then every measured iteration is written as
+ * a row of CSV (with a header, unless appending to an existing file) or as a JSON object per line.
+ * - each row carries the snippet, its parameters, the JVM version and the number of processors, so that the results
+ * of different machines can go into the same file; the latencies are left empty (CSV) or null (JSON) when the
+ * snippet doesn't measure them.
+ * - the results go to stdout - the log goes to stderr - or are appended to the file given with out=&lt;path&gt;.
+ * - a scenario iteration runs to completion: there are no sleeps to wait it out and no keyboard i/p to wait for, see
+ * Snippet.runScenario().
+ */
+public class ScenarioRunner {
+    static final String CSV_HEADER = "snippet,mode,threads,messages,capacity,execution,options,iteration," +
+            "java_version,processors,elapsed_ms,messages_per_sec,p50_us,p99_us,max_us";
+    private final Snippet snippet;
+    private final Scenario scenario;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    public ScenarioRunner(Snippet snippet, Scenario scenario) {
+        this.snippet = snippet;
+        this.scenario = scenario;
+    }
+
+    /**
+     * @return the results of the measured iterations.
+     */
+    public List<ScenarioResult> run() throws InterruptedException, IOException {
+        String format = scenario.getOption("format", "csv");
+        String out = scenario.getOption("out", null);
+        Path outPath = out != null ? Paths.get(out) : null;
+        boolean header = format.equals("csv") && (outPath == null || !Files.exists(outPath) ||
+                Files.size(outPath) == 0);
+        logger.info("Running "+snippet.getClass().getName()+" "+scenario);
+        for (int i = 0; i < scenario.getWarmupIterations(); i++) {
+            logger.info("Warmup iteration "+i+": "+snippet.runScenario(scenario));
+        }
+        List<ScenarioResult> results = new ArrayList<>();
+        try (PrintStream printStream = outPath != null ?
+                new PrintStream(new FileOutputStream(outPath.toFile(), true), true) : null) {
+            PrintStream resultsOut = printStream != null ? printStream : System.out;
+            if (header){
+                resultsOut.println(CSV_HEADER);
+            }
+            for (int i = 0; i < scenario.getIterations(); i++) {
+                ScenarioResult result = snippet.runScenario(scenario);
+                logger.info("Iteration "+i+": "+result);
+                resultsOut.println(format.equals("json") ? toJson(i, result) : toCsv(i, result));
+                results.add(result);
+            }
+        }
+        return results;
+    }
+
+    private String toCsv(int iteration, ScenarioResult result) {
+        LatencyHistogram latency = result.getLatency();
+        return String.join(",", snippet.getClass().getName(), String.valueOf(scenario.getMode()),
+                String.valueOf(scenario.getThreads()), String.valueOf(scenario.getMessages()),
+                String.valueOf(scenario.getCapacity()), scenario.getExecutionMode().name().toLowerCase(),
+                snippetOptions(), String.valueOf(iteration), System.getProperty("java.version"),
+                String.valueOf(Runtime.getRuntime().availableProcessors()),
+                String.valueOf(TimeUnit.NANOSECONDS.toMillis(result.getElapsedNanos())),
+                String.valueOf(result.getMessagesPerSecond()),
+                latency != null ? micros(latency.getValueAtPercentile(50)) : "",
+                latency != null ? micros(latency.getValueAtPercentile(99)) : "",
+                latency != null ? micros(latency.getMax()) : "");
+    }
+
+    private String toJson(int iteration, ScenarioResult result) {
+        LatencyHistogram latency = result.getLatency();
+        return "{\"snippet\":\""+snippet.getClass().getName()+"\",\"mode\":"+scenario.getMode()+
+                ",\"threads\":"+scenario.getThreads()+",\"messages\":"+scenario.getMessages()+
+                ",\"capacity\":"+scenario.getCapacity()+",\"execution\":\""+
+                scenario.getExecutionMode().name().toLowerCase()+"\",\"options\":\""+snippetOptions()+
+                "\",\"iteration\":"+iteration+",\"java_version\":\""+System.getProperty("java.version")+
+                "\",\"processors\":"+Runtime.getRuntime().availableProcessors()+
+                ",\"elapsed_ms\":"+TimeUnit.NANOSECONDS.toMillis(result.getElapsedNanos())+
+                ",\"messages_per_sec\":"+result.getMessagesPerSecond()+
+                ",\"p50_us\":"+(latency != null ? micros(latency.getValueAtPercentile(50)) : "null")+
+                ",\"p99_us\":"+(latency != null ? micros(latency.getValueAtPercentile(99)) : "null")+
+                ",\"max_us\":"+(latency != null ? micros(latency.getMax()) : "null")+"}";
+    }
+
+    /**
+     * @return the snippet's own options (not format and out), as key=value pairs; they never contain a comma nor a
+     * quote, as the command line splits them on the spaces.
+     */
+    private String snippetOptions() {
+        List<String> options = new ArrayList<>();
+        for (Map.Entry<String, String> option : scenario.getOptions().entrySet()) {
+            if (!option.getKey().equals("format") && !option.getKey().equals("out")){
+                options.add(option.getKey()+"="+option.getValue().replaceAll("[,\"]", "_"));
+            }
+        }
+        return String.join(" ", options);
+    }
+
+    private static String micros(long nanos) {
+        // Locale.ROOT: a decimal comma would split the CSV column
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+    }
+}
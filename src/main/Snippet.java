@@ -2,4 +2,14 @@ package main;
 
 public interface Snippet {
     public void runSnippet(String[] args);
+
+    /**
+     * Runs one iteration of the scenario to completion - the snippet waits for its threads to halt (joins, latches)
+     * rather than for a set time or the keyboard - and tells how it went; see {@link main.ScenarioRunner}.
+     * Snippets which don't support scenario runs, or not in the scenario's mode, throw an
+     * UnsupportedOperationException.
+     */
+    default ScenarioResult runScenario(Scenario scenario) throws InterruptedException {
+        throw new UnsupportedOperationException(getClass().getName()+" doesn't support scenario runs");
+    }
 }
@@ -0,0 +1,118 @@
+package metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+
+/**
+ * Counts the bytes allocated by a thread in between start() and stop(), and the garbage collections the JVM ran
+ * meanwhile - to check that a message path allocates nothing in its steady state, and what the allocations it does
+ * make cost in GC pauses.
+ * The characteristics exhibited by this class are:
+ * - both start() and stop() are to be called by the thread whose allocations are counted (e.g. from the message
+ * factory or handler of the producer or consumer, after a warm-up of so many messages); they read HotSpot's
+ * per-thread allocation counter (com.sun.management.ThreadMXBean.getCurrentThreadAllocatedBytes()) and allocate
+ * nothing themselves. The counter is an approximation, and -1 on a JVM which doesn't support it.
+ * - the GC counts and times are the sums over the JVM's GarbageCollectorMXBeans: JVM-wide, whichever thread did the
+ * allocating. With -XX:+UseEpsilonGC there's no collector to count; instead, a path which allocates per message runs
+ * out of heap, and one which doesn't keeps going for ever.
+ * - it's meant for one start()/stop() window; a second start() starts over.
+ *
+ * For e.g:
+ * AllocationCounter allocations = new AllocationCounter();
+ * allocations.start();
+ * ...
+ * allocations.stop();
+ * logger.info(allocations.describe(messages)+", "+allocations.getGcCount()+" GCs");
+ */
+public class AllocationCounter {
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = threadMXBean();
+
+    private final List<GarbageCollectorMXBean> garbageCollectors = ManagementFactory.getGarbageCollectorMXBeans();
+    private long startedAllocatedBytes;
+    private long startedGcCount;
+    private long startedGcMillis;
+    private volatile long allocatedBytes = -1;
+    private volatile long gcCount;
+    private volatile long gcMillis;
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)){
+            return null;
+        }
+        com.sun.management.ThreadMXBean threadMXBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threadMXBean.isThreadAllocatedMemorySupported()){
+            return null;
+        }
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        return threadMXBean;
+    }
+
+    public static boolean isSupported() {
+        return THREAD_MX_BEAN != null;
+    }
+
+    /**
+     * @return the bytes allocated by the calling thread so far, or -1 if not supported.
+     */
+    public static long currentThreadAllocatedBytes() {
+        return THREAD_MX_BEAN != null ? THREAD_MX_BEAN.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    public void start() {
+        startedGcCount = totalGcCount();
+        startedGcMillis = totalGcMillis();
+        startedAllocatedBytes = currentThreadAllocatedBytes();
+    }
+
+    public void stop() {
+        long stoppedAllocatedBytes = currentThreadAllocatedBytes();
+        allocatedBytes = stoppedAllocatedBytes >= 0 ? stoppedAllocatedBytes - startedAllocatedBytes : -1;
+        gcCount = totalGcCount() - startedGcCount;
+        gcMillis = totalGcMillis() - startedGcMillis;
+    }
+
+    private long totalGcCount() {
+        long count = 0;
+        for (int i = 0; i < garbageCollectors.size(); i++) {
+            count += Math.max(0, garbageCollectors.get(i).getCollectionCount());
+        }
+        return count;
+    }
+
+    private long totalGcMillis() {
+        long millis = 0;
+        for (int i = 0; i < garbageCollectors.size(); i++) {
+            millis += Math.max(0, garbageCollectors.get(i).getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * @return the bytes the thread allocated in between start() and stop(), or -1 if not supported (or not stopped
+     * yet).
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    public long getGcMillis() {
+        return gcMillis;
+    }
+
+    /**
+     * @return e.g. "allocated 160000000 bytes (32.0 bytes/message)".
+     */
+    public String describe(long messages) {
+        if (allocatedBytes < 0){
+            return "allocated n/a bytes";
+        }
+        return String.format("allocated %d bytes (%.1f bytes/message)", allocatedBytes,
+                messages > 0 ? (double) allocatedBytes / messages : 0.0);
+    }
+}
@@ -0,0 +1,227 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Profiles how the snippets' threads spend their time on the locks between them, for a per-run contention report to
+ * pick the locking strategy by.
+ * The characteristics exhibited by this class are:
+ * - start() turns on the JVM's thread contention monitoring (ThreadMXBean.setThreadContentionMonitoringEnabled), so
+ * that the JVM keeps the time every thread spends BLOCKED on entering a monitor and WAITING in wait()/park(), besides
+ * the number of times it did so; stop() turns it back off unless it was on already.
+ * - in between, a sampler thread (Contention-Profiler-Thread-cs0x65) takes the ThreadInfo of every thread named
+ * *cs0x65* every sampling interval: it counts the thread's state in each sample - RUNNABLE, BLOCKED, WAITING or
+ * TIMED_WAITING - and keeps the blocked/waited counts and times and the CPU time of the last sample. A thread which
+ * halts in between two samples is reported as of the last sample it was alive for, and a virtual thread isn't
+ * reported at all (the ThreadMXBean only knows of platform threads).
+ * - the critical sections themselves are instrumented with the {@link metrics.LockProfile}s handed out by
+ * newLockProfile(): the monitor hold times and the wake-ups which found nothing to do.
+ * - report() puts the per-thread figures - counted from start(), or from the thread's start if later - and the lock
+ * profiles together.
+ *
+ * For e.g:
+ * ContentionProfiler profiler = new ContentionProfiler("producer-consumer", 10);
+ * producer.setLockProfile(profiler.newLockProfile("queue monitor"));
+ * profiler.start();
+ * ...
+ * profiler.stop();
+ * logger.info(profiler.report());
+ */
+public class ContentionProfiler {
+    public static final long DEFAULT_SAMPLE_MILLIS = 10;
+    // The threads of the snippets are all named *cs0x65*
+    static final String THREAD_NAME_TAG = "cs0x65";
+    static final String SAMPLER_THREAD_NAME = "Contention-Profiler-Thread-cs0x65";
+
+    private final String name;
+    private final long sampleMillis;
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final List<LockProfile> lockProfiles = new CopyOnWriteArrayList<>();
+    // by thread id, in the order the threads were first seen; guarded by this
+    private final Map<Long, ThreadProfile> threadProfiles = new LinkedHashMap<>();
+    private volatile boolean running;
+    private Thread sampler;
+    private boolean contentionMonitoringWasEnabled;
+    private long startedAt;
+    private long stoppedAt;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    public ContentionProfiler(String name, long sampleMillis) {
+        this.name = name;
+        this.sampleMillis = sampleMillis;
+    }
+
+    public ContentionProfiler(String name) {
+        this(name, DEFAULT_SAMPLE_MILLIS);
+    }
+
+    public LockProfile newLockProfile(String name) {
+        LockProfile lockProfile = new LockProfile(name);
+        lockProfiles.add(lockProfile);
+        return lockProfile;
+    }
+
+    public synchronized void start() {
+        if (sampler != null){
+            return;
+        }
+        if (threadMXBean.isThreadContentionMonitoringSupported()){
+            contentionMonitoringWasEnabled = threadMXBean.isThreadContentionMonitoringEnabled();
+            threadMXBean.setThreadContentionMonitoringEnabled(true);
+        }else {
+            logger.warning("Thread contention monitoring isn't supported by this JVM: no blocked/waited times");
+        }
+        startedAt = System.nanoTime();
+        // the threads alive already count from here on
+        sample(true);
+        running = true;
+        sampler = new Thread(() -> {
+            while (running){
+                try {
+                    Thread.sleep(sampleMillis);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                sample(false);
+            }
+        }, SAMPLER_THREAD_NAME);
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    public void stop() throws InterruptedException {
+        Thread stopping;
+        synchronized (this) {
+            if (sampler == null){
+                return;
+            }
+            running = false;
+            stopping = sampler;
+            sampler = null;
+        }
+        // the sampler takes the lock to sample, so it's waited for without holding it
+        stopping.join();
+        synchronized (this) {
+            sample(false);
+            stoppedAt = System.nanoTime();
+            if (threadMXBean.isThreadContentionMonitoringSupported() && !contentionMonitoringWasEnabled){
+                threadMXBean.setThreadContentionMonitoringEnabled(false);
+            }
+        }
+    }
+
+    private synchronized void sample(boolean baseline) {
+        long[] threadIds = threadMXBean.getAllThreadIds();
+        ThreadInfo[] threadInfos = threadMXBean.getThreadInfo(threadIds);
+        boolean cpuTimeSupported = threadMXBean.isThreadCpuTimeSupported() && threadMXBean.isThreadCpuTimeEnabled();
+        for (int i = 0; i < threadIds.length; i++) {
+            ThreadInfo threadInfo = threadInfos[i];
+            if (threadInfo == null || !threadInfo.getThreadName().contains(THREAD_NAME_TAG) ||
+                    threadInfo.getThreadName().equals(SAMPLER_THREAD_NAME)){
+                continue;
+            }
+            long cpuNanos = cpuTimeSupported ? threadMXBean.getThreadCpuTime(threadIds[i]) : -1;
+            ThreadProfile threadProfile = threadProfiles.get(threadIds[i]);
+            if (threadProfile == null || !threadProfile.name.equals(threadInfo.getThreadName())){
+                threadProfile = new ThreadProfile(threadInfo.getThreadName());
+                threadProfiles.put(threadIds[i], threadProfile);
+                if (baseline){
+                    threadProfile.baseline(threadInfo, cpuNanos);
+                }
+            }
+            if (!baseline){
+                threadProfile.sample(threadInfo, cpuNanos);
+            }
+        }
+    }
+
+    /**
+     * @return the per-thread states, blocked/waited counts and times and CPU times, followed by the lock profiles.
+     */
+    public synchronized String report() {
+        long elapsedNanos = (stoppedAt > startedAt ? stoppedAt : System.nanoTime()) - startedAt;
+        StringBuilder report = new StringBuilder("Contention report for "+name+" over "+
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos)+" ms, sampled every "+sampleMillis+" ms:");
+        for (ThreadProfile threadProfile : threadProfiles.values()) {
+            // a thread which halted before the first sample after start() has nothing to report
+            if (threadProfile.samples > 0){
+                report.append("\n  ").append(threadProfile);
+            }
+        }
+        for (LockProfile lockProfile : lockProfiles) {
+            report.append("\n  ").append(lockProfile);
+        }
+        return report.toString();
+    }
+
+    private static class ThreadProfile {
+        private final String name;
+        private final long[] stateSamples = new long[Thread.State.values().length];
+        private long samples;
+        // as of start(), for a thread alive by then
+        private long baselineBlockedCount;
+        private long baselineBlockedTime;
+        private long baselineWaitedCount;
+        private long baselineWaitedTime;
+        private long baselineCpuNanos;
+        // as of the last sample
+        private long blockedCount;
+        private long blockedTime;
+        private long waitedCount;
+        private long waitedTime;
+        private long cpuNanos;
+
+        private ThreadProfile(String name) {
+            this.name = name;
+        }
+
+        private void baseline(ThreadInfo threadInfo, long cpuNanos) {
+            baselineBlockedCount = threadInfo.getBlockedCount();
+            baselineBlockedTime = Math.max(0, threadInfo.getBlockedTime());
+            baselineWaitedCount = threadInfo.getWaitedCount();
+            baselineWaitedTime = Math.max(0, threadInfo.getWaitedTime());
+            baselineCpuNanos = Math.max(0, cpuNanos);
+        }
+
+        private void sample(ThreadInfo threadInfo, long cpuNanos) {
+            stateSamples[threadInfo.getThreadState().ordinal()]++;
+            samples++;
+            blockedCount = threadInfo.getBlockedCount();
+            // -1 without contention monitoring
+            blockedTime = threadInfo.getBlockedTime();
+            waitedCount = threadInfo.getWaitedCount();
+            waitedTime = threadInfo.getWaitedTime();
+            this.cpuNanos = cpuNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder description = new StringBuilder(name).append(":");
+            for (Thread.State state : Thread.State.values()) {
+                long stateCount = stateSamples[state.ordinal()];
+                if (stateCount > 0){
+                    description.append(String.format(" %s %.1f%%", state, 100.0 * stateCount / samples));
+                }
+            }
+            description.append(" of ").append(samples).append(" samples; blocked ")
+                    .append(blockedCount - baselineBlockedCount).append(" times")
+                    .append(blockedTime >= 0 ? " for "+(blockedTime - baselineBlockedTime)+" ms" : "")
+                    .append(", waited ").append(waitedCount - baselineWaitedCount).append(" times")
+                    .append(waitedTime >= 0 ? " for "+(waitedTime - baselineWaitedTime)+" ms" : "");
+            if (cpuNanos >= 0){
+                description.append(", cpu ").append(TimeUnit.NANOSECONDS.toMillis(cpuNanos - baselineCpuNanos))
+                        .append(" ms");
+            }
+            return description.toString();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * High dynamic range histogram of latencies in nanoseconds, along the lines of HdrHistogram but without the
+ * dependency.
+ * The characteristics exhibited by this class are:
+ * - log-linear buckets: the values below 128 ns get a bucket each, and every power of two above that is split into 64
+ * buckets; so any value from 0 ns to Long.MAX_VALUE is recorded with a relative error below 1/64 (~1.6%), in a fixed
+ * array of 3712 counters.
+ * - record() is lock-free and allocation-free - an increment of an AtomicLongArray slot plus the count and max - so
+ * several consumers can record into the same histogram.
+ * - percentiles are read while values keep being recorded, and are hence only as consistent as a gauge; the
+ * reported percentile is the highest value the bucket stands for (capped at the max), i.e. never under-reported.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+    // the highest shift is the one of Long.MAX_VALUE: 62 - (SUB_BUCKET_BITS - 1)
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (63 - SUB_BUCKET_BITS) * HALF_SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT){
+            return (int) value;
+        }
+        // the shift which leaves the value's top SUB_BUCKET_BITS bits, i.e. a value in [64, 128)
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT + (int) ((value >>> shift) -
+                HALF_SUB_BUCKET_COUNT);
+    }
+
+    /**
+     * @return the highest value which falls into the bucket at the given index.
+     */
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT){
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1;
+        long subBucket = (index - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)){
+            currentMax = max.get();
+        }
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile 0 to 100, e.g. 99.9
+     * @return the latency at the percentile in nanoseconds; 0 if nothing has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank){
+                return Math.min(highestValueAt(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return a copy of the bucket counts as of now, for getValueAtPercentileSince() to read the percentiles of only
+     * the latencies recorded since - e.g. per control interval, without resetting the histogram for its other readers.
+     */
+    public long[] snapshot() {
+        long[] snapshot = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Reads the percentile of the latencies recorded since the given snapshot was taken, and moves the snapshot on to
+     * now.
+     * @return the latency at the percentile in nanoseconds; 0 if nothing has been recorded since.
+     */
+    public long getValueAtPercentileSince(long[] snapshot, double percentile) {
+        long[] recorded = new long[BUCKET_COUNT];
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long current = counts.get(i);
+            recorded[i] = current - snapshot[i];
+            snapshot[i] = current;
+            count += recorded[i];
+        }
+        if (count == 0){
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += recorded[i];
+            if (seen >= rank){
+                return Math.min(highestValueAt(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        max.set(0);
+    }
+
+    /**
+     * @return "p50=&lt;micros&gt;us p99=... p99.9=... max=..." with the latencies in microseconds.
+     */
+    @Override
+    public String toString() {
+        return "p50=" + micros(getValueAtPercentile(50)) + "us p99=" + micros(getValueAtPercentile(99)) +
+                "us p99.9=" + micros(getValueAtPercentile(99.9)) + "us max=" + micros(getMax()) + "us";
+    }
+
+    private static String micros(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000.0);
+    }
+}
@@ -0,0 +1,68 @@
+package metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Instrumentation of one critical section - the synchronized block (or the locked region) the producers and consumers
+ * share a queue through, or the generators take turns through - for a {@link metrics.ContentionProfiler} report.
+ * The characteristics exhibited by this class are:
+ * - the hold time is measured from enter(), called once the lock is held (and, for a turn, once it's this thread's
+ * turn - the time spent in wait() doesn't hold the monitor), to exit(), called right before releasing it; the hold
+ * times go into a {@link metrics.LatencyHistogram}.
+ * - wokeUp() counts the wake-ups of a thread which waited for its turn or for a message, telling whether the thread
+ * found anything to do; an empty wake-up is a notification (or a spurious wake-up, or a time-out) which only cost a
+ * context switch and a trip through the lock.
+ * - it's shared by all the threads going through the critical section, the counts being LongAdders.
+ */
+public class LockProfile {
+    private final String name;
+    private final LatencyHistogram holdTimes = new LatencyHistogram();
+    private final LongAdder wakeUps = new LongAdder();
+    private final LongAdder emptyWakeUps = new LongAdder();
+
+    public LockProfile(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the time the lock was entered, to be passed to exit().
+     */
+    public long enter() {
+        return System.nanoTime();
+    }
+
+    public void exit(long enteredAt) {
+        holdTimes.record(System.nanoTime() - enteredAt);
+    }
+
+    public void wokeUp(boolean foundWork) {
+        wakeUps.increment();
+        if (!foundWork){
+            emptyWakeUps.increment();
+        }
+    }
+
+    public LatencyHistogram getHoldTimes() {
+        return holdTimes;
+    }
+
+    public long getWakeUps() {
+        return wakeUps.sum();
+    }
+
+    public long getEmptyWakeUps() {
+        return emptyWakeUps.sum();
+    }
+
+    @Override
+    public String toString() {
+        long wakeUpCount = wakeUps.sum();
+        long emptyWakeUpCount = emptyWakeUps.sum();
+        return name+": held "+holdTimes.getCount()+" times, hold{"+holdTimes+"}, "+wakeUpCount+" wake-ups of which "+
+                emptyWakeUpCount+" empty"+(wakeUpCount > 0 ? " ("+(100 * emptyWakeUpCount / wakeUpCount)+"%)" : "");
+    }
+}
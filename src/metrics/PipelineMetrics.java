@@ -0,0 +1,289 @@
+package metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.logging.Logger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * End-to-end metrics of a handoff between threads - the producers and consumers sharing a queue, or the odd/even
+ * generators passing the turn - published as a JMX MBean (cs0x65:type=PipelineMetrics,name=&lt;name&gt;) and,
+ * with startReporting(), as a periodic summary line in the log.
+ * The characteristics exhibited by this class are:
+ * - the enqueue-to-dequeue and enqueue-to-processed latencies are kept in {@link metrics.LatencyHistogram}s, from
+ * which p50/p99/p99.9/max are read.
+ * - the produced and consumed counts are LongAdders, so that many threads can count without contending; the rates
+ * are derived from them.
+ * - the queue depth is a gauge: the given IntSupplier (e.g. queue::size) is only called when the depth is read, i.e.
+ * by JMX or the summary line and never on the hot path. For a queue which isn't thread-safe the gauge is a racy
+ * but harmless read.
+ * - the consumer count is a gauge too, set with setConsumerCount() where the consumers come and go (e.g.
+ * {@link producerconsumer.ConsumerPool}::getSize); only then does the summary line show it.
+ * - the wait time-outs count the consumers which halted because no message appeared on the queue in time.
+ * - for one-at-a-time handoffs, which have no message to stamp the enqueue time on (e.g. the turn passed between the
+ * generators), markHandoff() stamps the time of each handoff; the thread taking the turn records the latency from
+ * the stamp it got back with recordConsumed().
+ */
+public class PipelineMetrics implements PipelineMetricsMBean {
+    private final String name;
+    private final LatencyHistogram enqueueToDequeue = new LatencyHistogram();
+    private final LatencyHistogram enqueueToProcessed = new LatencyHistogram();
+    private final LongAdder produced = new LongAdder();
+    private final LongAdder consumed = new LongAdder();
+    private final LongAdder waitTimeouts = new LongAdder();
+    private volatile IntSupplier queueDepth = () -> 0;
+    // Defaults to null i.e. a fixed number of consumers, not reported
+    private volatile IntSupplier consumerCount;
+    private volatile long handedOffAt;
+    private volatile long startedAt = System.nanoTime();
+    private ScheduledExecutorService reporter;
+    private ObjectName objectName;
+    // the counts as of the last summary line, to log the rates over the last period
+    private long lastProduced;
+    private long lastConsumed;
+    private long lastReportedAt = startedAt;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    public PipelineMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setQueueDepth(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    public void setConsumerCount(IntSupplier consumerCount) {
+        this.consumerCount = consumerCount;
+    }
+
+    public void recordProduced() {
+        produced.increment();
+    }
+
+    public void recordProduced(long count) {
+        produced.add(count);
+    }
+
+    /**
+     * Records a message consumed without a known enqueue time, i.e. counts it only.
+     */
+    public void recordConsumed() {
+        consumed.increment();
+    }
+
+    /**
+     * Records a message consumed, with the times at which it was enqueued, taken off the queue and done processing.
+     */
+    public void recordConsumed(long enqueuedAt, long dequeuedAt, long processedAt) {
+        consumed.increment();
+        enqueueToDequeue.record(dequeuedAt - enqueuedAt);
+        enqueueToProcessed.record(processedAt - enqueuedAt);
+    }
+
+    public void recordWaitTimeout() {
+        waitTimeouts.increment();
+    }
+
+    /**
+     * Stamps the given time as the one at which the calling thread, having just taken its turn, hands it off to the
+     * other thread; to be called while still holding the lock the turn is passed with.
+     * @return the stamp of the previous handoff, i.e. of the turn just taken; 0 for the very first turn.
+     */
+    public long markHandoff(long now) {
+        long previous = handedOffAt;
+        handedOffAt = now;
+        produced.increment();
+        return previous;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     */
+    public synchronized void register() {
+        if (objectName != null){
+            return;
+        }
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("cs0x65:type=PipelineMetrics,name=" + ObjectName.quote(name));
+            mBeanServer.registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            logger.warning("Unable to register the metrics with JMX: "+e);
+        }
+    }
+
+    public synchronized void unregister() {
+        if (objectName == null){
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            logger.warning("Unable to unregister the metrics from JMX: "+e);
+        }
+        objectName = null;
+    }
+
+    /**
+     * Logs a summary line every period on a daemon thread, until stopReporting().
+     */
+    public synchronized void startReporting(long period, TimeUnit unit) {
+        if (reporter != null){
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Metrics-Reporter-cs0x65");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> logger.info(periodSummary()), period, period, unit);
+    }
+
+    public synchronized void stopReporting() {
+        if (reporter != null){
+            reporter.shutdown();
+            reporter = null;
+        }
+    }
+
+    private synchronized String periodSummary() {
+        long now = System.nanoTime();
+        long producedNow = produced.sum();
+        long consumedNow = consumed.sum();
+        String summary = name + " [last " + TimeUnit.NANOSECONDS.toMillis(now - lastReportedAt) + " ms]: produced=" +
+                producedNow + " (" + perSecond(producedNow - lastProduced, now - lastReportedAt) + "/s), consumed=" +
+                consumedNow + " (" + perSecond(consumedNow - lastConsumed, now - lastReportedAt) + "/s), " +
+                latencies();
+        lastProduced = producedNow;
+        lastConsumed = consumedNow;
+        lastReportedAt = now;
+        return summary;
+    }
+
+    private String latencies() {
+        return "depth=" + getQueueDepth() + (consumerCount != null ? ", consumers=" + getConsumerCount() : "") +
+                ", waitTimeouts=" + getWaitTimeouts() + ", enqueueToDequeue{" +
+                enqueueToDequeue + "}, enqueueToProcessed{" + enqueueToProcessed + "}";
+    }
+
+    private static long perSecond(long count, long elapsedNanos) {
+        return elapsedNanos > 0 ? count * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+    }
+
+    public LatencyHistogram getEnqueueToDequeue() {
+        return enqueueToDequeue;
+    }
+
+    public LatencyHistogram getEnqueueToProcessed() {
+        return enqueueToProcessed;
+    }
+
+    @Override
+    public long getProducedCount() {
+        return produced.sum();
+    }
+
+    @Override
+    public long getConsumedCount() {
+        return consumed.sum();
+    }
+
+    @Override
+    public long getProducedPerSecond() {
+        return perSecond(produced.sum(), System.nanoTime() - startedAt);
+    }
+
+    @Override
+    public long getConsumedPerSecond() {
+        return perSecond(consumed.sum(), System.nanoTime() - startedAt);
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public int getConsumerCount() {
+        IntSupplier count = consumerCount;
+        return count != null ? count.getAsInt() : 0;
+    }
+
+    @Override
+    public long getWaitTimeouts() {
+        return waitTimeouts.sum();
+    }
+
+    @Override
+    public long getEnqueueToDequeueP50Nanos() {
+        return enqueueToDequeue.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getEnqueueToDequeueP99Nanos() {
+        return enqueueToDequeue.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getEnqueueToDequeueP999Nanos() {
+        return enqueueToDequeue.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getEnqueueToDequeueMaxNanos() {
+        return enqueueToDequeue.getMax();
+    }
+
+    @Override
+    public long getEnqueueToProcessedP50Nanos() {
+        return enqueueToProcessed.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getEnqueueToProcessedP99Nanos() {
+        return enqueueToProcessed.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getEnqueueToProcessedP999Nanos() {
+        return enqueueToProcessed.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public long getEnqueueToProcessedMaxNanos() {
+        return enqueueToProcessed.getMax();
+    }
+
+    /**
+     * @return the counts, average rates and latencies since the metrics were created or reset.
+     */
+    @Override
+    public String getSummary() {
+        return name + ": produced=" + getProducedCount() + " (" + getProducedPerSecond() + "/s), consumed=" +
+                getConsumedCount() + " (" + getConsumedPerSecond() + "/s), " + latencies();
+    }
+
+    @Override
+    public synchronized void reset() {
+        enqueueToDequeue.reset();
+        enqueueToProcessed.reset();
+        produced.reset();
+        consumed.reset();
+        waitTimeouts.reset();
+        startedAt = System.nanoTime();
+        lastProduced = 0;
+        lastConsumed = 0;
+        lastReportedAt = startedAt;
+    }
+}
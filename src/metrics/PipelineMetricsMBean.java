@@ -0,0 +1,41 @@
+package metrics;
+
+/**
+ * The JMX view of a {@link metrics.PipelineMetrics}; the latencies are in nanoseconds and the rates are averaged
+ * since the metrics were created (or last reset).
+ */
+public interface PipelineMetricsMBean {
+    long getProducedCount();
+
+    long getConsumedCount();
+
+    long getProducedPerSecond();
+
+    long getConsumedPerSecond();
+
+    int getQueueDepth();
+
+    int getConsumerCount();
+
+    long getWaitTimeouts();
+
+    long getEnqueueToDequeueP50Nanos();
+
+    long getEnqueueToDequeueP99Nanos();
+
+    long getEnqueueToDequeueP999Nanos();
+
+    long getEnqueueToDequeueMaxNanos();
+
+    long getEnqueueToProcessedP50Nanos();
+
+    long getEnqueueToProcessedP99Nanos();
+
+    long getEnqueueToProcessedP999Nanos();
+
+    long getEnqueueToProcessedMaxNanos();
+
+    String getSummary();
+
+    void reset();
+}
@@ -0,0 +1,179 @@
+package producerconsumer;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link producerconsumer.MessageSource} of the String records read off a ReadableByteChannel - a file, a named pipe,
+ * stdin or a socket - for a {@link producerconsumer.Producer} to publish an unbounded feed.
+ * The characteristics exhibited by this class are:
+ * - the channel is read into a single direct buffer, allocated once and reused for the whole stream: the records are
+ * split off the buffer incrementally as they're read, and whatever's left of a record at the end of the buffer is
+ * compacted to its front for the next read to complete it. Hence the memory used doesn't depend on the size of the
+ * input, and the reads are as large as the buffer (one syscall per buffer rather than per record).
+ * - the records are either NEWLINE delimited ("\n", with a trailing "\r" dropped) or LENGTH_PREFIXED (a 4 byte big
+ * endian length followed by that many bytes), and are decoded from UTF-8.
+ * - a record has to fit into the buffer; a longer one fails the read with an IOException.
+ * - next() returns null on the EOF of the channel, upon which the producer sends the closing message. A last
+ * newline delimited record without a newline is still returned, whereas a truncated length prefixed record fails
+ * the read with an EOFException.
+ * - a record that reads the same as the closing message (e.g. "-1") closes the stream early, just as it would had it
+ * been produced by a MessageFactory.
+ *
+ * Not thread-safe: a source belongs to one producer.
+ */
+public class ChannelRecordSource implements MessageSource<String>, Closeable {
+    public enum Framing {
+        NEWLINE,
+        LENGTH_PREFIXED
+    }
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final Framing framing;
+    private final ByteBuffer buffer;
+    // for decoding a record off the direct buffer
+    private final byte[] recordBytes;
+    private boolean endOfStream;
+    private long recordCount;
+    private long byteCount;
+
+    public ChannelRecordSource(ReadableByteChannel channel, Framing framing, int bufferSize) {
+        this.channel = channel;
+        this.framing = framing;
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.recordBytes = new byte[bufferSize];
+        // nothing read yet
+        buffer.flip();
+    }
+
+    public ChannelRecordSource(ReadableByteChannel channel, Framing framing) {
+        this(channel, framing, DEFAULT_BUFFER_SIZE);
+    }
+
+    public static ChannelRecordSource ofFile(Path path, Framing framing) throws IOException {
+        return new ChannelRecordSource(FileChannel.open(path, StandardOpenOption.READ), framing);
+    }
+
+    public static ChannelRecordSource ofStdin(Framing framing) {
+        return new ChannelRecordSource(Channels.newChannel(System.in), framing);
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    @Override
+    public String next() throws IOException {
+        String record = framing == Framing.NEWLINE ? nextLine() : nextLengthPrefixed();
+        if (record != null){
+            recordCount++;
+        }
+        return record;
+    }
+
+    private String nextLine() throws IOException {
+        int scanned = 0;
+        while (true){
+            for (int i = buffer.position() + scanned; i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n'){
+                    int length = i - buffer.position();
+                    String line = decode(length > 0 && buffer.get(i - 1) == '\r' ? length - 1 : length);
+                    buffer.position(i + 1);
+                    return line;
+                }
+            }
+            scanned = buffer.remaining();
+            if (!fill()){
+                // the last line may not end with a newline
+                if (buffer.hasRemaining()){
+                    String line = decode(buffer.remaining());
+                    buffer.position(buffer.limit());
+                    return line;
+                }
+                return null;
+            }
+        }
+    }
+
+    private String nextLengthPrefixed() throws IOException {
+        while (buffer.remaining() < Integer.BYTES){
+            if (!fill()){
+                if (buffer.hasRemaining()){
+                    throw new EOFException("Truncated length prefix at the end of the stream");
+                }
+                return null;
+            }
+        }
+        int length = buffer.getInt(buffer.position());
+        if (length < 0 || length > buffer.capacity() - Integer.BYTES){
+            throw new IOException("Record of "+length+" bytes doesn't fit into the buffer of "+buffer.capacity()+
+                    " bytes");
+        }
+        while (buffer.remaining() < Integer.BYTES + length){
+            if (!fill()){
+                throw new EOFException("Truncated record of "+length+" bytes at the end of the stream");
+            }
+        }
+        buffer.position(buffer.position() + Integer.BYTES);
+        String record = decode(length);
+        buffer.position(buffer.position() + length);
+        return record;
+    }
+
+    /**
+     * Reads more of the channel after what's left in the buffer, compacting it first.
+     * @return false on the end of the stream.
+     */
+    private boolean fill() throws IOException {
+        if (endOfStream){
+            return false;
+        }
+        if (buffer.position() == 0 && buffer.limit() == buffer.capacity()){
+            // the buffer is full of a single, incomplete record
+            throw new IOException("Record doesn't fit into the buffer of "+buffer.capacity()+" bytes");
+        }
+        buffer.compact();
+        int read;
+        try {
+            read = channel.read(buffer);
+        } finally {
+            buffer.flip();
+        }
+        if (read < 0){
+            endOfStream = true;
+            return false;
+        }
+        byteCount += read;
+        return true;
+    }
+
+    private String decode(int length) {
+        buffer.get(buffer.position(), recordBytes, 0, length);
+        return new String(recordBytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[framing=" + framing + ", records=" + recordCount + ", bytes=" +
+                byteCount + "]";
+    }
+}
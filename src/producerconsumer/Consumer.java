@@ -1,6 +1,29 @@
 package producerconsumer;
 
+import eventlog.Event;
+import eventlog.EventRecorder;
+import metrics.LockProfile;
+import metrics.PipelineMetrics;
+import producerconsumer.waitstrategy.BackoffParkWaitStrategy;
+import producerconsumer.waitstrategy.BlockingWaitStrategy;
+import producerconsumer.waitstrategy.WaitStrategy;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
 import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -9,50 +32,770 @@ import java.util.logging.Logger;
  * - TIME_TO_WAIT_BEFORE_HALTING interval: which defines the period to wait for new message on the queue from
  * the producer; once this window has passed by and no new message has been seen then the queue halts owing to the
  * time-out.
- * - consumes the closing message with value "-1" from the producer and halts the session.
+ * - consumes the closing message from the producer and halts the session; the closing message is defined by the
+ * {@link producerconsumer.EndOfStreamMarker} given to the consumer and is "-1" for the String messages produced by
+ * the snippets (see {@link #ofStrings(Queue)}).
+ * - it waits for a message on an empty queue as per its {@link producerconsumer.waitstrategy.WaitStrategy}, set with
+ * setWaitStrategy(): from busy spinning to blocking on the queue's monitor. The idle time is measured with
+ * System.nanoTime() and checked against TIME_TO_WAIT_BEFORE_HALTING under every strategy.
+ * By default it blocks on the queue's monitor until the producer notifies it.
+ * - when the queue is a {@link producerconsumer.RingBufferQueue}, it doesn't synchronize on the queue at all: it polls
+ * the ring and, by default, when it's empty spins for a while, then yields and finally parks for growing intervals.
+ * It also logs every consumed message at FINE rather than INFO level.
+ * - when the queue is a java.util.concurrent.BlockingQueue, it doesn't synchronize on the queue either: the queue
+ * guards itself with its own ReentrantLock and Conditions, and the blocking wait strategy blocks in the queue's
+ * poll(timeout) rather than in wait(). This is what to use with virtual threads (see main.ExecutionMode), since
+ * waiting inside a synchronized block pins the virtual thread's carrier thread.
+ * - when provided a batch size > 1 with setBatchSize(), it drains all the messages available on the queue (up to the
+ * batch size) within a single synchronized block and processes the batch after releasing the monitor; this amortizes
+ * the cost of acquiring the monitor over the whole batch instead of paying it for every message.
+ * If a linger time is set with setLingerMillis(), then a batch that isn't full yet is held back for at most that long
+ * to let more messages arrive (not on a ring buffer queue nor a BlockingQueue, as lingering takes the monitor).
+ * The drain stops at the closing message: the messages before it in the batch are processed and the consumer halts
+ * after them, while anything behind it stays on the queue.
+ * - when provided a {@link producerconsumer.MessageHandler} with setMessageHandler(), it hands every consumed message
+ * (other than the closing message) to the handler, outside of any synchronized block.
+ * - on a bounded queue, it notifies after taking messages off the queue, so that a producer waiting for space as per
+ * its {@link producerconsumer.backpressure.BackpressurePolicy} gets going again right away.
+ * - when provided an {@link eventlog.EventRecorder} with setEventRecorder(), it records a CONSUMED event (with the
+ * number of messages consumed before) per message, and a CONSUMED_BATCH event per batch, rather than logging them;
+ * the recorder formats and logs them off the consumer thread.
+ * - when provided {@link metrics.PipelineMetrics} with setMetrics(), it counts every message consumed, records the
+ * enqueue-to-dequeue and enqueue-to-processed latencies of every {@link producerconsumer.TimestampedMessage} (the
+ * dequeue time being taken once per batch) and counts halting on time-out as a wait time-out.
+ * - when provided a java.util.concurrent.ForkJoinPool with setProcessingPool(), it leaves the message handling to the
+ * pool's work-stealing workers: it keeps draining batches (of a size adapting in between the pool's parallelism and
+ * the batch size - FORK_JOIN_BATCH_SIZE unless set - as the queue fills up or runs dry) and submits each batch as a
+ * task which splits itself in halves down to a few slices per worker; up to MAX_IN_FLIGHT_BATCHES batches are
+ * processed while it drains the next one. When provided an ordering key as well with setOrderingKey(), each batch is
+ * split by the key's hash into lanes processed one message after the other instead - so the messages of the same key
+ * are handled in the order they were consumed - and a batch is only submitted once the previous one is done.
+ * The closing message is never handed to the pool; the consumer halts only once every batch in flight has been
+ * processed, and counts a message as consumed once its batch has been. A batch the message handler fails on (throws
+ * a RuntimeException for) is counted as failed as a whole - how far it got is unknown - and the consumer carries on
+ * with the batches still in flight rather than dying.
+ * - when provided a {@link producerconsumer.TimingWheel} with setTimingWheel(), it leaves keeping the idle time-out
+ * to the wheel: it re-arms its time-out on the wheel for every message (every batch) it takes - a single volatile
+ * write, with no System.nanoTime() - and the wheel wakes it up (unparks it and notifies the queue's monitor) once
+ * TIME_TO_WAIT_BEFORE_HALTING has passed by without a message, to within the wheel's tick. Its own waits are only
+ * bounded by the time left as per the wheel's ticks, plus a tick in case it misses the wake-up (as it would, waiting
+ * in a BlockingQueue's poll()).
+ * - the idle time-out defaults to TIME_TO_WAIT_BEFORE_HALTING and can be set with setIdleTimeoutMillis(). When
+ * provided a halt-on-idle check with setHaltOnIdle() (e.g. by a {@link producerconsumer.ConsumerPool}, for which an
+ * idle consumer is one to retire), the consumer only halts on time-out if the check says so; otherwise it keeps
+ * waiting for another idle time-out.
+ * - when provided a {@link metrics.LockProfile} with setLockProfile(), it measures how long it holds the queue's
+ * monitor every time it takes a message (or drains a batch), lingering included, and tells every wake-up from idling
+ * on an empty queue which found a message from one which didn't - for a {@link metrics.ContentionProfiler} report.
+ * - on halting, it logs the number of messages consumed and the rate (messages/sec) at which it consumed them,
+ * measured from the first to the last consumed message.
  */
-public class Consumer implements Runnable{
-    private  Queue<String> queue;
+public class Consumer<T> implements Runnable{
+    private  Queue<T> queue;
+    private final EndOfStreamMarker<T> endOfStream;
+    private final boolean bounded;
     private Logger logger = Logger.getLogger(getClass().getName());
     // The time in milliseconds the consumer will wait for a message to appear
     // on the queue; once this interval is elapsed and if no message ends up appearing
     // on the queue, the consumer will simply shut down.
     public static final long TIME_TO_WAIT_BEFORE_HALTING = 90 * 1000;
+    // Number of failed attempts on a ring buffer queue before a producer or consumer stops spinning
+    static final int SPIN_TRIES = 1000;
+    static final int YIELD_TRIES = 100;
+    // The largest batch drained for a processing pool when no batch size is set
+    public static final int FORK_JOIN_BATCH_SIZE = 1024;
+    static final int MAX_IN_FLIGHT_BATCHES = 4;
+    // The slices of a batch per worker of the processing pool, for the workers to steal from one another
+    static final int SLICES_PER_WORKER = 4;
+
+    // Defaults to 1 i.e. no batching
+    private int batchSize = 1;
+    // Defaults to 0 milliseconds i.e. a batch is consumed as soon as there's at least one message
+    private long lingerMillis;
+    // Defaults to null i.e. the messages are only logged
+    private MessageHandler<T> messageHandler;
+    // Defaults to BlockingWaitStrategy, or BackoffParkWaitStrategy on a ring buffer queue
+    private WaitStrategy waitStrategy;
+    // Defaults to null i.e. the consumed messages are logged right away
+    private EventRecorder eventRecorder;
+    // Defaults to null i.e. no metrics
+    private PipelineMetrics metrics;
+    // Defaults to null i.e. the messages are handled on the consumer thread
+    private ForkJoinPool processingPool;
+    // Defaults to null i.e. the messages processed in parallel are handled in no particular order
+    private Function<? super T, ?> orderingKey;
+    // Defaults to null i.e. the consumer measures its idle time itself
+    private TimingWheel timingWheel;
+    // Defaults to null i.e. neither the monitor hold times nor the wake-ups are profiled
+    private LockProfile lockProfile;
+    // Defaults to TIME_TO_WAIT_BEFORE_HALTING
+    private long idleTimeoutMillis = TIME_TO_WAIT_BEFORE_HALTING;
+    // Defaults to null i.e. the consumer halts on every idle time-out
+    private BooleanSupplier haltOnIdle;
+
+    // false for the ring buffer queues and the BlockingQueues, which need no synchronized(queue)
+    private final boolean synchronizedAccess;
+    // non-null if the queue is a BlockingQueue
+    private final BlockingQueue<T> blockingQueue;
+    // a message taken by idle() while blocking on a BlockingQueue, to be picked up by the next attempt
+    private T pending;
+    // Defaults to FINE on a ring buffer queue, INFO otherwise
+    private Level messageLogLevel;
+    private final BooleanSupplier takeOneAttempt = this::takeOne;
+    private final BooleanSupplier drainBatchAttempt = this::drainBatch;
+    // the message taken by the last takeOne()
+    private T taken;
+    private final List<T> batch = new ArrayList<>();
+    // the most messages drained at once: the batch size, unless adapted for a processing pool
+    private int drainLimit;
+    // the batches submitted to the processing pool, oldest first
+    private final Deque<BatchTask> inFlight = new ArrayDeque<>();
+    // whether drainBatch() has come across the closing message
+    private boolean closed;
+    // the idle time-out on the timing wheel, if any
+    private TimingWheel.Timeout idleTimeout;
+
+    private long consumedCount;
+    private long firstConsumedAt;
+    private long lastConsumedAt;
+    // the messages of the batches the processing pool failed on
+    private long failedCount;
 
 
-    public Consumer(Queue<String> queue) {
+    @SuppressWarnings("unchecked")
+    public Consumer(Queue<T> queue, EndOfStreamMarker<T> endOfStream) {
         this.queue = queue;
+        this.endOfStream = endOfStream;
+        this.bounded = isBounded(queue);
+        boolean ringBuffer = queue instanceof RingBufferQueue;
+        this.blockingQueue = queue instanceof BlockingQueue ? (BlockingQueue<T>) queue : null;
+        this.synchronizedAccess = !ringBuffer && blockingQueue == null;
+        // the lock-free modes are there to measure throughput, the console would only get in the way
+        this.messageLogLevel = ringBuffer ? Level.FINE : Level.INFO;
+        this.waitStrategy = ringBuffer ? new BackoffParkWaitStrategy() : new BlockingWaitStrategy();
+    }
+
+    static boolean isBounded(Queue<?> queue) {
+        if (queue instanceof BlockingQueue){
+            return ((BlockingQueue<?>) queue).remainingCapacity() != Integer.MAX_VALUE;
+        }
+        return !(queue instanceof LinkedList || queue instanceof ArrayDeque || queue instanceof ConcurrentLinkedQueue ||
+                queue instanceof JournalQueue);
+    }
+
+    /**
+     * @return a consumer of the String messages produced by {@link producerconsumer.Producer#ofStrings(Queue)},
+     * closed by "-1".
+     */
+    public static Consumer<String> ofStrings(Queue<String> queue) {
+        return new Consumer<>(queue, EndOfStreamMarker.STRINGS);
+    }
+
+    /**
+     * @return a consumer of the messages produced by {@link producerconsumer.Producer#ofTimestampedStrings}.
+     */
+    public static Consumer<TimestampedMessage<String>> ofTimestampedStrings(Queue<TimestampedMessage<String>> queue) {
+        return new Consumer<>(queue, TimestampedMessage.marker(EndOfStreamMarker.STRINGS));
+    }
+
+    public long getConsumedCount() {
+        return consumedCount;
+    }
+
+    public long getFailedCount() {
+        return failedCount;
+    }
+
+    public long getFirstConsumedAt() {
+        return firstConsumedAt;
+    }
+
+    public long getLastConsumedAt() {
+        return lastConsumedAt;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1){
+            throw new IllegalArgumentException("The batch size needs to be at least 1. Received batchSize = "+
+                    batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public MessageHandler<T> getMessageHandler() {
+        return messageHandler;
+    }
+
+    public void setMessageHandler(MessageHandler<T> messageHandler) {
+        this.messageHandler = messageHandler;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    public EventRecorder getEventRecorder() {
+        return eventRecorder;
+    }
+
+    public void setEventRecorder(EventRecorder eventRecorder) {
+        this.eventRecorder = eventRecorder;
+    }
+
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Level getMessageLogLevel() {
+        return messageLogLevel;
+    }
+
+    /**
+     * Sets the level every consumed message is logged at; the "queue is empty" warnings are only logged at INFO.
+     */
+    public void setMessageLogLevel(Level messageLogLevel) {
+        this.messageLogLevel = messageLogLevel;
+    }
+
+    public ForkJoinPool getProcessingPool() {
+        return processingPool;
+    }
+
+    public void setProcessingPool(ForkJoinPool processingPool) {
+        this.processingPool = processingPool;
+    }
+
+    public Function<? super T, ?> getOrderingKey() {
+        return orderingKey;
+    }
+
+    /**
+     * Keeps the messages of the same key - as told by the given function - in order when they're processed by the
+     * processing pool.
+     */
+    public void setOrderingKey(Function<? super T, ?> orderingKey) {
+        this.orderingKey = orderingKey;
+    }
+
+    public TimingWheel getTimingWheel() {
+        return timingWheel;
+    }
+
+    public void setTimingWheel(TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    public LockProfile getLockProfile() {
+        return lockProfile;
+    }
+
+    public void setLockProfile(LockProfile lockProfile) {
+        this.lockProfile = lockProfile;
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public BooleanSupplier getHaltOnIdle() {
+        return haltOnIdle;
+    }
+
+    /**
+     * Sets the check asked on every idle time-out whether to halt; false makes the consumer wait for another idle
+     * time-out instead.
+     */
+    public void setHaltOnIdle(BooleanSupplier haltOnIdle) {
+        this.haltOnIdle = haltOnIdle;
+    }
+
+    public long getLingerMillis() {
+        return lingerMillis;
+    }
+
+    public void setLingerMillis(long lingerMillis) {
+        this.lingerMillis = lingerMillis;
     }
 
     @Override
     public void run() {
-        String message = "";
-        logger.info("Consumer starting...");
-        while (message != "-1"){
-            int timeInWaiting = 0;
+        logger.info("Consumer starting with "+waitStrategy.getClass().getSimpleName()+
+                (batchSize > 1 ? ", batch size "+batchSize+" and linger "+lingerMillis+" ms" : "")+
+                (processingPool != null ? ", processing on "+processingPool.getParallelism()+" workers"+
+                        (orderingKey != null ? " in key order" : "") : "")+
+                (timingWheel != null ? ", idle time-out on the timing wheel" : "")+"...");
+        if (timingWheel == null){
+            consume();
+            return;
+        }
+        Thread consumerThread = Thread.currentThread();
+        idleTimeout = timingWheel.newTimeout(() -> wakeUp(consumerThread));
+        try {
+            consume();
+        } finally {
+            idleTimeout.cancel();
+        }
+    }
+
+    private void consume() {
+        drainLimit = batchSize;
+        if (processingPool != null){
+            drainLimit = Math.min(processingPool.getParallelism(), maxDrainLimit());
+            runBatched();
+            return;
+        }
+        if (batchSize > 1){
+            runBatched();
+            return;
+        }
+        while (!endOfStream.isMarker(taken)){
+            if (!await(takeOneAttempt)){
+                logThroughput();
+                return;
+            }
+            long dequeuedAt = metrics != null ? System.nanoTime() : 0;
+            logConsumed(taken);
+            process(taken, dequeuedAt);
+        }
+        logger.info("Consumer halting: producer finished generating all the messages...");
+        logThroughput();
+    }
+
+    private void runBatched() {
+        while (!closed){
+            if (!await(drainBatchAttempt)){
+                awaitInFlight();
+                logThroughput();
+                return;
+            }
+            if (batch.isEmpty()){
+                // the closing message came alone
+                continue;
+            }
+            long dequeuedAt = metrics != null ? System.nanoTime() : 0;
+            if (eventRecorder != null){
+                eventRecorder.record(Event.CONSUMED_BATCH, batch.size());
+            }else {
+                logger.info("Consumed batch of "+batch.size()+" messages");
+            }
+            if (processingPool != null){
+                for (T message : batch) {
+                    logConsumed(message);
+                }
+                submitBatch(dequeuedAt);
+            }else {
+                for (T message : batch) {
+                    logConsumed(message);
+                    process(message, dequeuedAt);
+                }
+            }
+            batch.clear();
+        }
+        awaitInFlight();
+        logger.info("Consumer halting: producer finished generating all the messages...");
+        logThroughput();
+    }
+
+    /**
+     * Keeps making the given attempt to take messages off the queue until it succeeds, pausing as per the wait
+     * strategy in between; the idle time is measured with System.nanoTime().
+     * @return false if no message appeared on the queue for the idle time-out.
+     */
+    private boolean await(BooleanSupplier attempt) {
+        if (idleTimeout != null){
+            return awaitOnTimingWheel(attempt);
+        }
+        if (attempt.getAsBoolean()){
+            return true;
+        }
+        if (messageLogLevel == Level.INFO){
+            logger.warning("Consumer waiting: queue is empty!");
+        }
+        long idleSince = System.nanoTime();
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        for (int idleAttempt = 0; ; idleAttempt++) {
+            long timeInWaiting = System.nanoTime() - idleSince;
+            if (timeInWaiting >= timeoutNanos){
+                if (haltOnIdle != null && !haltOnIdle.getAsBoolean()){
+                    // not to halt yet: wait for another idle time-out
+                    idleSince = System.nanoTime();
+                    continue;
+                }
+                logger.warning("Consumer halting: no message appeared on the queue for last "+
+                        TimeUnit.NANOSECONDS.toSeconds(timeInWaiting) + " seconds!");
+                if (metrics != null){
+                    metrics.recordWaitTimeout();
+                }
+                return false;
+            }
+            try {
+                idle(idleAttempt, timeoutNanos - timeInWaiting);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            if (attemptAfterWakeUp(attempt)){
+                return true;
+            }
+        }
+    }
+
+    /**
+     * As await(), but with the idle time-out kept by the timing wheel rather than measured here.
+     */
+    private boolean awaitOnTimingWheel(BooleanSupplier attempt) {
+        idleTimeout.rearm(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        if (attempt.getAsBoolean()){
+            return true;
+        }
+        if (messageLogLevel == Level.INFO){
+            logger.warning("Consumer waiting: queue is empty!");
+        }
+        for (int idleAttempt = 0; ; idleAttempt++) {
+            if (idleTimeout.isExpired()){
+                if (haltOnIdle != null && !haltOnIdle.getAsBoolean()){
+                    // not to halt yet: wait for another idle time-out
+                    idleTimeout.rearm(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+                    continue;
+                }
+                logger.warning("Consumer halting: no message appeared on the queue for last "+
+                        TimeUnit.MILLISECONDS.toSeconds(idleTimeoutMillis) + " seconds!");
+                if (metrics != null){
+                    metrics.recordWaitTimeout();
+                }
+                return false;
+            }
+            try {
+                idle(idleAttempt, idleTimeout.getRemainingNanos() + timingWheel.getTickNanos());
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            if (attemptAfterWakeUp(attempt)){
+                return true;
+            }
+        }
+    }
+
+    private boolean attemptAfterWakeUp(BooleanSupplier attempt) {
+        boolean foundWork = attempt.getAsBoolean();
+        if (lockProfile != null){
+            lockProfile.wokeUp(foundWork);
+        }
+        return foundWork;
+    }
+
+    /**
+     * Runs on the timing wheel's thread once the idle time-out has passed by.
+     */
+    private void wakeUp(Thread consumerThread) {
+        LockSupport.unpark(consumerThread);
+        if (synchronizedAccess){
             synchronized (queue){
-                while (queue.peek() == null){
+                queue.notifyAll();
+            }
+        }
+    }
+
+    private void idle(int idleAttempt, long remainingNanos) throws InterruptedException {
+        if (blockingQueue != null && waitStrategy.isBlocking()){
+            // block on the queue's own lock and condition rather than on its monitor
+            pending = blockingQueue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+        }else {
+            waitStrategy.idle(queue, idleAttempt, remainingNanos, synchronizedAccess);
+        }
+    }
+
+    private boolean takeOne() {
+        if (pending != null){
+            taken = pending;
+            pending = null;
+            return true;
+        }
+        if (!synchronizedAccess){
+            taken = queue.poll();
+            return taken != null;
+        }
+        synchronized (queue){
+            long enteredAt = lockProfile != null ? lockProfile.enter() : 0;
+            taken = queue.poll();
+            if (taken != null && bounded){
+                // wake up a producer waiting for space
+                queue.notifyAll();
+            }
+            exitLock(enteredAt);
+        }
+        return taken != null;
+    }
+
+    private boolean drainBatch() {
+        if (pending != null){
+            if (endOfStream.isMarker(pending)){
+                closed = true;
+            }else {
+                batch.add(pending);
+            }
+            pending = null;
+        }
+        if (closed){
+            return true;
+        }
+        if (!synchronizedAccess){
+            drainAvailable();
+            return !batch.isEmpty() || closed;
+        }
+        synchronized (queue){
+            long enteredAt = lockProfile != null ? lockProfile.enter() : 0;
+            if (queue.peek() == null){
+                exitLock(enteredAt);
+                return false;
+            }
+            if (lingerMillis > 0){
+                // give the producer a chance to fill up the batch; wait() releases the monitor meanwhile
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                long remaining;
+                while (queue.size() < drainLimit && (remaining = deadline - System.nanoTime()) > 0){
                     try {
-                        logger.warning("Consumer waiting: queue is empty!");
-                        long startTime = System.currentTimeMillis();
-                        // wait() is a blocking method.
-                        queue.wait(30 * 1000);
-                        long elapsedTime = System.currentTimeMillis() - startTime;
-                        timeInWaiting += elapsedTime;
-                        logger.info("timeInWaiting = "+timeInWaiting);
-                        if (timeInWaiting >= TIME_TO_WAIT_BEFORE_HALTING){
-                            logger.warning("Consumer halting: no message appeared on the queue for last "+
-                                    (timeInWaiting / 1000) + " seconds!");
-                            return;
-                        }
+                        TimeUnit.NANOSECONDS.timedWait(queue, remaining);
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
                 }
-                message = queue.poll();
             }
-            logger.info("Consumed: "+message);
+            drainAvailable();
+            if (bounded){
+                // wake up a producer waiting for space
+                queue.notifyAll();
+            }
+            exitLock(enteredAt);
+        }
+        return !batch.isEmpty() || closed;
+    }
+
+    private void exitLock(long enteredAt) {
+        if (lockProfile != null){
+            lockProfile.exit(enteredAt);
+        }
+    }
+
+    private void drainAvailable() {
+        T message;
+        while (batch.size() < drainLimit && (message = queue.poll()) != null){
+            if (endOfStream.isMarker(message)){
+                closed = true;
+                break;
+            }
+            batch.add(message);
+        }
+    }
+
+    private void logConsumed(T message) {
+        if (eventRecorder != null){
+            if (!endOfStream.isMarker(message)){
+                eventRecorder.record(Event.CONSUMED, consumedCount);
+            }
+        }else if (logger.isLoggable(messageLogLevel)){
+            logger.log(messageLogLevel, "Consumed: "+message);
+        }
+    }
+
+    private void process(T message, long dequeuedAt) {
+        if (endOfStream.isMarker(message)){
+            return;
+        }
+        if (messageHandler != null){
+            messageHandler.handle(message);
+        }
+        lastConsumedAt = System.nanoTime();
+        if (consumedCount++ == 0){
+            firstConsumedAt = lastConsumedAt;
+        }
+        recordConsumed(message, dequeuedAt, lastConsumedAt);
+    }
+
+    private void recordConsumed(T message, long dequeuedAt, long processedAt) {
+        if (metrics != null){
+            if (message instanceof TimestampedMessage){
+                metrics.recordConsumed(((TimestampedMessage<?>) message).getEnqueuedAt(), dequeuedAt, processedAt);
+            }else {
+                metrics.recordConsumed();
+            }
+        }
+    }
+
+    private int maxDrainLimit() {
+        return batchSize > 1 ? batchSize : FORK_JOIN_BATCH_SIZE;
+    }
+
+    /**
+     * Hands a copy of the batch over to the processing pool, once there's room for another batch in flight, and
+     * adapts the size of the next batch: doubled if this one was full (the queue had more), halved if it was mostly
+     * empty.
+     */
+    private void submitBatch(long dequeuedAt) {
+        int maxInFlight = orderingKey != null ? 1 : MAX_IN_FLIGHT_BATCHES;
+        while (inFlight.size() >= maxInFlight){
+            completeOldest();
+        }
+        List<T> messages = new ArrayList<>(batch);
+        BatchTask task = orderingKey != null ? new KeyOrderedBatchTask(messages, dequeuedAt) :
+                new SplittingBatchTask(messages, 0, messages.size(), dequeuedAt);
+        if (firstConsumedAt == 0){
+            firstConsumedAt = System.nanoTime();
+        }
+        inFlight.add(task);
+        processingPool.execute(task);
+        if (batch.size() >= drainLimit){
+            drainLimit = Math.min(drainLimit * 2, maxDrainLimit());
+        }else if (batch.size() < drainLimit / 4){
+            drainLimit = Math.max(drainLimit / 2, Math.min(processingPool.getParallelism(), maxDrainLimit()));
+        }
+    }
+
+    private void completeOldest() {
+        BatchTask task = inFlight.poll();
+        try {
+            task.join();
+            consumedCount += task.size();
+        } catch (RuntimeException e) {
+            failedCount += task.size();
+            // the first failure in full, the rest only at FINE level
+            logger.log(failedCount == task.size() ? Level.WARNING : Level.FINE, "Consumer failed on a batch of "+
+                    task.size()+" messages", e);
+        }
+        lastConsumedAt = System.nanoTime();
+    }
+
+    private void awaitInFlight() {
+        while (!inFlight.isEmpty()){
+            completeOldest();
+        }
+    }
+
+    /**
+     * Handles the message on a worker of the processing pool.
+     */
+    private void processInPool(T message, long dequeuedAt) {
+        if (messageHandler != null){
+            messageHandler.handle(message);
+        }
+        recordConsumed(message, dequeuedAt, metrics != null ? System.nanoTime() : 0);
+    }
+
+    // the tasks are never serialized: RecursiveAction is Serializable only as a ForkJoinTask is
+    @SuppressWarnings("serial")
+    private abstract class BatchTask extends RecursiveAction {
+        abstract int size();
+    }
+
+    /**
+     * Processes the messages [from, to) of the batch, splitting them in halves down to SLICES_PER_WORKER slices
+     * per worker of the pool; the halves are forked for any idle worker to steal.
+     */
+    @SuppressWarnings("serial")
+    private class SplittingBatchTask extends BatchTask {
+        private final List<T> messages;
+        private final int from;
+        private final int to;
+        private final long dequeuedAt;
+
+        SplittingBatchTask(List<T> messages, int from, int to, long dequeuedAt) {
+            this.messages = messages;
+            this.from = from;
+            this.to = to;
+            this.dequeuedAt = dequeuedAt;
+        }
+
+        @Override
+        int size() {
+            return to - from;
+        }
+
+        @Override
+        protected void compute() {
+            int threshold = Math.max(1, messages.size() / (processingPool.getParallelism() * SLICES_PER_WORKER));
+            if (to - from <= threshold){
+                for (int i = from; i < to; i++) {
+                    processInPool(messages.get(i), dequeuedAt);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new SplittingBatchTask(messages, from, middle, dequeuedAt),
+                    new SplittingBatchTask(messages, middle, to, dequeuedAt));
+        }
+    }
+
+    /**
+     * Splits the batch by the hash of the ordering key into SLICES_PER_WORKER lanes per worker of the pool and
+     * processes each lane - in the order of the batch - as a task of its own.
+     */
+    @SuppressWarnings("serial")
+    private class KeyOrderedBatchTask extends BatchTask {
+        private final List<T> messages;
+        private final long dequeuedAt;
+
+        KeyOrderedBatchTask(List<T> messages, long dequeuedAt) {
+            this.messages = messages;
+            this.dequeuedAt = dequeuedAt;
+        }
+
+        @Override
+        int size() {
+            return messages.size();
+        }
+
+        @Override
+        protected void compute() {
+            int laneCount = processingPool.getParallelism() * SLICES_PER_WORKER;
+            List<List<T>> lanes = new ArrayList<>(laneCount);
+            for (int i = 0; i < laneCount; i++) {
+                lanes.add(new ArrayList<>());
+            }
+            for (T message : messages) {
+                // spread the hash codes, as keys often differ in their low bits only
+                int hash = Objects.hashCode(orderingKey.apply(message)) * 0x9E3779B9;
+                lanes.get(Math.floorMod(hash, laneCount)).add(message);
+            }
+            List<RecursiveAction> laneTasks = new ArrayList<>();
+            for (List<T> lane : lanes) {
+                if (!lane.isEmpty()){
+                    laneTasks.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            for (T message : lane) {
+                                processInPool(message, dequeuedAt);
+                            }
+                        }
+                    });
+                }
+            }
+            invokeAll(laneTasks);
+        }
+    }
+
+    private void logThroughput() {
+        long elapsedNanos = lastConsumedAt - firstConsumedAt;
+        long messagesPerSecond = elapsedNanos > 0 ?
+                (consumedCount - 1) * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+        logger.info("Consumer throughput: consumed "+consumedCount+" messages in "+
+                TimeUnit.NANOSECONDS.toMicros(elapsedNanos)+" microseconds = "+messagesPerSecond+" messages/sec");
+        if (failedCount > 0){
+            logger.warning("Consumer failed on "+failedCount+" messages");
         }
-        logger.info("Consumer halting: producer finished generating all the messages...");
     }
 }
@@ -0,0 +1,363 @@
+package producerconsumer;
+
+import metrics.PipelineMetrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * A pool of {@link producerconsumer.Consumer}s sharing one queue, which grows while the consumers fall behind and
+ * shrinks as they go idle - for a bursty load, which a fixed number of consumers either over-provisions for or falls
+ * behind on.
+ * The characteristics exhibited by this class are:
+ * - start() starts minConsumers consumers, created by the given factory; the pool never runs fewer than that (up to
+ * the end of the stream) nor more than maxConsumers. The consumer threads are named Consumer-Thread-cs0x65-&lt;n&gt;.
+ * - a controller thread (Consumer-Pool-Controller-cs0x65) samples the queue every control interval: its depth and,
+ * when provided the {@link metrics.PipelineMetrics} the producers and consumers record into with setMetrics(), the
+ * arrival (produced) and consumed rates and the p99 enqueue-to-dequeue latency over the interval. The pool is under
+ * pressure when the depth is over targetDepthPerConsumer messages per consumer, when the backlog grows with the
+ * messages arriving ARRIVAL_HEADROOM times faster than they're consumed, or when the p99 dequeue latency is over the
+ * target latency, if set with setTargetLatency().
+ * - it scales up after SCALE_UP_SAMPLES samples in a row under pressure: by as many consumers as the depth calls for
+ * at targetDepthPerConsumer each, at least one, up to maxConsumers.
+ * - it scales down on the consumers' own idle time-out (see Consumer.TIME_TO_WAIT_BEFORE_HALTING), shortened to
+ * idleTimeoutMillis for the pool: a consumer which has found no message for that long asks the pool whether to halt
+ * (see Consumer.setHaltOnIdle()), and is retired - gracefully, as it holds no message - unless the pool is down to
+ * minConsumers or has scaled up within the last cooldownMillis; if not, it keeps waiting for another idle time-out.
+ * - hence the hysteresis: it takes a sustained pressure to scale up and a whole idle time-out of an empty queue to
+ * scale down, and no consumer retires within the cool-down after scaling up, so that the pool doesn't oscillate
+ * around a threshold.
+ * - every change of size is recorded with the time, the new size and the reason in the size history
+ * (getSizeHistory(), describeSizeHistory()); with metrics, the size is also their consumer count gauge.
+ * - the end of the stream: the producers need a {@link producerconsumer.ShutdownCoordinator} reading the pool's size
+ * (new ShutdownCoordinator(producers, pool::getSize)), so that the last producer sends a closing message per consumer
+ * running at the time. Once a consumer halts on its closing message, the pool stops scaling up and lets every idle
+ * consumer go; a consumer started after the closing messages were sent halts on its idle time-out.
+ * - awaitTermination() blocks until every consumer has halted, and then stops the controller.
+ *
+ * For e.g:
+ * ConsumerPool&lt;String&gt; pool = new ConsumerPool&lt;&gt;(queue, () -&gt; Consumer.ofStrings(queue), 1, 8);
+ * pool.setMetrics(metrics);
+ * pool.start();
+ * Producer&lt;String&gt; producer = Producer.ofStrings(queue, 100_000, 0);
+ * producer.setShutdownCoordinator(new ShutdownCoordinator(1, pool::getSize));
+ * ...
+ * pool.awaitTermination();
+ */
+public class ConsumerPool<T> {
+    public static final long DEFAULT_CONTROL_INTERVAL_MILLIS = 100;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 1000;
+    public static final long DEFAULT_COOLDOWN_MILLIS = 1000;
+    public static final int DEFAULT_TARGET_DEPTH_PER_CONSUMER = 64;
+    // The samples in a row under pressure it takes to scale up
+    static final int SCALE_UP_SAMPLES = 2;
+    // How much faster than they're consumed the messages need to arrive to count as pressure
+    static final double ARRIVAL_HEADROOM = 1.1;
+
+    private final Queue<T> queue;
+    private final Supplier<? extends Consumer<T>> consumerFactory;
+    private final int minConsumers;
+    private final int maxConsumers;
+    // Defaults to null i.e. the pool scales on the queue depth alone
+    private PipelineMetrics metrics;
+    private long controlIntervalMillis = DEFAULT_CONTROL_INTERVAL_MILLIS;
+    private long idleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+    private long cooldownMillis = DEFAULT_COOLDOWN_MILLIS;
+    private int targetDepthPerConsumer = DEFAULT_TARGET_DEPTH_PER_CONSUMER;
+    // Defaults to 0 i.e. no latency target
+    private long targetLatencyNanos;
+
+    // guarded by this
+    private final List<Consumer<T>> consumers = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final List<SizeChange> sizeHistory = new ArrayList<>();
+    private int size;
+    private int peakSize;
+    private long lastScaledUpAt;
+    // whether a consumer has halted on its closing message
+    private boolean closing;
+    private long startedAt;
+    private Thread controller;
+    private volatile boolean running;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    public ConsumerPool(Queue<T> queue, Supplier<? extends Consumer<T>> consumerFactory, int minConsumers,
+                        int maxConsumers) {
+        if (minConsumers < 1 || maxConsumers < minConsumers){
+            throw new IllegalArgumentException("Expected 1 <= minConsumers <= maxConsumers. Received minConsumers = "+
+                    minConsumers+", maxConsumers = "+maxConsumers);
+        }
+        this.queue = queue;
+        this.consumerFactory = consumerFactory;
+        this.minConsumers = minConsumers;
+        this.maxConsumers = maxConsumers;
+    }
+
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setControlIntervalMillis(long controlIntervalMillis) {
+        this.controlIntervalMillis = controlIntervalMillis;
+    }
+
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    public void setCooldownMillis(long cooldownMillis) {
+        this.cooldownMillis = cooldownMillis;
+    }
+
+    public void setTargetDepthPerConsumer(int targetDepthPerConsumer) {
+        this.targetDepthPerConsumer = targetDepthPerConsumer;
+    }
+
+    public void setTargetLatency(long targetLatency, TimeUnit unit) {
+        this.targetLatencyNanos = unit.toNanos(targetLatency);
+    }
+
+    public synchronized void start() {
+        if (controller != null){
+            return;
+        }
+        startedAt = System.nanoTime();
+        for (int i = 0; i < minConsumers; i++) {
+            startConsumer();
+        }
+        recordSizeChange("start");
+        if (metrics != null){
+            metrics.setConsumerCount(this::getSize);
+        }
+        running = true;
+        controller = new Thread(this::control, "Consumer-Pool-Controller-cs0x65");
+        controller.setDaemon(true);
+        controller.start();
+    }
+
+    /**
+     * Blocks until every consumer has halted, and then stops the controller.
+     */
+    public void awaitTermination() throws InterruptedException {
+        synchronized (this) {
+            while (size > 0){
+                wait();
+            }
+        }
+        running = false;
+        Thread stopping = controller;
+        if (stopping != null){
+            stopping.join();
+        }
+        List<Thread> halted;
+        synchronized (this) {
+            halted = new ArrayList<>(threads);
+        }
+        for (Thread thread : halted) {
+            thread.join();
+        }
+    }
+
+    private void control() {
+        long[] latencySnapshot = metrics != null ? metrics.getEnqueueToDequeue().snapshot() : null;
+        long lastProduced = metrics != null ? metrics.getProducedCount() : 0;
+        long lastConsumed = metrics != null ? metrics.getConsumedCount() : 0;
+        int lastDepth = queue.size();
+        long lastSampledAt = System.nanoTime();
+        int pressuredSamples = 0;
+        while (running){
+            try {
+                Thread.sleep(controlIntervalMillis);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                return;
+            }
+            long now = System.nanoTime();
+            // a racy but harmless read for a queue which isn't thread-safe, as for the metrics' depth gauge
+            int depth = queue.size();
+            int currentSize = getSize();
+            String pressure = null;
+            if (depth > targetDepthPerConsumer * currentSize){
+                pressure = "depth "+depth+" > "+targetDepthPerConsumer+" x "+currentSize;
+            }
+            if (metrics != null){
+                long produced = metrics.getProducedCount();
+                long consumed = metrics.getConsumedCount();
+                long arrivalRate = perSecond(produced - lastProduced, now - lastSampledAt);
+                long consumedRate = perSecond(consumed - lastConsumed, now - lastSampledAt);
+                long p99Nanos = metrics.getEnqueueToDequeue().getValueAtPercentileSince(latencySnapshot, 99);
+                if (pressure == null && depth > lastDepth && arrivalRate > consumedRate * ARRIVAL_HEADROOM){
+                    pressure = "arrivals "+arrivalRate+"/s > consumed "+consumedRate+"/s";
+                }
+                if (pressure == null && targetLatencyNanos > 0 && p99Nanos > targetLatencyNanos){
+                    pressure = "p99 dequeue "+TimeUnit.NANOSECONDS.toMicros(p99Nanos)+"us > "+
+                            TimeUnit.NANOSECONDS.toMicros(targetLatencyNanos)+"us";
+                }
+                lastProduced = produced;
+                lastConsumed = consumed;
+            }
+            lastDepth = depth;
+            lastSampledAt = now;
+            pressuredSamples = pressure != null ? pressuredSamples + 1 : 0;
+            if (pressuredSamples >= SCALE_UP_SAMPLES){
+                scaleUp(depth, pressure);
+                pressuredSamples = 0;
+            }
+        }
+    }
+
+    private synchronized void scaleUp(int depth, String pressure) {
+        if (closing || size >= maxConsumers){
+            return;
+        }
+        int wanted = (depth + targetDepthPerConsumer - 1) / targetDepthPerConsumer;
+        wanted = Math.min(maxConsumers, Math.max(size + 1, wanted));
+        while (size < wanted){
+            startConsumer();
+        }
+        lastScaledUpAt = System.nanoTime();
+        recordSizeChange(pressure);
+    }
+
+    // to be called holding the lock
+    private void startConsumer() {
+        Consumer<T> consumer = consumerFactory.get();
+        AtomicBoolean retired = new AtomicBoolean();
+        consumer.setIdleTimeoutMillis(idleTimeoutMillis);
+        consumer.setHaltOnIdle(() -> retire(retired));
+        Thread thread = new Thread(() -> {
+            consumer.run();
+            halted(retired.get());
+        }, "Consumer-Thread-cs0x65-" + threads.size());
+        consumers.add(consumer);
+        threads.add(thread);
+        size++;
+        peakSize = Math.max(peakSize, size);
+        thread.start();
+    }
+
+    /**
+     * Asked by an idle consumer on its idle time-out.
+     * @return true if the consumer is to halt.
+     */
+    private synchronized boolean retire(AtomicBoolean retired) {
+        if (!closing && (size <= minConsumers ||
+                System.nanoTime() - lastScaledUpAt < TimeUnit.MILLISECONDS.toNanos(cooldownMillis))){
+            return false;
+        }
+        retired.set(true);
+        size--;
+        recordSizeChange(closing ? "idle after the closing messages" : "idle for "+idleTimeoutMillis+" ms");
+        notifyAll();
+        return true;
+    }
+
+    private synchronized void halted(boolean retired) {
+        if (retired){
+            return;
+        }
+        if (!closing){
+            logger.info("Consumer pool closing: a consumer halted on its closing message");
+        }
+        closing = true;
+        size--;
+        recordSizeChange("closing message");
+        notifyAll();
+    }
+
+    // to be called holding the lock
+    private void recordSizeChange(String reason) {
+        SizeChange sizeChange = new SizeChange(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt), size,
+                reason);
+        sizeHistory.add(sizeChange);
+        logger.info("Consumer pool "+sizeChange);
+    }
+
+    private static long perSecond(long count, long elapsedNanos) {
+        return elapsedNanos > 0 ? count * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+    }
+
+    /**
+     * @return the number of consumers running and not retired.
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    public synchronized int getPeakSize() {
+        return peakSize;
+    }
+
+    /**
+     * @return the number of consumers the pool has started in all.
+     */
+    public synchronized int getStartedCount() {
+        return threads.size();
+    }
+
+    public synchronized long getConsumedCount() {
+        long consumed = 0;
+        for (Consumer<T> consumer : consumers) {
+            consumed += consumer.getConsumedCount();
+        }
+        return consumed;
+    }
+
+    public synchronized List<SizeChange> getSizeHistory() {
+        return Collections.unmodifiableList(new ArrayList<>(sizeHistory));
+    }
+
+    /**
+     * @return the size history, a change per line.
+     */
+    public synchronized String describeSizeHistory() {
+        StringBuilder description = new StringBuilder("Consumer pool size history (peak "+peakSize+" of "+
+                maxConsumers+", "+threads.size()+" consumers started in all):");
+        for (SizeChange sizeChange : sizeHistory) {
+            description.append("\n  ").append(sizeChange);
+        }
+        return description.toString();
+    }
+
+    /**
+     * A change of the pool's size: when - in milliseconds from start() - to what size, and why.
+     */
+    public static class SizeChange {
+        private final long atMillis;
+        private final int size;
+        private final String reason;
+
+        private SizeChange(long atMillis, int size, String reason) {
+            this.atMillis = atMillis;
+            this.size = size;
+            this.reason = reason;
+        }
+
+        public long getAtMillis() {
+            return atMillis;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "+"+atMillis+" ms: "+size+" consumer(s) ("+reason+")";
+        }
+    }
+}
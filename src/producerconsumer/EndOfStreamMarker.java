@@ -0,0 +1,27 @@
+package producerconsumer;
+
+import java.util.Objects;
+
+/**
+ * Defines the closing message a {@link producerconsumer.Producer} sends to indicate that it won't produce any new
+ * message, and how a {@link producerconsumer.Consumer} recognizes it.
+ * The closing message is compared by equals() and not by reference, so it doesn't matter whether the consumer
+ * receives the very same instance the producer sent (e.g. a deserialized copy still closes the stream).
+ */
+@FunctionalInterface
+public interface EndOfStreamMarker<T> {
+    // The closing message the snippets have been using all along
+    EndOfStreamMarker<String> STRINGS = of("-1");
+
+    T marker();
+
+    default boolean isMarker(T message) {
+        T marker = marker();
+        return marker == message || (message != null && marker.equals(message));
+    }
+
+    static <T> EndOfStreamMarker<T> of(T marker) {
+        Objects.requireNonNull(marker);
+        return () -> marker;
+    }
+}
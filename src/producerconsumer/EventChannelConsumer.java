@@ -0,0 +1,103 @@
+package producerconsumer;
+
+import producerconsumer.waitstrategy.BackoffParkWaitStrategy;
+import producerconsumer.waitstrategy.WaitStrategy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Consumer of preallocated events over an {@link producerconsumer.EventRing}.
+ * The characteristics exhibited by this class are:
+ * - it drains up to DRAIN_LIMIT events at a time and hands every event to the given
+ * {@link producerconsumer.MessageHandler}, which processes it in place; the slots are released once the drain is
+ * over, so the handler mustn't keep hold of an event (copying out whatever it needs to keep instead).
+ * - it halts once the producer has closed the ring and every event has been drained.
+ * - when the ring is empty, it waits as per its {@link producerconsumer.waitstrategy.WaitStrategy} (by default it
+ * spins for a while, then yields and finally parks for growing intervals), and halts on time-out after
+ * {@link producerconsumer.Consumer#TIME_TO_WAIT_BEFORE_HALTING} - the same way as the
+ * {@link producerconsumer.LongChannelConsumer} does.
+ * - on halting, it logs the rate (messages/sec) at which it consumed the events.
+ */
+public class EventChannelConsumer<E> implements Runnable{
+    static final int DRAIN_LIMIT = 256;
+
+    private final EventRing<E> ring;
+    private final MessageHandler<? super E> handler;
+    private WaitStrategy waitStrategy = new BackoffParkWaitStrategy();
+    private long consumedCount;
+    private long firstConsumedAt;
+    private long lastConsumedAt;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    public EventChannelConsumer(EventRing<E> ring, MessageHandler<? super E> handler) {
+        this.ring = ring;
+        this.handler = handler;
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    public long getConsumedCount() {
+        return consumedCount;
+    }
+
+    @Override
+    public void run() {
+        logger.info("Consumer starting on "+ring+"...");
+        while (true){
+            // read before draining, so that every event published before closing is drained
+            boolean closed = ring.isClosed();
+            if (drain() > 0){
+                continue;
+            }
+            if (closed){
+                break;
+            }
+            long idleSince = System.nanoTime();
+            long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Consumer.TIME_TO_WAIT_BEFORE_HALTING);
+            for (int idleAttempt = 0; !ring.isClosed() && ring.size() == 0; idleAttempt++) {
+                long timeInWaiting = System.nanoTime() - idleSince;
+                if (timeInWaiting >= timeoutNanos){
+                    logger.warning("Consumer halting: no message appeared on the ring for last "+
+                            TimeUnit.NANOSECONDS.toSeconds(timeInWaiting) + " seconds!");
+                    logThroughput();
+                    return;
+                }
+                try {
+                    waitStrategy.idle(null, idleAttempt, timeoutNanos - timeInWaiting, false);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        logger.info("Consumer halting: producer finished generating all the messages...");
+        logThroughput();
+    }
+
+    private int drain() {
+        int drained = ring.drain(handler, DRAIN_LIMIT);
+        if (drained > 0){
+            // time stamped once per drain rather than per event
+            lastConsumedAt = System.nanoTime();
+            if (consumedCount == 0){
+                firstConsumedAt = lastConsumedAt;
+            }
+            consumedCount += drained;
+        }
+        return drained;
+    }
+
+    private void logThroughput() {
+        long elapsedNanos = lastConsumedAt - firstConsumedAt;
+        long messagesPerSecond = elapsedNanos > 0 ?
+                (consumedCount - 1) * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+        logger.info("Consumer throughput: consumed "+consumedCount+" messages in "+
+                TimeUnit.NANOSECONDS.toMicros(elapsedNanos)+" microseconds = "+messagesPerSecond+" messages/sec");
+    }
+}
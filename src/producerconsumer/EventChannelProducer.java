@@ -0,0 +1,54 @@
+package producerconsumer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Producer of preallocated events over an {@link producerconsumer.EventRing}.
+ * The characteristics exhibited by this class are:
+ * - for every message it claims a slot, has the given {@link producerconsumer.EventTranslator} fill in the slot's
+ * event in place, and publishes it; nothing is allocated per message.
+ * - a full ring is treated as back pressure - the producer spins and then yields until the consumer releases a
+ * slot.
+ * - once all the messages are published it closes the ring, rather than publishing a closing message.
+ * - on halting, it logs the rate (messages/sec) at which it produced the messages.
+ */
+public class EventChannelProducer<E> implements Runnable{
+    private final EventRing<E> ring;
+    private final EventTranslator<? super E> translator;
+    private final int numMessages;
+    private long startedAt;
+    private long finishedAt;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    public EventChannelProducer(EventRing<E> ring, EventTranslator<? super E> translator, int numMessages) {
+        this.ring = ring;
+        this.translator = translator;
+        this.numMessages = numMessages;
+    }
+
+    public static EventChannelProducer<MessageEvent> ofMessages(EventRing<MessageEvent> ring, int numMessages) {
+        return new EventChannelProducer<>(ring, EventTranslator.MESSAGES, numMessages);
+    }
+
+    @Override
+    public void run() {
+        logger.info("Producer starting on "+ring+"...");
+        startedAt = System.nanoTime();
+        for (int i = 0; i < numMessages; i++) {
+            long sequence;
+            for (int tries = 0; (sequence = ring.tryClaim()) < 0; tries++){
+                Producer.backOff(tries);
+            }
+            translator.translateTo(ring.get(sequence), i);
+            ring.publish(sequence);
+        }
+        finishedAt = System.nanoTime();
+        logger.info("Producer halting...");
+        ring.close();
+        long elapsedNanos = finishedAt - startedAt;
+        long messagesPerSecond = elapsedNanos > 0 ? numMessages * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+        logger.info("Producer throughput: produced "+numMessages+" messages in "+
+                TimeUnit.NANOSECONDS.toMicros(elapsedNanos)+" microseconds = "+messagesPerSecond+" messages/sec");
+    }
+}
@@ -0,0 +1,136 @@
+package producerconsumer;
+
+import java.util.function.Supplier;
+
+/**
+ * Single-producer/single-consumer ring of preallocated, mutable events: the producer claims a slot, fills its event in
+ * place and publishes it, and the consumer processes the event in place and releases the slot for the producer to
+ * reuse - so that, unlike with a queue of messages, no message (nor queue node) is allocated per message once the
+ * ring is built.
+ * The characteristics exhibited by this class are:
+ * - all the events are created up front by the given factory, one per slot; the capacity is rounded up to the next
+ * power of two, and the slots are padded at both ends and the positions kept in padded
+ * {@link producerconsumer.Sequence} counters, just like in {@link producerconsumer.LongRingBuffer}.
+ * - the producer claims the next slot with tryClaim() - which fails while the consumer still holds on to the event
+ * in it, i.e. on a full ring - fills the event returned by get() and makes it visible to the consumer with publish().
+ * A slot claimed and not published yet is claimed again by the next tryClaim().
+ * - the consumer drains the published events into a {@link producerconsumer.MessageHandler}, which processes every
+ * event in place and mustn't keep hold of it: the drained slots are released back to the producer as soon as the
+ * drain is over, once per drain rather than once per event.
+ * - there's no closing event: the producer close()s the ring after publishing its last event, and the consumer halts
+ * once the ring isClosed() and drained.
+ * - neither side ever blocks; the producer backs off on a full ring and the consumer waits as per its wait strategy
+ * (see {@link producerconsumer.EventChannelProducer} and {@link producerconsumer.EventChannelConsumer}).
+ *
+ * For e.g:
+ * EventRing&lt;MessageEvent&gt; ring = new EventRing&lt;&gt;(1024, MessageEvent::new);
+ * long sequence = ring.tryClaim();
+ * ring.get(sequence).set(i, System.nanoTime());
+ * ring.publish(sequence);
+ */
+public class EventRing<E> {
+    private final int capacity;
+    private final int mask;
+    private final Object[] events;
+    // written by the consumer: the slots before it are released
+    private final Sequence head = new Sequence();
+    // written by the producer: the slots before it are published
+    private final Sequence tail = new Sequence();
+    // the producer's view of the head
+    private final Sequence headCache = new Sequence();
+    private volatile boolean closed;
+
+    public EventRing(int requestedCapacity, Supplier<? extends E> eventFactory) {
+        if (requestedCapacity < 2 || requestedCapacity > (1 << 30)){
+            throw new IllegalArgumentException("The capacity needs to be between 2 and 2^30. Received capacity = "+
+                    requestedCapacity);
+        }
+        this.capacity = RingBufferQueue.roundToPowerOfTwo(requestedCapacity);
+        this.mask = capacity - 1;
+        this.events = new Object[capacity + 2 * RingBufferQueue.BUFFER_PAD];
+        for (int i = 0; i < capacity; i++) {
+            events[RingBufferQueue.BUFFER_PAD + i] = eventFactory.get();
+        }
+    }
+
+    private int slotOf(long sequence) {
+        return RingBufferQueue.BUFFER_PAD + (int) (sequence & mask);
+    }
+
+    /**
+     * To be called by the producer thread only.
+     * @return the sequence of the claimed slot, or -1 if the ring is full.
+     */
+    public long tryClaim() {
+        long currentTail = tail.getPlain();
+        if (currentTail - headCache.getPlain() >= capacity){
+            long currentHead = head.get();
+            headCache.setPlain(currentHead);
+            if (currentTail - currentHead >= capacity){
+                return -1;
+            }
+        }
+        return currentTail;
+    }
+
+    /**
+     * @return the event in the slot of the given sequence; the producer fills it in between tryClaim() and publish().
+     */
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) events[slotOf(sequence)];
+    }
+
+    /**
+     * To be called by the producer thread only, with the sequence returned by the last tryClaim().
+     */
+    public void publish(long sequence) {
+        tail.set(sequence + 1);
+    }
+
+    /**
+     * To be called by the producer thread only, once it has published its last event.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    /**
+     * @return true once the producer has closed the ring; every event it published is visible to the consumer by then.
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * To be called by the consumer thread only.
+     * Hands the published events, up to the limit, to the handler in order, and then releases their slots.
+     * @return the number of events drained.
+     */
+    public int drain(MessageHandler<? super E> handler, int limit) {
+        long currentHead = head.getPlain();
+        long available = tail.get() - currentHead;
+        int count = (int) Math.min(available, limit);
+        for (int i = 0; i < count; i++) {
+            handler.handle(get(currentHead + i));
+        }
+        if (count > 0){
+            head.set(currentHead + count);
+        }
+        return count;
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[capacity=" + capacity + ", size=" + size() + "]";
+    }
+}
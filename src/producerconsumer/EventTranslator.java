@@ -0,0 +1,14 @@
+package producerconsumer;
+
+/**
+ * Fills in the preallocated events published by an {@link producerconsumer.EventChannelProducer} - the in-place
+ * counterpart of {@link producerconsumer.MessageFactory}: rather than creating the i-th message, it overwrites the
+ * event claimed for it.
+ */
+@FunctionalInterface
+public interface EventTranslator<E> {
+    // The events counterpart of MessageFactory.STRINGS: "Message0", "Message1"... stamped with System.nanoTime()
+    EventTranslator<MessageEvent> MESSAGES = (event, i) -> event.set(i, System.nanoTime());
+
+    void translateTo(E event, int i);
+}
@@ -0,0 +1,300 @@
+package producerconsumer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Durable, append-only queue that can be used in place of the shared LinkedList between the
+ * {@link producerconsumer.Producer} and the {@link producerconsumer.Consumer}: the messages are journaled into
+ * memory-mapped segment files, so they outlive the JVM.
+ * The characteristics exhibited by this class are:
+ * - every message takes a fixed-size record: a 4 byte header holding the payload length + 1 (0 marks a slot never
+ * written to) followed by the payload as written by the {@link producerconsumer.RecordCodec}; a message which doesn't
+ * fit into a record is rejected with an IllegalArgumentException. Record n of the journal is found by arithmetic
+ * alone: segment n / recordsPerSegment, slot n % recordsPerSegment.
+ * - the segments are files named after the offset of their first record (00000000000000000000.journal,
+ * 00000000000000065536.journal...), mapped with FileChannel.map(); offer() and poll() are plain memory accesses, so
+ * the only syscalls are the ones that create, map or delete a segment on rollover. What's written is in the page
+ * cache and hence survives the JVM dying; sync() forces it to the disk to survive the machine dying as well.
+ * - the consumer offset (the offset of the next record to poll) is checkpointed into the memory-mapped
+ * consumer.offset file on every poll(), so that a restarted consumer carries on right after the last message it
+ * took; seek() moves it, to replay the journal from a given offset.
+ * - the checkpoint is taken as the message is handed out, i.e. before the caller has processed it, so delivery is
+ * at-most-once: a message polled by a consumer dying halfway through processing it isn't polled again after a
+ * restart. Callers needing at-least-once delivery peek() (or peekRecord()), process the message and only then
+ * poll() it - a message processed right before dying is then polled again after a restart.
+ * - on opening an existing journal, the producer offset is recovered by scanning the last segment for its first
+ * unwritten slot.
+ * - the segments the consumer is done with are deleted, unless setRetainConsumedSegments(true) keeps them around to
+ * replay from.
+ * - peekRecord() and read() hand out read-only views of the records in the mapped segments - zero-copy reads - for
+ * callers that can make do with the bytes.
+ * - it isn't thread-safe, just like LinkedList: Producer and Consumer synchronize on it and wait()/notifyAll() as they
+ * do on a LinkedList. Being unbounded, offer() never returns false.
+ *
+ * Iteration isn't supported.
+ */
+public class JournalQueue<E> extends AbstractQueue<E> implements AutoCloseable {
+    public static final int DEFAULT_RECORD_SIZE = 64;
+    public static final int DEFAULT_RECORDS_PER_SEGMENT = 64 * 1024;
+    static final int HEADER_SIZE = Integer.BYTES;
+    static final String SEGMENT_SUFFIX = ".journal";
+    static final String OFFSET_FILE = "consumer.offset";
+
+    private final Path directory;
+    private final RecordCodec<E> codec;
+    private final int recordSize;
+    private final int recordsPerSegment;
+    // the mapped segments, by segment number
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+    // the segment numbers of the files on disk
+    private final TreeSet<Long> segmentFiles = new TreeSet<>();
+    private final MappedByteBuffer offsetCheckpoint;
+    private boolean retainConsumedSegments;
+    // the offset of the next record to be written
+    private long tail;
+    // the offset of the next record to be read
+    private long head;
+
+    public JournalQueue(Path directory, RecordCodec<E> codec, int recordSize, int recordsPerSegment)
+            throws IOException {
+        if (recordSize <= HEADER_SIZE){
+            throw new IllegalArgumentException("The record size needs to be more than "+HEADER_SIZE+
+                    " bytes. Received recordSize = "+recordSize);
+        }
+        if (recordsPerSegment < 1 || (long) recordSize * recordsPerSegment > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("A segment needs to hold at least one record and at most 2GB. " +
+                    "Received recordsPerSegment = "+recordsPerSegment);
+        }
+        this.directory = Files.createDirectories(directory);
+        this.codec = codec;
+        this.recordSize = recordSize;
+        this.recordsPerSegment = recordsPerSegment;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segmentFiles.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())) /
+                        recordsPerSegment);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(directory.resolve(OFFSET_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            this.offsetCheckpoint = channel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+        }
+        this.tail = recoverTail();
+        long firstOffset = segmentFiles.isEmpty() ? 0 : segmentFiles.first() * recordsPerSegment;
+        this.head = Math.min(Math.max(offsetCheckpoint.getLong(0), firstOffset), tail);
+    }
+
+    public JournalQueue(Path directory, RecordCodec<E> codec) throws IOException {
+        this(directory, codec, DEFAULT_RECORD_SIZE, DEFAULT_RECORDS_PER_SEGMENT);
+    }
+
+    private long recoverTail() throws IOException {
+        if (segmentFiles.isEmpty()){
+            return 0;
+        }
+        long lastSegment = segmentFiles.last();
+        MappedByteBuffer segment = segment(lastSegment, false);
+        int slot = 0;
+        while (slot < recordsPerSegment && segment.getInt(slot * recordSize) != 0){
+            slot++;
+        }
+        return lastSegment * recordsPerSegment + slot;
+    }
+
+    public boolean isRetainConsumedSegments() {
+        return retainConsumedSegments;
+    }
+
+    public void setRetainConsumedSegments(boolean retainConsumedSegments) {
+        this.retainConsumedSegments = retainConsumedSegments;
+    }
+
+    /**
+     * @return the offset the next offered message will be written at.
+     */
+    public long getProducerOffset() {
+        return tail;
+    }
+
+    /**
+     * @return the offset of the next message to be polled; checkpointed with every poll().
+     */
+    public long getConsumerOffset() {
+        return head;
+    }
+
+    /**
+     * Moves the consumer to the given offset, e.g. to replay the journal from there.
+     */
+    public void seek(long offset) {
+        long firstOffset = segmentFiles.isEmpty() ? 0 : segmentFiles.first() * recordsPerSegment;
+        if (offset < firstOffset || offset > tail){
+            throw new IllegalArgumentException("The offset needs to be between "+firstOffset+" and "+tail+
+                    ". Received offset = "+offset);
+        }
+        head = offset;
+        offsetCheckpoint.putLong(0, head);
+    }
+
+    @Override
+    public boolean offer(E message) {
+        if (message == null){
+            throw new NullPointerException();
+        }
+        MappedByteBuffer segment = segmentFor(tail, true);
+        int position = positionOf(tail);
+        ByteBuffer payload = segment.slice(position + HEADER_SIZE, recordSize - HEADER_SIZE);
+        try {
+            codec.encode(message, payload);
+        } catch (BufferOverflowException e) {
+            throw new IllegalArgumentException("The message doesn't fit into a record of "+recordSize+" bytes: "+
+                    message);
+        }
+        // the header goes last: a slot with a length is a complete record
+        segment.putInt(position, payload.position() + 1);
+        tail++;
+        return true;
+    }
+
+    @Override
+    public E poll() {
+        ByteBuffer record = peekRecord();
+        if (record == null){
+            return null;
+        }
+        E message = codec.decode(record);
+        head++;
+        offsetCheckpoint.putLong(0, head);
+        if (head % recordsPerSegment == 0 && !retainConsumedSegments){
+            deleteSegmentsBefore(head / recordsPerSegment);
+        }
+        return message;
+    }
+
+    @Override
+    public E peek() {
+        ByteBuffer record = peekRecord();
+        return record == null ? null : codec.decode(record);
+    }
+
+    /**
+     * @return a read-only view of the payload of the next record to be polled, without copying it; null if the
+     * journal is empty.
+     */
+    public ByteBuffer peekRecord() {
+        return head < tail ? read(head) : null;
+    }
+
+    /**
+     * @return a read-only view of the payload of the record at the given offset, without copying it.
+     */
+    public ByteBuffer read(long offset) {
+        long firstOffset = segmentFiles.isEmpty() ? 0 : segmentFiles.first() * recordsPerSegment;
+        if (offset < firstOffset || offset >= tail){
+            throw new NoSuchElementException("No record at offset "+offset+"; the journal holds the offsets from "+
+                    firstOffset+" up to "+tail);
+        }
+        MappedByteBuffer segment = segmentFor(offset, false);
+        int position = positionOf(offset);
+        int length = segment.getInt(position) - 1;
+        return segment.slice(position + HEADER_SIZE, length).asReadOnlyBuffer();
+    }
+
+    @Override
+    public int size() {
+        return (int) Math.min(tail - head, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        throw new UnsupportedOperationException("Iteration isn't supported by a journal queue");
+    }
+
+    /**
+     * Forces the segments and the consumer offset to the disk; costs a syscall per mapped segment.
+     */
+    public void sync() {
+        for (MappedByteBuffer segment : segments.values()) {
+            segment.force();
+        }
+        offsetCheckpoint.force();
+    }
+
+    @Override
+    public void close() {
+        sync();
+        segments.clear();
+    }
+
+    private int positionOf(long offset) {
+        return (int) (offset % recordsPerSegment) * recordSize;
+    }
+
+    private MappedByteBuffer segmentFor(long offset, boolean create) {
+        try {
+            return segment(offset / recordsPerSegment, create);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param create whether a missing segment file may be created: only on the write path, so that reading never
+     *               brings back a deleted segment as a zero-filled file.
+     */
+    private MappedByteBuffer segment(long segmentNumber, boolean create) throws IOException {
+        MappedByteBuffer segment = segments.get(segmentNumber);
+        if (segment == null){
+            // a new segment on rollover, or one mapped again to replay it
+            try (FileChannel channel = create ? FileChannel.open(segmentPath(segmentNumber),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE) :
+                    FileChannel.open(segmentPath(segmentNumber), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) recordSize * recordsPerSegment);
+            }
+            segments.put(segmentNumber, segment);
+            segmentFiles.add(segmentNumber);
+        }
+        return segment;
+    }
+
+    private void deleteSegmentsBefore(long segmentNumber) {
+        // map the segment the consumer has moved on to first, so that a restart finds the offsets to carry on from
+        // even if the producer hasn't rolled over to it yet
+        segmentFor(segmentNumber * recordsPerSegment, true);
+        segments.headMap(segmentNumber).clear();
+        for (Long consumed : new ArrayList<>(segmentFiles.headSet(segmentNumber))) {
+            try {
+                Files.deleteIfExists(segmentPath(consumed));
+                segmentFiles.remove(consumed);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private Path segmentPath(long segmentNumber) {
+        return directory.resolve(String.format("%020d", segmentNumber * recordsPerSegment) + SEGMENT_SUFFIX);
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[directory=" + directory + ", consumerOffset=" + head +
+                ", producerOffset=" + tail + "]";
+    }
+}
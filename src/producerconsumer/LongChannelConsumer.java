@@ -0,0 +1,124 @@
+package producerconsumer;
+
+import producerconsumer.waitstrategy.BackoffParkWaitStrategy;
+import producerconsumer.waitstrategy.WaitStrategy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.LongPredicate;
+import java.util.logging.Logger;
+
+/**
+ * Consumer of primitive long values over a {@link producerconsumer.LongRingBuffer}.
+ * The characteristics exhibited by this class are:
+ * - it drains up to DRAIN_LIMIT values at a time and hands every value to the given
+ * {@link java.util.function.LongConsumer} without boxing; by default the values are only summed up, the sum being
+ * logged on halting as a checksum.
+ * - it halts on the closing value (see {@link producerconsumer.LongChannelProducer#DEFAULT_CLOSING_MESSAGE}).
+ * - when the ring is empty, it waits as per its {@link producerconsumer.waitstrategy.WaitStrategy} (by default it
+ * spins for a while, then yields and finally parks for growing intervals), and halts on time-out after
+ * {@link producerconsumer.Consumer#TIME_TO_WAIT_BEFORE_HALTING} - the same way as the
+ * {@link producerconsumer.Consumer} does on a {@link producerconsumer.RingBufferQueue}.
+ * - on halting, it logs the rate (messages/sec) at which it consumed the values.
+ */
+public class LongChannelConsumer implements Runnable{
+    static final int DRAIN_LIMIT = 256;
+
+    private final LongRingBuffer ring;
+    private final LongConsumer handler;
+    private final long closingMessage;
+    private final LongPredicate acceptor = this::accept;
+    private boolean closed;
+    private WaitStrategy waitStrategy = new BackoffParkWaitStrategy();
+    private long consumedCount;
+    private long checksum;
+    private long firstConsumedAt;
+    private long lastConsumedAt;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    public LongChannelConsumer(LongRingBuffer ring, LongConsumer handler, long closingMessage) {
+        this.ring = ring;
+        this.handler = handler;
+        this.closingMessage = closingMessage;
+    }
+
+    public LongChannelConsumer(LongRingBuffer ring) {
+        this(ring, value -> {}, LongChannelProducer.DEFAULT_CLOSING_MESSAGE);
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    public long getConsumedCount() {
+        return consumedCount;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    @Override
+    public void run() {
+        logger.info("Consumer starting on "+ring+"...");
+        while (!closed){
+            if (drain() > 0){
+                continue;
+            }
+            long idleSince = System.nanoTime();
+            long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Consumer.TIME_TO_WAIT_BEFORE_HALTING);
+            for (int idleAttempt = 0; drain() == 0; idleAttempt++) {
+                long timeInWaiting = System.nanoTime() - idleSince;
+                if (timeInWaiting >= timeoutNanos){
+                    logger.warning("Consumer halting: no message appeared on the ring for last "+
+                            TimeUnit.NANOSECONDS.toSeconds(timeInWaiting) + " seconds!");
+                    logThroughput();
+                    return;
+                }
+                try {
+                    waitStrategy.idle(null, idleAttempt, timeoutNanos - timeInWaiting, false);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        logger.info("Consumer halting: producer finished generating all the messages...");
+        logThroughput();
+    }
+
+    private int drain() {
+        long consumedBefore = consumedCount;
+        int drained = ring.drain(acceptor, DRAIN_LIMIT);
+        if (consumedCount > consumedBefore){
+            // time stamped once per drain rather than per value
+            lastConsumedAt = System.nanoTime();
+            if (consumedBefore == 0){
+                firstConsumedAt = lastConsumedAt;
+            }
+        }
+        return drained;
+    }
+
+    private boolean accept(long value) {
+        if (value == closingMessage){
+            closed = true;
+            return false;
+        }
+        consumedCount++;
+        checksum += value;
+        handler.accept(value);
+        return true;
+    }
+
+    private void logThroughput() {
+        long elapsedNanos = lastConsumedAt - firstConsumedAt;
+        long messagesPerSecond = elapsedNanos > 0 ?
+                (consumedCount - 1) * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+        logger.info("Consumer throughput: consumed "+consumedCount+" messages (checksum "+checksum+") in "+
+                TimeUnit.NANOSECONDS.toMicros(elapsedNanos)+" microseconds = "+messagesPerSecond+" messages/sec");
+    }
+}
@@ -0,0 +1,60 @@
+package producerconsumer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Producer of primitive long values over a {@link producerconsumer.LongRingBuffer}.
+ * The characteristics exhibited by this class are:
+ * - the values are created by the given {@link producerconsumer.LongMessageFactory} and published without boxing.
+ * - a full ring is treated as back pressure - the producer spins and then yields until the consumer frees up a
+ * slot.
+ * - once all the values are published it sends the closing value, which defaults to
+ * {@link #DEFAULT_CLOSING_MESSAGE}; a stream that may legitimately contain that value needs to be given another one.
+ * - on halting, it logs the rate (messages/sec) at which it produced the values.
+ */
+public class LongChannelProducer implements Runnable{
+    // -1 is a perfectly valid numeric value, hence the String snippets' closing message isn't a safe default
+    public static final long DEFAULT_CLOSING_MESSAGE = Long.MIN_VALUE;
+
+    private final LongRingBuffer ring;
+    private final LongMessageFactory messageFactory;
+    private final long closingMessage;
+    private final int numMessages;
+    private long startedAt;
+    private long finishedAt;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    public LongChannelProducer(LongRingBuffer ring, LongMessageFactory messageFactory, long closingMessage,
+                               int numMessages) {
+        this.ring = ring;
+        this.messageFactory = messageFactory;
+        this.closingMessage = closingMessage;
+        this.numMessages = numMessages;
+    }
+
+    public LongChannelProducer(LongRingBuffer ring, int numMessages) {
+        this(ring, i -> i, DEFAULT_CLOSING_MESSAGE, numMessages);
+    }
+
+    @Override
+    public void run() {
+        logger.info("Producer starting on "+ring+"...");
+        startedAt = System.nanoTime();
+        for (int i = 0; i < numMessages; i++) {
+            long message = messageFactory.create(i);
+            for (int tries = 0; !ring.offer(message); tries++){
+                Producer.backOff(tries);
+            }
+        }
+        finishedAt = System.nanoTime();
+        logger.info("Producer halting...");
+        for (int tries = 0; !ring.offer(closingMessage); tries++){
+            Producer.backOff(tries);
+        }
+        long elapsedNanos = finishedAt - startedAt;
+        long messagesPerSecond = elapsedNanos > 0 ? numMessages * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+        logger.info("Producer throughput: produced "+numMessages+" messages in "+
+                TimeUnit.NANOSECONDS.toMicros(elapsedNanos)+" microseconds = "+messagesPerSecond+" messages/sec");
+    }
+}
@@ -0,0 +1,10 @@
+package producerconsumer;
+
+/**
+ * Creates the values published by a {@link producerconsumer.LongChannelProducer} - the primitive specialization of
+ * {@link producerconsumer.MessageFactory}.
+ */
+@FunctionalInterface
+public interface LongMessageFactory {
+    long create(int i);
+}
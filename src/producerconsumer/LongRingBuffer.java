@@ -0,0 +1,98 @@
+package producerconsumer;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Single-producer/single-consumer ring buffer of primitive longs - the primitive specialization of
+ * {@link producerconsumer.SpscRingBufferQueue}.
+ * The values are stored straight into a preallocated long[], so a numeric stream passes from the producer to the
+ * consumer without boxing every value into a Long or formatting it into a String.
+ * Just like the ring buffer queues, the capacity is rounded up to the next power of two, the slots are padded at
+ * both ends, the producer and consumer positions are kept in separate padded {@link producerconsumer.Sequence}
+ * counters and neither side ever blocks.
+ *
+ * Since there's no null to signal an empty ring with, the consumer side doesn't poll single values but drains the
+ * available values into a {@link java.util.function.LongPredicate}; this also lets the consumer publish its new
+ * position once per drain rather than once per value.
+ */
+public class LongRingBuffer {
+    private final int capacity;
+    private final int mask;
+    private final long[] buffer;
+    // written by the consumer
+    private final Sequence head = new Sequence();
+    // written by the producer
+    private final Sequence tail = new Sequence();
+    // the producer's view of the head
+    private final Sequence headCache = new Sequence();
+
+    public LongRingBuffer(int requestedCapacity) {
+        if (requestedCapacity < 2 || requestedCapacity > (1 << 30)){
+            throw new IllegalArgumentException("The capacity needs to be between 2 and 2^30. Received capacity = "+
+                    requestedCapacity);
+        }
+        this.capacity = RingBufferQueue.roundToPowerOfTwo(requestedCapacity);
+        this.mask = capacity - 1;
+        this.buffer = new long[capacity + 2 * RingBufferQueue.BUFFER_PAD];
+    }
+
+    private int slotOf(long sequence) {
+        return RingBufferQueue.BUFFER_PAD + (int) (sequence & mask);
+    }
+
+    /**
+     * To be called by the producer thread only.
+     * @return false if the ring is full.
+     */
+    public boolean offer(long value) {
+        long currentTail = tail.getPlain();
+        if (currentTail - headCache.getPlain() >= capacity){
+            long currentHead = head.get();
+            headCache.setPlain(currentHead);
+            if (currentTail - currentHead >= capacity){
+                return false;
+            }
+        }
+        buffer[slotOf(currentTail)] = value;
+        tail.set(currentTail + 1);
+        return true;
+    }
+
+    /**
+     * To be called by the consumer thread only.
+     * Hands the available values, up to the limit, to the handler in order; the handler returns false to stop the
+     * drain right after the value it has been handed (e.g. on the closing message).
+     * @return the number of values drained, including the one the handler stopped at.
+     */
+    public int drain(LongPredicate handler, int limit) {
+        long currentHead = head.getPlain();
+        long available = tail.get() - currentHead;
+        int count = (int) Math.min(available, limit);
+        int drained = 0;
+        while (drained < count){
+            long value = buffer[slotOf(currentHead + drained)];
+            drained++;
+            if (!handler.test(value)){
+                break;
+            }
+        }
+        if (drained > 0){
+            head.set(currentHead + drained);
+        }
+        return drained;
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[capacity=" + capacity + ", size=" + size() + "]";
+    }
+}
@@ -0,0 +1,76 @@
+package producerconsumer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The mutable, reusable counterpart of the "Message0", "Message1"... String messages, for an
+ * {@link producerconsumer.EventRing}: the ring preallocates one per slot and the producer overwrites it in place.
+ * The characteristics exhibited by this class are:
+ * - the text "Message" followed by the index is written as ASCII bytes into a byte[] of MAX_TEXT_LENGTH allocated
+ * along with the event, so setting an event allocates nothing - as opposed to the concatenation of a new String.
+ * - the event is stamped with the System.nanoTime() at which it was filled in, like a
+ * {@link producerconsumer.TimestampedMessage}, for the consumer to measure the latency with.
+ * - getText() and toString() do create a String, and are meant for logging only.
+ * - an event is only valid in between being published and being released: the consumer mustn't keep hold of it.
+ */
+public class MessageEvent {
+    private static final byte[] PREFIX = "Message".getBytes(StandardCharsets.US_ASCII);
+    // the prefix and the digits of Integer.MAX_VALUE
+    public static final int MAX_TEXT_LENGTH = PREFIX.length + 10;
+
+    private final byte[] text = new byte[MAX_TEXT_LENGTH];
+    private int textLength;
+    private int index;
+    private long enqueuedAt;
+
+    public MessageEvent() {
+        System.arraycopy(PREFIX, 0, text, 0, PREFIX.length);
+        textLength = PREFIX.length;
+    }
+
+    /**
+     * Overwrites the event with the message of the given (non-negative) index.
+     */
+    public void set(int index, long enqueuedAt) {
+        if (index < 0){
+            throw new IllegalArgumentException("The index needs to be non-negative. Received index = "+index);
+        }
+        this.index = index;
+        this.enqueuedAt = enqueuedAt;
+        int digits = 1;
+        for (int remaining = index / 10; remaining > 0; remaining /= 10) {
+            digits++;
+        }
+        textLength = PREFIX.length + digits;
+        int remaining = index;
+        for (int i = textLength - 1; i >= PREFIX.length; i--) {
+            text[i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        }
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public long getEnqueuedAt() {
+        return enqueuedAt;
+    }
+
+    public int getTextLength() {
+        return textLength;
+    }
+
+    public byte getTextByte(int i) {
+        return text[i];
+    }
+
+    public String getText() {
+        return new String(text, 0, textLength, StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public String toString() {
+        return getText();
+    }
+}
@@ -0,0 +1,14 @@
+package producerconsumer;
+
+/**
+ * Creates the messages published by a {@link producerconsumer.Producer}.
+ * The producer passes in the running number of the message (0, 1, 2...), so that the factory doesn't need to keep
+ * any state of its own and can be shared by several producers.
+ */
+@FunctionalInterface
+public interface MessageFactory<T> {
+    // The messages the snippets have been producing all along: "Message0", "Message1"...
+    MessageFactory<String> STRINGS = i -> "Message" + i;
+
+    T create(int i);
+}
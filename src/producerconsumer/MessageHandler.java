@@ -0,0 +1,10 @@
+package producerconsumer;
+
+/**
+ * Processes a message taken off the queue, e.g. by a {@link producerconsumer.backpressure.CallerRunsPolicy} which
+ * lets the producer process the message itself rather than enqueue it.
+ */
+@FunctionalInterface
+public interface MessageHandler<T> {
+    void handle(T message);
+}
@@ -0,0 +1,15 @@
+package producerconsumer;
+
+import java.io.IOException;
+
+/**
+ * Supplies the messages published by a {@link producerconsumer.Producer} when their number isn't known up front -
+ * e.g. records read off a file, a pipe or stdin - in place of a {@link producerconsumer.MessageFactory}.
+ */
+@FunctionalInterface
+public interface MessageSource<T> {
+    /**
+     * @return the next message; null once the source has run dry, upon which the producer sends the closing message.
+     */
+    T next() throws IOException;
+}
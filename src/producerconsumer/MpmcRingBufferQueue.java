@@ -0,0 +1,101 @@
+package producerconsumer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Objects;
+
+/**
+ * Multi-producer/multi-consumer ring buffer queue (after Dmitry Vyukov's bounded MPMC queue).
+ * Producers compete for the tail and consumers compete for the head with a CAS on the respective sequence;
+ * in addition every slot carries its own sequence number which tells whether the slot is free for the producer of
+ * round n (slot sequence == n) or holds a message for the consumer of round n (slot sequence == n + 1).
+ * The slot sequence is what publishes the message: the producer stores the message and then the slot sequence with
+ * release semantics, and the consumer loads the slot sequence with acquire semantics before reading the message.
+ */
+public class MpmcRingBufferQueue<E> extends RingBufferQueue<E> {
+    private static final VarHandle SLOT_SEQUENCE = MethodHandles.arrayElementVarHandle(long[].class);
+
+    private final long[] slotSequences;
+    private final Sequence head = new Sequence();
+    private final Sequence tail = new Sequence();
+
+    public MpmcRingBufferQueue(int capacity) {
+        super(capacity);
+        slotSequences = new long[this.capacity + 2 * BUFFER_PAD];
+        for (long i = 0; i < this.capacity; i++) {
+            SLOT_SEQUENCE.setRelease(slotSequences, slotOf(i), i);
+        }
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        long currentTail = tail.get();
+        int slot;
+        while (true){
+            slot = slotOf(currentTail);
+            long slotSequence = (long) SLOT_SEQUENCE.getAcquire(slotSequences, slot);
+            long difference = slotSequence - currentTail;
+            if (difference == 0){
+                if (tail.compareAndSet(currentTail, currentTail + 1)){
+                    break;
+                }
+            }else if (difference < 0){
+                // the slot still holds the message from the previous round: full
+                return false;
+            }
+            currentTail = tail.get();
+        }
+        buffer[slot] = e;
+        SLOT_SEQUENCE.setRelease(slotSequences, slot, currentTail + 1);
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long currentHead = head.get();
+        int slot;
+        while (true){
+            slot = slotOf(currentHead);
+            long slotSequence = (long) SLOT_SEQUENCE.getAcquire(slotSequences, slot);
+            long difference = slotSequence - (currentHead + 1);
+            if (difference == 0){
+                if (head.compareAndSet(currentHead, currentHead + 1)){
+                    break;
+                }
+            }else if (difference < 0){
+                // the producer of this round hasn't published yet: empty
+                return null;
+            }
+            currentHead = head.get();
+        }
+        E e = (E) buffer[slot];
+        buffer[slot] = null;
+        // free the slot for the producer of the next round
+        SLOT_SEQUENCE.setRelease(slotSequences, slot, currentHead + capacity);
+        return e;
+    }
+
+    /**
+     * Best effort only: with more than one consumer the returned message may have been taken by another consumer
+     * by the time the caller looks at it.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long currentHead = head.get();
+        int slot = slotOf(currentHead);
+        long slotSequence = (long) SLOT_SEQUENCE.getAcquire(slotSequences, slot);
+        if (slotSequence != currentHead + 1){
+            return null;
+        }
+        return (E) buffer[slot];
+    }
+
+    @Override
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+}
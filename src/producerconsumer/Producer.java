@@ -1,6 +1,19 @@
 package producerconsumer;
 
+import eventlog.Event;
+import eventlog.EventRecorder;
+import metrics.LockProfile;
+import metrics.PipelineMetrics;
+import producerconsumer.backpressure.BackpressurePolicy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -13,37 +26,167 @@ import java.util.logging.Logger;
  * - when yield is set to true with setYield(true), then it tries to yield the processor control for consumer
  * and possibly other threads to be scheduled for execution; but this is all together dependent on the thread scheduler
  * of the underlying JVM - it may or may not yield the processor control.
- * - if the queue is capacity bound and there's no more space available for new messages, then it logs this fact
- * and silently terminates: this may happen if consumer couldn't keep up with the rate at which the messages are
- * being produced resulting in the messages lingering longer and occupying all of the specified capacity.
- * Typically, the {@link producerconsumer.Consumer} on the other end of the queue will halt on time-out once it
- * has consumed all the messages left in the queue and no further message being produced as Producer has already halted.
- * - if all the messages are successfully produced (for practical purpose and to keep it simple - the setup allows to
- * put some pre-defined higher limit on the number of messages being generated), then it sends the closing message with
- * value "-1" to indicate to it's consumers that it won't produce any new message and is about to halt or already halted
- * (by the time consumer consumes the closing message).
+ * - if the queue is capacity bound and there's no more space available for new messages, then what happens depends on
+ * the {@link producerconsumer.backpressure.BackpressurePolicy} set with setBackpressurePolicy(): the policy may wait
+ * for space, drop messages, or let the producer process the message itself; and if it gives up, the producer logs this
+ * fact and halts. This may happen if consumer couldn't keep up with the rate at which the messages are being produced
+ * resulting in the messages lingering longer and occupying all of the specified capacity.
+ * Without a policy, the producer halts right away on a full queue, except on a ring buffer queue (see below).
+ * Either way the producer still sends the closing message once there's space for it - waiting for up to
+ * Consumer.TIME_TO_WAIT_BEFORE_HALTING - so that the {@link producerconsumer.Consumer} on the other end of the queue
+ * halts on it once it has consumed all the messages left in the queue, rather than on time-out.
+ * - once all the messages are produced (for practical purpose and to keep it simple - the setup allows to
+ * put some pre-defined higher limit on the number of messages being generated), then it sends the closing message
+ * defined by its {@link producerconsumer.EndOfStreamMarker} ("-1" for String messages) to indicate to it's consumers
+ * that it won't produce any new message and is about to halt or already halted (by the time consumer consumes the
+ * closing message).
+ * - the messages are created by the given {@link producerconsumer.MessageFactory}; {@link #ofStrings(Queue)}
+ * creates a producer of the "Message0", "Message1"... String messages closed by "-1".
+ * - when provided a batch size > 1 with setBatchSize(), it builds up to that many messages first and then publishes
+ * all of them within a single synchronized block followed by a single notifyAll(), instead of acquiring the monitor
+ * and notifying the consumers for every message; sleepFor and yield then apply after each batch. If the queue runs
+ * out of capacity midway through a batch, the rest of the batch is dropped and the producer halts as usual.
+ * - when provided a {@link producerconsumer.ShutdownCoordinator} (i.e. when it's one of many producers sharing the
+ * queue), it leaves sending the closing messages to the coordinator: only the last producer to finish sends them,
+ * one per consumer. A producer which halts on exhausted capacity still counts as finished in that case, so that
+ * the consumers aren't left waiting on it.
+ * - when the queue is a {@link producerconsumer.RingBufferQueue}, it doesn't synchronize on the queue nor notifies
+ * the consumers: the ring buffer is lock-free and the consumer polls it. Without a back pressure policy, a full ring
+ * is treated as back pressure rather than exhausted capacity - the producer spins and then yields until the consumer
+ * frees up a slot.
+ * - when the queue is a java.util.concurrent.BlockingQueue, it doesn't synchronize on the queue nor notifies the
+ * consumers either: the queue signals its own Conditions, so that neither side ever blocks inside a synchronized block
+ * - which would pin the carrier thread of a virtual thread (see main.ExecutionMode). The closing message is then
+ * offered with the queue's own offer(timeout). Without a back pressure policy, the producer still halts right away on
+ * a full BlockingQueue.
+ * - the batch size applies to the synchronized publishing only; on a ring buffer queue or a BlockingQueue messages
+ * are published one by one, as there's no monitor to amortize.
+ * - it logs the produced messages only after releasing the monitor, so that the console isn't written to while the
+ * consumers wait for the monitor. When provided an {@link eventlog.EventRecorder} with setEventRecorder(), it records
+ * a PRODUCED event (with the index of the message) per message and a PRODUCED_BATCH event per batch instead, and the
+ * recorder formats and logs them off the producer thread.
+ * - when provided {@link metrics.PipelineMetrics} with setMetrics(), it counts every message enqueued, and stamps
+ * every {@link producerconsumer.TimestampedMessage} with the System.nanoTime() right before first offering it to the
+ * queue - so the latencies the consumer measures include any time spent waiting on a full queue.
+ * - when created with a {@link producerconsumer.MessageSource} instead of a MessageFactory, it doesn't produce a set
+ * number of messages but publishes whatever the source reads until the source runs dry (e.g. on the EOF of a file,
+ * pipe or stdin - see {@link producerconsumer.ChannelRecordSource}), and then sends the closing message. If the
+ * source fails to read, the producer logs it and halts - still sending the closing message, as on exhausted capacity.
+ * - when provided a {@link producerconsumer.TimingWheel} with setTimingWheel(), it paces itself on the wheel rather
+ * than with Thread.sleep(): it parks until a time-out on the wheel, sleepFor milliseconds away (to within the wheel's
+ * tick), unparks it - so that any number of paced producers are woken up by the one timer thread.
+ * - when provided a {@link producerconsumer.RateProfile} with setRateProfile(), it turns into an open-loop load
+ * generator: it publishes every message at its intended send time as per the profile's rate - adding up the
+ * intervals between the messages from its start, so that the rate doesn't drift with the sleep granularity - parking
+ * until shortly before the send time and yielding for the rest. If it falls behind the schedule (e.g. on a stalled
+ * queue), it publishes the messages that are due right away, without waiting and without skipping any, rather than
+ * slowing down to what the consumers keep up with. With metrics, a TimestampedMessage is stamped with its intended
+ * send time rather than the time it's actually offered, so the latencies the consumer measures include the time the
+ * message spent waiting for the producer to get to it (i.e. corrected for coordinated omission). It halts at the end
+ * of the profile (or after numMessages, if sooner), logs the achieved rate of every segment of the profile and how far
+ * behind the schedule it fell, and publishes the messages one by one whatever the batch size.
+ * - when provided a {@link metrics.LockProfile} with setLockProfile(), it measures how long it holds the queue's
+ * monitor every time it publishes a message (or a batch) for a {@link metrics.ContentionProfiler} report - including
+ * any time the back pressure policy waits for space in wait(), which releases the monitor meanwhile.
+ * - on halting, it logs the rate (messages/sec) at which it produced the messages.
  */
-public class Producer implements Runnable{
-    private  Queue<String> queue;
+public class Producer<T> implements Runnable{
+    private  Queue<T> queue;
+    private final MessageFactory<T> messageFactory;
+    // null unless the messages are read from a source rather than created by the messageFactory
+    private final MessageSource<T> source;
+    private final EndOfStreamMarker<T> endOfStream;
     // Defaults to 100
     private int numMessages;
     // Defaults to 0 milliseconds
     private long sleepFor;
     private boolean yield = false;
+    // Defaults to 1 i.e. every message is published on its own
+    private int batchSize = 1;
+    // Defaults to null i.e. the producer is the sole producer and sends a single closing message
+    private ShutdownCoordinator shutdownCoordinator;
+    // Defaults to null i.e. halt on a full queue (or wait for space on a ring buffer queue)
+    private BackpressurePolicy<T> backpressurePolicy;
+    // Defaults to null i.e. the produced messages are logged right away
+    private EventRecorder eventRecorder;
+    // Defaults to null i.e. no metrics
+    private PipelineMetrics metrics;
+
+    private int producedCount;
+    // the messages the back pressure policy dropped or handled on the producer's thread, left out of producedCount
+    private int droppedCount;
+    private int handledCount;
+    private long startedAt;
+    private long finishedAt;
+    // Defaults to FINE on a ring buffer queue, INFO otherwise
+    private Level messageLogLevel;
+    // Defaults to null i.e. the producer paces itself with Thread.sleep()
+    private TimingWheel timingWheel;
+    // Defaults to null i.e. the producer publishes as fast as the queue (and sleepFor and yield) lets it
+    private RateProfile rateProfile;
+    // Defaults to null i.e. the monitor hold times aren't measured
+    private LockProfile lockProfile;
+    // the intended send time of the next message, in nanoseconds from startedAt, when publishing at a rate
+    private double scheduledNanos;
+    // the intended send time of the message being published, as per System.nanoTime()
+    private long intendedAt;
+    // the segment of the rate profile being published, and how it went so far
+    private int segment;
+    private long segmentStartedAt;
+    private int segmentMessages;
+    private long segmentMaxLagNanos;
+    // How long before the send time a producer publishing at a rate stops parking and yields instead
+    static final long RATE_PARK_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
     Logger logger = Logger.getLogger(getClass().getName());
 
-    public Producer(Queue<String> queue, int numMessages, long sleepFor) {
+    public Producer(Queue<T> queue, MessageFactory<T> messageFactory, EndOfStreamMarker<T> endOfStream,
+                    int numMessages, long sleepFor) {
         this.queue = queue;
+        this.messageFactory = messageFactory;
+        this.source = null;
+        this.endOfStream = endOfStream;
         this.numMessages = numMessages;
         this.sleepFor = sleepFor;
+        // the lock-free modes are there to measure throughput, the console would only get in the way
+        this.messageLogLevel = queue instanceof RingBufferQueue ? Level.FINE : Level.INFO;
+    }
+
+    public Producer(Queue<T> queue, MessageFactory<T> messageFactory, EndOfStreamMarker<T> endOfStream) {
+        this(queue, messageFactory, endOfStream, 100, 0);
+    }
+
+    /**
+     * A producer of however many messages the source reads, up to its end of stream.
+     */
+    public Producer(Queue<T> queue, MessageSource<T> source, EndOfStreamMarker<T> endOfStream) {
+        this.queue = queue;
+        this.messageFactory = null;
+        this.source = source;
+        this.endOfStream = endOfStream;
+        this.numMessages = Integer.MAX_VALUE;
+        this.messageLogLevel = queue instanceof RingBufferQueue ? Level.FINE : Level.INFO;
+    }
+
+    public static Producer<String> ofStrings(Queue<String> queue, int numMessages, long sleepFor) {
+        return new Producer<>(queue, MessageFactory.STRINGS, EndOfStreamMarker.STRINGS, numMessages, sleepFor);
+    }
+
+    public static Producer<String> ofStrings(Queue<String> queue, long sleepFor) {
+        return ofStrings(queue, 100, sleepFor);
     }
 
-    public Producer(Queue<String> queue, long sleepFor) {
-        this(queue, 100, sleepFor);
+    public static Producer<String> ofStrings(Queue<String> queue) {
+        return ofStrings(queue, 100, 0);
     }
 
-    public Producer(Queue<String> queue) {
-        this(queue, 100, 0);
+    /**
+     * @return a producer of the same messages as ofStrings(), wrapped into {@link producerconsumer.TimestampedMessage}s
+     * for the consumer to measure their latencies.
+     */
+    public static Producer<TimestampedMessage<String>> ofTimestampedStrings(Queue<TimestampedMessage<String>> queue,
+                                                                           int numMessages, long sleepFor) {
+        return new Producer<>(queue, TimestampedMessage.factory(MessageFactory.STRINGS),
+                TimestampedMessage.marker(EndOfStreamMarker.STRINGS), numMessages, sleepFor);
     }
 
     public boolean isYield() {
@@ -54,39 +197,489 @@ public class Producer implements Runnable{
         this.yield = yield;
     }
 
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1){
+            throw new IllegalArgumentException("The batch size needs to be at least 1. Received batchSize = "+
+                    batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public ShutdownCoordinator getShutdownCoordinator() {
+        return shutdownCoordinator;
+    }
+
+    public void setShutdownCoordinator(ShutdownCoordinator shutdownCoordinator) {
+        this.shutdownCoordinator = shutdownCoordinator;
+    }
+
+    public BackpressurePolicy<T> getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    public void setBackpressurePolicy(BackpressurePolicy<T> backpressurePolicy) {
+        this.backpressurePolicy = backpressurePolicy;
+    }
+
+    public EventRecorder getEventRecorder() {
+        return eventRecorder;
+    }
+
+    public void setEventRecorder(EventRecorder eventRecorder) {
+        this.eventRecorder = eventRecorder;
+    }
+
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Level getMessageLogLevel() {
+        return messageLogLevel;
+    }
+
+    /**
+     * Sets the level every produced message is logged at.
+     */
+    public void setMessageLogLevel(Level messageLogLevel) {
+        this.messageLogLevel = messageLogLevel;
+    }
+
+    /**
+     * @return the number of messages which made it onto the queue.
+     */
+    public int getProducedCount() {
+        return producedCount;
+    }
+
+    public int getDroppedCount() {
+        return droppedCount;
+    }
+
+    public int getHandledCount() {
+        return handledCount;
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    public TimingWheel getTimingWheel() {
+        return timingWheel;
+    }
+
+    public void setTimingWheel(TimingWheel timingWheel) {
+        this.timingWheel = timingWheel;
+    }
+
+    public RateProfile getRateProfile() {
+        return rateProfile;
+    }
+
+    public void setRateProfile(RateProfile rateProfile) {
+        this.rateProfile = rateProfile;
+    }
+
+    public LockProfile getLockProfile() {
+        return lockProfile;
+    }
+
+    public void setLockProfile(LockProfile lockProfile) {
+        this.lockProfile = lockProfile;
+    }
+
     @Override
     public void run() {
+        if (queue instanceof RingBufferQueue || queue instanceof BlockingQueue){
+            runUnsynchronized();
+            return;
+        }
+        if (batchSize > 1 && rateProfile == null){
+            runBatched();
+            return;
+        }
         logger.info("Producer starting...");
+        startedAt = System.nanoTime();
         int i;
-        for (i = 0; i < numMessages; i++) {
-            String message = "Message"+i;
+        T message;
+        for (i = 0; (message = nextMessage(i)) != null; i++) {
+            boolean produced;
             synchronized (queue){
-                if (queue.offer(message)){
-                    logger.info("Produced: "+message);
+                long enteredAt = lockProfile != null ? lockProfile.enter() : 0;
+                stamp(message);
+                produced = queue.offer(message);
+                if (produced){
                     // notify the consumers
                     queue.notifyAll();
-                }else {
-                    logger.warning("Capacity exhausted: unable to enqueue message, exiting...!");
+                }else if (!publishOnFull(message, true)){
+                    exitLock(enteredAt);
                     break;
                 }
+                exitLock(enteredAt);
+            }
+            if (produced){
+                logProduced(i, message);
             }
             if (sleepFor > 0){
-                try {
-                    Thread.sleep(sleepFor);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+                pause();
+            }
+            if (yield){
+                Thread.yield();
+            }
+        }
+        synchronized (queue){
+            int closingMessages = closingMessages();
+            if (closingMessages > 0){
+                logger.info("Producer halting...");
+                for (int j = 0; j < closingMessages; j++) {
+                    offerClosingMessage(true);
+                }
+            }
+            queue.notifyAll();
+        }
+        producedCount = i - droppedCount - handledCount;
+        finishedAt = System.nanoTime();
+        logThroughput();
+    }
+
+    private void runBatched() {
+        logger.info("Producer starting with batch size "+batchSize+"...");
+        startedAt = System.nanoTime();
+        List<T> batch = new ArrayList<>(batchSize);
+        int i = 0;
+        boolean exhausted = false;
+        boolean endOfInput = false;
+        while (!endOfInput && !exhausted){
+            while (batch.size() < batchSize){
+                T message = nextMessage(i + batch.size());
+                if (message == null){
+                    endOfInput = true;
+                    break;
                 }
+                batch.add(message);
+            }
+            if (batch.isEmpty()){
+                break;
+            }
+            int offered = 0;
+            synchronized (queue){
+                long enteredAt = lockProfile != null ? lockProfile.enter() : 0;
+                for (T message : batch) {
+                    stamp(message);
+                    if (queue.offer(message)){
+                        offered++;
+                    }else if (!publishOnFull(message, true)){
+                        exhausted = true;
+                        break;
+                    }
+                    i++;
+                }
+                // notify the consumers once for the whole batch
+                queue.notifyAll();
+                exitLock(enteredAt);
+            }
+            if (metrics != null){
+                metrics.recordProduced(offered);
+            }
+            if (eventRecorder != null){
+                eventRecorder.record(Event.PRODUCED_BATCH, batch.size());
+            }else {
+                logger.info("Produced batch: "+batch.get(0)+" to "+batch.get(batch.size() - 1));
+            }
+            batch.clear();
+            if (sleepFor > 0){
+                pause();
             }
             if (yield){
                 Thread.yield();
             }
         }
         synchronized (queue){
-            if (i == numMessages){
+            int closingMessages = closingMessages();
+            if (closingMessages > 0){
                 logger.info("Producer halting...");
-                queue.offer("-1");
+                for (int j = 0; j < closingMessages; j++) {
+                    offerClosingMessage(true);
+                }
             }
             queue.notifyAll();
         }
+        producedCount = i - droppedCount - handledCount;
+        finishedAt = System.nanoTime();
+        logThroughput();
+    }
+
+    private void exitLock(long enteredAt) {
+        if (lockProfile != null){
+            lockProfile.exit(enteredAt);
+        }
+    }
+
+    private void runUnsynchronized() {
+        logger.info("Producer starting on "+queue+"...");
+        startedAt = System.nanoTime();
+        int i;
+        T message;
+        for (i = 0; (message = nextMessage(i)) != null; i++) {
+            stamp(message);
+            boolean produced = queue.offer(message);
+            if (!produced && !publishOnFull(message, false)){
+                break;
+            }
+            if (produced){
+                logProduced(i, message);
+            }
+            if (sleepFor > 0){
+                pause();
+            }
+            if (yield){
+                Thread.yield();
+            }
+        }
+        producedCount = i - droppedCount - handledCount;
+        finishedAt = System.nanoTime();
+        int closingMessages = closingMessages();
+        if (closingMessages > 0){
+            logger.info("Producer halting...");
+        }
+        for (int j = 0; j < closingMessages; j++) {
+            offerClosingMessage(false);
+        }
+        logThroughput();
+    }
+
+    private void pause() {
+        try {
+            if (timingWheel != null){
+                timingWheel.sleep(sleepFor, TimeUnit.MILLISECONDS);
+            }else {
+                Thread.sleep(sleepFor);
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the i-th message, or null once all the messages are produced (or the source has run dry, or the rate
+     * profile has come to its end). When publishing at a rate, the message isn't returned before its send time.
+     */
+    private T nextMessage(int i) {
+        if (rateProfile != null && (source != null || i < numMessages) && !awaitSendTime()){
+            return null;
+        }
+        if (source == null){
+            return i < numMessages ? messageFactory.create(i) : null;
+        }
+        try {
+            return source.next();
+        } catch (IOException e) {
+            logger.severe("Unable to read the next message from the source, exiting...! "+e);
+            return null;
+        }
+    }
+
+    /**
+     * Waits for the intended send time of the next message as per the rate profile, and schedules the one after.
+     * @return false once the profile has come to its end.
+     */
+    private boolean awaitSendTime() {
+        long scheduled = (long) scheduledNanos;
+        int scheduledSegment = rateProfile.getSegmentAt(scheduled);
+        if (scheduledSegment != segment){
+            logSegment();
+            segment = scheduledSegment;
+        }
+        if (scheduled >= rateProfile.getDurationNanos()){
+            return false;
+        }
+        intendedAt = startedAt + scheduled;
+        long remainingNanos;
+        while ((remainingNanos = intendedAt - System.nanoTime()) > 0){
+            if (remainingNanos > RATE_PARK_THRESHOLD_NANOS){
+                LockSupport.parkNanos(remainingNanos - RATE_PARK_THRESHOLD_NANOS);
+            }else {
+                Thread.yield();
+            }
+        }
+        long now = System.nanoTime();
+        if (segmentMessages == 0){
+            segmentStartedAt = now;
+        }
+        segmentMessages++;
+        segmentMaxLagNanos = Math.max(segmentMaxLagNanos, now - intendedAt);
+        scheduledNanos += rateProfile.getIntervalNanos(scheduled);
+        return true;
+    }
+
+    /**
+     * Logs how the segment of the rate profile just finished went.
+     */
+    private void logSegment() {
+        long elapsedNanos = System.nanoTime() - segmentStartedAt;
+        long messagesPerSecond = elapsedNanos > 0 ? segmentMessages * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+        logger.info("Producer rate segment "+segment+" ("+rateProfile.describeSegment(segment)+"): published "+
+                segmentMessages+" messages = "+messagesPerSecond+" messages/sec, fell behind the schedule by up to "+
+                TimeUnit.NANOSECONDS.toMicros(segmentMaxLagNanos)+" microseconds");
+        segmentMessages = 0;
+        segmentMaxLagNanos = 0;
+    }
+
+    private void stamp(T message) {
+        if (metrics != null && message instanceof TimestampedMessage){
+            // at a rate, the latency counts from when the message was due rather than from when it got published
+            ((TimestampedMessage<?>) message).setEnqueuedAt(rateProfile != null ? intendedAt : System.nanoTime());
+        }
+    }
+
+    private void logProduced(int index, T message) {
+        if (metrics != null){
+            metrics.recordProduced();
+        }
+        if (eventRecorder != null){
+            eventRecorder.record(Event.PRODUCED, index);
+        }else if (logger.isLoggable(messageLogLevel)){
+            logger.log(messageLogLevel, "Produced: "+message);
+        }
+    }
+
+    /**
+     * Deals with a message the queue had no space for, as per the back pressure policy.
+     * @return false if the producer shall give up and halt.
+     */
+    private boolean publishOnFull(T message, boolean monitorHeld) {
+        if (backpressurePolicy == null){
+            if (monitorHeld || !(queue instanceof RingBufferQueue)){
+                logger.warning("Capacity exhausted: unable to enqueue message, exiting...!");
+                return false;
+            }
+            for (int tries = 0; !queue.offer(message); tries++){
+                backOff(tries);
+            }
+            if (metrics != null){
+                metrics.recordProduced();
+            }
+            return true;
+        }
+        try {
+            switch (backpressurePolicy.onFull(queue, message, monitorHeld)){
+                case ENQUEUED:
+                    if (metrics != null){
+                        metrics.recordProduced();
+                    }
+                    if (logger.isLoggable(Level.FINE)){
+                        logger.fine("Produced after back pressure: "+message);
+                    }
+                    if (monitorHeld){
+                        queue.notifyAll();
+                    }
+                    return true;
+                case DROPPED:
+                    droppedCount++;
+                    if (logger.isLoggable(Level.FINE)){
+                        logger.fine("Dropped on back pressure: "+message);
+                    }
+                    return true;
+                case HANDLED:
+                    handledCount++;
+                    if (logger.isLoggable(Level.FINE)){
+                        logger.fine("Handled by producer on back pressure: "+message);
+                    }
+                    return true;
+                default:
+                    logger.warning("Capacity exhausted: unable to enqueue message, exiting...!");
+                    return false;
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * The closing message isn't subject to the back pressure policy: waits for space on the queue for up to
+     * Consumer.TIME_TO_WAIT_BEFORE_HALTING (by which time the consumers would have halted on time-out anyway).
+     */
+    private void offerClosingMessage(boolean monitorHeld) {
+        if (!monitorHeld && queue instanceof BlockingQueue){
+            try {
+                if (!((BlockingQueue<T>) queue).offer(endOfStream.marker(), Consumer.TIME_TO_WAIT_BEFORE_HALTING,
+                        TimeUnit.MILLISECONDS)){
+                    logger.warning("Capacity exhausted: unable to enqueue the closing message!");
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Consumer.TIME_TO_WAIT_BEFORE_HALTING);
+        for (int tries = 0; !queue.offer(endOfStream.marker()); tries++){
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0){
+                logger.warning("Capacity exhausted: unable to enqueue the closing message!");
+                return;
+            }
+            if (monitorHeld){
+                try {
+                    // the consumers notify on taking a message off the queue
+                    TimeUnit.NANOSECONDS.timedWait(queue, Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(10)));
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    return;
+                }
+            }else {
+                backOff(tries);
+            }
+        }
+    }
+
+    /**
+     * Waits for a full ring buffer to drain: spins for the first Consumer.SPIN_TRIES tries and yields from then on.
+     * Spinning alone is a bad idea when the consumer doesn't have a core of its own - the producer would burn its
+     * whole time slice while the consumer, which is the only one that can free up a slot, isn't even running.
+     */
+    static void backOff(int tries) {
+        if (tries < Consumer.SPIN_TRIES){
+            Thread.onSpinWait();
+        }else {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * The closing messages are sent whether or not all the messages got published - a producer which gave up on
+     * back pressure or on a failed source still ends the stream, so that its consumers don't wait for it until they
+     * time out.
+     */
+    private int closingMessages() {
+        if (shutdownCoordinator == null){
+            return 1;
+        }
+        return shutdownCoordinator.producerFinished();
+    }
+
+    private void logThroughput() {
+        if (rateProfile != null && segmentMessages > 0){
+            logSegment();
+        }
+        long elapsedNanos = finishedAt - startedAt;
+        long messagesPerSecond = elapsedNanos > 0 ? producedCount * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+        logger.info("Producer throughput: produced "+producedCount+" messages in "+
+                TimeUnit.NANOSECONDS.toMicros(elapsedNanos)+" microseconds = "+messagesPerSecond+" messages/sec");
+        if (backpressurePolicy != null){
+            logger.info("Producer back pressure: dropped "+droppedCount+" messages, handled "+handledCount+
+                    " on the producer's thread; "+backpressurePolicy);
+        }
     }
 }
@@ -1,19 +1,70 @@
 package producerconsumer;
 
+import eventlog.EventRecorder;
+import main.ExecutionMode;
+import main.Scenario;
+import main.ScenarioResult;
 import main.Snippet;
+import metrics.AllocationCounter;
+import metrics.ContentionProfiler;
+import metrics.LatencyHistogram;
+import metrics.LockProfile;
+import metrics.PipelineMetrics;
+import producerconsumer.backpressure.BackpressurePolicy;
+import producerconsumer.backpressure.BlockWithTimeoutPolicy;
+import producerconsumer.backpressure.CallerRunsPolicy;
+import producerconsumer.backpressure.DropNewestPolicy;
+import producerconsumer.backpressure.DropOldestPolicy;
+import producerconsumer.backpressure.SamplePolicy;
+import producerconsumer.backpressure.SpinThenParkPolicy;
+import producerconsumer.partition.AssignmentStrategy;
+import producerconsumer.partition.PartitionedChannel;
+import producerconsumer.pipeline.Pipeline;
+import producerconsumer.pipeline.Stage;
+import producerconsumer.transport.SocketReceiver;
+import producerconsumer.transport.SocketSender;
+import producerconsumer.waitstrategy.BackoffParkWaitStrategy;
+import producerconsumer.waitstrategy.BlockingWaitStrategy;
+import producerconsumer.waitstrategy.BusySpinWaitStrategy;
+import producerconsumer.waitstrategy.SpinWaitStrategy;
+import producerconsumer.waitstrategy.WaitStrategy;
+import producerconsumer.waitstrategy.YieldingWaitStrategy;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * The setup is kept simple for now with requirement that some maximum limit be set on the Producer to
  * contain the number of messages that will be produced.
  *
- * TODO: support for scenario where knowing max number of messages being produced/consumed is not known before-hand -
- * e.g. some realtime data streams, processing feeds from social media etc. Actually, nothing changes from the
- * perspective of core functionality of the Producer - it will need to be provided with or augmented with the
- * stream/API processing, parsing, cleansing etc. to build a valid message before it's published to the queue.
+ * Scenarios where the number of messages being produced/consumed is not known before-hand - e.g. some realtime data
+ * streams, processing feeds from social media etc. - are covered by mode 16: nothing changes from the perspective of
+ * core functionality of the Producer, it's just provided with a MessageSource (reading and parsing the stream) in
+ * place of a MessageFactory and sends the closing message once the stream ends.
  *
  * Execution instructions:
  * Run this producer-consumer snippet with below command:
@@ -26,13 +77,211 @@ import java.util.logging.Logger;
  *                4: consumer halts on time-out as it doesn't receive any message on the queue for
  *                interval >= Consumer.TIME_TO_WAIT_BEFORE_HALTING; to make this happen, make sure to
  *                set Producer.sleepFor value is >  Consumer.TIME_TO_WAIT_BEFORE_HALTING.
+ *                5: lock-free single-producer/single-consumer ring buffer queue in place of the LinkedList;
+ *                producer and consumer never block on a monitor.
+ *                6: lock-free multi-producer/multi-consumer ring buffer queue in place of the LinkedList.
+ *                7: producer publishes the messages in batches and consumer drains them in batches, acquiring
+ *                the monitor once per batch rather than once per message.
+ *                8: N producers and M consumers sharing a queue; takes further optional arguments:
+ *                java Main producerconsumer.ProducerConsumerSnippet 8 [producers] [consumers] [queue] [messages]
+ *                [threads]
+ *                where queue = mpmc (default), linkedlist or blocking (an ArrayBlockingQueue), messages = number
+ *                of messages per producer and threads = platform (default) or virtual;
+ *                logs the per-thread and aggregate throughput once all the threads have halted.
+ *                9: producer and consumer exchange primitive long values over a LongRingBuffer - no boxing and no
+ *                String per message.
+ *                10: producer runs into a small bounded queue drained by a slow consumer and applies a back pressure
+ *                policy; takes the policy as a further optional argument:
+ *                java Main producerconsumer.ProducerConsumerSnippet 10 [policy]
+ *                where policy = block (default), spinpark, dropnewest, dropoldest, sample or callerruns;
+ *                the producer logs the messages dropped/delayed by the policy on halting.
+ *                11: consumer waits for messages with the given wait strategy; takes further optional arguments:
+ *                java Main producerconsumer.ProducerConsumerSnippet 11 [strategy] [queue]
+ *                where strategy = busyspin, spin, yield, backoff or blocking (default) and queue = mpmc (default;
+ *                RING_BUFFER_MESSAGES messages) or linkedlist (100 messages).
+ *                12: many independent producer/consumer pairs - one per tenant stream - each over a
+ *                LinkedBlockingQueue of its own; takes further optional arguments:
+ *                java Main producerconsumer.ProducerConsumerSnippet 12 [pairs] [threads] [messages]
+ *                where pairs = number of pairs (default SCALING_PAIRS), threads = platform (default) or virtual
+ *                (JDK 21+) and messages = number of messages per pair (default SCALING_MESSAGES_PER_PAIR);
+ *                logs the memory footprint of the idle pairs and the aggregate throughput once they've all halted.
+ *                13: same as the normal mode over EVENT_LOG_MESSAGES messages, with a choice of how the produced and
+ *                consumed messages are logged:
+ *                java Main producerconsumer.ProducerConsumerSnippet 13 [logging] [messages]
+ *                where logging = logger (default; a java.util.logging call per message), recorder (every message
+ *                through an asynchronous EventRecorder) or sampled (every EVENT_LOG_SAMPLE_RATE-th message through
+ *                the EventRecorder).
+ *                14: producer and consumer exchange TimestampedMessages and measure the latencies and throughput into
+ *                PipelineMetrics, registered with JMX as cs0x65:type=PipelineMetrics,name="producer-consumer" and
+ *                summarized in the log every METRICS_REPORTING_SECONDS; takes further optional arguments:
+ *                java Main producerconsumer.ProducerConsumerSnippet 14 [queue] [messages] [sleepFor]
+ *                where queue = mpmc (default), linkedlist or blocking (a LinkedBlockingQueue), messages = number of
+ *                messages (default RING_BUFFER_MESSAGES) and sleepFor = producer's sleep in milliseconds after each
+ *                message (default 0).
+ *                15: producer and consumer share a durable JournalQueue of memory-mapped segment files in place of
+ *                the LinkedList; takes further optional arguments:
+ *                java Main producerconsumer.ProducerConsumerSnippet 15 [run] [directory] [messages|offset]
+ *                where run = both (default; a producer and a consumer, deleting the consumed segments), produce
+ *                (a producer only - the messages stay in the journal for a later run to consume), consume (a
+ *                consumer only, carrying on from the checkpointed consumer offset up to the next closing message)
+ *                or replay (a consumer only, from the given offset); directory defaults to
+ *                &lt;java.io.tmpdir&gt;/cs0x65-journal and messages to JOURNAL_MESSAGES. The produce, consume and
+ *                replay runs keep the consumed segments around to replay from.
+ *                16: producer streams the records read off a file, a named pipe or stdin - until its EOF - to the
+ *                consumer; takes further optional arguments:
+ *                java Main producerconsumer.ProducerConsumerSnippet 16 [input] [framing] [queue]
+ *                where input = a file/pipe path or - for stdin (default), framing = newline (default) or length
+ *                (4 byte big endian length prefixed) and queue = mpmc (default) or linkedlist.
+ *                17: producer feeds a parse -> enrich -> aggregate -> sink Pipeline, with a bounded queue in front
+ *                of every stage; takes further optional arguments:
+ *                java Main producerconsumer.ProducerConsumerSnippet 17 [messages] [enrichWorkers]
+ *                where messages = number of messages (default PIPELINE_MESSAGES) and enrichWorkers = number of
+ *                workers of the slow enrich stage (default 1); logs every stage's queue depth, service time and
+ *                utilization, and the bottleneck stage, once the closing message has passed through all of them.
+ *                18: consumer hands CPU-heavy messages (FORK_JOIN_WORK_ROUNDS rounds of hashing each) over to a
+ *                work-stealing ForkJoinPool; takes further optional arguments:
+ *                java Main producerconsumer.ProducerConsumerSnippet 18 [parallelism] [messages] [keyed]
+ *                where parallelism = number of pool workers (default the number of processors; 0 handles the
+ *                messages on the consumer thread), messages = number of messages (default FORK_JOIN_MESSAGES) and
+ *                keyed = keep the messages of each of FORK_JOIN_KEYS keys in order (default unordered).
+ *                19: producer and consumer exchange TimestampedMessages over a non-blocking TCP transport - a
+ *                SocketSender draining the producer's queue and a SocketReceiver feeding the consumer's queue; takes
+ *                further optional arguments:
+ *                java Main producerconsumer.ProducerConsumerSnippet 19 [run] [address] [messages]
+ *                where run = loopback (default; both ends in this JVM over 127.0.0.1, after the same messages over an
+ *                in-process queue for comparison), receive (the receiver and the consumer, listening on the port
+ *                given as address - default TRANSPORT_PORT) or send (the producer and the sender, connecting to the
+ *                host:port given as address - default localhost:TRANSPORT_PORT), and messages = number of messages
+ *                (default RING_BUFFER_MESSAGES); the receiving end logs the throughput and latency summary - the
+ *                latencies span both JVMs, which only holds if they run on the same host (System.nanoTime() being the
+ *                host's monotonic clock there).
+ *                For e.g. in two terminals:
+ *                java Main producerconsumer.ProducerConsumerSnippet 19 receive 7065
+ *                java Main producerconsumer.ProducerConsumerSnippet 19 send localhost:7065
+ *                20: many paced producer/consumer pairs - as in mode 12, but every producer sleeps TIMER_PACING_MILLIS
+ *                after each message - run twice: with every producer sleeping and every consumer timing itself out
+ *                on its own, and then with all of them on a shared {@link producerconsumer.TimingWheel}; takes further
+ *                optional arguments:
+ *                java Main producerconsumer.ProducerConsumerSnippet 20 [pairs] [tick] [threads]
+ *                where pairs = number of pairs (default SCALING_PAIRS), tick = the wheel's tick (precision) in
+ *                milliseconds (default TimingWheel.DEFAULT_TICK_MILLIS) and threads = platform (default) or virtual
+ *                (JDK 21+); logs how long each run took against the pacing alone and how late the pacing got.
+ *                21: open-loop load generator - the producer publishes TimestampedMessages at the target rate of a
+ *                {@link producerconsumer.RateProfile} and the latencies count from the intended send time of every
+ *                message; takes further optional arguments:
+ *                java Main producerconsumer.ProducerConsumerSnippet 21 [queue] [profile]
+ *                where queue = mpmc (default), linkedlist or blocking (an ArrayBlockingQueue of
+ *                RING_BUFFER_CAPACITY) and profile = constant:&lt;rate&gt;:&lt;seconds&gt;,
+ *                ramp:&lt;from&gt;:&lt;to&gt;:&lt;seconds&gt; or steps:&lt;from&gt;:&lt;step&gt;:&lt;steps&gt;:&lt;seconds&gt;
+ *                (default LOAD_PROFILE); logs the consumed rate and the latencies of every segment of the profile,
+ *                and the first segment at which the consumer fell short of the target rate - the queue's saturation
+ *                point. Compare with mode 2, where the rate is only as good as Thread.sleep() and stalls go unseen.
+ *                22: key-partitioned channel - two producers publish PARTITION_MESSAGES messages over PARTITION_KEYS
+ *                keys to a {@link producerconsumer.partition.PartitionedChannel} and the consumers check that every
+ *                key's messages arrive in order; a consumer joins a third of the way through and the first one
+ *                leaves two thirds of the way through, rebalancing the partitions each time; takes further optional
+ *                arguments:
+ *                java Main producerconsumer.ProducerConsumerSnippet 22 [partitions] [consumers] [assignment] [skew]
+ *                where partitions = number of partitions (default PARTITIONS), consumers = number of consumers to
+ *                start with (default TOPOLOGY_CONSUMERS), assignment = range (default) or round-robin and skew = the
+ *                share of the messages (0 to 1) with key 0, a hot key (default 0); logs the partition report, with
+ *                the hot partitions, and the number of messages out of order - 0.
+ *                23: contention profile - producers and consumers share a synchronized LinkedList, as in modes 1 and 3,
+ *                run twice under a {@link metrics.ContentionProfiler}: first as in mode 1 and then with the producers
+ *                yielding after each message as in mode 3; takes further optional arguments:
+ *                java Main producerconsumer.ProducerConsumerSnippet 23 [messages] [producers] [consumers]
+ *                where messages = number of messages in total (default CONTENTION_MESSAGES), producers and consumers
+ *                = number of each (default 1); logs a contention report per run - every thread's time RUNNABLE,
+ *                BLOCKED on the queue's monitor and WAITING in wait(), its blocked/waited counts and times, how long
+ *                the producers and consumers hold the monitor and how many of the consumers' wake-ups found the
+ *                queue empty - so that the two interleavings can be told apart by more than the log.
+ *                24: allocation check - ALLOCATION_MESSAGES messages published one by one as Strings over a
+ *                LinkedList (a String and a node per message), as Strings over an MpmcRingBufferQueue (a String per
+ *                message) and as preallocated {@link producerconsumer.MessageEvent}s claimed, filled in place,
+ *                published and released over an {@link producerconsumer.EventRing} (nothing per message); takes
+ *                further optional arguments:
+ *                java Main producerconsumer.ProducerConsumerSnippet 24 [path] [messages]
+ *                where path = all (default), linkedlist, mpmc or events and messages = number of messages (default
+ *                ALLOCATION_MESSAGES); logs the bytes the producer and the consumer allocated per message past the
+ *                first 1/ALLOCATION_WARMUP_DIVISOR of the messages (see {@link metrics.AllocationCounter}), the GCs
+ *                meanwhile and, for the events, the latency - with a zero-allocation verdict for the events. Under
+ *                the no-op collector there's nothing to collect garbage, so only the events path gets through a
+ *                heap smaller than its messages would take up:
+ *                java -XX:+UnlockExperimentalVMOptions -XX:+UseEpsilonGC -Xmx64m Main
+ *                producerconsumer.ProducerConsumerSnippet 24 events 100000000
+ *                25: adaptive consumer pool - a {@link producerconsumer.ConsumerPool} of 1 to POOL_MAX_CONSUMERS
+ *                consumers over an MpmcRingBufferQueue, each consumer parking POOL_WORK_MICROS per message as if
+ *                waiting on I/O; two producers publish one after the other - at a base rate (POOL_PROFILE), a burst
+ *                (POOL_BURST_PROFILE) and the base rate again - with POOL_QUIET_MILLIS of no messages in between;
+ *                takes further optional arguments:
+ *                java Main producerconsumer.ProducerConsumerSnippet 25 [max consumers] [profile]
+ *                where max consumers = the pool's ceiling (default POOL_MAX_CONSUMERS) and profile = the rate
+ *                profile of each producer, as in mode 21 (default base, burst, base); logs the pool's size history -
+ *                up on every burst, back down to 1 in the quiet gap and at the end - and the metrics summary.
+ *
+ * Modes 5 & 6 produce RING_BUFFER_MESSAGES messages and log every produced/consumed message at FINE level only,
+ * so that the messages/sec reported by Producer and Consumer on halting reflect the queue and not the console.
  *
  * For e.g:   java Main producerconsumer.ProducerConsumerSnippet 1
- * TODO: make Producer & Consumer parameterized <T> rather than them assuming a type (like String for now)
- * of the queue; so that any Queue<T> can be used with it.
  *
+ * Modes 1, 2, 3, 5, 6, 7, 8, 14, 17, 18, 19 and 21 can also be run as a repeatable, timed scenario (see
+ * main.ScenarioRunner), with the given number of threads (the producers and the consumers each in modes 1, 2, 3, 6, 7
+ * and 8, the producers sharing the messages as evenly as they go; the enrich workers in mode 17, the pool workers in
+ * mode 18 - keyed by the keyed=true option; modes 19 and 21 run one producer and one consumer), messages in total and
+ * queue capacity; the queue of modes 8, 14 and 21 is given by the queue=&lt;type&gt; option, the rate profile of
+ * mode 21 (for which the messages are the most to publish) by the profile=&lt;profile&gt; option and the sleep of
+ * the producers of mode 2 after each message by the sleep=&lt;millis&gt; option (default 1). The scenarios start the
+ * producers right away - without the 10 seconds' head start of the consumer - and log the messages at FINE level
+ * only. Mode 4 is left out: it's about the consumer halting on its idle time-out, which takes as long as the time-out
+ * whatever the messages.
+ * For e.g:   java Main --scenario producerconsumer.ProducerConsumerSnippet mode=8 threads=4 queue=blocking
  */
 public class ProducerConsumerSnippet implements Snippet {
+    static final int RING_BUFFER_CAPACITY = 1024;
+    static final int RING_BUFFER_MESSAGES = 1_000_000;
+    static final int TOPOLOGY_PRODUCERS = 4;
+    static final int TOPOLOGY_CONSUMERS = 4;
+    static final int TOPOLOGY_MESSAGES_PER_PRODUCER = 250_000;
+    static final int BOUNDED_QUEUE_CAPACITY = 16;
+    static final long SLOW_CONSUMER_MILLIS = 2;
+    static final int PRODUCER_BATCH_SIZE = 16;
+    static final int CONSUMER_BATCH_SIZE = 64;
+    static final long CONSUMER_LINGER_MILLIS = 5;
+    static final int SCALING_PAIRS = 1000;
+    static final int SCALING_MESSAGES_PER_PAIR = 100;
+    static final int EVENT_LOG_MESSAGES = 100_000;
+    static final int EVENT_LOG_SAMPLE_RATE = 1000;
+    static final long METRICS_REPORTING_SECONDS = 1;
+    static final int JOURNAL_MESSAGES = 1000;
+    // small segments, so that the snippet rolls over a few of them
+    static final int JOURNAL_RECORDS_PER_SEGMENT = 256;
+    static final int PIPELINE_MESSAGES = 100_000;
+    // the work the enrich stage of the pipeline does per message, the others do next to none
+    static final long PIPELINE_ENRICH_MICROS = 20;
+    static final int FORK_JOIN_MESSAGES = 100_000;
+    static final int FORK_JOIN_WORK_ROUNDS = 20_000;
+    static final int FORK_JOIN_KEYS = 16;
+    static final int TRANSPORT_PORT = 7065;
+    static final long TIMER_PACING_MILLIS = 10;
+    static final int TIMER_MESSAGES_PER_PAIR = 20;
+    static final String LOAD_PROFILE = "steps:100000:100000:8:1";
+    // The share of the target rate below which a segment counts as saturated
+    static final double LOAD_SATURATION_RATIO = 0.95;
+    static final int PARTITIONS = 16;
+    static final int PARTITION_KEYS = 256;
+    static final int PARTITION_MESSAGES = 1_000_000;
+    static final int CONTENTION_MESSAGES = 100_000;
+    static final int ALLOCATION_MESSAGES = 5_000_000;
+    // the messages before the first 1/ALLOCATION_WARMUP_DIVISOR of them warm up the JIT and aren't counted
+    static final int ALLOCATION_WARMUP_DIVISOR = 10;
+    static final int POOL_MAX_CONSUMERS = 8;
+    static final long POOL_WORK_MICROS = 100;
+    static final String POOL_PROFILE = "constant:2000:1";
+    // the burst in between two POOL_PROFILE segments of every producer
+    static final String POOL_BURST_PROFILE = "constant:20000:2";
+    static final long POOL_QUIET_MILLIS = 3000;
+    // strong references, as the LogManager only holds on to the loggers weakly
+    private final List<Logger> quietedLoggers = new ArrayList<>();
     Logger logger = Logger.getLogger(getClass().getName());
 
     @Override
@@ -67,21 +316,326 @@ public class ProducerConsumerSnippet implements Snippet {
             }
             break;
 
+            case 5:{
+                logger.info("Running in 'single-producer/single-consumer ring buffer queue' mode");
+                runRingBufferSnippet(new SpscRingBufferQueue<>(RING_BUFFER_CAPACITY));
+            }
+            break;
+
+            case 6:{
+                logger.info("Running in 'multi-producer/multi-consumer ring buffer queue' mode");
+                runRingBufferSnippet(new MpmcRingBufferQueue<>(RING_BUFFER_CAPACITY));
+            }
+            break;
+
+            case 7:{
+                logger.info("Running in 'batched publish and batched consume' mode");
+                runBatchedSnippet();
+            }
+            break;
+
+            case 8:{
+                logger.info("Running in 'N producers and M consumers' mode");
+                runTopologySnippet(args);
+            }
+            break;
+
+            case 9:{
+                logger.info("Running in 'primitive long ring buffer' mode");
+                runLongRingBufferSnippet();
+            }
+            break;
+
+            case 10:{
+                logger.info("Running in 'back pressure on a bounded queue' mode");
+                runBackpressureSnippet(args.length > 1 ? args[1] : "block");
+            }
+            break;
+
+            case 11:{
+                logger.info("Running in 'consumer wait strategy' mode");
+                runWaitStrategySnippet(args.length > 1 ? args[1] : "blocking", args.length > 2 ? args[2] : "mpmc");
+            }
+            break;
+
+            case 12:{
+                logger.info("Running in 'many producer/consumer pairs' mode");
+                runScalingSnippet(args.length > 1 ? Integer.parseInt(args[1]) : SCALING_PAIRS,
+                        args.length > 2 ? ExecutionMode.of(args[2]) : ExecutionMode.PLATFORM,
+                        args.length > 3 ? Integer.parseInt(args[3]) : SCALING_MESSAGES_PER_PAIR);
+            }
+            break;
+
+            case 13:{
+                logger.info("Running in 'asynchronous event logging' mode");
+                runEventLogSnippet(args.length > 1 ? args[1] : "logger",
+                        args.length > 2 ? Integer.parseInt(args[2]) : EVENT_LOG_MESSAGES);
+            }
+            break;
+
+            case 14:{
+                logger.info("Running in 'latency and throughput metrics' mode");
+                runMetricsSnippet(args.length > 1 ? args[1] : "mpmc",
+                        args.length > 2 ? Integer.parseInt(args[2]) : RING_BUFFER_MESSAGES,
+                        args.length > 3 ? Long.parseLong(args[3]) : 0);
+            }
+            break;
+
+            case 15:{
+                logger.info("Running in 'durable journal queue' mode");
+                runJournalSnippet(args.length > 1 ? args[1] : "both",
+                        args.length > 2 ? Paths.get(args[2]) :
+                                Paths.get(System.getProperty("java.io.tmpdir"), "cs0x65-journal"),
+                        args.length > 3 ? Long.parseLong(args[3]) : -1);
+            }
+            break;
+
+            case 16:{
+                logger.info("Running in 'streaming producer' mode");
+                runStreamingSnippet(args.length > 1 ? args[1] : "-",
+                        args.length > 2 && args[2].equals("length") ? ChannelRecordSource.Framing.LENGTH_PREFIXED :
+                                ChannelRecordSource.Framing.NEWLINE,
+                        args.length > 3 ? args[3] : "mpmc");
+            }
+            break;
+
+            case 17:{
+                logger.info("Running in 'multi-stage pipeline' mode");
+                runPipelineSnippet(args.length > 1 ? Integer.parseInt(args[1]) : PIPELINE_MESSAGES,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 1);
+            }
+            break;
+
+            case 18:{
+                logger.info("Running in 'fork/join consumer' mode");
+                runForkJoinConsumer(args.length > 1 ? Integer.parseInt(args[1]) :
+                                Runtime.getRuntime().availableProcessors(),
+                        args.length > 2 ? Integer.parseInt(args[2]) : FORK_JOIN_MESSAGES,
+                        args.length > 3 && args[3].equals("keyed"), ExecutionMode.PLATFORM);
+            }
+            break;
+
+            case 19:{
+                logger.info("Running in 'socket transport' mode");
+                String run = args.length > 1 ? args[1] : "loopback";
+                runTransportSnippet(run, args.length > 2 ? args[2] :
+                                run.equals("send") ? "localhost:"+TRANSPORT_PORT : String.valueOf(TRANSPORT_PORT),
+                        args.length > 3 ? Integer.parseInt(args[3]) : RING_BUFFER_MESSAGES);
+            }
+            break;
+
+            case 20:{
+                logger.info("Running in 'timing wheel' mode");
+                runTimingWheelSnippet(args.length > 1 ? Integer.parseInt(args[1]) : SCALING_PAIRS,
+                        args.length > 2 ? Long.parseLong(args[2]) : TimingWheel.DEFAULT_TICK_MILLIS,
+                        args.length > 3 ? ExecutionMode.of(args[3]) : ExecutionMode.PLATFORM);
+            }
+            break;
+
+            case 21:{
+                logger.info("Running in 'rate-controlled load generator' mode");
+                runLoadGeneratorSnippet(args.length > 1 ? args[1] : "mpmc",
+                        RateProfile.of(args.length > 2 ? args[2] : LOAD_PROFILE));
+            }
+            break;
+
+            case 22:{
+                logger.info("Running in 'key-partitioned channel' mode");
+                runPartitionedChannelSnippet(args.length > 1 ? Integer.parseInt(args[1]) : PARTITIONS,
+                        args.length > 2 ? Integer.parseInt(args[2]) : TOPOLOGY_CONSUMERS,
+                        args.length > 3 ? AssignmentStrategy.of(args[3]) : AssignmentStrategy.RANGE,
+                        args.length > 4 ? Double.parseDouble(args[4]) : 0);
+            }
+            break;
+
+            case 23:{
+                logger.info("Running in 'contention profile' mode");
+                runContentionProfileSnippet(args.length > 1 ? Integer.parseInt(args[1]) : CONTENTION_MESSAGES,
+                        args.length > 2 ? Integer.parseInt(args[2]) : 1,
+                        args.length > 3 ? Integer.parseInt(args[3]) : 1);
+            }
+            break;
+
+            case 24:{
+                logger.info("Running in 'allocation check' mode");
+                runAllocationSnippet(args.length > 1 ? args[1] : "all",
+                        args.length > 2 ? Integer.parseInt(args[2]) : ALLOCATION_MESSAGES);
+            }
+            break;
+
+            case 25:{
+                logger.info("Running in 'adaptive consumer pool' mode");
+                runConsumerPoolSnippet(args.length > 1 ? Integer.parseInt(args[1]) : POOL_MAX_CONSUMERS,
+                        args.length > 2 ? RateProfile.of(args[2]) : RateProfile.of(POOL_PROFILE)
+                                .then(RateProfile.of(POOL_BURST_PROFILE)).then(RateProfile.of(POOL_PROFILE)));
+            }
+            break;
+
             default:
                 logger.info("Running normal mode");
                 runNormalSnippet();
         }
     }
 
+    @Override
+    public ScenarioResult runScenario(Scenario scenario) throws InterruptedException {
+        switch (scenario.getMode()){
+            case 1:
+                return runTopologyScenario(scenario, LinkedList::new, 1, 1);
+
+            case 2:
+                // the original 100 ms a message would make for a long run: 1 ms by default
+                return runTopologyScenario(scenario, LinkedList::new, 1, 1,
+                        Long.parseLong(scenario.getOption("sleep", "1")), false);
+
+            case 3:
+                return runTopologyScenario(scenario, LinkedList::new, 1, 1, 0, true);
+
+            case 5:
+                if (scenario.getThreads() != 1){
+                    throw new IllegalArgumentException("The single-producer/single-consumer ring buffer queue of " +
+                            "mode 5 needs threads=1");
+                }
+                return runTopologyScenario(scenario, () -> new SpscRingBufferQueue<>(scenario.getCapacity()), 1, 1);
+
+            case 6:
+                return runTopologyScenario(scenario, () -> new MpmcRingBufferQueue<>(scenario.getCapacity()), 1, 1);
+
+            case 7:
+                return runTopologyScenario(scenario, LinkedList::new, PRODUCER_BATCH_SIZE, CONSUMER_BATCH_SIZE);
+
+            case 8:
+                return runTopologyScenario(scenario, () -> newQueue(scenario.getOption("queue", "mpmc"),
+                        scenario.getCapacity()), 1, 1);
+
+            case 14:
+                return runMetricsScenario(scenario);
+
+            case 17:{
+                long startedAt = System.nanoTime();
+                Pipeline<String> pipeline = runPipeline(scenario.getMessages(), scenario.getThreads(),
+                        scenario.getCapacity(), scenario.getExecutionMode());
+                long elapsedNanos = System.nanoTime() - startedAt;
+                List<Stage<?, ?>> stages = pipeline.getStages();
+                return new ScenarioResult(stages.get(stages.size() - 1).getProcessedCount(), elapsedNanos);
+            }
+
+            case 18:
+                return runForkJoinConsumer(scenario.getThreads(), scenario.getMessages(),
+                        scenario.getOption("keyed", "false").equals("true"), scenario.getExecutionMode());
+
+            case 19:{
+                PipelineMetrics metrics = new PipelineMetrics("socket-transport");
+                long elapsedNanos = runOverTransport(metrics, scenario.getMessages(), scenario.getCapacity());
+                return new ScenarioResult(metrics.getConsumedCount(), elapsedNanos, metrics.getEnqueueToDequeue());
+            }
+
+            case 21:{
+                PipelineMetrics metrics = new PipelineMetrics("load-generator");
+                long elapsedNanos = runLoadGenerator(newQueue(scenario.getOption("queue", "mpmc"),
+                        scenario.getCapacity()), RateProfile.of(scenario.getOption("profile", LOAD_PROFILE)),
+                        scenario.getMessages(), metrics, null);
+                return new ScenarioResult(metrics.getConsumedCount(), elapsedNanos, metrics.getEnqueueToDequeue());
+            }
+
+            default:
+                throw new UnsupportedOperationException("Mode "+scenario.getMode()+" doesn't support scenario runs");
+        }
+    }
+
+    private static <T> Queue<T> newQueue(String queueType, int capacity){
+        if (queueType.equals("linkedlist")){
+            return new LinkedList<>();
+        }else if (queueType.equals("blocking")){
+            return new ArrayBlockingQueue<>(capacity);
+        }
+        return new MpmcRingBufferQueue<>(capacity);
+    }
+
+    /**
+     * Runs threads producers and as many consumers over the queue, the producers sharing the messages between them
+     * and waiting for space on a full queue (rather than halting, as they do with no back pressure policy).
+     */
+    private ScenarioResult runTopologyScenario(Scenario scenario, Supplier<Queue<String>> queueSupplier,
+                                               int producerBatchSize, int consumerBatchSize)
+            throws InterruptedException {
+        return runTopologyScenario(scenario, queueSupplier, producerBatchSize, consumerBatchSize, 0, false);
+    }
+
+    /**
+     * @param sleepFor the milliseconds every producer sleeps for after each message, as in mode 2.
+     * @param yield whether every producer yields after each message, as in mode 3.
+     */
+    private ScenarioResult runTopologyScenario(Scenario scenario, Supplier<Queue<String>> queueSupplier,
+                                               int producerBatchSize, int consumerBatchSize, long sleepFor,
+                                               boolean yield) throws InterruptedException {
+        ProducerConsumerTopology topology = new ProducerConsumerTopology.Builder()
+                .producers(scenario.getThreads())
+                .consumers(scenario.getThreads())
+                .messages(scenario.getMessages())
+                .sleepFor(sleepFor)
+                .yield(yield)
+                .producerBatchSize(producerBatchSize)
+                .consumerBatchSize(consumerBatchSize)
+                .queue(queueSupplier)
+                .backpressurePolicy(new BlockWithTimeoutPolicy<>(Consumer.TIME_TO_WAIT_BEFORE_HALTING,
+                        TimeUnit.MILLISECONDS))
+                .executionMode(scenario.getExecutionMode())
+                .build();
+        for (Producer<String> producer : topology.getProducers()) {
+            producer.setMessageLogLevel(Level.FINE);
+        }
+        for (Consumer<String> consumer : topology.getConsumers()) {
+            consumer.setMessageLogLevel(Level.FINE);
+        }
+        long startedAt = System.nanoTime();
+        topology.run();
+        long elapsedNanos = System.nanoTime() - startedAt;
+        long consumed = 0;
+        for (Consumer<String> consumer : topology.getConsumers()) {
+            consumed += consumer.getConsumedCount();
+        }
+        return new ScenarioResult(consumed, elapsedNanos);
+    }
+
+    /**
+     * A producer and a consumer of TimestampedMessages; the latency is the enqueue-to-dequeue one.
+     */
+    private ScenarioResult runMetricsScenario(Scenario scenario) throws InterruptedException {
+        Queue<TimestampedMessage<String>> queue = newQueue(scenario.getOption("queue", "mpmc"),
+                scenario.getCapacity());
+        PipelineMetrics metrics = new PipelineMetrics("producer-consumer");
+        Consumer<TimestampedMessage<String>> consumer = Consumer.ofTimestampedStrings(queue);
+        consumer.setMetrics(metrics);
+        consumer.setMessageLogLevel(Level.FINE);
+        Producer<TimestampedMessage<String>> producer = Producer.ofTimestampedStrings(queue, scenario.getMessages(),
+                0);
+        producer.setMetrics(metrics);
+        producer.setMessageLogLevel(Level.FINE);
+        producer.setBackpressurePolicy(new BlockWithTimeoutPolicy<>(Consumer.TIME_TO_WAIT_BEFORE_HALTING,
+                TimeUnit.MILLISECONDS));
+        ThreadFactory consumerThreads = scenario.getExecutionMode().threadFactory("Consumer-Thread-cs0x65-");
+        ThreadFactory producerThreads = scenario.getExecutionMode().threadFactory("Producer-Thread-cs0x65-");
+        Thread consumerThread = consumerThreads.newThread(consumer);
+        Thread producerThread = producerThreads.newThread(producer);
+        long startedAt = System.nanoTime();
+        consumerThread.start();
+        producerThread.start();
+        producerThread.join();
+        consumerThread.join();
+        return new ScenarioResult(consumer.getConsumedCount(), System.nanoTime() - startedAt,
+                metrics.getEnqueueToDequeue());
+    }
+
     private void runNormalSnippet(){
         Queue<String> queue = new LinkedList<>();
-        new Thread(new Consumer(queue)).start();
+        new Thread(Consumer.ofStrings(queue)).start();
         try {
             Thread.sleep(10000);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        new Thread(new Producer(queue)).start();
+        new Thread(Producer.ofStrings(queue)).start();
     }
 
     /**
@@ -89,14 +643,14 @@ public class ProducerConsumerSnippet implements Snippet {
      */
     private void runProducerSleepsAfterEachMessageSnippet(){
         Queue<String> queue = new LinkedList<>();
-        new Thread(new Consumer(queue)).start();
+        new Thread(Consumer.ofStrings(queue)).start();
         try {
             Thread.sleep(10000);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
         // Let producer sleep for 100 ms post producing each message
-        new Thread(new Producer(queue, 100)).start();
+        new Thread(Producer.ofStrings(queue, 100)).start();
     }
 
     /**
@@ -107,13 +661,13 @@ public class ProducerConsumerSnippet implements Snippet {
      */
     private void runProducerYieldsAfterEachMessageSnippet(){
         Queue<String> queue = new LinkedList<>();
-        new Thread(new Consumer(queue)).start();
+        new Thread(Consumer.ofStrings(queue)).start();
         try {
             Thread.sleep(10000);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
-        Producer producer = new Producer(queue);
+        Producer<String> producer = Producer.ofStrings(queue);
         producer.setYield(true);
         new Thread(producer).start();
     }
@@ -129,7 +683,7 @@ public class ProducerConsumerSnippet implements Snippet {
      */
     private void runConsumerHaltsOnTimeoutSnippet(){
         Queue<String> queue = new LinkedList<>();
-        Thread consumerThread =  new Thread(new Consumer(queue));
+        Thread consumerThread =  new Thread(Consumer.ofStrings(queue));
         consumerThread.setName("Consumer-Thread-cs0x65");
         consumerThread.start();
         try {
@@ -139,8 +693,1094 @@ public class ProducerConsumerSnippet implements Snippet {
         }
         // Let producer sleep for 10 ms more than Consumer.TIME_TO_WAIT_BEFORE_HALTING, so that
         // we can verify that consumer times out and halts.
-        Thread producerThread = new Thread(new Producer(queue, Consumer.TIME_TO_WAIT_BEFORE_HALTING + 1000));
+        Thread producerThread = new Thread(
+                Producer.ofStrings(queue, Consumer.TIME_TO_WAIT_BEFORE_HALTING + 1000));
+        producerThread.setName("Producer-Thread-cs0x65");
+        producerThread.start();
+    }
+
+    /**
+     * Same as the normal mode except that the LinkedList is replaced by a preallocated, lock-free ring buffer.
+     * The Producer and Consumer detect the ring buffer and skip the synchronized(queue)/wait()/notifyAll() round trip
+     * per message; when the ring is full the producer spins and when it's empty the consumer spins, yields and parks.
+     */
+    private void runRingBufferSnippet(RingBufferQueue<String> queue){
+        Thread consumerThread =  new Thread(Consumer.ofStrings(queue));
+        consumerThread.setName("Consumer-Thread-cs0x65");
+        consumerThread.start();
+        try {
+            Thread.sleep(10000);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        Thread producerThread = new Thread(Producer.ofStrings(queue, RING_BUFFER_MESSAGES, 0));
+        producerThread.setName("Producer-Thread-cs0x65");
+        producerThread.start();
+    }
+
+    /**
+     * The producer builds PRODUCER_BATCH_SIZE messages at a time and publishes them with one monitor acquisition and
+     * one notifyAll(); the consumer drains up to CONSUMER_BATCH_SIZE messages per monitor acquisition, lingering for
+     * up to CONSUMER_LINGER_MILLIS for a partially filled batch to fill up.
+     */
+    private void runBatchedSnippet(){
+        Queue<String> queue = new LinkedList<>();
+        Consumer<String> consumer = Consumer.ofStrings(queue);
+        consumer.setBatchSize(CONSUMER_BATCH_SIZE);
+        consumer.setLingerMillis(CONSUMER_LINGER_MILLIS);
+        new Thread(consumer).start();
+        try {
+            Thread.sleep(10000);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        Producer<String> producer = Producer.ofStrings(queue);
+        producer.setBatchSize(PRODUCER_BATCH_SIZE);
+        new Thread(producer).start();
+    }
+
+    /**
+     * Runs ProducerConsumerTopology with the producer/consumer counts, queue and number of messages per producer
+     * taken from the arguments following the mode; this is meant to see how the throughput scales with the number of
+     * threads/cores.
+     */
+    private void runTopologySnippet(String[] args){
+        int producers = args.length > 1 ? Integer.parseInt(args[1]) : TOPOLOGY_PRODUCERS;
+        int consumers = args.length > 2 ? Integer.parseInt(args[2]) : TOPOLOGY_CONSUMERS;
+        String queueType = args.length > 3 ? args[3] : "mpmc";
+        int messagesPerProducer = args.length > 4 ? Integer.parseInt(args[4]) : TOPOLOGY_MESSAGES_PER_PRODUCER;
+        ExecutionMode executionMode = args.length > 5 ? ExecutionMode.of(args[5]) : ExecutionMode.PLATFORM;
+        ProducerConsumerTopology.Builder builder = new ProducerConsumerTopology.Builder()
+                .producers(producers)
+                .consumers(consumers)
+                .messagesPerProducer(messagesPerProducer)
+                .executionMode(executionMode);
+        if (queueType.equals("linkedlist")){
+            builder.queue(LinkedList::new);
+        }else if (queueType.equals("blocking")){
+            builder.queue(() -> new ArrayBlockingQueue<>(RING_BUFFER_CAPACITY));
+        }else {
+            builder.queue(() -> new MpmcRingBufferQueue<>(RING_BUFFER_CAPACITY));
+        }
+        try {
+            builder.build().run();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The primitive specialization of the ring buffer mode: RING_BUFFER_MESSAGES long values go from the producer to
+     * the consumer through a long[] ring, so that neither a String nor a Long is allocated per message.
+     */
+    private void runLongRingBufferSnippet(){
+        LongRingBuffer ring = new LongRingBuffer(RING_BUFFER_CAPACITY);
+        Thread consumerThread =  new Thread(new LongChannelConsumer(ring));
+        consumerThread.setName("Consumer-Thread-cs0x65");
+        consumerThread.start();
+        try {
+            Thread.sleep(10000);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        Thread producerThread = new Thread(new LongChannelProducer(ring, RING_BUFFER_MESSAGES));
+        producerThread.setName("Producer-Thread-cs0x65");
+        producerThread.start();
+    }
+
+    /**
+     * The consumer takes SLOW_CONSUMER_MILLIS to process every message, so the producer soon fills up the queue of
+     * BOUNDED_QUEUE_CAPACITY and the back pressure policy kicks in; whichever the policy, the consumer halts on the
+     * closing message.
+     */
+    private void runBackpressureSnippet(String policyName){
+        BackpressurePolicy<String> policy;
+        switch (policyName){
+            case "spinpark":
+                policy = new SpinThenParkPolicy<>(100, 1, TimeUnit.SECONDS);
+                break;
+            case "dropnewest":
+                policy = new DropNewestPolicy<>();
+                break;
+            case "dropoldest":
+                policy = new DropOldestPolicy<>();
+                break;
+            case "sample":
+                policy = new SamplePolicy<>(10, 1, TimeUnit.SECONDS);
+                break;
+            case "callerruns":
+                policy = new CallerRunsPolicy<>(message -> logger.info("Processed by producer: "+message));
+                break;
+            default:
+                policy = new BlockWithTimeoutPolicy<>(1, TimeUnit.SECONDS);
+        }
+        logger.info("Back pressure policy: "+policy.getClass().getSimpleName());
+        Queue<String> queue = new ArrayBlockingQueue<>(BOUNDED_QUEUE_CAPACITY);
+        Consumer<String> consumer = Consumer.ofStrings(queue);
+        consumer.setMessageHandler(message -> {
+            try {
+                Thread.sleep(SLOW_CONSUMER_MILLIS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        });
+        new Thread(consumer).start();
+        Producer<String> producer = Producer.ofStrings(queue);
+        producer.setBackpressurePolicy(policy);
+        new Thread(producer).start();
+    }
+
+    /**
+     * Same as the normal (linkedlist) or the ring buffer (mpmc) mode, except for the consumer's wait strategy; the
+     * consumer's messages/sec show what each strategy costs or gains in handoff, and the CPU time of the process what
+     * it costs in CPU.
+     */
+    private void runWaitStrategySnippet(String strategyName, String queueType){
+        WaitStrategy waitStrategy;
+        switch (strategyName){
+            case "busyspin":
+                waitStrategy = new BusySpinWaitStrategy();
+                break;
+            case "spin":
+                waitStrategy = new SpinWaitStrategy();
+                break;
+            case "yield":
+                waitStrategy = new YieldingWaitStrategy();
+                break;
+            case "backoff":
+                waitStrategy = new BackoffParkWaitStrategy();
+                break;
+            default:
+                waitStrategy = new BlockingWaitStrategy();
+        }
+        boolean ring = !queueType.equals("linkedlist");
+        Queue<String> queue = ring ? new MpmcRingBufferQueue<>(RING_BUFFER_CAPACITY) : new LinkedList<>();
+        Consumer<String> consumer = Consumer.ofStrings(queue);
+        consumer.setWaitStrategy(waitStrategy);
+        Thread consumerThread =  new Thread(consumer);
+        consumerThread.setName("Consumer-Thread-cs0x65");
+        consumerThread.start();
+        Thread producerThread = new Thread(Producer.ofStrings(queue, ring ? RING_BUFFER_MESSAGES : 100, 0));
         producerThread.setName("Producer-Thread-cs0x65");
         producerThread.start();
     }
+
+    /**
+     * Runs the given number of independent producer/consumer pairs, each over a LinkedBlockingQueue of its own, on
+     * platform or virtual threads. The consumers are started first and block on their empty queues while the
+     * producers wait for all the pairs to be up; the heap, the resident set size and the live (platform) thread count
+     * are taken at that point, i.e. with every pair alive and idle. The producers are then let go at once and the
+     * aggregate throughput is taken over the time for all of the pairs to halt.
+     * The LinkedBlockingQueue guards itself with ReentrantLocks and Conditions, so neither side ever blocks inside a
+     * synchronized block and the virtual threads never pin their carrier threads.
+     * Platform threads run out - on the per-user process limit or on native memory - well before 100k pairs; the pairs
+     * started by then still run and the failure is reported; so are the pairs whose consumer halted on time-out before
+     * its producer ever got scheduled.
+     */
+    private void runScalingSnippet(int pairs, ExecutionMode executionMode, int messagesPerPair){
+        // 2 log records per message per pair would drown the numbers this mode is about
+        for (String loggerName : new String[]{Producer.class.getName(), Consumer.class.getName()}) {
+            Logger quieted = Logger.getLogger(loggerName);
+            quieted.setLevel(Level.SEVERE);
+            quietedLoggers.add(quieted);
+        }
+        ThreadFactory consumerThreads;
+        ThreadFactory producerThreads;
+        try {
+            consumerThreads = executionMode.threadFactory("Consumer-Thread-cs0x65-");
+            producerThreads = executionMode.threadFactory("Producer-Thread-cs0x65-");
+        } catch (UnsupportedOperationException e) {
+            logger.severe(e.getMessage());
+            return;
+        }
+        System.gc();
+        long heapBefore = usedHeap();
+        long rssBefore = residentSetSize();
+        CountDownLatch startGate = new CountDownLatch(1);
+        List<Consumer<String>> consumers = new ArrayList<>(pairs);
+        List<Thread> threads = new ArrayList<>(2 * pairs);
+        Throwable failure = null;
+        for (int i = 0; i < pairs && failure == null; i++) {
+            Queue<String> queue = new LinkedBlockingQueue<>();
+            Consumer<String> consumer = Consumer.ofStrings(queue);
+            Producer<String> producer = Producer.ofStrings(queue, messagesPerPair, 0);
+            Thread consumerThread = null;
+            try {
+                consumerThread = consumerThreads.newThread(consumer);
+                consumerThread.start();
+                consumers.add(consumer);
+                threads.add(consumerThread);
+                Thread producerThread = producerThreads.newThread(() -> {
+                    try {
+                        startGate.await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    producer.run();
+                });
+                producerThread.start();
+                threads.add(producerThread);
+            } catch (OutOfMemoryError e) {
+                failure = e;
+                if (consumerThread != null && consumerThread.isAlive()){
+                    // the consumer of this pair got started, its producer didn't
+                    queue.offer(EndOfStreamMarker.STRINGS.marker());
+                }
+            }
+        }
+        int startedPairs = consumers.size();
+        long heapIdle = usedHeap();
+        long rssIdle = residentSetSize();
+        int platformThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+        long startTime = System.nanoTime();
+        startGate.countDown();
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        long consumed = 0;
+        int incompletePairs = 0;
+        for (Consumer<String> consumer : consumers) {
+            consumed += consumer.getConsumedCount();
+            if (consumer.getConsumedCount() < messagesPerPair){
+                incompletePairs++;
+            }
+        }
+        long messagesPerSecond = elapsedNanos > 0 ? consumed * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+        StringBuilder report = new StringBuilder("Scaling report for "+pairs+" pair(s) on "+executionMode+
+                " threads with "+messagesPerPair+" messages per pair:");
+        if (failure != null){
+            report.append("\n  FAILED after starting ").append(startedPairs).append(" pair(s): ").append(failure);
+        }
+        report.append("\n  started pairs: ").append(startedPairs)
+                .append(" (incomplete - consumer halted on time-out or producer never started: ")
+                .append(incompletePairs).append(")")
+                .append("\n  live platform threads: ").append(platformThreads)
+                .append("\n  heap used by the idle pairs: ").append(toKiB(heapIdle - heapBefore)).append(" KiB = ")
+                .append(startedPairs > 0 ? (heapIdle - heapBefore) / startedPairs : 0).append(" bytes/pair")
+                .append("\n  resident set size grown by: ").append(toKiB(rssIdle - rssBefore)).append(" KiB = ")
+                .append(startedPairs > 0 ? (rssIdle - rssBefore) / startedPairs : 0).append(" bytes/pair")
+                .append("\n  aggregate throughput: consumed ").append(consumed).append(" messages in ")
+                .append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)).append(" milliseconds = ")
+                .append(messagesPerSecond).append(" messages/sec");
+        logger.info(report.toString());
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * @return VmRSS of /proc/self/status in bytes; 0 where there's no /proc (i.e. anything but Linux).
+     */
+    private static long residentSetSize() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")){
+                    return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // not on Linux
+        }
+        return 0;
+    }
+
+    private static long toKiB(long bytes) {
+        return bytes / 1024;
+    }
+
+    /**
+     * The normal mode over many more messages, to compare a java.util.logging call per message - formatting a String
+     * and writing to the console on the producer and consumer threads - with recording every (or every
+     * EVENT_LOG_SAMPLE_RATE-th) message with an EventRecorder, which leaves both to its background thread.
+     */
+    private void runEventLogSnippet(String logging, int messages){
+        EventRecorder eventRecorder = null;
+        if (logging.equals("recorder")){
+            eventRecorder = new EventRecorder(Level.INFO);
+        }else if (logging.equals("sampled")){
+            eventRecorder = new EventRecorder(Level.INFO, EVENT_LOG_SAMPLE_RATE);
+        }
+        Queue<String> queue = new LinkedList<>();
+        Consumer<String> consumer = Consumer.ofStrings(queue);
+        consumer.setEventRecorder(eventRecorder);
+        Thread consumerThread =  new Thread(consumer);
+        consumerThread.setName("Consumer-Thread-cs0x65");
+        consumerThread.start();
+        Producer<String> producer = Producer.ofStrings(queue, messages, 0);
+        producer.setEventRecorder(eventRecorder);
+        Thread producerThread = new Thread(producer);
+        producerThread.setName("Producer-Thread-cs0x65");
+        producerThread.start();
+        try {
+            producerThread.join();
+            consumerThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        if (eventRecorder != null){
+            eventRecorder.close();
+        }
+    }
+
+    /**
+     * Measures every message from the moment the producer enqueues it to the moment the consumer takes it off the
+     * queue and is done with it; the summary line is logged every METRICS_REPORTING_SECONDS while they run and once
+     * more when both have halted, and the same figures can be watched live with any JMX client (e.g. jconsole).
+     */
+    private void runMetricsSnippet(String queueType, int messages, long sleepFor){
+        Queue<TimestampedMessage<String>> queue;
+        if (queueType.equals("linkedlist")){
+            queue = new LinkedList<>();
+        }else if (queueType.equals("blocking")){
+            queue = new LinkedBlockingQueue<>();
+        }else {
+            queue = new MpmcRingBufferQueue<>(RING_BUFFER_CAPACITY);
+        }
+        PipelineMetrics metrics = new PipelineMetrics("producer-consumer");
+        metrics.setQueueDepth(queue::size);
+        metrics.register();
+        metrics.startReporting(METRICS_REPORTING_SECONDS, TimeUnit.SECONDS);
+        Consumer<TimestampedMessage<String>> consumer = Consumer.ofTimestampedStrings(queue);
+        consumer.setMetrics(metrics);
+        Thread consumerThread =  new Thread(consumer);
+        consumerThread.setName("Consumer-Thread-cs0x65");
+        consumerThread.start();
+        Producer<TimestampedMessage<String>> producer = Producer.ofTimestampedStrings(queue, messages, sleepFor);
+        producer.setMetrics(metrics);
+        Thread producerThread = new Thread(producer);
+        producerThread.setName("Producer-Thread-cs0x65");
+        producerThread.start();
+        try {
+            producerThread.join();
+            consumerThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        metrics.stopReporting();
+        logger.info(metrics.getSummary());
+        metrics.unregister();
+    }
+
+    /**
+     * Runs a producer and/or a consumer over a JournalQueue; killing the JVM halfway through a produce (or both) run
+     * and then running consume shows that the messages already produced weren't lost.
+     */
+    private void runJournalSnippet(String run, Path directory, long messagesOrOffset){
+        try (JournalQueue<String> journal = new JournalQueue<>(directory, RecordCodec.STRINGS,
+                JournalQueue.DEFAULT_RECORD_SIZE, JOURNAL_RECORDS_PER_SEGMENT)) {
+            journal.setRetainConsumedSegments(!run.equals("both"));
+            if (run.equals("replay")){
+                journal.seek(Math.max(messagesOrOffset, 0));
+            }
+            logger.info("Opened "+journal);
+            List<Thread> threads = new ArrayList<>();
+            if (!run.equals("produce")){
+                Thread consumerThread =  new Thread(Consumer.ofStrings(journal));
+                consumerThread.setName("Consumer-Thread-cs0x65");
+                threads.add(consumerThread);
+            }
+            if (run.equals("both") || run.equals("produce")){
+                int messages = messagesOrOffset > 0 ? (int) messagesOrOffset : JOURNAL_MESSAGES;
+                Thread producerThread = new Thread(Producer.ofStrings(journal, messages, 0));
+                producerThread.setName("Producer-Thread-cs0x65");
+                threads.add(producerThread);
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            logger.info("Closing "+journal);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Streams an input of unknown length through a producer and consumer pair: the producer publishes every record
+     * of the input and closes the stream on its EOF. With the mpmc queue the messages are logged at FINE level only,
+     * so that the messages/sec reflect how fast the input is read, split and handed off.
+     */
+    private void runStreamingSnippet(String input, ChannelRecordSource.Framing framing, String queueType){
+        Queue<String> queue = queueType.equals("linkedlist") ? new LinkedList<>() :
+                new MpmcRingBufferQueue<>(RING_BUFFER_CAPACITY);
+        try (ChannelRecordSource source = input.equals("-") ? ChannelRecordSource.ofStdin(framing) :
+                ChannelRecordSource.ofFile(Paths.get(input), framing)) {
+            Thread consumerThread =  new Thread(Consumer.ofStrings(queue));
+            consumerThread.setName("Consumer-Thread-cs0x65");
+            consumerThread.start();
+            Thread producerThread = new Thread(new Producer<>(queue, source, EndOfStreamMarker.STRINGS));
+            producerThread.setName("Producer-Thread-cs0x65");
+            producerThread.start();
+            producerThread.join();
+            consumerThread.join();
+            logger.info("Streamed "+source);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs the messages through parse (the int off "Message&lt;i&gt;"), enrich (a busy PIPELINE_ENRICH_MICROS per
+     * message), aggregate (a running sum) and sink (a count) stages; with a single enrich worker the report points at
+     * enrich as the bottleneck, and more enrich workers move the bottleneck - on as many cores - elsewhere.
+     */
+    private void runPipelineSnippet(int messages, int enrichWorkers){
+        Pipeline<String> pipeline = runPipeline(messages, enrichWorkers, Pipeline.DEFAULT_QUEUE_CAPACITY,
+                ExecutionMode.PLATFORM);
+        logger.info(pipeline.report());
+    }
+
+    /**
+     * @return the pipeline, once the closing message has passed through all of its stages.
+     */
+    private Pipeline<String> runPipeline(int messages, int enrichWorkers, int queueCapacity,
+                                         ExecutionMode executionMode){
+        LongAdder sum = new LongAdder();
+        LongAdder sunk = new LongAdder();
+        Pipeline<String> pipeline = Pipeline.<String>builder()
+                .queueCapacity(queueCapacity)
+                .executionMode(executionMode)
+                .stage("parse", message -> Integer.parseInt(message.substring("Message".length())), 1)
+                .stage("enrich", number -> {
+                    long until = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(PIPELINE_ENRICH_MICROS);
+                    while (System.nanoTime() < until){
+                        Thread.onSpinWait();
+                    }
+                    return (long) number * number;
+                }, enrichWorkers)
+                .stage("aggregate", square -> {
+                    sum.add(square);
+                    return square;
+                }, 1, CONSUMER_BATCH_SIZE)
+                .sink("sink", square -> sunk.increment(), 1);
+        Producer<String> producer = new Producer<>(pipeline.getInput(), MessageFactory.STRINGS,
+                pipeline.getEndOfStream(), messages, 0);
+        producer.setMessageLogLevel(Level.FINE);
+        pipeline.connect(List.of(producer));
+        pipeline.start();
+        Thread producerThread = executionMode.threadFactory("Producer-Thread-cs0x65-").newThread(producer);
+        producerThread.start();
+        try {
+            producerThread.join();
+            pipeline.awaitTermination();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        logger.info("Sunk "+sunk.sum()+" messages, the sum of the squares being "+sum.sum());
+        return pipeline;
+    }
+
+    /**
+     * A producer publishes messages over a ring buffer queue to a consumer whose handler burns the CPU on every
+     * message; with a ForkJoinPool of parallelism workers (0 for none) the handling is spread over them, so the
+     * messages/sec should scale with the number of cores up to the speed of the producer. When keyed, the handler
+     * checks that the messages of every key (the message index modulo FORK_JOIN_KEYS) arrive in order.
+     */
+    private ScenarioResult runForkJoinConsumer(int parallelism, int messages, boolean keyed,
+                                               ExecutionMode executionMode){
+        MpmcRingBufferQueue<String> queue = new MpmcRingBufferQueue<>(RING_BUFFER_CAPACITY);
+        LongAdder checksum = new LongAdder();
+        AtomicLong outOfOrder = new AtomicLong();
+        // only ever read and written by the lane of the key, and handed over from batch to batch by join()
+        long[] lastIndexOfKey = new long[FORK_JOIN_KEYS];
+        Arrays.fill(lastIndexOfKey, -1);
+        Consumer<String> consumer = Consumer.ofStrings(queue);
+        consumer.setMessageHandler(message -> {
+            long index = Long.parseLong(message.substring("Message".length()));
+            long hash = index;
+            for (int i = 0; i < FORK_JOIN_WORK_ROUNDS; i++) {
+                hash = hash * 6364136223846793005L + 1442695040888963407L;
+                hash ^= hash >>> 29;
+            }
+            checksum.add(hash);
+            if (keyed){
+                int key = (int) (index % FORK_JOIN_KEYS);
+                if (index < lastIndexOfKey[key]){
+                    outOfOrder.incrementAndGet();
+                }
+                lastIndexOfKey[key] = index;
+            }
+        });
+        ForkJoinPool pool = parallelism > 0 ? new ForkJoinPool(parallelism) : null;
+        consumer.setProcessingPool(pool);
+        if (keyed){
+            consumer.setOrderingKey(message -> Long.parseLong(message.substring("Message".length())) %
+                    FORK_JOIN_KEYS);
+        }
+        Producer<String> producer = Producer.ofStrings(queue, messages, 0);
+        Thread consumerThread = executionMode.threadFactory("Consumer-Thread-cs0x65-").newThread(consumer);
+        Thread producerThread = executionMode.threadFactory("Producer-Thread-cs0x65-").newThread(producer);
+        long startedAt = System.nanoTime();
+        consumerThread.start();
+        producerThread.start();
+        try {
+            producerThread.join();
+            consumerThread.join();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        long elapsedNanos = System.nanoTime() - startedAt;
+        if (pool != null){
+            pool.shutdown();
+        }
+        ScenarioResult result = new ScenarioResult(consumer.getConsumedCount(), elapsedNanos);
+        logger.info("Processed "+result+" on "+(pool != null ? parallelism+" pool workers" : "the consumer thread")+
+                (keyed ? ", "+outOfOrder.get()+" out of key order" : "")+"; checksum "+checksum.sum());
+        return result;
+    }
+
+    /**
+     * Runs either end of the transport in this JVM, or - over the loopback interface - both of them, the latter after
+     * the same producer and consumer over an in-process ring buffer queue, to tell what the transport adds to the
+     * latency and takes off the throughput.
+     */
+    private void runTransportSnippet(String run, String address, int messages){
+        RecordCodec<TimestampedMessage<String>> codec = TimestampedMessage.codec(RecordCodec.STRINGS);
+        EndOfStreamMarker<TimestampedMessage<String>> endOfStream = TimestampedMessage.marker(EndOfStreamMarker.STRINGS);
+        try {
+            if (run.equals("receive")){
+                Queue<TimestampedMessage<String>> queue = new MpmcRingBufferQueue<>(RING_BUFFER_CAPACITY);
+                SocketReceiver<TimestampedMessage<String>> receiver = new SocketReceiver<>(queue, endOfStream, codec,
+                        new InetSocketAddress(Integer.parseInt(address)), 1, 1);
+                PipelineMetrics metrics = new PipelineMetrics("socket-transport");
+                Consumer<TimestampedMessage<String>> consumer = Consumer.ofTimestampedStrings(queue);
+                consumer.setMetrics(metrics);
+                Thread receiverThread = new Thread(receiver, "Receiver-Thread-cs0x65");
+                Thread consumerThread = new Thread(consumer, "Consumer-Thread-cs0x65");
+                receiverThread.start();
+                consumerThread.start();
+                receiverThread.join();
+                consumerThread.join();
+                logger.info(metrics.getSummary());
+            }else if (run.equals("send")){
+                int colon = address.lastIndexOf(':');
+                Queue<TimestampedMessage<String>> queue = new MpmcRingBufferQueue<>(RING_BUFFER_CAPACITY);
+                SocketSender<TimestampedMessage<String>> sender = new SocketSender<>(queue, endOfStream, codec,
+                        new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1))));
+                // only stamps the messages: the latencies are measured at the receiving end
+                Producer<TimestampedMessage<String>> producer = Producer.ofTimestampedStrings(queue, messages, 0);
+                producer.setMetrics(new PipelineMetrics("socket-transport"));
+                Thread senderThread = new Thread(sender, "Sender-Thread-cs0x65");
+                Thread producerThread = new Thread(producer, "Producer-Thread-cs0x65");
+                senderThread.start();
+                producerThread.start();
+                producerThread.join();
+                senderThread.join();
+            }else {
+                PipelineMetrics inProcess = new PipelineMetrics("in-process");
+                Queue<TimestampedMessage<String>> queue = new MpmcRingBufferQueue<>(RING_BUFFER_CAPACITY);
+                Consumer<TimestampedMessage<String>> consumer = Consumer.ofTimestampedStrings(queue);
+                consumer.setMetrics(inProcess);
+                Producer<TimestampedMessage<String>> producer = Producer.ofTimestampedStrings(queue, messages, 0);
+                producer.setMetrics(inProcess);
+                Thread consumerThread = new Thread(consumer, "Consumer-Thread-cs0x65");
+                Thread producerThread = new Thread(producer, "Producer-Thread-cs0x65");
+                long startedAt = System.nanoTime();
+                consumerThread.start();
+                producerThread.start();
+                producerThread.join();
+                consumerThread.join();
+                long inProcessNanos = System.nanoTime() - startedAt;
+                PipelineMetrics overTransport = new PipelineMetrics("socket-transport");
+                long overTransportNanos = runOverTransport(overTransport, messages, RING_BUFFER_CAPACITY);
+                logger.info("In-process queue: "+new ScenarioResult(inProcess.getConsumedCount(), inProcessNanos,
+                        inProcess.getEnqueueToDequeue())+"\nLoopback transport: "+
+                        new ScenarioResult(overTransport.getConsumedCount(), overTransportNanos,
+                                overTransport.getEnqueueToDequeue()));
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Producer -> queue -> SocketSender -> 127.0.0.1 -> SocketReceiver -> queue -> Consumer, all in this JVM.
+     * @return the time from starting the threads to all of them halting.
+     */
+    private long runOverTransport(PipelineMetrics metrics, int messages, int capacity) throws InterruptedException {
+        RecordCodec<TimestampedMessage<String>> codec = TimestampedMessage.codec(RecordCodec.STRINGS);
+        EndOfStreamMarker<TimestampedMessage<String>> endOfStream = TimestampedMessage.marker(EndOfStreamMarker.STRINGS);
+        Queue<TimestampedMessage<String>> receivingQueue = new MpmcRingBufferQueue<>(capacity);
+        SocketReceiver<TimestampedMessage<String>> receiver = new SocketReceiver<>(receivingQueue, endOfStream, codec,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1, 1);
+        receiver.setCreditWindow(capacity);
+        int port;
+        try {
+            port = receiver.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to bind the receiver", e);
+        }
+        Queue<TimestampedMessage<String>> sendingQueue = new MpmcRingBufferQueue<>(capacity);
+        SocketSender<TimestampedMessage<String>> sender = new SocketSender<>(sendingQueue, endOfStream, codec,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        Consumer<TimestampedMessage<String>> consumer = Consumer.ofTimestampedStrings(receivingQueue);
+        consumer.setMetrics(metrics);
+        Producer<TimestampedMessage<String>> producer = Producer.ofTimestampedStrings(sendingQueue, messages, 0);
+        producer.setMetrics(metrics);
+        List<Thread> threads = List.of(new Thread(receiver, "Receiver-Thread-cs0x65"),
+                new Thread(consumer, "Consumer-Thread-cs0x65"), new Thread(sender, "Sender-Thread-cs0x65"),
+                new Thread(producer, "Producer-Thread-cs0x65"));
+        long startedAt = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - startedAt;
+    }
+
+    /**
+     * Runs the paced pairs without and then with the timing wheel; the pacing alone takes
+     * TIMER_MESSAGES_PER_PAIR * TIMER_PACING_MILLIS, anything beyond that is the timers running late (and the pairs
+     * competing for the processors).
+     */
+    private void runTimingWheelSnippet(int pairs, long tickMillis, ExecutionMode executionMode){
+        for (String loggerName : new String[]{Producer.class.getName(), Consumer.class.getName()}) {
+            Logger quieted = Logger.getLogger(loggerName);
+            quieted.setLevel(Level.SEVERE);
+            quietedLoggers.add(quieted);
+        }
+        long pacingNanos = TimeUnit.MILLISECONDS.toNanos(TIMER_MESSAGES_PER_PAIR * TIMER_PACING_MILLIS);
+        TimingWheel timingWheel = new TimingWheel(tickMillis, TimeUnit.MILLISECONDS, TimingWheel.DEFAULT_WHEEL_SIZE);
+        try {
+            long sleepingNanos = runPacedPairs(pairs, executionMode, null);
+            timingWheel.start();
+            long wheelNanos = runPacedPairs(pairs, executionMode, timingWheel);
+            timingWheel.stop();
+            logger.info(String.format("Timing wheel report for %d paced pair(s) on %s threads, %d messages per pair " +
+                            "paced at %d ms (%d ms of pacing):%n" +
+                            "  Thread.sleep() and own time-outs: %d ms, %d ms late per pair%n" +
+                            "  timing wheel with %d ms ticks:    %d ms, %d ms late per pair",
+                    pairs, executionMode, TIMER_MESSAGES_PER_PAIR, TIMER_PACING_MILLIS,
+                    TimeUnit.NANOSECONDS.toMillis(pacingNanos),
+                    TimeUnit.NANOSECONDS.toMillis(sleepingNanos),
+                    TimeUnit.NANOSECONDS.toMillis(sleepingNanos - pacingNanos),
+                    tickMillis, TimeUnit.NANOSECONDS.toMillis(wheelNanos),
+                    TimeUnit.NANOSECONDS.toMillis(wheelNanos - pacingNanos)));
+        } catch (UnsupportedOperationException e) {
+            logger.severe(e.getMessage());
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return the time from starting the pairs to all of them halting.
+     */
+    private long runPacedPairs(int pairs, ExecutionMode executionMode, TimingWheel timingWheel)
+            throws InterruptedException {
+        ThreadFactory consumerThreads = executionMode.threadFactory("Consumer-Thread-cs0x65-");
+        ThreadFactory producerThreads = executionMode.threadFactory("Producer-Thread-cs0x65-");
+        List<Thread> threads = new ArrayList<>(2 * pairs);
+        for (int i = 0; i < pairs; i++) {
+            Queue<String> queue = new LinkedBlockingQueue<>();
+            Consumer<String> consumer = Consumer.ofStrings(queue);
+            consumer.setTimingWheel(timingWheel);
+            Producer<String> producer = Producer.ofStrings(queue, TIMER_MESSAGES_PER_PAIR, TIMER_PACING_MILLIS);
+            producer.setTimingWheel(timingWheel);
+            threads.add(consumerThreads.newThread(consumer));
+            threads.add(producerThreads.newThread(producer));
+        }
+        long startedAt = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - startedAt;
+    }
+
+    /**
+     * Runs the load generator through the profile and reports every segment: the rate the consumer kept up with and
+     * the latencies from the intended send times.
+     */
+    private void runLoadGeneratorSnippet(String queueType, RateProfile profile){
+        logger.info("Generating load on "+queueType+" along "+profile);
+        PipelineMetrics metrics = new PipelineMetrics("load-generator");
+        List<String> segmentReports = new ArrayList<>();
+        try {
+            runLoadGenerator(newQueue(queueType, RING_BUFFER_CAPACITY), profile, Integer.MAX_VALUE, metrics,
+                    segmentReports);
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        StringBuilder report = new StringBuilder("Load report for "+queueType+":");
+        for (String segmentReport : segmentReports) {
+            report.append("\n  ").append(segmentReport);
+        }
+        logger.info(report.toString());
+    }
+
+    /**
+     * Runs one producer publishing at the profile's rate and one consumer over the queue; if given a list of
+     * segment reports, samples and resets the metrics at the end of every segment of the profile and adds a report
+     * on it to the list, saturated or not.
+     * @return the time from starting the threads to both of them halting.
+     */
+    private long runLoadGenerator(Queue<TimestampedMessage<String>> queue, RateProfile profile, int messages,
+                                  PipelineMetrics metrics, List<String> segmentReports) throws InterruptedException {
+        Consumer<TimestampedMessage<String>> consumer = Consumer.ofTimestampedStrings(queue);
+        consumer.setMetrics(metrics);
+        consumer.setMessageLogLevel(Level.FINE);
+        Producer<TimestampedMessage<String>> producer = Producer.ofTimestampedStrings(queue, messages, 0);
+        producer.setMetrics(metrics);
+        producer.setMessageLogLevel(Level.FINE);
+        producer.setRateProfile(profile);
+        if (!(queue instanceof RingBufferQueue)){
+            // on a full ring buffer queue, the producer spins and yields for space on its own - and sooner
+            producer.setBackpressurePolicy(new BlockWithTimeoutPolicy<>(Consumer.TIME_TO_WAIT_BEFORE_HALTING,
+                    TimeUnit.MILLISECONDS));
+        }
+        Thread consumerThread = new Thread(consumer, "Consumer-Thread-cs0x65");
+        Thread producerThread = new Thread(producer, "Producer-Thread-cs0x65");
+        long startedAt = System.nanoTime();
+        consumerThread.start();
+        producerThread.start();
+        if (segmentReports != null){
+            boolean saturated = false;
+            for (int i = 0; i < profile.getSegmentCount(); i++) {
+                long segmentStartNanos = profile.getSegmentStartNanos(i);
+                long segmentEndNanos = profile.getSegmentStartNanos(i + 1);
+                long remainingNanos;
+                while ((remainingNanos = startedAt + segmentEndNanos - System.nanoTime()) > 0){
+                    TimeUnit.NANOSECONDS.sleep(remainingNanos);
+                }
+                double targetRate = profile.getRateAt((segmentStartNanos + segmentEndNanos) / 2);
+                long consumedPerSecond = metrics.getConsumedCount() * TimeUnit.SECONDS.toNanos(1) /
+                        (segmentEndNanos - segmentStartNanos);
+                String latency = metrics.getEnqueueToDequeue().toString();
+                metrics.reset();
+                boolean segmentSaturated = consumedPerSecond < targetRate * LOAD_SATURATION_RATIO;
+                segmentReports.add(String.format("segment %d (%s): consumed %d messages/sec, latency{%s}%s", i,
+                        profile.describeSegment(i), consumedPerSecond, latency,
+                        segmentSaturated && !saturated ? " <- saturated" : ""));
+                saturated |= segmentSaturated;
+            }
+        }
+        producerThread.join();
+        consumerThread.join();
+        return System.nanoTime() - startedAt;
+    }
+
+    /**
+     * The messages are "Message&lt;i&gt;" as usual, keyed by i % PARTITION_KEYS - or by 0 for the given share of them;
+     * the consumers check that the sequence numbers of every key only go up.
+     */
+    private void runPartitionedChannelSnippet(int partitions, int consumers, AssignmentStrategy assignmentStrategy,
+                                              double skew){
+        int producers = 2;
+        // every skewEvery-th message goes to the hot key 0
+        int skewEvery = skew > 0 ? (int) Math.max(1, Math.round(1 / skew)) : 0;
+        Function<String, Integer> key = message -> {
+            int index = Integer.parseInt(message.substring("Message".length()));
+            return skewEvery > 0 && index % skewEvery == 0 ? 0 : index % PARTITION_KEYS;
+        };
+        PartitionedChannel<String> channel = new PartitionedChannel<>(partitions, RING_BUFFER_CAPACITY, key,
+                EndOfStreamMarker.STRINGS, assignmentStrategy);
+        // the producers take turns over the indexes, so that every key gets the messages of both
+        ShutdownCoordinator shutdownCoordinator = new ShutdownCoordinator(producers, 1);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < producers; i++) {
+            int producerIndex = i;
+            Producer<String> producer = new Producer<>(channel.getInput(),
+                    n -> "Message" + (n * producers + producerIndex), EndOfStreamMarker.STRINGS,
+                    PARTITION_MESSAGES / producers, 0);
+            producer.setShutdownCoordinator(shutdownCoordinator);
+            threads.add(new Thread(producer, "Producer-Thread-cs0x65-" + i));
+        }
+        // the last sequence number seen per key and producer; a key's messages are consumed by one consumer at a time
+        AtomicLongArray lastSeen = new AtomicLongArray(PARTITION_KEYS * producers);
+        for (int i = 0; i < lastSeen.length(); i++) {
+            lastSeen.set(i, -1);
+        }
+        LongAdder outOfOrder = new LongAdder();
+        MessageHandler<String> orderCheck = message -> {
+            int index = Integer.parseInt(message.substring("Message".length()));
+            int slot = key.apply(message) * producers + index % producers;
+            if (lastSeen.get(slot) >= index){
+                outOfOrder.increment();
+            }
+            lastSeen.set(slot, index);
+        };
+        List<Consumer<String>> allConsumers = new ArrayList<>();
+        List<RingBufferQueue<String>> subscriptions = new ArrayList<>();
+        for (int i = 0; i < consumers; i++) {
+            RingBufferQueue<String> subscription = channel.join();
+            Consumer<String> consumer = Consumer.ofStrings(subscription);
+            consumer.setMessageHandler(orderCheck);
+            allConsumers.add(consumer);
+            subscriptions.add(subscription);
+        }
+        try {
+            for (int i = 0; i < consumers; i++) {
+                threads.add(new Thread(allConsumers.get(i), "Consumer-Thread-cs0x65-" + i));
+            }
+            long startedAt = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            awaitConsumed(channel, PARTITION_MESSAGES / 3);
+            Consumer<String> joining = Consumer.ofStrings(channel.join());
+            joining.setMessageHandler(orderCheck);
+            allConsumers.add(joining);
+            Thread joiningThread = new Thread(joining, "Consumer-Thread-cs0x65-" + consumers);
+            joiningThread.start();
+            threads.add(joiningThread);
+            awaitConsumed(channel, 2 * PARTITION_MESSAGES / 3);
+            channel.leave(subscriptions.get(0));
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long elapsedNanos = System.nanoTime() - startedAt;
+            long consumed = 0;
+            StringBuilder perConsumer = new StringBuilder();
+            for (int i = 0; i < allConsumers.size(); i++) {
+                consumed += allConsumers.get(i).getConsumedCount();
+                perConsumer.append(i > 0 ? ", " : "").append(allConsumers.get(i).getConsumedCount());
+            }
+            logger.info(channel.report()+String.format("%n  consumed %d of %d messages in %d ms (per consumer: %s), " +
+                            "%d out of order, hot partitions: %s", consumed, PARTITION_MESSAGES,
+                    TimeUnit.NANOSECONDS.toMillis(elapsedNanos), perConsumer, outOfOrder.sum(),
+                    channel.getHotPartitions()));
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs the producers and consumers over a synchronized LinkedList twice - without and then with the producers
+     * yielding after each message - each run under a ContentionProfiler of its own, and logs both reports.
+     */
+    private void runContentionProfileSnippet(int messages, int producers, int consumers){
+        StringBuilder reports = new StringBuilder();
+        for (boolean yield : new boolean[]{false, true}) {
+            ContentionProfiler profiler = new ContentionProfiler(yield ? "producers yielding (mode 3)" :
+                    "producers not yielding (mode 1)");
+            LockProfile producerLockProfile = profiler.newLockProfile("queue monitor, producers");
+            LockProfile consumerLockProfile = profiler.newLockProfile("queue monitor, consumers");
+            Queue<String> queue = new LinkedList<>();
+            ShutdownCoordinator shutdownCoordinator = new ShutdownCoordinator(producers, consumers);
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < consumers; i++) {
+                Consumer<String> consumer = Consumer.ofStrings(queue);
+                consumer.setMessageLogLevel(Level.FINE);
+                consumer.setLockProfile(consumerLockProfile);
+                threads.add(new Thread(consumer, "Consumer-Thread-cs0x65-" + i));
+            }
+            for (int i = 0; i < producers; i++) {
+                Producer<String> producer = Producer.ofStrings(queue, messages / producers, 0);
+                producer.setYield(yield);
+                producer.setShutdownCoordinator(shutdownCoordinator);
+                producer.setMessageLogLevel(Level.FINE);
+                producer.setLockProfile(producerLockProfile);
+                threads.add(new Thread(producer, "Producer-Thread-cs0x65-" + i));
+            }
+            try {
+                profiler.start();
+                for (Thread thread : threads) {
+                    thread.start();
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+                profiler.stop();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            reports.append(String.format("%n")).append(profiler.report());
+        }
+        logger.info("Contention reports:"+reports);
+    }
+
+    /**
+     * Publishes the messages over each of the given paths in turn and logs what the producer and consumer allocated
+     * per message in their steady state.
+     */
+    private void runAllocationSnippet(String path, int messages){
+        if (!AllocationCounter.isSupported()){
+            logger.warning("This JVM doesn't count the allocated bytes per thread: only the GCs are reported");
+        }
+        List<String> paths = path.equals("all") ? List.of("linkedlist", "mpmc", "events") : List.of(path);
+        StringBuilder report = new StringBuilder();
+        for (String queueType : paths) {
+            // so that the garbage of the previous path isn't collected on this one's time
+            System.gc();
+            try {
+                report.append(String.format("%n  ")).append(queueType.equals("events") ?
+                        runEventAllocationPath(messages) : runStringAllocationPath(queueType, messages));
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        logger.info("Allocation report for "+messages+" messages, counted past the first "+
+                messages / ALLOCATION_WARMUP_DIVISOR+":"+report);
+    }
+
+    private String runStringAllocationPath(String queueType, int messages) throws InterruptedException {
+        int warmUp = messages / ALLOCATION_WARMUP_DIVISOR;
+        AllocationCounter producerAllocations = new AllocationCounter();
+        AllocationCounter consumerAllocations = new AllocationCounter();
+        Queue<String> queue = newQueue(queueType, RING_BUFFER_CAPACITY);
+        Producer<String> producer = new Producer<>(queue, i -> {
+            if (i == warmUp){
+                producerAllocations.start();
+            }else if (i == messages - 1){
+                producerAllocations.stop();
+            }
+            return "Message" + i;
+        }, EndOfStreamMarker.STRINGS, messages, 0);
+        producer.setMessageLogLevel(Level.FINE);
+        Consumer<String> consumer = Consumer.ofStrings(queue);
+        consumer.setMessageLogLevel(Level.FINE);
+        // the messages consumed and the sum of their lengths
+        long[] consumed = new long[2];
+        consumer.setMessageHandler(message -> {
+            if (consumed[0] == warmUp){
+                consumerAllocations.start();
+            }
+            consumed[1] += message.length();
+            if (++consumed[0] == messages){
+                consumerAllocations.stop();
+            }
+        });
+        long elapsedNanos = runAllocationPath(producer, consumer);
+        return describeAllocationPath(queueType, consumed, elapsedNanos, producerAllocations, consumerAllocations,
+                messages - warmUp);
+    }
+
+    private String runEventAllocationPath(int messages) throws InterruptedException {
+        int warmUp = messages / ALLOCATION_WARMUP_DIVISOR;
+        AllocationCounter producerAllocations = new AllocationCounter();
+        AllocationCounter consumerAllocations = new AllocationCounter();
+        EventRing<MessageEvent> ring = new EventRing<>(RING_BUFFER_CAPACITY, MessageEvent::new);
+        EventChannelProducer<MessageEvent> producer = new EventChannelProducer<>(ring, (event, i) -> {
+            if (i == warmUp){
+                producerAllocations.start();
+            }else if (i == messages - 1){
+                producerAllocations.stop();
+            }
+            EventTranslator.MESSAGES.translateTo(event, i);
+        }, messages);
+        LatencyHistogram latencies = new LatencyHistogram();
+        long[] consumed = new long[2];
+        EventChannelConsumer<MessageEvent> consumer = new EventChannelConsumer<>(ring, event -> {
+            if (consumed[0] == warmUp){
+                consumerAllocations.start();
+            }
+            latencies.record(System.nanoTime() - event.getEnqueuedAt());
+            consumed[1] += event.getTextLength();
+            if (++consumed[0] == messages){
+                consumerAllocations.stop();
+            }
+        });
+        long elapsedNanos = runAllocationPath(producer, consumer);
+        long steadyStateBytes = producerAllocations.getAllocatedBytes() + consumerAllocations.getAllocatedBytes();
+        String verdict = producerAllocations.getAllocatedBytes() < 0 ? "" :
+                steadyStateBytes < messages - warmUp ? ", zero-allocation steady state: yes" :
+                        ", zero-allocation steady state: NO";
+        return describeAllocationPath("events", consumed, elapsedNanos, producerAllocations, consumerAllocations,
+                messages - warmUp)+", latency{"+latencies+"}"+verdict;
+    }
+
+    private long runAllocationPath(Runnable producer, Runnable consumer) throws InterruptedException {
+        Thread consumerThread = new Thread(consumer, "Consumer-Thread-cs0x65");
+        Thread producerThread = new Thread(producer, "Producer-Thread-cs0x65");
+        long startedAt = System.nanoTime();
+        consumerThread.start();
+        producerThread.start();
+        producerThread.join();
+        consumerThread.join();
+        return System.nanoTime() - startedAt;
+    }
+
+    private static String describeAllocationPath(String path, long[] consumed, long elapsedNanos,
+                                                 AllocationCounter producerAllocations,
+                                                 AllocationCounter consumerAllocations, long steadyStateMessages){
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        return String.format("%s: consumed %d messages (%d characters) in %d ms = %d messages/sec; producer %s, " +
+                        "consumer %s, %d GCs taking %d ms", path, consumed[0], consumed[1], elapsedMillis,
+                elapsedNanos > 0 ? consumed[0] * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0,
+                producerAllocations.describe(steadyStateMessages), consumerAllocations.describe(steadyStateMessages),
+                consumerAllocations.getGcCount(), consumerAllocations.getGcMillis());
+    }
+
+    /**
+     * Runs a consumer pool against two producers publishing along the profile one after the other, and logs how the
+     * pool's size followed the load.
+     */
+    private void runConsumerPoolSnippet(int maxConsumers, RateProfile profile){
+        logger.info("Running a pool of 1 to "+maxConsumers+" consumers against two producers along "+profile);
+        Queue<TimestampedMessage<String>> queue = new MpmcRingBufferQueue<>(RING_BUFFER_CAPACITY);
+        PipelineMetrics metrics = new PipelineMetrics("consumer-pool");
+        metrics.setQueueDepth(queue::size);
+        ConsumerPool<TimestampedMessage<String>> pool = new ConsumerPool<>(queue, () -> {
+            Consumer<TimestampedMessage<String>> consumer = Consumer.ofTimestampedStrings(queue);
+            consumer.setMetrics(metrics);
+            consumer.setMessageLogLevel(Level.FINE);
+            // as if every message took a call to some service
+            consumer.setMessageHandler(message -> LockSupport.parkNanos(
+                    TimeUnit.MICROSECONDS.toNanos(POOL_WORK_MICROS)));
+            return consumer;
+        }, 1, maxConsumers);
+        pool.setMetrics(metrics);
+        ShutdownCoordinator shutdownCoordinator = new ShutdownCoordinator(2, pool::getSize);
+        metrics.register();
+        metrics.startReporting(METRICS_REPORTING_SECONDS, TimeUnit.SECONDS);
+        pool.start();
+        try {
+            for (int i = 0; i < 2; i++) {
+                if (i > 0){
+                    logger.info("No messages for "+POOL_QUIET_MILLIS+" ms...");
+                    Thread.sleep(POOL_QUIET_MILLIS);
+                }
+                Producer<TimestampedMessage<String>> producer =
+                        Producer.ofTimestampedStrings(queue, Integer.MAX_VALUE, 0);
+                producer.setMetrics(metrics);
+                producer.setMessageLogLevel(Level.FINE);
+                producer.setRateProfile(profile);
+                producer.setShutdownCoordinator(shutdownCoordinator);
+                Thread producerThread = new Thread(producer, "Producer-Thread-cs0x65-" + i);
+                producerThread.start();
+                producerThread.join();
+            }
+            pool.awaitTermination();
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        metrics.stopReporting();
+        logger.info(pool.describeSizeHistory());
+        logger.info(metrics.getSummary());
+        metrics.unregister();
+    }
+
+    /**
+     * Waits until the given number of messages have been consumed from the channel.
+     */
+    private static void awaitConsumed(PartitionedChannel<?> channel, long messages) throws InterruptedException {
+        while (true){
+            long consumed = 0;
+            for (int i = 0; i < channel.getPartitionCount(); i++) {
+                consumed += channel.getConsumedCount(i);
+            }
+            if (consumed >= messages){
+                return;
+            }
+            Thread.sleep(1);
+        }
+    }
 }
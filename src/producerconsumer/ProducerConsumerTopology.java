@@ -0,0 +1,257 @@
+package producerconsumer;
+
+import main.ExecutionMode;
+import metrics.PipelineMetrics;
+import producerconsumer.backpressure.BackpressurePolicy;
+import producerconsumer.waitstrategy.WaitStrategy;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Wires N producers to M consumers over one shared queue and reports the throughput once all of them have halted.
+ * The characteristics exhibited by this class are:
+ * - the producers share a {@link producerconsumer.ShutdownCoordinator}, so that the last producer to finish sends one
+ * closing message per consumer and every consumer halts once all the messages are consumed, rather than on time-out.
+ * - the producer and consumer threads are named Producer-Thread-cs0x65-&lt;n&gt; and Consumer-Thread-cs0x65-&lt;n&gt;.
+ * - the threads are platform threads by default; executionMode(ExecutionMode.VIRTUAL) runs them as virtual threads,
+ * in which case the queue had better be a java.util.concurrent.BlockingQueue or a ring buffer queue - waiting on the
+ * monitor of any other queue pins the carrier threads.
+ * - when provided {@link metrics.PipelineMetrics} with metrics(), all the producers and consumers count into them and
+ * the queue's size() is their queue depth gauge; the messages are plain Strings, so there are no latencies.
+ * - run() blocks until every thread has halted and then logs a report with the per-thread and the aggregate
+ * throughput (messages/sec); the aggregate consumer throughput is measured from the first message consumed by any
+ * consumer to the last message consumed by any consumer.
+ *
+ * A {@link producerconsumer.SpscRingBufferQueue} can only be used with one producer and one consumer.
+ *
+ * For e.g:
+ * new ProducerConsumerTopology.Builder()
+ *         .producers(4)
+ *         .consumers(8)
+ *         .messagesPerProducer(250_000)
+ *         .queue(() -> new MpmcRingBufferQueue<>(1024))
+ *         .build()
+ *         .run();
+ */
+public class ProducerConsumerTopology {
+    private final int producerCount;
+    private final int consumerCount;
+    private final Queue<String> queue;
+    private final List<Producer<String>> producers = new ArrayList<>();
+    private final List<Consumer<String>> consumers = new ArrayList<>();
+    private final ExecutionMode executionMode;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    private ProducerConsumerTopology(Builder builder) {
+        this.producerCount = builder.producers;
+        this.consumerCount = builder.consumers;
+        this.queue = builder.queueSupplier.get();
+        this.executionMode = builder.executionMode;
+        if (queue instanceof SpscRingBufferQueue && (producerCount > 1 || consumerCount > 1)){
+            throw new IllegalArgumentException("A single-producer/single-consumer ring buffer queue can't be shared " +
+                    "by "+producerCount+" producers and "+consumerCount+" consumers");
+        }
+        if (builder.metrics != null){
+            builder.metrics.setQueueDepth(queue::size);
+        }
+        ShutdownCoordinator shutdownCoordinator = new ShutdownCoordinator(producerCount, consumerCount);
+        for (int i = 0; i < producerCount; i++) {
+            int messages = builder.messages > 0 ?
+                    builder.messages / producerCount + (i < builder.messages % producerCount ? 1 : 0) :
+                    builder.messagesPerProducer;
+            Producer<String> producer = Producer.ofStrings(queue, messages, builder.sleepFor);
+            producer.setYield(builder.yield);
+            producer.setBatchSize(builder.producerBatchSize);
+            producer.setShutdownCoordinator(shutdownCoordinator);
+            producer.setBackpressurePolicy(builder.backpressurePolicy);
+            producer.setMetrics(builder.metrics);
+            producers.add(producer);
+        }
+        for (int i = 0; i < consumerCount; i++) {
+            Consumer<String> consumer = Consumer.ofStrings(queue);
+            consumer.setBatchSize(builder.consumerBatchSize);
+            consumer.setMetrics(builder.metrics);
+            if (builder.waitStrategy != null){
+                consumer.setWaitStrategy(builder.waitStrategy);
+            }
+            consumers.add(consumer);
+        }
+    }
+
+    public List<Producer<String>> getProducers() {
+        return producers;
+    }
+
+    public List<Consumer<String>> getConsumers() {
+        return consumers;
+    }
+
+    /**
+     * Starts the consumers, then the producers and blocks until all of them have halted.
+     */
+    public void run() throws InterruptedException {
+        logger.info("Running "+producerCount+" producer(s) and "+consumerCount+" consumer(s) on "+queue);
+        List<Thread> threads = new ArrayList<>();
+        ThreadFactory consumerThreads = executionMode.threadFactory("Consumer-Thread-cs0x65-");
+        for (int i = 0; i < consumerCount; i++) {
+            threads.add(consumerThreads.newThread(consumers.get(i)));
+        }
+        ThreadFactory producerThreads = executionMode.threadFactory("Producer-Thread-cs0x65-");
+        for (int i = 0; i < producerCount; i++) {
+            threads.add(producerThreads.newThread(producers.get(i)));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        logger.info(report());
+    }
+
+    /**
+     * @return the per-thread and the aggregate throughput of the last run.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder("Throughput report for "+producerCount+" producer(s) and "+
+                consumerCount+" consumer(s):\n");
+        long produced = 0;
+        long producersStartedAt = Long.MAX_VALUE;
+        long producersFinishedAt = Long.MIN_VALUE;
+        for (int i = 0; i < producerCount; i++) {
+            Producer<String> producer = producers.get(i);
+            long elapsedNanos = producer.getFinishedAt() - producer.getStartedAt();
+            report.append(String.format("  Producer-Thread-cs0x65-%d: %d messages, %d messages/sec%n", i,
+                    producer.getProducedCount(), messagesPerSecond(producer.getProducedCount(), elapsedNanos)));
+            produced += producer.getProducedCount();
+            producersStartedAt = Math.min(producersStartedAt, producer.getStartedAt());
+            producersFinishedAt = Math.max(producersFinishedAt, producer.getFinishedAt());
+        }
+        long consumed = 0;
+        long consumersStartedAt = Long.MAX_VALUE;
+        long consumersFinishedAt = Long.MIN_VALUE;
+        for (int i = 0; i < consumerCount; i++) {
+            Consumer<String> consumer = consumers.get(i);
+            long elapsedNanos = consumer.getLastConsumedAt() - consumer.getFirstConsumedAt();
+            report.append(String.format("  Consumer-Thread-cs0x65-%d: %d messages, %d messages/sec%n", i,
+                    consumer.getConsumedCount(), messagesPerSecond(consumer.getConsumedCount(), elapsedNanos)));
+            if (consumer.getConsumedCount() > 0){
+                consumed += consumer.getConsumedCount();
+                consumersStartedAt = Math.min(consumersStartedAt, consumer.getFirstConsumedAt());
+                consumersFinishedAt = Math.max(consumersFinishedAt, consumer.getLastConsumedAt());
+            }
+        }
+        report.append(String.format("  Aggregate: produced %d messages at %d messages/sec, " +
+                        "consumed %d messages at %d messages/sec",
+                produced, messagesPerSecond(produced, producersFinishedAt - producersStartedAt),
+                consumed, messagesPerSecond(consumed, consumersFinishedAt - consumersStartedAt)));
+        return report.toString();
+    }
+
+    private static long messagesPerSecond(long messages, long elapsedNanos) {
+        return elapsedNanos > 0 ? messages * TimeUnit.SECONDS.toNanos(1) / elapsedNanos : 0;
+    }
+
+    public static class Builder {
+        private int producers = 1;
+        private int consumers = 1;
+        private int messagesPerProducer = 100;
+        // Defaults to 0 i.e. messagesPerProducer each
+        private int messages;
+        private long sleepFor;
+        private boolean yield;
+        private int producerBatchSize = 1;
+        private int consumerBatchSize = 1;
+        private Supplier<Queue<String>> queueSupplier = LinkedList::new;
+        private BackpressurePolicy<String> backpressurePolicy;
+        private WaitStrategy waitStrategy;
+        private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+        private PipelineMetrics metrics;
+
+        public Builder producers(int producers) {
+            this.producers = producers;
+            return this;
+        }
+
+        public Builder consumers(int consumers) {
+            this.consumers = consumers;
+            return this;
+        }
+
+        public Builder messagesPerProducer(int messagesPerProducer) {
+            this.messagesPerProducer = messagesPerProducer;
+            return this;
+        }
+
+        /**
+         * The messages in total, spread over the producers: the first messages % producers of them produce one more
+         * than the others. Takes precedence over messagesPerProducer().
+         */
+        public Builder messages(int messages) {
+            this.messages = messages;
+            return this;
+        }
+
+        public Builder yield(boolean yield) {
+            this.yield = yield;
+            return this;
+        }
+
+        public Builder sleepFor(long sleepFor) {
+            this.sleepFor = sleepFor;
+            return this;
+        }
+
+        public Builder producerBatchSize(int producerBatchSize) {
+            this.producerBatchSize = producerBatchSize;
+            return this;
+        }
+
+        public Builder consumerBatchSize(int consumerBatchSize) {
+            this.consumerBatchSize = consumerBatchSize;
+            return this;
+        }
+
+        public Builder queue(Supplier<Queue<String>> queueSupplier) {
+            this.queueSupplier = queueSupplier;
+            return this;
+        }
+
+        /**
+         * The policy is shared by all the producers, so its counts add up over all of them.
+         */
+        public Builder backpressurePolicy(BackpressurePolicy<String> backpressurePolicy) {
+            this.backpressurePolicy = backpressurePolicy;
+            return this;
+        }
+
+        /**
+         * Defaults to the consumer's own default for the queue.
+         */
+        public Builder waitStrategy(WaitStrategy waitStrategy) {
+            this.waitStrategy = waitStrategy;
+            return this;
+        }
+
+        public Builder executionMode(ExecutionMode executionMode) {
+            this.executionMode = executionMode;
+            return this;
+        }
+
+        public Builder metrics(PipelineMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        public ProducerConsumerTopology build() {
+            return new ProducerConsumerTopology(this);
+        }
+    }
+}
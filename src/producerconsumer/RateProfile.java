@@ -0,0 +1,180 @@
+package producerconsumer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The target rate (messages/sec) a {@link producerconsumer.Producer} publishes at over time, as a sequence of
+ * segments - each holding a constant rate, or ramping linearly from one rate to another.
+ * The characteristics exhibited by this class are:
+ * - constant() holds one rate, ramp() ramps from one rate to another and steps() climbs a staircase of constant rates,
+ * e.g. to find the rate at which a queue saturates; then() appends a profile to this one.
+ * - of() parses the same from the command line:
+ *   constant:&lt;rate&gt;:&lt;seconds&gt;
+ *   ramp:&lt;from rate&gt;:&lt;to rate&gt;:&lt;seconds&gt;
+ *   steps:&lt;from rate&gt;:&lt;rate step&gt;:&lt;steps&gt;:&lt;seconds per step&gt;
+ * - getIntervalNanos() is the time between two messages at the rate in force at the given point of the profile; the
+ * producer adds these up to the intended send time of every message, so that the schedule holds however late any
+ * single message is published.
+ * - the profile is immutable.
+ */
+public class RateProfile {
+    private final List<Segment> segments;
+    private final long durationNanos;
+
+    private RateProfile(List<Segment> segments) {
+        this.segments = Collections.unmodifiableList(segments);
+        long duration = 0;
+        for (Segment segment : segments) {
+            duration += segment.durationNanos;
+        }
+        this.durationNanos = duration;
+    }
+
+    public static RateProfile constant(double rate, long duration, TimeUnit unit) {
+        return ramp(rate, rate, duration, unit);
+    }
+
+    public static RateProfile ramp(double fromRate, double toRate, long duration, TimeUnit unit) {
+        List<Segment> segments = new ArrayList<>();
+        segments.add(new Segment(fromRate, toRate, unit.toNanos(duration)));
+        return new RateProfile(segments);
+    }
+
+    public static RateProfile steps(double fromRate, double rateStep, int steps, long stepDuration, TimeUnit unit) {
+        List<Segment> segments = new ArrayList<>();
+        for (int i = 0; i < steps; i++) {
+            double rate = fromRate + i * rateStep;
+            segments.add(new Segment(rate, rate, unit.toNanos(stepDuration)));
+        }
+        return new RateProfile(segments);
+    }
+
+    public static RateProfile of(String spec) {
+        String[] parts = spec.split(":");
+        try {
+            switch (parts[0]) {
+                case "constant":
+                    if (parts.length == 3){
+                        return constant(Double.parseDouble(parts[1]), Long.parseLong(parts[2]), TimeUnit.SECONDS);
+                    }
+                    break;
+                case "ramp":
+                    if (parts.length == 4){
+                        return ramp(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                                Long.parseLong(parts[3]), TimeUnit.SECONDS);
+                    }
+                    break;
+                case "steps":
+                    if (parts.length == 5){
+                        return steps(Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+                                Integer.parseInt(parts[3]), Long.parseLong(parts[4]), TimeUnit.SECONDS);
+                    }
+                    break;
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed rate profile: "+spec, e);
+        }
+        throw new IllegalArgumentException("Malformed rate profile: "+spec+"; expected constant:<rate>:<seconds>, " +
+                "ramp:<from rate>:<to rate>:<seconds> or steps:<from rate>:<rate step>:<steps>:<seconds per step>");
+    }
+
+    /**
+     * @return this profile followed by the given one.
+     */
+    public RateProfile then(RateProfile next) {
+        List<Segment> joined = new ArrayList<>(segments);
+        joined.addAll(next.segments);
+        return new RateProfile(joined);
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return the index of the segment in force at the given time from the start of the profile, or
+     * getSegmentCount() past its end.
+     */
+    public int getSegmentAt(long elapsedNanos) {
+        for (int i = 0; i < segments.size(); i++) {
+            elapsedNanos -= segments.get(i).durationNanos;
+            if (elapsedNanos < 0){
+                return i;
+            }
+        }
+        return segments.size();
+    }
+
+    public long getSegmentStartNanos(int index) {
+        long startNanos = 0;
+        for (int i = 0; i < index; i++) {
+            startNanos += segments.get(i).durationNanos;
+        }
+        return startNanos;
+    }
+
+    /**
+     * @return the target rate (messages/sec) at the given time from the start of the profile; 0 past its end.
+     */
+    public double getRateAt(long elapsedNanos) {
+        for (Segment segment : segments) {
+            if (elapsedNanos < segment.durationNanos){
+                return segment.fromRate + (segment.toRate - segment.fromRate) * elapsedNanos / segment.durationNanos;
+            }
+            elapsedNanos -= segment.durationNanos;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the time between two messages at the rate in force at the given time from the start of the profile.
+     */
+    public double getIntervalNanos(long elapsedNanos) {
+        return TimeUnit.SECONDS.toNanos(1) / getRateAt(elapsedNanos);
+    }
+
+    /**
+     * @return a description of the given segment, e.g. "100000/s for 2 s" or "100000/s to 500000/s over 10 s".
+     */
+    public String describeSegment(int index) {
+        Segment segment = segments.get(index);
+        long millis = TimeUnit.NANOSECONDS.toMillis(segment.durationNanos);
+        String duration = millis % 1000 == 0 ? millis / 1000+" s" : millis+" ms";
+        if (segment.fromRate == segment.toRate){
+            return Math.round(segment.fromRate)+"/s for "+duration;
+        }
+        return Math.round(segment.fromRate)+"/s to "+Math.round(segment.toRate)+"/s over "+duration;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder description = new StringBuilder("RateProfile{");
+        for (int i = 0; i < segments.size(); i++) {
+            description.append(i > 0 ? ", " : "").append(describeSegment(i));
+        }
+        return description.append("}").toString();
+    }
+
+    private static class Segment {
+        private final double fromRate;
+        private final double toRate;
+        private final long durationNanos;
+
+        private Segment(double fromRate, double toRate, long durationNanos) {
+            if (!(fromRate > 0) || !(toRate > 0) || durationNanos <= 0){
+                throw new IllegalArgumentException("Expected positive rates and duration. Received "+fromRate+
+                        "/s to "+toRate+"/s over "+durationNanos+" ns");
+            }
+            this.fromRate = fromRate;
+            this.toRate = toRate;
+            this.durationNanos = durationNanos;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package producerconsumer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Turns the messages into the bytes of a {@link producerconsumer.JournalQueue} record - or of a
+ * {@link producerconsumer.transport.SocketSender} frame - and back.
+ * encode() writes straight into the record's slot of the memory-mapped segment (or the sender's write buffer), and
+ * decode() reads from a view of it, so neither goes through an intermediate buffer.
+ */
+public interface RecordCodec<T> {
+    // UTF-8 Strings, e.g. the messages of Producer.ofStrings()
+    RecordCodec<String> STRINGS = new RecordCodec<String>() {
+        @Override
+        public void encode(String message, ByteBuffer target) {
+            target.put(message.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String decode(ByteBuffer source) {
+            byte[] bytes = new byte[source.remaining()];
+            source.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Writes the message at the target's position; the target's limit is the maximum size of a record's payload.
+     */
+    void encode(T message, ByteBuffer target);
+
+    /**
+     * Reads a message from the source's position up to its limit.
+     */
+    T decode(ByteBuffer source);
+}
@@ -0,0 +1,74 @@
+package producerconsumer;
+
+import java.util.AbstractQueue;
+import java.util.Iterator;
+
+/**
+ * Base class for the bounded, preallocated ring buffer queues that can be used in place of the shared LinkedList
+ * between the {@link producerconsumer.Producer} and the {@link producerconsumer.Consumer}.
+ * The characteristics exhibited by the ring buffer queues are:
+ * - the capacity is rounded up to the next power of two, so that a sequence maps to its slot with a bit mask
+ * instead of a modulo.
+ * - the slots are allocated once up front; offering a message doesn't allocate a node like LinkedList does.
+ * - the slot array is padded at both ends so that the first and the last slots don't share a cache line with
+ * the array header or any other object.
+ * - the producer and consumer positions are kept in separate, padded {@link producerconsumer.Sequence} counters.
+ * - they are lock-free: neither offer() nor poll() ever blocks; offer() returns false when the ring is full and poll()
+ * returns null when it's empty. Hence the Producer and Consumer don't synchronize on a ring buffer queue - they spin
+ * or back off instead of using wait()/notifyAll().
+ *
+ * Iteration isn't supported, as there's no consistent view of the slots while the producers and consumers move on.
+ */
+public abstract class RingBufferQueue<E> extends AbstractQueue<E> {
+    // 128 bytes worth of references on either side of the slots; covers adjacent cache line prefetching as well
+    static final int BUFFER_PAD = 32;
+
+    protected final int capacity;
+    protected final int mask;
+    protected final Object[] buffer;
+
+    protected RingBufferQueue(int requestedCapacity) {
+        if (requestedCapacity < 2){
+            throw new IllegalArgumentException("The capacity needs to be at least 2. Received capacity = "+
+                    requestedCapacity);
+        }
+        if (requestedCapacity > (1 << 30)){
+            throw new IllegalArgumentException("The capacity can be at most 2^30. Received capacity = "+
+                    requestedCapacity);
+        }
+        this.capacity = roundToPowerOfTwo(requestedCapacity);
+        this.mask = capacity - 1;
+        this.buffer = new Object[capacity + 2 * BUFFER_PAD];
+    }
+
+    /**
+     * For a lock-free view over other ring buffer queues, which has no slots of its own (and overrides capacity()).
+     */
+    protected RingBufferQueue() {
+        this.capacity = 0;
+        this.mask = 0;
+        this.buffer = new Object[0];
+    }
+
+    static int roundToPowerOfTwo(int value) {
+        return 1 << (32 - Integer.numberOfLeadingZeros(value - 1));
+    }
+
+    protected final int slotOf(long sequence) {
+        return BUFFER_PAD + (int) (sequence & mask);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        throw new UnsupportedOperationException("Iteration isn't supported by a ring buffer queue");
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[capacity=" + capacity + ", size=" + size() + "]";
+    }
+}
@@ -0,0 +1,73 @@
+package producerconsumer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A padded, 64-bit sequence counter used by the ring buffer queues to track the producer (tail) and consumer (head)
+ * positions.
+ * The characteristics exhibited by this class are:
+ * - the value is surrounded by 7 longs on either side (through the class hierarchy, since the JVM lays out the super
+ * class fields first) so that two sequences never end up on the same cache line; otherwise the producer updating the
+ * tail would keep invalidating the cache line that the consumer reads the head from (false sharing).
+ * - get()/set() have acquire/release semantics, which is all that a single writer needs to publish a slot; whereas
+ * compareAndSet() is used when multiple writers compete for the same sequence.
+ * - getPlain()/setPlain() are meant for thread confined copies of a sequence (e.g. the producer's cached view of the
+ * head) where no ordering is required.
+ */
+public class Sequence extends SequenceRhsPadding {
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(SequenceValue.class, "value", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public Sequence() {
+        this(0);
+    }
+
+    public Sequence(long initialValue) {
+        VALUE.setRelease(this, initialValue);
+    }
+
+    public long get() {
+        return (long) VALUE.getAcquire(this);
+    }
+
+    public void set(long value) {
+        VALUE.setRelease(this, value);
+    }
+
+    public long getPlain() {
+        return (long) VALUE.get(this);
+    }
+
+    public void setPlain(long value) {
+        VALUE.set(this, value);
+    }
+
+    public boolean compareAndSet(long expectedValue, long newValue) {
+        return VALUE.compareAndSet(this, expectedValue, newValue);
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(get());
+    }
+}
+
+class SequenceLhsPadding {
+    protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class SequenceValue extends SequenceLhsPadding {
+    protected long value;
+}
+
+class SequenceRhsPadding extends SequenceValue {
+    protected long p9, p10, p11, p12, p13, p14, p15;
+}
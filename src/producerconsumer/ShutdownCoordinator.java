@@ -0,0 +1,60 @@
+package producerconsumer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntSupplier;
+
+/**
+ * Coordinates the closing message "-1" when several producers feed several consumers through the same queue.
+ * With one producer and one consumer, the producer simply sends one closing message; but with N producers and
+ * M consumers that doesn't work: a consumer halts on the first closing message it sees, so the closing message of
+ * the first producer to finish would stop one consumer while the other producers are still producing, and the other
+ * consumers would never see a closing message at all and only halt on Consumer.TIME_TO_WAIT_BEFORE_HALTING.
+ *
+ * Instead, the producers share a count of the producers still active; every producer counts itself down once it's
+ * done and only the last one sends the closing messages - one per consumer - after every other producer has already
+ * published its last message. Hence every consumer halts on its own closing message and only once all the messages
+ * have been consumed.
+ * When the number of consumers changes while the producers run (see {@link producerconsumer.ConsumerPool}), it's
+ * given as an IntSupplier instead, read as the last producer finishes.
+ */
+public class ShutdownCoordinator {
+    private final AtomicInteger activeProducers;
+    private final IntSupplier consumers;
+
+    public ShutdownCoordinator(int producers, int consumers) {
+        this(producers, fixedConsumers(producers, consumers));
+    }
+
+    public ShutdownCoordinator(int producers, IntSupplier consumers) {
+        if (producers < 1){
+            throw new IllegalArgumentException("There needs to be at least one producer. Received producers = "+
+                    producers);
+        }
+        this.activeProducers = new AtomicInteger(producers);
+        this.consumers = consumers;
+    }
+
+    /**
+     * Checks both counts before either constructor gets to work.
+     */
+    private static IntSupplier fixedConsumers(int producers, int consumers) {
+        if (producers < 1 || consumers < 1){
+            throw new IllegalArgumentException("There needs to be at least one producer and one consumer. " +
+                    "Received producers = "+producers+", consumers = "+consumers);
+        }
+        return () -> consumers;
+    }
+
+    /**
+     * To be called exactly once by every producer after it has published its last message.
+     * @return the number of closing messages the calling producer needs to send: the number of consumers for the
+     * last producer to finish, 0 for the rest.
+     */
+    public int producerFinished() {
+        return activeProducers.decrementAndGet() == 0 ? Math.max(1, consumers.getAsInt()) : 0;
+    }
+
+    public int getActiveProducers() {
+        return activeProducers.get();
+    }
+}
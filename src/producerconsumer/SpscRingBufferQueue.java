@@ -0,0 +1,77 @@
+package producerconsumer;
+
+import java.util.Objects;
+
+/**
+ * Single-producer/single-consumer ring buffer queue.
+ * Only one thread may call offer() and only one (other) thread may call poll()/peek() - the queue doesn't need any
+ * CAS in that case: each side is the sole writer of its own sequence and publishes it with a release store, which
+ * the other side reads with an acquire load.
+ * Each side also keeps a cached copy of the other side's sequence and only re-reads the shared one when the cached
+ * copy says the ring is full (producer) or empty (consumer); this way the cache line of the other side's sequence is
+ * pulled over only once in a while instead of on every message.
+ */
+public class SpscRingBufferQueue<E> extends RingBufferQueue<E> {
+    // written by the consumer
+    private final Sequence head = new Sequence();
+    // written by the producer
+    private final Sequence tail = new Sequence();
+    // the producer's view of the head
+    private final Sequence headCache = new Sequence();
+    // the consumer's view of the tail
+    private final Sequence tailCache = new Sequence();
+
+    public SpscRingBufferQueue(int capacity) {
+        super(capacity);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        Objects.requireNonNull(e);
+        long currentTail = tail.getPlain();
+        if (currentTail - headCache.getPlain() >= capacity){
+            long currentHead = head.get();
+            headCache.setPlain(currentHead);
+            if (currentTail - currentHead >= capacity){
+                return false;
+            }
+        }
+        buffer[slotOf(currentTail)] = e;
+        tail.set(currentTail + 1);
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long currentHead = head.getPlain();
+        if (currentHead >= tailCache.getPlain()){
+            long currentTail = tail.get();
+            tailCache.setPlain(currentTail);
+            if (currentHead >= currentTail){
+                return null;
+            }
+        }
+        int slot = slotOf(currentHead);
+        E e = (E) buffer[slot];
+        buffer[slot] = null;
+        head.set(currentHead + 1);
+        return e;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public E peek() {
+        long currentHead = head.getPlain();
+        if (currentHead >= tail.get()){
+            return null;
+        }
+        return (E) buffer[slotOf(currentHead)];
+    }
+
+    @Override
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+}
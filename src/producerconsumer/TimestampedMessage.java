@@ -0,0 +1,86 @@
+package producerconsumer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A message stamped with the System.nanoTime() at which the {@link producerconsumer.Producer} enqueued it, so that
+ * the {@link producerconsumer.Consumer} can measure the enqueue-to-dequeue and enqueue-to-processed latencies into
+ * its {@link metrics.PipelineMetrics}.
+ * The stamp is a plain field: it's written by the producer before the message is published to the queue and read by
+ * the consumer after taking it off the queue, and the queue orders the two.
+ * Two timestamped messages are equal if their payloads are, so that a timestamped closing message is recognized by
+ * its payload alone; toString() is the payload's, so the log reads the same as with the plain messages.
+ */
+public class TimestampedMessage<T> {
+    private final T payload;
+    private long enqueuedAt;
+
+    public TimestampedMessage(T payload) {
+        this.payload = payload;
+    }
+
+    public static <T> MessageFactory<TimestampedMessage<T>> factory(MessageFactory<T> payloadFactory) {
+        return i -> new TimestampedMessage<>(payloadFactory.create(i));
+    }
+
+    public static <T> EndOfStreamMarker<TimestampedMessage<T>> marker(EndOfStreamMarker<T> payloadMarker) {
+        return EndOfStreamMarker.of(new TimestampedMessage<>(payloadMarker.marker()));
+    }
+
+    /**
+     * @return a codec writing the stamp ahead of the payload, so that the latencies can be measured across a
+     * {@link producerconsumer.transport.SocketSender}/{@link producerconsumer.transport.SocketReceiver} pair too -
+     * System.nanoTime() is only comparable between JVMs on the same host.
+     */
+    public static <T> RecordCodec<TimestampedMessage<T>> codec(RecordCodec<T> payloadCodec) {
+        return new RecordCodec<TimestampedMessage<T>>() {
+            @Override
+            public void encode(TimestampedMessage<T> message, ByteBuffer target) {
+                target.putLong(message.enqueuedAt);
+                payloadCodec.encode(message.payload, target);
+            }
+
+            @Override
+            public TimestampedMessage<T> decode(ByteBuffer source) {
+                long enqueuedAt = source.getLong();
+                TimestampedMessage<T> message = new TimestampedMessage<>(payloadCodec.decode(source));
+                message.enqueuedAt = enqueuedAt;
+                return message;
+            }
+        };
+    }
+
+    public T getPayload() {
+        return payload;
+    }
+
+    public long getEnqueuedAt() {
+        return enqueuedAt;
+    }
+
+    public void setEnqueuedAt(long enqueuedAt) {
+        this.enqueuedAt = enqueuedAt;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o){
+            return true;
+        }
+        if (!(o instanceof TimestampedMessage)){
+            return false;
+        }
+        Object otherPayload = ((TimestampedMessage<?>) o).payload;
+        return payload == null ? otherPayload == null : payload.equals(otherPayload);
+    }
+
+    @Override
+    public int hashCode() {
+        return payload == null ? 0 : payload.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return String.valueOf(payload);
+    }
+}
@@ -0,0 +1,273 @@
+package producerconsumer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * A hashed timing wheel: one timer thread keeping the time-outs of any number of producers and consumers, instead of
+ * every one of them measuring its own with System.nanoTime() and sleeping in between.
+ * The characteristics exhibited by this class are:
+ * - the time is counted in ticks of the given duration - the precision of every time-out: a time-out fires on the
+ * first tick at or past its deadline, i.e. up to one tick late (and never early, the deadline being worked out from
+ * System.nanoTime() at the time of arming rather than from the last tick processed); the wheel has wheelSize buckets
+ * (rounded up to a power of two) and a time-out further out than one turn of the wheel waits its remaining rounds in
+ * its bucket.
+ * - scheduling a time-out is O(1): it's handed over to the timer thread through a lock-free queue and placed in its
+ * bucket on the next tick; so is cancelling it - a cancelled time-out is only marked, and dropped when its bucket
+ * comes around.
+ * - a time-out can be re-armed with rearm(): that's a single volatile write of the new deadline (plus a CAS if the
+ * time-out had fired in the meantime) - cheap enough to do on every message. The timer thread finds out about the
+ * new deadline when the old one comes up, and then moves the time-out on to its new bucket rather than running it.
+ * - the task of a time-out runs on the timer thread, so it has to be short - typically it just wakes up a thread.
+ * - sleep() parks the calling thread until a time-out on the wheel unparks it, so a paced producer - platform or
+ * virtual thread - doesn't need a sleeping timer of its own.
+ * - the timer thread is a daemon thread named Timing-Wheel-Thread-cs0x65, started with start() and halted with
+ * stop(), on which it logs how many time-outs it placed, fired and moved on re-armed.
+ *
+ * For e.g:
+ * TimingWheel timingWheel = new TimingWheel(10, TimeUnit.MILLISECONDS, 512);
+ * timingWheel.start();
+ * consumer.setTimingWheel(timingWheel);
+ */
+public class TimingWheel implements Runnable {
+    public static final long DEFAULT_TICK_MILLIS = 10;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static final int IDLE = 0;
+    private static final int SCHEDULED = 1;
+    private static final int CANCELLED = 2;
+
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    // the time-outs scheduled by the other threads, yet to be placed in their buckets by the timer thread
+    private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+    // the last tick the timer thread has processed; written by the timer thread only
+    private volatile long tick;
+    private volatile boolean running;
+    private Thread timerThread;
+    private volatile long startedAt;
+    // written by the timer thread only
+    private long placedCount;
+    private long firedCount;
+    private long movedCount;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    public TimingWheel(long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration < 1 || wheelSize < 1){
+            throw new IllegalArgumentException("Expected a positive tick duration and wheel size. Received "+
+                    tickDuration+" "+unit+" and "+wheelSize);
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize){
+            size <<= 1;
+        }
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+    }
+
+    public TimingWheel() {
+        this(DEFAULT_TICK_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_WHEEL_SIZE);
+    }
+
+    public long getTickNanos() {
+        return tickNanos;
+    }
+
+    public long getCurrentTick() {
+        return tick;
+    }
+
+    public synchronized void start() {
+        if (timerThread != null){
+            return;
+        }
+        // the ticks count from here, however long the timer thread takes to get going; set before running, which
+        // tells deadlineTick() to count from it
+        startedAt = System.nanoTime();
+        running = true;
+        timerThread = new Thread(this, "Timing-Wheel-Thread-cs0x65");
+        timerThread.setDaemon(true);
+        timerThread.start();
+    }
+
+    /**
+     * Halts the timer thread; the time-outs still on the wheel never fire.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (timerThread == null){
+            return;
+        }
+        running = false;
+        LockSupport.unpark(timerThread);
+        timerThread.join();
+        timerThread = null;
+    }
+
+    /**
+     * @return a time-out running the given task once, on the first tick at or past the given delay from now.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task);
+        timeout.rearm(delay, unit);
+        return timeout;
+    }
+
+    /**
+     * @return a time-out running the given task, which isn't on the wheel until armed with rearm().
+     */
+    public Timeout newTimeout(Runnable task) {
+        return new Timeout(task);
+    }
+
+    /**
+     * Parks the calling thread until a time-out on the wheel, due after the given delay, unparks it.
+     */
+    public void sleep(long delay, TimeUnit unit) throws InterruptedException {
+        Thread sleeper = Thread.currentThread();
+        Timeout timeout = schedule(() -> LockSupport.unpark(sleeper), delay, unit);
+        while (!timeout.isExpired()){
+            LockSupport.park(this);
+            if (Thread.interrupted()){
+                timeout.cancel();
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        logger.info("Timing wheel starting with "+buckets.length+" buckets of "+
+                TimeUnit.NANOSECONDS.toMicros(tickNanos)+" microseconds...");
+        while (running){
+            long nextTickAt = startedAt + (tick + 1) * tickNanos;
+            long remainingNanos = nextTickAt - System.nanoTime();
+            if (remainingNanos > 0){
+                LockSupport.parkNanos(this, remainingNanos);
+                continue;
+            }
+            placeScheduled();
+            tick++;
+            expire(tick);
+        }
+        logger.info("Timing wheel halting after "+tick+" ticks: placed "+placedCount+" time-outs, fired "+
+                firedCount+", moved "+movedCount+" on being re-armed");
+    }
+
+    private void placeScheduled() {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null){
+            if (timeout.state.get() != CANCELLED){
+                place(timeout);
+                placedCount++;
+            }
+        }
+    }
+
+    /**
+     * Puts the time-out in the bucket of its deadline - or of the next tick, if that's past already.
+     */
+    private void place(Timeout timeout) {
+        long deadlineTick = Math.max(timeout.deadlineTick, tick + 1);
+        timeout.remainingRounds = (deadlineTick - tick - 1) / buckets.length;
+        int index = (int) (deadlineTick & mask);
+        timeout.next = buckets[index];
+        buckets[index] = timeout;
+    }
+
+    private void expire(long tick) {
+        int index = (int) (tick & mask);
+        Timeout timeout = buckets[index];
+        buckets[index] = null;
+        while (timeout != null){
+            Timeout next = timeout.next;
+            timeout.next = null;
+            if (timeout.state.get() == CANCELLED){
+                // dropped
+            }else if (timeout.remainingRounds > 0){
+                timeout.remainingRounds--;
+                timeout.next = buckets[index];
+                buckets[index] = timeout;
+            }else {
+                // let go of the time-out before looking at its deadline: a rearm() in between either writes the
+                // deadline before it's read here, or finds the time-out idle and schedules it again itself
+                timeout.state.set(IDLE);
+                if (timeout.deadlineTick > tick){
+                    if (timeout.state.compareAndSet(IDLE, SCHEDULED)){
+                        place(timeout);
+                        movedCount++;
+                    }
+                }else {
+                    firedCount++;
+                    timeout.task.run();
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    private long toTicks(long delay, TimeUnit unit) {
+        long delayNanos = unit.toNanos(delay);
+        return delayNanos / tickNanos + (delayNanos % tickNanos == 0 ? 0 : 1);
+    }
+
+    /**
+     * @return the first tick at or past the given delay from now; tick k being due at startedAt + k * tickNanos.
+     */
+    private long deadlineTick(long delay, TimeUnit unit) {
+        if (!running){
+            // not started yet: the ticks will count from start()
+            return tick + toTicks(delay, unit);
+        }
+        long deadlineNanos = System.nanoTime() - startedAt + unit.toNanos(delay);
+        return deadlineNanos <= 0 ? 0 : deadlineNanos / tickNanos + (deadlineNanos % tickNanos == 0 ? 0 : 1);
+    }
+
+    /**
+     * A task to run once the wheel gets to its deadline.
+     */
+    public class Timeout {
+        private final Runnable task;
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+        private volatile long deadlineTick;
+        // owned by the timer thread
+        private long remainingRounds;
+        private Timeout next;
+
+        private Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * Moves the deadline to the given delay from now, putting the time-out (back) on the wheel if it isn't on it.
+         */
+        public void rearm(long delay, TimeUnit unit) {
+            deadlineTick = deadlineTick(delay, unit);
+            if (state.compareAndSet(IDLE, SCHEDULED)){
+                scheduled.offer(this);
+            }
+        }
+
+        /**
+         * Takes the time-out off the wheel for good.
+         */
+        public void cancel() {
+            state.set(CANCELLED);
+        }
+
+        /**
+         * @return whether the wheel has got to the deadline - whether or not it has run the task yet.
+         */
+        public boolean isExpired() {
+            return tick >= deadlineTick;
+        }
+
+        public long getRemainingNanos() {
+            return Math.max(0, deadlineTick - tick) * tickNanos;
+        }
+    }
+}
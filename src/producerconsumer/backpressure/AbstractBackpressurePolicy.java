@@ -0,0 +1,116 @@
+package producerconsumer.backpressure;
+
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Base class of the back pressure policies; keeps the counts of the dropped and delayed messages (in LongAdders, as
+ * the policy may be shared by several producers) and waits on a full queue in a way that suits the caller's locking.
+ */
+public abstract class AbstractBackpressurePolicy<T> implements BackpressurePolicy<T> {
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder delayed = new LongAdder();
+    private final LongAdder delayedNanos = new LongAdder();
+
+    protected void recordDropped() {
+        dropped.increment();
+    }
+
+    protected void recordDelayed(long nanos) {
+        delayed.increment();
+        delayedNanos.add(nanos);
+    }
+
+    /**
+     * Waits for up to the given nanoseconds: on the queue's monitor if the caller holds it, so that the monitor is
+     * released meanwhile, otherwise by parking.
+     */
+    protected static void pause(Queue<?> queue, long nanos, boolean monitorHeld) throws InterruptedException {
+        if (monitorHeld){
+            TimeUnit.NANOSECONDS.timedWait(queue, nanos);
+        }else {
+            LockSupport.parkNanos(nanos);
+            if (Thread.interrupted()){
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Keeps offering the message until it's enqueued or the time-out elapses, pausing as per pauseNanos() between
+     * the attempts.
+     * @return whether the message got enqueued.
+     */
+    protected boolean offerUntil(Queue<T> queue, T message, boolean monitorHeld, long timeoutNanos)
+            throws InterruptedException {
+        long startTime = System.nanoTime();
+        long deadline = startTime + timeoutNanos;
+        for (int attempt = 0; ; attempt++) {
+            if (queue.offer(message)){
+                recordDelayed(System.nanoTime() - startTime);
+                return true;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0){
+                return false;
+            }
+            long pauseNanos = pauseNanos(attempt);
+            if (pauseNanos <= 0 && !monitorHeld){
+                Thread.onSpinWait();
+            }else {
+                pause(queue, Math.min(Math.max(pauseNanos, 1), remaining), monitorHeld);
+            }
+        }
+    }
+
+    /**
+     * Same as offerUntil(), except that a java.util.concurrent.BlockingQueue offered to without its monitor held
+     * gets to block in its own offer(timeout) - woken up by the consumer's take rather than by a time-out.
+     * @return whether the message got enqueued.
+     */
+    @SuppressWarnings("unchecked")
+    protected boolean offerBlocking(Queue<T> queue, T message, boolean monitorHeld, long timeoutNanos)
+            throws InterruptedException {
+        if (monitorHeld || !(queue instanceof BlockingQueue)){
+            return offerUntil(queue, message, monitorHeld, timeoutNanos);
+        }
+        long startTime = System.nanoTime();
+        if (((BlockingQueue<T>) queue).offer(message, timeoutNanos, TimeUnit.NANOSECONDS)){
+            recordDelayed(System.nanoTime() - startTime);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return how long to pause before the given retry of offerUntil(); 0 to retry right away (only possible without
+     * the monitor, since the consumers can't make any space while the producer holds on to it).
+     */
+    protected long pauseNanos(int attempt) {
+        return TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getDelayedCount() {
+        return delayed.sum();
+    }
+
+    @Override
+    public long getDelayedNanos() {
+        return delayedNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[dropped=" + getDroppedCount() + ", delayed=" + getDelayedCount() +
+                ", delayedMillis=" + TimeUnit.NANOSECONDS.toMillis(getDelayedNanos()) + "]";
+    }
+}
@@ -0,0 +1,46 @@
+package producerconsumer.backpressure;
+
+import java.util.Queue;
+
+/**
+ * Decides what the {@link producerconsumer.Producer} does with a message when the queue is full, i.e. when
+ * queue.offer(message) has returned false.
+ * The policies available are:
+ * - {@link BlockWithTimeoutPolicy}: waits for the consumers to free up space, up to a time-out.
+ * - {@link SpinThenParkPolicy}: spins for a while, then parks for growing intervals, up to a time-out.
+ * - {@link DropNewestPolicy}: drops the message being offered.
+ * - {@link DropOldestPolicy}: drops the message at the head of the queue to make space for the new one.
+ * - {@link SamplePolicy}: keeps only every n-th message while the queue stays full, dropping the rest.
+ * - {@link CallerRunsPolicy}: hands the message to a handler on the producer's own thread.
+ *
+ * The producer calls onFull() either while holding the queue's monitor (monitorHeld = true; the locking modes over a
+ * LinkedList or any other Queue) or without any lock (monitorHeld = false; the lock-free ring buffer queues). A policy
+ * that waits must hence wait with queue.wait() in the former case - so that the consumers can get hold of the monitor
+ * and take messages off the queue meanwhile - and may park in the latter.
+ *
+ * Whatever the policy decides, the closing message is never subject to it: the producer always gets the closing
+ * message onto the queue, so that the consumers halt on it rather than on time-out.
+ * Every policy counts the messages it has dropped and the messages it has delayed (see
+ * {@link AbstractBackpressurePolicy}); a policy may be shared by several producers.
+ */
+public interface BackpressurePolicy<T> {
+
+    enum Outcome {
+        // the message made it onto the queue, possibly after a delay
+        ENQUEUED,
+        // the message was dropped; the producer moves on with the next message
+        DROPPED,
+        // the message was processed on the producer's thread instead; the producer moves on with the next message
+        HANDLED,
+        // the queue remained full; the producer gives up producing and halts
+        FAILED
+    }
+
+    Outcome onFull(Queue<T> queue, T message, boolean monitorHeld) throws InterruptedException;
+
+    long getDroppedCount();
+
+    long getDelayedCount();
+
+    long getDelayedNanos();
+}
@@ -0,0 +1,30 @@
+package producerconsumer.backpressure;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Waits for the consumers to make space for the message - on the queue's monitor when the producer holds it - for up
+ * to the given time-out (in its own offer(timeout) on a BlockingQueue); the producer halts if the queue is still full
+ * by then.
+ * This is the policy of choice when no message may be lost and a stalled consumer should eventually stop the
+ * producer, rather than the old behaviour of giving up at the very first full queue.
+ */
+public class BlockWithTimeoutPolicy<T> extends AbstractBackpressurePolicy<T> {
+    private final long timeoutNanos;
+
+    public BlockWithTimeoutPolicy(long timeout, TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    @Override
+    public Outcome onFull(Queue<T> queue, T message, boolean monitorHeld) throws InterruptedException {
+        return offerBlocking(queue, message, monitorHeld, timeoutNanos) ? Outcome.ENQUEUED : Outcome.FAILED;
+    }
+
+    @Override
+    protected long pauseNanos(int attempt) {
+        // with the monitor, a consumer taking a message wakes the producer up well before this
+        return TimeUnit.MILLISECONDS.toNanos(10);
+    }
+}
@@ -0,0 +1,29 @@
+package producerconsumer.backpressure;
+
+import producerconsumer.MessageHandler;
+
+import java.util.Queue;
+
+/**
+ * Processes the message on the producer's own thread with the given handler instead of enqueueing it, like
+ * ThreadPoolExecutor.CallerRunsPolicy: nothing gets lost and the producer is slowed down by exactly the work the
+ * consumers couldn't keep up with. The messages handled this way are counted as delayed, as is the time spent
+ * handling them.
+ * Since the producer may hold the queue's monitor, the handler should not block on the queue; and the message is
+ * processed out of order with respect to the ones still on the queue.
+ */
+public class CallerRunsPolicy<T> extends AbstractBackpressurePolicy<T> {
+    private final MessageHandler<T> handler;
+
+    public CallerRunsPolicy(MessageHandler<T> handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public Outcome onFull(Queue<T> queue, T message, boolean monitorHeld) {
+        long startTime = System.nanoTime();
+        handler.handle(message);
+        recordDelayed(System.nanoTime() - startTime);
+        return Outcome.HANDLED;
+    }
+}
@@ -0,0 +1,16 @@
+package producerconsumer.backpressure;
+
+import java.util.Queue;
+
+/**
+ * Drops the message being offered and lets the producer move on; the messages already on the queue are kept.
+ * Bounds both the memory and the producer's latency, at the cost of losing the freshest data under load.
+ */
+public class DropNewestPolicy<T> extends AbstractBackpressurePolicy<T> {
+
+    @Override
+    public Outcome onFull(Queue<T> queue, T message, boolean monitorHeld) {
+        recordDropped();
+        return Outcome.DROPPED;
+    }
+}
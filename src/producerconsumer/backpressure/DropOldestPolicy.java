@@ -0,0 +1,34 @@
+package producerconsumer.backpressure;
+
+import producerconsumer.SpscRingBufferQueue;
+
+import java.util.Queue;
+
+/**
+ * Drops the message at the head of the queue - the one that has waited the longest - to make space for the message
+ * being offered; suits feeds where only the latest data matters.
+ * The producer takes the oldest message off the queue itself, so the queue must allow the producer to poll it:
+ * a {@link producerconsumer.SpscRingBufferQueue} doesn't (it has room for one consumer only).
+ */
+public class DropOldestPolicy<T> extends AbstractBackpressurePolicy<T> {
+    // a consumer may take the freed slot first; give up after this many rounds rather than evict forever
+    static final int MAX_EVICTIONS = 16;
+
+    @Override
+    public Outcome onFull(Queue<T> queue, T message, boolean monitorHeld) {
+        if (queue instanceof SpscRingBufferQueue){
+            throw new IllegalStateException("The oldest message can't be dropped from a single-consumer queue: "+
+                    queue);
+        }
+        for (int i = 0; i < MAX_EVICTIONS; i++) {
+            if (queue.poll() != null){
+                recordDropped();
+            }
+            if (queue.offer(message)){
+                return Outcome.ENQUEUED;
+            }
+        }
+        recordDropped();
+        return Outcome.DROPPED;
+    }
+}
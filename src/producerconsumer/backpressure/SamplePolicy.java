@@ -0,0 +1,35 @@
+package producerconsumer.backpressure;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * While the queue stays full, keeps only every sampleRate-th message - which is waited in like with
+ * {@link BlockWithTimeoutPolicy} - and drops the rest; so the consumers still get a representative trickle of the
+ * stream under load instead of either all of it or only its oldest/newest part.
+ * The producer halts if even a sampled message can't be enqueued within the time-out.
+ */
+public class SamplePolicy<T> extends AbstractBackpressurePolicy<T> {
+    private final int sampleRate;
+    private final long timeoutNanos;
+    private final AtomicLong fullCount = new AtomicLong();
+
+    public SamplePolicy(int sampleRate, long timeout, TimeUnit unit) {
+        if (sampleRate < 1){
+            throw new IllegalArgumentException("The sample rate needs to be at least 1. Received sampleRate = "+
+                    sampleRate);
+        }
+        this.sampleRate = sampleRate;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    @Override
+    public Outcome onFull(Queue<T> queue, T message, boolean monitorHeld) throws InterruptedException {
+        if (fullCount.getAndIncrement() % sampleRate != 0){
+            recordDropped();
+            return Outcome.DROPPED;
+        }
+        return offerBlocking(queue, message, monitorHeld, timeoutNanos) ? Outcome.ENQUEUED : Outcome.FAILED;
+    }
+}
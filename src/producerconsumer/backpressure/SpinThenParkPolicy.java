@@ -0,0 +1,39 @@
+package producerconsumer.backpressure;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries the offer right away for the first spinTries attempts, then pauses for intervals doubling from 1
+ * microsecond up to 1 millisecond, until the time-out; the producer halts if the queue is still full by then.
+ * Spinning gets the message in with the least delay when the consumers are about to catch up, which is the common
+ * case for short bursts; the parking caps the CPU burnt when they aren't.
+ * When the producer holds the queue's monitor, spinning is pointless (no consumer can take a message meanwhile), so
+ * it pauses on the monitor from the first attempt.
+ */
+public class SpinThenParkPolicy<T> extends AbstractBackpressurePolicy<T> {
+    static final long MIN_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+    static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int spinTries;
+    private final long timeoutNanos;
+
+    public SpinThenParkPolicy(int spinTries, long timeout, TimeUnit unit) {
+        this.spinTries = spinTries;
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    @Override
+    public Outcome onFull(Queue<T> queue, T message, boolean monitorHeld) throws InterruptedException {
+        return offerUntil(queue, message, monitorHeld, timeoutNanos) ? Outcome.ENQUEUED : Outcome.FAILED;
+    }
+
+    @Override
+    protected long pauseNanos(int attempt) {
+        if (attempt < spinTries){
+            return 0;
+        }
+        int doublings = Math.min(attempt - spinTries, 20);
+        return Math.min(MIN_PARK_NANOS << doublings, MAX_PARK_NANOS);
+    }
+}
@@ -0,0 +1,36 @@
+package producerconsumer.partition;
+
+/**
+ * How a {@link producerconsumer.partition.PartitionedChannel} spreads its partitions over the consumers that have
+ * joined it:
+ * - RANGE: every consumer gets a contiguous range of partitions, the first partitions % consumers consumers one more
+ * than the rest; partitions next to one another stay together.
+ * - ROUND_ROBIN: partition p goes to consumer p % consumers; a hot partition's neighbours end up with other
+ * consumers.
+ * Either way, every consumer gets partitions / consumers partitions, give or take one.
+ */
+public enum AssignmentStrategy {
+    RANGE,
+    ROUND_ROBIN;
+
+    /**
+     * @return the index of the consumer the given partition is assigned to.
+     */
+    public int consumerOf(int partition, int partitions, int consumers) {
+        if (this == ROUND_ROBIN){
+            return partition % consumers;
+        }
+        int share = partitions / consumers;
+        int larger = partitions % consumers;
+        // the first larger consumers take share + 1 partitions each
+        int inLarger = larger * (share + 1);
+        if (partition < inLarger){
+            return partition / (share + 1);
+        }
+        return larger + (partition - inLarger) / share;
+    }
+
+    public static AssignmentStrategy of(String name) {
+        return valueOf(name.toUpperCase().replace('-', '_'));
+    }
+}
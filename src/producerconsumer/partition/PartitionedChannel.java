@@ -0,0 +1,340 @@
+package producerconsumer.partition;
+
+import producerconsumer.EndOfStreamMarker;
+import producerconsumer.MpmcRingBufferQueue;
+import producerconsumer.RingBufferQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * A channel split into P partitions by message key: every message goes to the partition its key hashes to, and every
+ * partition is consumed by exactly one consumer at a time - so the messages of the same key are consumed in the order
+ * they were published (by any one producer), while the consumers share the partitions between them.
+ * The characteristics exhibited by this class are:
+ * - every partition is an {@link producerconsumer.MpmcRingBufferQueue} of the given capacity; getInput() is the
+ * queue the producers publish to - any number of them - and a full partition is back pressure to the producers just
+ * like a full ring buffer queue (the other partitions keep going meanwhile).
+ * - a consumer joins with join() and consumes from the returned subscription, a queue of its own which polls the
+ * partitions assigned to it in turn. Joining and leaving rebalance the partitions over the consumers as per the
+ * {@link producerconsumer.partition.AssignmentStrategy}.
+ * - a partition changes hands without breaking the key order: the consumer it's taken away from lets go of it only on
+ * its next poll() - i.e. once done with the message it polled from it last - and only then does the new owner start
+ * polling it. Hence the consumers need to process every message before polling the next one (no batch size and no
+ * processing pool).
+ * - leave() takes a subscription out of the channel: its consumer lets go of all its partitions on its next poll() and
+ * gets the closing message, so that it halts.
+ * - the closing message published by the producers (see {@link producerconsumer.ShutdownCoordinator}) closes the
+ * channel: from then on a subscription hands its consumer the closing message once all of the partitions assigned to
+ * it are drained.
+ * - both the input and the subscriptions are lock-free, like the ring buffer queues: the producers and consumers
+ * don't synchronize on them, and a consumer backs off on an empty subscription as per its wait strategy.
+ * - it counts the messages published to and consumed from every partition; getHotPartitions() tells the partitions
+ * which got more than HOT_PARTITION_FACTOR times their fair share of the messages - the keys hashing there are skewed
+ * and their consumer is the bottleneck - and report() lists them along with every partition's backlog and owner.
+ *
+ * For e.g:
+ * PartitionedChannel&lt;String&gt; channel = new PartitionedChannel&lt;&gt;(16, 1024, key, EndOfStreamMarker.STRINGS,
+ *         AssignmentStrategy.RANGE);
+ * Producer&lt;String&gt; producer = Producer.ofStrings(channel.getInput(), 100_000, 0);
+ * Consumer&lt;String&gt; consumer = Consumer.ofStrings(channel.join());
+ */
+public class PartitionedChannel<T> {
+    // A partition with more than this many times its fair share of the messages is hot
+    public static final double HOT_PARTITION_FACTOR = 2.0;
+
+    private final Partition<T>[] partitions;
+    private final Function<? super T, ?> key;
+    private final EndOfStreamMarker<T> endOfStream;
+    private final AssignmentStrategy assignmentStrategy;
+    private final Input input = new Input();
+    // guarded by this
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private volatile boolean closed;
+    // guarded by this
+    private int joined;
+    private int rebalances;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    public PartitionedChannel(int partitions, int partitionCapacity, Function<? super T, ?> key,
+                              EndOfStreamMarker<T> endOfStream, AssignmentStrategy assignmentStrategy) {
+        if (partitions < 1){
+            throw new IllegalArgumentException("There needs to be at least one partition. Received partitions = "+
+                    partitions);
+        }
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        Partition<T>[] array = new Partition[partitions];
+        this.partitions = array;
+        for (int i = 0; i < partitions; i++) {
+            this.partitions[i] = new Partition<>(partitionCapacity);
+        }
+        this.key = key;
+        this.endOfStream = endOfStream;
+        this.assignmentStrategy = assignmentStrategy;
+    }
+
+    /**
+     * @return the queue the producers publish to.
+     */
+    public RingBufferQueue<T> getInput() {
+        return input;
+    }
+
+    public int getPartitionCount() {
+        return partitions.length;
+    }
+
+    /**
+     * @return the partition the messages of the given key go to.
+     */
+    public int partitionOf(Object messageKey) {
+        int hash = Objects.hashCode(messageKey);
+        // spread the higher bits, as for a HashMap, before taking the remainder
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, partitions.length);
+    }
+
+    /**
+     * Adds a consumer to the channel and rebalances the partitions.
+     * @return the queue for the consumer to consume from.
+     */
+    public synchronized RingBufferQueue<T> join() {
+        Subscription subscription = new Subscription(joined++);
+        subscriptions.add(subscription);
+        rebalance();
+        return subscription;
+    }
+
+    /**
+     * Takes the consumer of the given subscription out of the channel and rebalances the partitions; its consumer
+     * gets the closing message on its next poll().
+     */
+    public synchronized void leave(RingBufferQueue<T> subscription) {
+        if (!subscriptions.remove(subscription)){
+            throw new IllegalArgumentException(subscription+" isn't subscribed to this channel");
+        }
+        ((Subscription) subscription).left = true;
+        rebalance();
+    }
+
+    private void rebalance() {
+        int consumers = subscriptions.size();
+        int moved = 0;
+        for (int i = 0; i < partitions.length; i++) {
+            Partition<T> partition = partitions[i];
+            Subscription target = consumers > 0 ?
+                    subscriptions.get(assignmentStrategy.consumerOf(i, partitions.length, consumers)) : null;
+            if (partition.target != target){
+                moved++;
+            }
+            partition.target = target;
+            // a partition nobody owns is handed over right away; otherwise its owner lets go of it on its next poll()
+            partition.owner.compareAndSet(null, target);
+        }
+        rebalances++;
+        logger.info("Rebalanced "+partitions.length+" partitions over "+consumers+" consumer(s) "+
+                assignmentStrategy+": "+moved+" partition(s) to move");
+    }
+
+    /**
+     * @return the partitions which got more than HOT_PARTITION_FACTOR times their fair share of the messages.
+     */
+    public List<Integer> getHotPartitions() {
+        long published = 0;
+        for (Partition<T> partition : partitions) {
+            published += partition.published.sum();
+        }
+        List<Integer> hotPartitions = new ArrayList<>();
+        double threshold = HOT_PARTITION_FACTOR * published / partitions.length;
+        for (int i = 0; i < partitions.length; i++) {
+            if (published > 0 && partitions[i].published.sum() > threshold){
+                hotPartitions.add(i);
+            }
+        }
+        return hotPartitions;
+    }
+
+    public long getPublishedCount(int partition) {
+        return partitions[partition].published.sum();
+    }
+
+    public long getConsumedCount(int partition) {
+        return partitions[partition].consumed.sum();
+    }
+
+    /**
+     * @return the messages published to and consumed from every partition, its backlog and owner, and the hot
+     * partitions.
+     */
+    public synchronized String report() {
+        StringBuilder report = new StringBuilder("Partition report for "+partitions.length+" partitions, "+
+                subscriptions.size()+" consumer(s), "+rebalances+" rebalance(s):");
+        List<Integer> hotPartitions = getHotPartitions();
+        for (int i = 0; i < partitions.length; i++) {
+            Partition<T> partition = partitions[i];
+            Subscription owner = partition.owner.get();
+            report.append(String.format("%n  partition %d: published %d, consumed %d, backlog %d, owner %s%s", i,
+                    partition.published.sum(), partition.consumed.sum(), partition.queue.size(),
+                    owner != null ? "consumer "+owner.id : "none", hotPartitions.contains(i) ? " <- hot" : ""));
+        }
+        return report.toString();
+    }
+
+    private static class Partition<T> {
+        private final MpmcRingBufferQueue<T> queue;
+        private final LongAdder published = new LongAdder();
+        private final LongAdder consumed = new LongAdder();
+        // the subscription polling the partition; changes hands only when the owner lets go of it
+        private final AtomicReference<PartitionedChannel<T>.Subscription> owner = new AtomicReference<>();
+        // the subscription the partition is assigned to as of the last rebalance
+        private volatile PartitionedChannel<T>.Subscription target;
+
+        private Partition(int capacity) {
+            this.queue = new MpmcRingBufferQueue<>(capacity);
+        }
+    }
+
+    /**
+     * The producers' side: routes every message to its partition.
+     */
+    private class Input extends RingBufferQueue<T> {
+
+        /**
+         * @return false if the message's partition is full; the closing message closes the channel instead.
+         */
+        @Override
+        public boolean offer(T message) {
+            if (endOfStream.isMarker(message)){
+                closed = true;
+                return true;
+            }
+            Partition<T> partition = partitions[partitionOf(key.apply(message))];
+            if (!partition.queue.offer(message)){
+                return false;
+            }
+            partition.published.increment();
+            return true;
+        }
+
+        @Override
+        public T poll() {
+            throw new UnsupportedOperationException("The input of a partitioned channel is for the producers only");
+        }
+
+        @Override
+        public T peek() {
+            throw new UnsupportedOperationException("The input of a partitioned channel is for the producers only");
+        }
+
+        @Override
+        public int capacity() {
+            return partitions.length * partitions[0].queue.capacity();
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Partition<T> partition : partitions) {
+                size += partition.queue.size();
+            }
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "PartitionedChannel[partitions=" + partitions.length + ", size=" + size() + "]";
+        }
+    }
+
+    /**
+     * A consumer's side: polls the partitions it owns in turn, letting go of the ones rebalanced away from it.
+     * Only the one consumer polls it.
+     */
+    private class Subscription extends RingBufferQueue<T> {
+        private final int id;
+        private volatile boolean left;
+        // the partition to poll first next time, so that a busy partition doesn't starve the others
+        private int next;
+
+        private Subscription(int id) {
+            this.id = id;
+        }
+
+        /**
+         * Publishes through the channel's input, like any producer.
+         */
+        @Override
+        public boolean offer(T message) {
+            return input.offer(message);
+        }
+
+        @Override
+        public T poll() {
+            if (left){
+                for (Partition<T> partition : partitions) {
+                    partition.owner.compareAndSet(this, partition.target);
+                }
+                return endOfStream.marker();
+            }
+            // read before looking at the partitions, so that every message published before closing is seen
+            boolean drained = closed;
+            for (int i = 0; i < partitions.length; i++) {
+                int index = (next + i) % partitions.length;
+                Partition<T> partition = partitions[index];
+                PartitionedChannel<T>.Subscription target = partition.target;
+                if (target != this){
+                    // the message polled from it last has been processed by now: let it go to its new owner
+                    partition.owner.compareAndSet(this, target);
+                    continue;
+                }
+                if (partition.owner.get() != this && !partition.owner.compareAndSet(null, this)){
+                    // still with its previous owner
+                    drained = false;
+                    continue;
+                }
+                T message = partition.queue.poll();
+                if (message != null){
+                    partition.consumed.increment();
+                    next = index + 1;
+                    return message;
+                }
+                if (partition.queue.size() > 0){
+                    // published, but not visible yet
+                    drained = false;
+                }
+            }
+            return drained ? endOfStream.marker() : null;
+        }
+
+        @Override
+        public T peek() {
+            throw new UnsupportedOperationException("A partitioned channel's subscription can only be polled");
+        }
+
+        @Override
+        public int capacity() {
+            return input.capacity();
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (Partition<T> partition : partitions) {
+                if (partition.owner.get() == this){
+                    size += partition.queue.size();
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public String toString() {
+            return "PartitionedChannel.Subscription[consumer=" + id + ", size=" + size() + "]";
+        }
+    }
+}
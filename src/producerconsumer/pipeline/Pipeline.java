@@ -0,0 +1,238 @@
+package producerconsumer.pipeline;
+
+import main.ExecutionMode;
+import producerconsumer.Consumer;
+import producerconsumer.EndOfStreamMarker;
+import producerconsumer.MessageHandler;
+import producerconsumer.Producer;
+import producerconsumer.ShutdownCoordinator;
+import producerconsumer.backpressure.BlockWithTimeoutPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Chain of {@link producerconsumer.pipeline.Stage}s - e.g. parse -> enrich -> aggregate -> sink - with a bounded
+ * queue in front of every stage, built on top of the Producer/Consumer of this package's parent.
+ * The characteristics exhibited by this class are:
+ * - every stage has its own worker count and batch size, so a slow stage can be scaled out on its own.
+ * - the messages enter the pipeline through getInput() - e.g. from {@link producerconsumer.Producer}s connected with
+ * connect() - or through submit(); and the closing message of the input passes through the stages in order: a stage
+ * passes it on only once all of its workers have halted (see {@link producerconsumer.pipeline.Stage}), so by the time
+ * the last stage halts, every message has made it through.
+ * - report() tells every stage's queue depth, processed count, service time percentiles and utilization (the share
+ * of the time its workers were busy), along with the stage most likely to be the bottleneck: the busiest one.
+ * - the workers run on the threads of the given {@link main.ExecutionMode}.
+ *
+ * For e.g:
+ * Pipeline&lt;String&gt; pipeline = Pipeline.&lt;String&gt;builder()
+ *         .stage("parse", Integer::parseInt, 1)
+ *         .stage("enrich", i -&gt; lookup(i), 4)
+ *         .sink("print", System.out::println, 1);
+ * pipeline.start();
+ * pipeline.connect(producer);
+ */
+public class Pipeline<I> {
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    // the closing message of every stage: it can't be mistaken for any message but itself
+    static final EndOfStreamMarker<Object> END_OF_STREAM = EndOfStreamMarker.of(new Object() {
+        @Override
+        public String toString() {
+            return "END_OF_STREAM";
+        }
+    });
+
+    private final List<Stage<?, ?>> stages;
+    private final ExecutionMode executionMode;
+    private final List<Thread> threads = new ArrayList<>();
+    private long startedAt;
+    private long finishedAt;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    private Pipeline(List<Stage<?, ?>> stages, ExecutionMode executionMode) {
+        this.stages = stages;
+        this.executionMode = executionMode;
+    }
+
+    public static <I> Builder<I, I> builder() {
+        return new Builder<>(new ArrayList<>());
+    }
+
+    /**
+     * The queue in front of the first stage, for producers to publish to.
+     */
+    @SuppressWarnings("unchecked")
+    public Queue<I> getInput() {
+        return (Queue<I>) (Queue<?>) stages.get(0).getInput();
+    }
+
+    /**
+     * The closing message for the producers publishing to getInput() to send.
+     */
+    @SuppressWarnings("unchecked")
+    public EndOfStreamMarker<I> getEndOfStream() {
+        return (EndOfStreamMarker<I>) (EndOfStreamMarker<?>) END_OF_STREAM;
+    }
+
+    /**
+     * Has the given producers, which have to publish to getInput() with getEndOfStream(), coordinate the closing
+     * messages so that every worker of the first stage gets one once all of them are done.
+     * The input is bounded, so a producer without a back pressure policy of its own is given a BlockWithTimeoutPolicy
+     * waiting for as long as the consumers wait before halting.
+     */
+    public void connect(List<Producer<I>> producers) {
+        ShutdownCoordinator shutdownCoordinator = new ShutdownCoordinator(producers.size(),
+                stages.get(0).getWorkers());
+        for (Producer<I> producer : producers) {
+            producer.setShutdownCoordinator(shutdownCoordinator);
+            if (producer.getBackpressurePolicy() == null){
+                producer.setBackpressurePolicy(new BlockWithTimeoutPolicy<>(Consumer.TIME_TO_WAIT_BEFORE_HALTING,
+                        TimeUnit.MILLISECONDS));
+            }
+        }
+    }
+
+    /**
+     * Publishes the message to the first stage, waiting for space in its queue if need be.
+     */
+    public void submit(I message) throws InterruptedException {
+        stages.get(0).getInput().put(message);
+    }
+
+    /**
+     * Closes the input of the pipeline once everything's been submit()ted.
+     */
+    public void complete() throws InterruptedException {
+        for (int i = 0; i < stages.get(0).getWorkers(); i++) {
+            stages.get(0).getInput().put(END_OF_STREAM.marker());
+        }
+    }
+
+    public void start() {
+        startedAt = System.nanoTime();
+        for (Stage<?, ?> stage : stages) {
+            ThreadFactory threadFactory = executionMode.threadFactory("Stage-" + stage.getName() + "-Thread-cs0x65-");
+            for (int i = 0; i < stage.getWorkers(); i++) {
+                Thread thread = threadFactory.newThread(stage.newWorker());
+                threads.add(thread);
+                thread.start();
+            }
+        }
+        logger.info("Pipeline started: "+stages.size()+" stage(s), "+threads.size()+" worker(s)");
+    }
+
+    /**
+     * Blocks until the closing message has passed through all the stages and every worker has halted.
+     */
+    public void awaitTermination() throws InterruptedException {
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        finishedAt = System.nanoTime();
+    }
+
+    public List<Stage<?, ?>> getStages() {
+        return stages;
+    }
+
+    public String report() {
+        long elapsedNanos = (finishedAt > 0 ? finishedAt : System.nanoTime()) - startedAt;
+        StringBuilder report = new StringBuilder("Pipeline report:");
+        Stage<?, ?> busiest = null;
+        for (Stage<?, ?> stage : stages) {
+            report.append("\n  ").append(stage.report(elapsedNanos));
+            if (busiest == null || stage.getUtilization(elapsedNanos) > busiest.getUtilization(elapsedNanos)){
+                busiest = stage;
+            }
+        }
+        report.append("\n  bottleneck: ").append(busiest.getName()).append(" (busy ")
+                .append(Math.round(busiest.getUtilization(elapsedNanos) * 100)).append("%)");
+        return report.toString();
+    }
+
+    /**
+     * Builds the pipeline stage by stage; I is the type of the pipeline's input and O the type of the last stage's
+     * output so far.
+     */
+    public static class Builder<I, O> {
+        private final List<StageSpec> specs;
+        private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+        private ExecutionMode executionMode = ExecutionMode.PLATFORM;
+
+        private Builder(List<StageSpec> specs) {
+            this.specs = specs;
+        }
+
+        public Builder<I, O> queueCapacity(int queueCapacity) {
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public Builder<I, O> executionMode(ExecutionMode executionMode) {
+            this.executionMode = executionMode;
+            return this;
+        }
+
+        public <R> Builder<I, R> stage(String name, StageFunction<? super O, ? extends R> function, int workers,
+                                       int batchSize) {
+            specs.add(new StageSpec(name, function, workers, batchSize));
+            Builder<I, R> builder = new Builder<>(specs);
+            builder.queueCapacity = queueCapacity;
+            builder.executionMode = executionMode;
+            return builder;
+        }
+
+        public <R> Builder<I, R> stage(String name, StageFunction<? super O, ? extends R> function, int workers) {
+            return stage(name, function, workers, 1);
+        }
+
+        /**
+         * Ends the pipeline with a stage which hands every message to the handler.
+         */
+        public Pipeline<I> sink(String name, MessageHandler<? super O> handler, int workers) {
+            return this.<Void>stage(name, message -> {
+                handler.handle(message);
+                return null;
+            }, workers).build();
+        }
+
+        /**
+         * Ends the pipeline with the last stage added; its output is discarded.
+         */
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public Pipeline<I> build() {
+            if (specs.isEmpty()){
+                throw new IllegalStateException("A pipeline needs at least one stage");
+            }
+            List<Stage<?, ?>> stages = new ArrayList<>();
+            Stage next = null;
+            for (int i = specs.size() - 1; i >= 0; i--) {
+                StageSpec spec = specs.get(i);
+                BlockingQueue<Object> input = new ArrayBlockingQueue<>(queueCapacity);
+                next = new Stage(spec.name, spec.function, spec.workers, spec.batchSize, input, next);
+                stages.add(0, next);
+            }
+            return new Pipeline<>(stages, executionMode);
+        }
+    }
+
+    private static class StageSpec {
+        private final String name;
+        private final StageFunction<?, ?> function;
+        private final int workers;
+        private final int batchSize;
+
+        private StageSpec(String name, StageFunction<?, ?> function, int workers, int batchSize) {
+            this.name = name;
+            this.function = function;
+            this.workers = workers;
+            this.batchSize = batchSize;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package producerconsumer.pipeline;
+
+import metrics.LatencyHistogram;
+import producerconsumer.Consumer;
+import producerconsumer.ShutdownCoordinator;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One stage of a {@link producerconsumer.pipeline.Pipeline}: a bounded input queue drained by a given number of
+ * workers, each of them a {@link producerconsumer.Consumer} whose message handler applies the stage function and puts
+ * the result onto the input queue of the next stage.
+ * The characteristics exhibited by this class are:
+ * - the queues are ArrayBlockingQueues, so the workers block in the queue's own lock and conditions (never in a
+ * synchronized block) and a put() onto the full queue of a slow next stage holds the whole stage back - back pressure
+ * all the way up to the pipeline's input.
+ * - the workers of a stage are the producers of the next stage, and share a {@link producerconsumer.ShutdownCoordinator}
+ * to pass the closing message on: the last worker of the stage to halt sends one closing message per worker of the
+ * next stage, i.e. only once every message of this stage has been handed on.
+ * - the service time - the time spent in the stage function, excluding any wait on the next stage's queue - is kept
+ * in a {@link metrics.LatencyHistogram}; with the processed count and the time the workers were busy it tells which
+ * stage is the bottleneck.
+ * - a message the stage function fails on (throws a RuntimeException for) is counted as failed and skipped, rather
+ * than killing the worker; and a worker passes on its share of the closing messages however it halts, so that the
+ * next stages never wait on a stage which went wrong. A message which couldn't be handed on, as the worker was
+ * interrupted waiting on the next stage's queue, is counted as dropped - as is one the function filtered out (null).
+ */
+public class Stage<I, O> {
+    private final String name;
+    private final StageFunction<I, O> function;
+    private final int workers;
+    private final int batchSize;
+    private final BlockingQueue<Object> input;
+    private final Stage<O, ?> next;
+    private final ShutdownCoordinator shutdownCoordinator;
+    private final LatencyHistogram serviceTime = new LatencyHistogram();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    Stage(String name, StageFunction<I, O> function, int workers, int batchSize, BlockingQueue<Object> input,
+          Stage<O, ?> next) {
+        if (workers < 1){
+            throw new IllegalArgumentException("A stage needs at least one worker. Received workers = "+workers);
+        }
+        this.name = name;
+        this.function = function;
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.input = input;
+        this.next = next;
+        this.shutdownCoordinator = next == null ? null : new ShutdownCoordinator(workers, next.workers);
+    }
+
+    Runnable newWorker() {
+        Consumer<Object> consumer = new Consumer<>(input, Pipeline.END_OF_STREAM);
+        consumer.setBatchSize(batchSize);
+        // the stages are about throughput, the console would only get in the way
+        consumer.setMessageLogLevel(Level.FINE);
+        consumer.setMessageHandler(this::handle);
+        return () -> {
+            try {
+                consumer.run();
+            } finally {
+                passOnClosingMessages();
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private void handle(Object message) {
+        long startTime = System.nanoTime();
+        O output;
+        try {
+            output = function.apply((I) message);
+        } catch (RuntimeException e) {
+            busyNanos.add(System.nanoTime() - startTime);
+            failed.increment();
+            // the first failure of the stage in full, the rest only at FINE level
+            logger.log(failed.sum() == 1 ? Level.WARNING : Level.FINE, "Stage "+name+" failed on message: "+
+                    message, e);
+            return;
+        }
+        long elapsed = System.nanoTime() - startTime;
+        serviceTime.record(elapsed);
+        busyNanos.add(elapsed);
+        processed.increment();
+        if (next == null){
+            return;
+        }
+        if (output == null){
+            dropped.increment();
+        }else {
+            try {
+                next.input.put(output);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                dropped.increment();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void passOnClosingMessages() {
+        if (shutdownCoordinator == null){
+            return;
+        }
+        int closingMessages = shutdownCoordinator.producerFinished();
+        try {
+            for (int i = 0; i < closingMessages; i++) {
+                next.input.put(Pipeline.END_OF_STREAM.marker());
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getQueueDepth() {
+        return input.size();
+    }
+
+    public int getQueueCapacity() {
+        return input.size() + input.remainingCapacity();
+    }
+
+    public long getProcessedCount() {
+        return processed.sum();
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    public LatencyHistogram getServiceTime() {
+        return serviceTime;
+    }
+
+    /**
+     * @return the share of the elapsed time the workers spent in the stage function, 0 to 1.
+     */
+    public double getUtilization(long elapsedNanos) {
+        return elapsedNanos > 0 ? (double) busyNanos.sum() / ((long) workers * elapsedNanos) : 0;
+    }
+
+    BlockingQueue<Object> getInput() {
+        return input;
+    }
+
+    public String report(long elapsedNanos) {
+        return name + ": workers=" + workers + ", batch=" + batchSize + ", depth=" + getQueueDepth() + "/" +
+                getQueueCapacity() + ", processed=" + getProcessedCount() + ", dropped=" + getDroppedCount() +
+                ", failed=" + getFailedCount() +
+                ", service{" + serviceTime + "}, busy=" + Math.round(getUtilization(elapsedNanos) * 100) + "% over " +
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms";
+    }
+}
@@ -0,0 +1,11 @@
+package producerconsumer.pipeline;
+
+/**
+ * The work a {@link producerconsumer.pipeline.Pipeline} stage does on every message: turns the input into the
+ * message handed to the next stage, or into null to drop it (e.g. a filter).
+ * It's called by every worker of the stage at the same time, so it needs to be thread-safe.
+ */
+@FunctionalInterface
+public interface StageFunction<I, O> {
+    O apply(I input);
+}
@@ -0,0 +1,44 @@
+package producerconsumer.transport;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The wire format shared by {@link producerconsumer.transport.SocketSender} and
+ * {@link producerconsumer.transport.SocketReceiver}: every frame is a 4 byte big endian length - of the rest of the
+ * frame - followed by a 1 byte type and the payload:
+ * - DATA: a message, as encoded by the RecordCodec; sent by the sender, one credit each.
+ * - END: the closing message; sent by the sender, takes no credit.
+ * - CREDIT: a 4 byte number of further DATA frames the sender may send; sent by the receiver.
+ */
+final class Frames {
+    static final int HEADER_BYTES = 5;
+    static final byte DATA = 1;
+    static final byte END = 2;
+    static final byte CREDIT = 3;
+
+    private Frames() {
+    }
+
+    static void putHeader(ByteBuffer buffer, int at, int payloadBytes, byte type) {
+        buffer.putInt(at, payloadBytes + 1).put(at + 4, type);
+    }
+
+    static void putCredit(ByteBuffer buffer, int credits) {
+        buffer.putInt(5).put(CREDIT).putInt(credits);
+    }
+
+    /**
+     * @return the payload size of the complete frame at the buffer's position (in read mode), -1 if it isn't all in
+     * the buffer yet.
+     */
+    static int completePayloadBytes(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_BYTES){
+            return -1;
+        }
+        int length = buffer.getInt(buffer.position());
+        if (length < 1 || length > buffer.capacity() - 4){
+            throw new IllegalStateException("Corrupt or oversized frame of length "+length);
+        }
+        return buffer.remaining() >= 4 + length ? length - 1 : -1;
+    }
+}
@@ -0,0 +1,343 @@
+package producerconsumer.transport;
+
+import producerconsumer.Consumer;
+import producerconsumer.EndOfStreamMarker;
+import producerconsumer.RecordCodec;
+import producerconsumer.RingBufferQueue;
+import producerconsumer.ShutdownCoordinator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * The receiving end of a TCP transport (see {@link producerconsumer.transport.SocketSender}): it stands in for the
+ * producer(s) of the consumers' local queue, and publishes to it every message received from the given number of
+ * senders, followed by one closing message per consumer once every sender has sent its closing message.
+ * The characteristics exhibited by this class are:
+ * - a non-blocking ServerSocketChannel and the connections of all the senders, driven by one Selector on a single
+ * thread; bind() may be called ahead of run(), e.g. to bind to port 0 and tell the senders getLocalPort().
+ * - credit-based flow control: every sender is granted creditWindow credits on connecting, and is granted more as
+ * its messages make it onto the local queue (in chunks of half the window, or as soon as the connection has nothing
+ * more to read); so there are never more than creditWindow messages of a sender in flight or held back here.
+ * - when the local queue is full, the messages left over are held back and the connection isn't read from until
+ * they're all published; no credits are granted meanwhile, so the back pressure of the consumers reaches the
+ * sender and, through its local queue, the producers.
+ * - the local queue has to be a ring buffer queue or a java.util.concurrent.BlockingQueue, as the receiver never
+ * synchronizes on it.
+ * - the senders share a {@link producerconsumer.ShutdownCoordinator} as the producers of the local queue: the
+ * closing messages go out once the last sender has sent its END frame, after all the messages of every sender.
+ * A sender whose connection drops (or fails) before sending END counts as finished all the same, as a producer
+ * which gives up does; so do the senders yet to send END when nothing has been received for
+ * Consumer.TIME_TO_WAIT_BEFORE_HALTING - the receiver then halts, and the consumers halt on their closing messages
+ * rather than on time-out.
+ * - on halting, it logs the number of messages received.
+ */
+public class SocketReceiver<T> implements Runnable {
+    public static final int DEFAULT_CREDIT_WINDOW = 1024;
+    static final int READ_BUFFER_BYTES = 64 * 1024;
+    static final long SELECT_MILLIS = 100;
+    static final long HELD_BACK_PARK_NANOS = 50_000;
+    private final Queue<T> target;
+    private final EndOfStreamMarker<T> endOfStream;
+    private final RecordCodec<T> codec;
+    private final InetSocketAddress bindAddress;
+    private final int senders;
+    private final ShutdownCoordinator shutdownCoordinator;
+    // Defaults to DEFAULT_CREDIT_WINDOW
+    private int creditWindow = DEFAULT_CREDIT_WINDOW;
+    private ServerSocketChannel serverChannel;
+    private int endedSenders;
+    private long lastActiveAt;
+    private long receivedCount;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    public SocketReceiver(Queue<T> target, EndOfStreamMarker<T> endOfStream, RecordCodec<T> codec,
+                          InetSocketAddress bindAddress, int senders, int consumers) {
+        if (!(target instanceof RingBufferQueue || target instanceof BlockingQueue)){
+            throw new IllegalArgumentException("The receiver's queue needs to be a ring buffer queue or a " +
+                    "BlockingQueue. Received queue = "+target.getClass().getName());
+        }
+        this.target = target;
+        this.endOfStream = endOfStream;
+        this.codec = codec;
+        this.bindAddress = bindAddress;
+        this.senders = senders;
+        this.shutdownCoordinator = new ShutdownCoordinator(senders, consumers);
+    }
+
+    public void setCreditWindow(int creditWindow) {
+        if (creditWindow < 2){
+            throw new IllegalArgumentException("The credit window needs to be at least 2. Received creditWindow = "+
+                    creditWindow);
+        }
+        this.creditWindow = creditWindow;
+    }
+
+    public long getReceivedCount() {
+        return receivedCount;
+    }
+
+    public synchronized void bind() throws IOException {
+        if (serverChannel == null){
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(bindAddress);
+            serverChannel.configureBlocking(false);
+        }
+    }
+
+    public int getLocalPort() throws IOException {
+        bind();
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    @Override
+    public void run() {
+        try (Selector selector = Selector.open()) {
+            bind();
+            logger.info("Receiver listening on "+serverChannel.getLocalAddress()+" for "+senders+" sender(s)...");
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            lastActiveAt = System.nanoTime();
+            long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Consumer.TIME_TO_WAIT_BEFORE_HALTING);
+            while (endedSenders < senders){
+                boolean heldBack = false;
+                for (SelectionKey key : selector.keys()) {
+                    Connection connection = connectionOf(key);
+                    try {
+                        if (connection != null && !connection.publishHeldBack()){
+                            heldBack = true;
+                        }
+                    } catch (IOException e) {
+                        connection.drop("Receiver lost a sender: "+e);
+                    }
+                }
+                if (heldBack){
+                    selector.selectNow();
+                }else {
+                    selector.select(SELECT_MILLIS);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()){
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()){
+                        continue;
+                    }
+                    if (key.isAcceptable()){
+                        accept(selector);
+                        continue;
+                    }
+                    Connection connection = connectionOf(key);
+                    try {
+                        if (key.isReadable()){
+                            connection.read();
+                        }else if (key.isWritable()){
+                            connection.flush();
+                        }
+                    } catch (IOException e) {
+                        connection.drop("Receiver lost a sender: "+e);
+                    }
+                }
+                if (heldBack){
+                    // the consumers are behind: give them a moment
+                    LockSupport.parkNanos(HELD_BACK_PARK_NANOS);
+                    lastActiveAt = System.nanoTime();
+                }else if (System.nanoTime() - lastActiveAt >= timeoutNanos){
+                    logger.warning("Receiver halting: no message received for last "+
+                            TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - lastActiveAt)+" seconds! "+
+                            (senders - endedSenders)+" sender(s) count as finished");
+                    while (endedSenders < senders){
+                        senderEnded();
+                    }
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+            logger.info("Receiver halting: all the senders finished sending their messages...");
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            try {
+                if (serverChannel != null){
+                    serverChannel.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        logger.info("Receiver received "+receivedCount+" messages");
+    }
+
+    @SuppressWarnings("unchecked")
+    private Connection connectionOf(SelectionKey key) {
+        return (Connection) key.attachment();
+    }
+
+    private void accept(Selector selector) throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null){
+            return;
+        }
+        channel.configureBlocking(false);
+        logger.info("Receiver accepted a sender from "+channel.getRemoteAddress());
+        lastActiveAt = System.nanoTime();
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connection.grant(creditWindow);
+    }
+
+    private void senderEnded() {
+        endedSenders++;
+        int closingMessages = shutdownCoordinator.producerFinished();
+        for (int i = 0; i < closingMessages; i++) {
+            while (!target.offer(endOfStream.marker())){
+                LockSupport.parkNanos(HELD_BACK_PARK_NANOS);
+            }
+        }
+    }
+
+    private class Connection {
+        private final SocketChannel channel;
+        private SelectionKey key;
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+        private final ByteBuffer writeBuffer = ByteBuffer.allocate(256);
+        // the messages received but not published yet, as the local queue was full
+        private final Queue<T> heldBack = new ArrayDeque<>();
+        private boolean ended;
+        private boolean finished;
+        // the messages published since the last grant
+        private int published;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private void read() throws IOException {
+            int read = channel.read(readBuffer);
+            if (read < 0){
+                drop(ended ? null : "Receiver lost a sender before its closing message");
+                return;
+            }
+            if (read > 0){
+                lastActiveAt = System.nanoTime();
+            }
+            readBuffer.flip();
+            int payloadBytes;
+            while ((payloadBytes = Frames.completePayloadBytes(readBuffer)) >= 0){
+                readBuffer.getInt();
+                byte type = readBuffer.get();
+                int payloadEnd = readBuffer.position() + payloadBytes;
+                if (type == Frames.DATA){
+                    int limit = readBuffer.limit();
+                    readBuffer.limit(payloadEnd);
+                    T message = codec.decode(readBuffer);
+                    readBuffer.limit(limit);
+                    receivedCount++;
+                    if (!heldBack.isEmpty() || !target.offer(message)){
+                        heldBack.add(message);
+                    }else {
+                        published++;
+                    }
+                }else if (type == Frames.END){
+                    ended = true;
+                }else {
+                    throw new IOException("Unexpected frame type from the sender: "+type);
+                }
+                readBuffer.position(payloadEnd);
+            }
+            readBuffer.compact();
+            if (!heldBack.isEmpty()){
+                // stop reading until the held back messages are published
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }else {
+                afterPublishing();
+            }
+        }
+
+        /**
+         * Closes the connection; a sender which hasn't finished yet counts as finished from now on.
+         * @param warning what to log, if anything.
+         */
+        private void drop(String warning) {
+            if (warning != null){
+                logger.warning(warning+" ("+channel.socket().getRemoteSocketAddress()+")");
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (!finished){
+                // whatever is still held back makes it onto the queue ahead of the closing messages
+                T message;
+                while ((message = heldBack.poll()) != null){
+                    while (!target.offer(message)){
+                        LockSupport.parkNanos(HELD_BACK_PARK_NANOS);
+                    }
+                }
+                finished = true;
+                senderEnded();
+            }
+        }
+
+        /**
+         * @return whether there's no held back message left.
+         */
+        private boolean publishHeldBack() throws IOException {
+            if (heldBack.isEmpty()){
+                return true;
+            }
+            T message;
+            while ((message = heldBack.peek()) != null && target.offer(message)){
+                heldBack.poll();
+                published++;
+            }
+            if (!heldBack.isEmpty()){
+                return false;
+            }
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            afterPublishing();
+            return true;
+        }
+
+        private void afterPublishing() throws IOException {
+            if (published >= creditWindow / 2 || (published > 0 && readBuffer.position() == 0)){
+                grant(published);
+                published = 0;
+            }
+            if (ended && !finished && heldBack.isEmpty()){
+                finished = true;
+                senderEnded();
+            }
+        }
+
+        private void grant(int credits) throws IOException {
+            Frames.putCredit(writeBuffer, credits);
+            flush();
+        }
+
+        private void flush() throws IOException {
+            writeBuffer.flip();
+            channel.write(writeBuffer);
+            writeBuffer.compact();
+            if (writeBuffer.position() > 0){
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }else {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+    }
+}
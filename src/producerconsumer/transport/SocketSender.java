@@ -0,0 +1,258 @@
+package producerconsumer.transport;
+
+import producerconsumer.Consumer;
+import producerconsumer.EndOfStreamMarker;
+import producerconsumer.RecordCodec;
+import producerconsumer.RingBufferQueue;
+import producerconsumer.waitstrategy.BackoffParkWaitStrategy;
+import producerconsumer.waitstrategy.WaitStrategy;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * The sending end of a TCP transport between a {@link producerconsumer.Producer} and a
+ * {@link producerconsumer.Consumer} in different JVMs: it stands in for the consumer(s) of the producers' local
+ * queue, and forwards every message - and the closing message - to a {@link producerconsumer.transport.SocketReceiver},
+ * which in turn publishes them to the consumers' local queue (see Frames for the wire format).
+ * The characteristics exhibited by this class are:
+ * - a non-blocking SocketChannel driven by a Selector, on a single thread; TCP_NODELAY is on, as the sender does its
+ * own batching.
+ * - write coalescing: it encodes as many messages as are available on the local queue (and allowed by the credits)
+ * straight into one direct buffer of WRITE_BUFFER_BYTES, and writes them with a single write(); under load each
+ * write carries many frames, while a lone message goes out right away.
+ * - credit-based flow control: it may only send as many DATA frames as the receiver has granted credits for; with
+ * none left it stops taking messages off the local queue - so the producers feel the back pressure on their own
+ * queue - and waits in select() for the next CREDIT frame.
+ * - the local queue has to be a ring buffer queue or a java.util.concurrent.BlockingQueue, as the sender never
+ * synchronizes on it; it waits for messages on an empty queue as per its WaitStrategy and halts, like a consumer,
+ * when none appeared for Consumer.TIME_TO_WAIT_BEFORE_HALTING - still sending the END frame, so that the receiver
+ * doesn't wait on it in turn.
+ * - a message which doesn't fit in maxRecordBytes once encoded is logged and left out, rather than failing the whole
+ * stream; the count of the rejected messages is logged on halting.
+ * - it's the one consumer of the local queue: the producers send a single closing message (e.g. with a
+ * ShutdownCoordinator for N producers and 1 consumer), which it forwards as an END frame before closing the
+ * connection.
+ * - on halting, it logs the number of messages sent and the average number of messages per write().
+ */
+public class SocketSender<T> implements Runnable {
+    public static final int WRITE_BUFFER_BYTES = 64 * 1024;
+    public static final int DEFAULT_MAX_RECORD_BYTES = 4096;
+    static final long CREDIT_WAIT_MILLIS = 100;
+    private final Queue<T> source;
+    private final EndOfStreamMarker<T> endOfStream;
+    private final RecordCodec<T> codec;
+    private final InetSocketAddress address;
+    // Defaults to DEFAULT_MAX_RECORD_BYTES
+    private int maxRecordBytes = DEFAULT_MAX_RECORD_BYTES;
+    // Defaults to BackoffParkWaitStrategy
+    private WaitStrategy waitStrategy = new BackoffParkWaitStrategy();
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_BYTES);
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(1024);
+    private long credits;
+    private long sentCount;
+    private long writes;
+    private long creditStalls;
+    private long rejectedCount;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    public SocketSender(Queue<T> source, EndOfStreamMarker<T> endOfStream, RecordCodec<T> codec,
+                        InetSocketAddress address) {
+        if (!(source instanceof RingBufferQueue || source instanceof BlockingQueue)){
+            throw new IllegalArgumentException("The sender's queue needs to be a ring buffer queue or a " +
+                    "BlockingQueue. Received queue = "+source.getClass().getName());
+        }
+        this.source = source;
+        this.endOfStream = endOfStream;
+        this.codec = codec;
+        this.address = address;
+    }
+
+    public void setMaxRecordBytes(int maxRecordBytes) {
+        if (maxRecordBytes < 1 || maxRecordBytes > WRITE_BUFFER_BYTES - Frames.HEADER_BYTES){
+            throw new IllegalArgumentException("The max record size needs to be in between 1 and "+
+                    (WRITE_BUFFER_BYTES - Frames.HEADER_BYTES)+". Received maxRecordBytes = "+maxRecordBytes);
+        }
+        this.maxRecordBytes = maxRecordBytes;
+    }
+
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    public long getSentCount() {
+        return sentCount;
+    }
+
+    @Override
+    public void run() {
+        logger.info("Sender connecting to "+address+"...");
+        try (Selector selector = Selector.open(); SocketChannel channel = SocketChannel.open()) {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_CONNECT);
+            if (!channel.connect(address)){
+                while (!channel.finishConnect()){
+                    selector.select();
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+            if (send(selector, key, channel)){
+                logger.info("Sender halting: forwarded the closing message...");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        logger.info("Sender sent "+sentCount+" messages in "+writes+" writes = "+
+                (writes > 0 ? sentCount / writes : 0)+" messages/write; ran out of credits "+creditStalls+
+                " times; rejected "+rejectedCount+" messages too large to send");
+    }
+
+    /**
+     * @return whether the closing message was forwarded; false on halting on time-out.
+     */
+    private boolean send(Selector selector, SelectionKey key, SocketChannel channel) throws IOException {
+        boolean ended = false;
+        boolean timedOut = false;
+        int idleAttempt = 0;
+        long idleSince = 0;
+        while (!ended || writeBuffer.position() > 0){
+            if (selector.selectNow() > 0){
+                selector.selectedKeys().clear();
+                if (key.isReadable()){
+                    readCredits(channel);
+                }
+            }
+            boolean encoded = false;
+            T message;
+            while (!ended && writeBuffer.remaining() >= Frames.HEADER_BYTES + maxRecordBytes){
+                if (credits == 0){
+                    // the closing message takes no credit, but it may not overtake the messages ahead of it
+                    message = source.peek();
+                    if (message == null || !endOfStream.isMarker(message)){
+                        break;
+                    }
+                }
+                message = source.poll();
+                if (message == null){
+                    break;
+                }
+                if (endOfStream.isMarker(message)){
+                    Frames.putHeader(writeBuffer, writeBuffer.position(), 0, Frames.END);
+                    writeBuffer.position(writeBuffer.position() + Frames.HEADER_BYTES);
+                    ended = true;
+                }else if (encode(message)){
+                    credits--;
+                    sentCount++;
+                }else {
+                    rejectedCount++;
+                }
+                encoded = true;
+            }
+            if (encoded){
+                // not idle: the idle time-out starts over on the next empty queue
+                idleAttempt = 0;
+            }
+            if (writeBuffer.position() > 0){
+                writeBuffer.flip();
+                channel.write(writeBuffer);
+                writes++;
+                boolean flushed = !writeBuffer.hasRemaining();
+                writeBuffer.compact();
+                if (!flushed){
+                    // the socket's send buffer is full: wait for it to drain
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    selector.select(CREDIT_WAIT_MILLIS);
+                    selector.selectedKeys().clear();
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+                continue;
+            }
+            if (encoded || ended){
+                continue;
+            }
+            if (credits == 0){
+                creditStalls++;
+                // a CREDIT frame wakes the selector up
+                selector.select(CREDIT_WAIT_MILLIS);
+                selector.selectedKeys().clear();
+                if (key.isValid() && key.isReadable()){
+                    readCredits(channel);
+                }
+                continue;
+            }
+            // no message on the local queue
+            if (idleAttempt == 0){
+                idleSince = System.nanoTime();
+            }
+            long timeInWaiting = System.nanoTime() - idleSince;
+            long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Consumer.TIME_TO_WAIT_BEFORE_HALTING);
+            if (timeInWaiting >= timeoutNanos){
+                logger.warning("Sender halting: no message appeared on the queue for last "+
+                        TimeUnit.NANOSECONDS.toSeconds(timeInWaiting) + " seconds!");
+                // the END frame all the same, written out on the next pass
+                Frames.putHeader(writeBuffer, writeBuffer.position(), 0, Frames.END);
+                writeBuffer.position(writeBuffer.position() + Frames.HEADER_BYTES);
+                ended = true;
+                timedOut = true;
+                continue;
+            }
+            try {
+                waitStrategy.idle(source, idleAttempt++, timeoutNanos - timeInWaiting, false);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+        return !timedOut;
+    }
+
+    /**
+     * @return false if the message doesn't fit in maxRecordBytes, in which case it's left out.
+     */
+    private boolean encode(T message) {
+        int start = writeBuffer.position();
+        int limit = writeBuffer.limit();
+        writeBuffer.position(start + Frames.HEADER_BYTES);
+        writeBuffer.limit(start + Frames.HEADER_BYTES + maxRecordBytes);
+        try {
+            codec.encode(message, writeBuffer);
+        } catch (BufferOverflowException e) {
+            writeBuffer.limit(limit);
+            writeBuffer.position(start);
+            logger.warning("Sender rejecting a message which doesn't fit in "+maxRecordBytes+" bytes: "+message);
+            return false;
+        }
+        int payloadBytes = writeBuffer.position() - start - Frames.HEADER_BYTES;
+        writeBuffer.limit(limit);
+        Frames.putHeader(writeBuffer, start, payloadBytes, Frames.DATA);
+        return true;
+    }
+
+    private void readCredits(SocketChannel channel) throws IOException {
+        if (channel.read(readBuffer) < 0){
+            throw new IOException("The receiver closed the connection");
+        }
+        readBuffer.flip();
+        int payloadBytes;
+        while ((payloadBytes = Frames.completePayloadBytes(readBuffer)) >= 0){
+            readBuffer.getInt();
+            byte type = readBuffer.get();
+            if (type != Frames.CREDIT || payloadBytes != 4){
+                throw new IOException("Expected a CREDIT frame from the receiver. Received type = "+type);
+            }
+            credits += readBuffer.getInt();
+        }
+        readBuffer.compact();
+    }
+}
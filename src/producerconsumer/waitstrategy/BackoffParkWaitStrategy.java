@@ -0,0 +1,55 @@
+package producerconsumer.waitstrategy;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Spins for the first spinTries attempts, yields for the next yieldTries and then parks with
+ * LockSupport.parkNanos() for intervals doubling from minParkNanos up to maxParkNanos.
+ * The progression keeps the wake-up latency low right after a message (when the next one is likely to follow
+ * soon) while an idle consumer costs next to nothing; maxParkNanos bounds the latency of the first message after a
+ * lull. This is the default for the lock-free ring buffer queues.
+ */
+public class BackoffParkWaitStrategy implements WaitStrategy {
+    private final int spinTries;
+    private final int yieldTries;
+    private final long minParkNanos;
+    private final long maxParkNanos;
+
+    public BackoffParkWaitStrategy(int spinTries, int yieldTries, long minParkNanos, long maxParkNanos) {
+        if (minParkNanos < 1 || maxParkNanos < minParkNanos){
+            throw new IllegalArgumentException("Expected 0 < minParkNanos <= maxParkNanos. Received minParkNanos = "+
+                    minParkNanos+", maxParkNanos = "+maxParkNanos);
+        }
+        this.spinTries = spinTries;
+        this.yieldTries = yieldTries;
+        this.minParkNanos = minParkNanos;
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    public BackoffParkWaitStrategy() {
+        this(1000, 100, TimeUnit.MICROSECONDS.toNanos(1), TimeUnit.MICROSECONDS.toNanos(100));
+    }
+
+    @Override
+    public void idle(Queue<?> queue, int attempt, long remainingNanos, boolean lockBased)
+            throws InterruptedException {
+        if (attempt < spinTries){
+            Thread.onSpinWait();
+        }else if (attempt < spinTries + yieldTries){
+            Thread.yield();
+        }else {
+            int doublings = attempt - spinTries - yieldTries;
+            long parkNanos = maxParkNanos;
+            // stop doubling before minParkNanos overflows
+            if (doublings < Long.numberOfLeadingZeros(minParkNanos) - 1){
+                parkNanos = Math.min(maxParkNanos, minParkNanos << doublings);
+            }
+            LockSupport.parkNanos(Math.min(parkNanos, remainingNanos));
+            if (Thread.interrupted()){
+                throw new InterruptedException();
+            }
+        }
+    }
+}
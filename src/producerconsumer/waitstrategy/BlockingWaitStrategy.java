@@ -0,0 +1,47 @@
+package producerconsumer.waitstrategy;
+
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits on the queue's monitor until a producer notifies it - the classic wait()/notifyAll() handoff and the default
+ * for the synchronized modes. The emptiness is re-checked while holding the monitor before waiting, so a notification
+ * sent in between can't be missed.
+ * The lock-free ring buffer queues have no monitor to be notified on; there it parks for up to maxParkNanos at a time.
+ * On a java.util.concurrent.BlockingQueue, the consumer blocks in the queue's poll(timeout) instead (see isBlocking()).
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+    private final long maxParkNanos;
+
+    public BlockingWaitStrategy(long maxParkNanos) {
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    public BlockingWaitStrategy() {
+        this(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Override
+    public boolean isBlocking() {
+        return true;
+    }
+
+    @Override
+    public void idle(Queue<?> queue, int attempt, long remainingNanos, boolean lockBased)
+            throws InterruptedException {
+        if (lockBased){
+            synchronized (queue){
+                if (queue.isEmpty()){
+                    // wait() is a blocking method.
+                    TimeUnit.NANOSECONDS.timedWait(queue, remainingNanos);
+                }
+            }
+        }else {
+            LockSupport.parkNanos(Math.min(remainingNanos, maxParkNanos));
+            if (Thread.interrupted()){
+                throw new InterruptedException();
+            }
+        }
+    }
+}
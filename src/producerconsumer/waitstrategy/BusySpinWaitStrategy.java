@@ -0,0 +1,14 @@
+package producerconsumer.waitstrategy;
+
+import java.util.Queue;
+
+/**
+ * Doesn't pause at all - the consumer re-checks the queue in a tight loop. Only makes sense when the consumer has a
+ * core of its own; otherwise it burns the time slice that the producer needs to publish the next message.
+ */
+public class BusySpinWaitStrategy implements WaitStrategy {
+
+    @Override
+    public void idle(Queue<?> queue, int attempt, long remainingNanos, boolean lockBased) {
+    }
+}
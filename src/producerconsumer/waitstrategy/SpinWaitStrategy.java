@@ -0,0 +1,15 @@
+package producerconsumer.waitstrategy;
+
+import java.util.Queue;
+
+/**
+ * Pauses with Thread.onSpinWait() - a PAUSE instruction on x86 - between the checks; the wake-up latency of a busy spin
+ * with less power drawn and less of the core taken away from a hyper-threaded sibling.
+ */
+public class SpinWaitStrategy implements WaitStrategy {
+
+    @Override
+    public void idle(Queue<?> queue, int attempt, long remainingNanos, boolean lockBased) {
+        Thread.onSpinWait();
+    }
+}
@@ -0,0 +1,34 @@
+package producerconsumer.waitstrategy;
+
+import java.util.Queue;
+
+/**
+ * Decides how a {@link producerconsumer.Consumer} waits for a message to appear on an empty queue, trading CPU for
+ * wake-up latency:
+ * - {@link BusySpinWaitStrategy}: re-checks the queue right away; lowest latency, burns a whole core.
+ * - {@link SpinWaitStrategy}: re-checks after Thread.onSpinWait(); nearly as fast, kinder to a hyper-threaded sibling.
+ * - {@link YieldingWaitStrategy}: spins for a while, then yields the processor between the checks.
+ * - {@link BackoffParkWaitStrategy}: spins, yields, then parks for growing intervals (LockSupport.parkNanos).
+ * - {@link BlockingWaitStrategy}: waits on the queue's monitor to be notified by the producer; cheapest on CPU, but
+ * the wake-up latency is entirely up to the monitor notification.
+ *
+ * The consumer calls idle() after every attempt that found the queue empty, passing in the number of consecutive
+ * such attempts so far and the time left (measured with System.nanoTime()) until it halts on
+ * Consumer.TIME_TO_WAIT_BEFORE_HALTING; a strategy never pauses for longer than that, so the time-out holds under
+ * every strategy. The consumer doesn't hold the queue's monitor while calling idle(); lockBased tells whether the
+ * producers notify the queue's monitor (the synchronized modes) or not (the lock-free ring buffer queues); in the
+ * latter case the queue may also be null, e.g. for the {@link producerconsumer.LongRingBuffer} which isn't a Queue.
+ * The strategies are stateless and may be shared by several consumers.
+ */
+public interface WaitStrategy {
+
+    void idle(Queue<?> queue, int attempt, long remainingNanos, boolean lockBased) throws InterruptedException;
+
+    /**
+     * @return whether the strategy blocks until notified; on a java.util.concurrent.BlockingQueue the consumer then
+     * blocks in the queue's own poll(timeout) instead of calling idle().
+     */
+    default boolean isBlocking() {
+        return false;
+    }
+}
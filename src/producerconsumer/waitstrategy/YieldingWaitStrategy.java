@@ -0,0 +1,28 @@
+package producerconsumer.waitstrategy;
+
+import java.util.Queue;
+
+/**
+ * Spins for the first spinTries attempts and yields the processor from then on; a good compromise when there are
+ * about as many busy threads as cores, as the producer gets scheduled as soon as the consumer has nothing to do.
+ */
+public class YieldingWaitStrategy implements WaitStrategy {
+    private final int spinTries;
+
+    public YieldingWaitStrategy(int spinTries) {
+        this.spinTries = spinTries;
+    }
+
+    public YieldingWaitStrategy() {
+        this(100);
+    }
+
+    @Override
+    public void idle(Queue<?> queue, int attempt, long remainingNanos, boolean lockBased) {
+        if (attempt < spinTries){
+            Thread.onSpinWait();
+        }else {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package sequencegeneration;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the numbers start, start + stride, start + 2 * stride... to any number of threads without serializing
+ * them: rather than every number going through one synchronized counter (as the AtomicInteger lock and the static
+ * OddEvenTurnByTurnGenerationSnippet.currentNumber do), each thread reserves a block of blockSize numbers with a
+ * single getAndAdd() on the shared cursor and then serves the numbers of its block out of a thread-local stripe.
+ * The characteristics exhibited by this class are:
+ * - the shared cursor is touched once per blockSize numbers per thread, so there's next to no contention; next() is
+ * otherwise a plain increment of the calling thread's own stripe.
+ * - the stride and start keep parity (and any other residue) constraints: odd(blockSize) hands out 1, 3, 5... and
+ * even(blockSize) 2, 4, 6..., the cursor counting the numbers handed out rather than their values.
+ * - the numbers are unique, and increasing per thread in MONOTONIC_PER_THREAD mode (the default); across the threads
+ * they're not ordered, and the numbers left in the block of a thread which stops allocating are never handed out -
+ * there are gaps.
+ * - in GAP_FREE mode no number is lost: a thread done with allocating calls release(), and the unused rest of its
+ * block is kept and handed out - the lowest first - to the next thread in need of a block, before any new block is
+ * reserved; a rest which ends where the cursor is pulls the cursor back instead. The numbers a thread reserved but
+ * didn't hand out are hence either below the cursor and held back (getUnusedCount()), or above it and never
+ * reserved. It doesn't make the numbers handed out the first N of the sequence, though: the rests of the threads
+ * which stop allocating at about the same time stay held back - as gaps - until some thread asks for more. The price
+ * is that the numbers of a thread are no longer increasing, as it may be handed an older, lower range; and the
+ * reserving and releasing (once per block) go through a lock, so as to keep the cursor and the rests consistent.
+ * - a blockSize of 1 makes it a plain getAndIncrement() counter, gap-free and increasing across all the threads.
+ */
+public class BlockSequenceAllocator {
+    public enum Mode {
+        MONOTONIC_PER_THREAD,
+        GAP_FREE
+    }
+
+    private final long start;
+    private final long stride;
+    private final int blockSize;
+    private final Mode mode;
+    // the index (not the value) of the next number no thread has reserved yet
+    private final AtomicLong cursor = new AtomicLong();
+    // the released rests of the blocks in GAP_FREE mode, the index of their first number to their end; guarded by
+    // itself, as is the cursor in GAP_FREE mode
+    private final TreeMap<Long, Long> released = new TreeMap<>();
+    private final ThreadLocal<Block> stripes = ThreadLocal.withInitial(Block::new);
+
+    public BlockSequenceAllocator(long start, long stride, int blockSize, Mode mode) {
+        if (stride < 1 || blockSize < 1){
+            throw new IllegalArgumentException("The stride and the block size need to be at least 1. Received " +
+                    "stride = "+stride+", blockSize = "+blockSize);
+        }
+        this.start = start;
+        this.stride = stride;
+        this.blockSize = blockSize;
+        this.mode = mode;
+    }
+
+    public BlockSequenceAllocator(long start, long stride, int blockSize) {
+        this(start, stride, blockSize, Mode.MONOTONIC_PER_THREAD);
+    }
+
+    public static BlockSequenceAllocator odd(int blockSize) {
+        return new BlockSequenceAllocator(1, 2, blockSize);
+    }
+
+    public static BlockSequenceAllocator even(int blockSize) {
+        return new BlockSequenceAllocator(2, 2, blockSize);
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the number of numbers reserved so far, handed out or not.
+     */
+    public long getReservedCount() {
+        return cursor.get();
+    }
+
+    /**
+     * @return the next number for the calling thread.
+     */
+    public long next() {
+        Block block = stripes.get();
+        if (block.next == block.end){
+            reserve(block);
+        }
+        return start + stride * block.next++;
+    }
+
+    private void reserve(Block block) {
+        if (mode == Mode.GAP_FREE){
+            synchronized (released){
+                Map.Entry<Long, Long> rest = released.pollFirstEntry();
+                if (rest != null){
+                    block.next = rest.getKey();
+                    block.end = rest.getValue();
+                }else {
+                    block.next = cursor.getAndAdd(blockSize);
+                    block.end = block.next + blockSize;
+                }
+            }
+            return;
+        }
+        block.next = cursor.getAndAdd(blockSize);
+        block.end = block.next + blockSize;
+    }
+
+    /**
+     * To be called by a thread done with allocating: in GAP_FREE mode the unused rest of its block goes to the
+     * next thread in need of a block, or back to the cursor if it's the last block reserved; in MONOTONIC_PER_THREAD
+     * mode it's dropped.
+     */
+    public void release() {
+        Block block = stripes.get();
+        if (mode == Mode.GAP_FREE && block.next < block.end){
+            synchronized (released){
+                long restStart = block.next;
+                if (block.end == cursor.get()){
+                    // pull the cursor back, past any rest released earlier which now ends where it is
+                    Map.Entry<Long, Long> below;
+                    while ((below = released.lowerEntry(restStart)) != null && below.getValue() == restStart){
+                        released.remove(below.getKey());
+                        restStart = below.getKey();
+                    }
+                    cursor.set(restStart);
+                }else {
+                    released.put(restStart, block.end);
+                }
+            }
+        }
+        stripes.remove();
+    }
+
+    /**
+     * @return the numbers below the cursor released by the threads and not handed out again (yet); always 0 in
+     * MONOTONIC_PER_THREAD mode, where the rests are dropped.
+     */
+    public long getUnusedCount() {
+        synchronized (released){
+            long unused = 0;
+            for (Map.Entry<Long, Long> rest : released.entrySet()) {
+                unused += rest.getValue() - rest.getKey();
+            }
+            return unused;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BlockSequenceAllocator[start="+start+", stride="+stride+", blockSize="+blockSize+", mode="+mode+
+                ", reserved="+cursor.get()+", unused="+getUnusedCount()+"]";
+    }
+
+    /**
+     * The range [next, end) of indices a thread serves its numbers from.
+     */
+    private static class Block {
+        private long next;
+        private long end;
+    }
+}
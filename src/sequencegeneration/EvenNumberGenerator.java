@@ -1,23 +1,46 @@
 package sequencegeneration;
 
+import eventlog.Event;
+import eventlog.EventRecorder;
+import metrics.LockProfile;
+import metrics.PipelineMetrics;
+
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class EvenNumberGenerator implements Runnable{
     // acts as a monitor
     private Object lock;
     private boolean isAtomicInteger;
+    private boolean isTurnLock;
     private  boolean isSnippetClass;
     private boolean shallHalt;
+    // Defaults to 1000 milliseconds, for human monitoring of the console
+    private long throttleMillis = 1000;
+    // Defaults to 0 i.e. generate until halted
+    private int lastNumber;
+    // Defaults to INFO
+    private Level numberLogLevel = Level.INFO;
+    // Defaults to null i.e. every number is logged right away
+    private EventRecorder eventRecorder;
+    // Defaults to null i.e. no metrics
+    private PipelineMetrics metrics;
+    // Defaults to null i.e. neither the lock hold times nor the wake-ups are profiled
+    private LockProfile lockProfile;
+    // when this generator took its current turn, and when the other generator handed it off
+    private long takenAt;
+    private long handedOffAt;
     Logger logger = Logger.getLogger(getClass().getName());
 
     public EvenNumberGenerator(Object lock) {
         isAtomicInteger = lock instanceof AtomicInteger;
+        isTurnLock = lock instanceof TurnLock;
         isSnippetClass = lock instanceof Class &&
                 ((Class) lock).getSimpleName().equals("OddEvenTurnByTurnGenerationSnippet");
-        if (!(isAtomicInteger || isSnippetClass)){
-            throw new IllegalArgumentException("The lock object either needs to be instance of AtomicInteger or " +
-                    "OddEvenTurnByTurnGenerationSnippet class. Received lock = "+ lock);
+        if (!(isAtomicInteger || isTurnLock || isSnippetClass)){
+            throw new IllegalArgumentException("The lock object either needs to be instance of AtomicInteger, " +
+                    "TurnLock or OddEvenTurnByTurnGenerationSnippet class. Received lock = "+ lock);
         }
         this.lock = lock;
     }
@@ -26,11 +49,41 @@ public class EvenNumberGenerator implements Runnable{
         this.shallHalt = shallHalt;
     }
 
+    public void setThrottleMillis(long throttleMillis) {
+        this.throttleMillis = throttleMillis;
+    }
+
+    /**
+     * Has the generator halt on its own once the given number has been generated - by either generator - rather
+     * than on setShallHalt(true).
+     */
+    public void setLastNumber(int lastNumber) {
+        this.lastNumber = lastNumber;
+    }
+
+    public void setNumberLogLevel(Level numberLogLevel) {
+        this.numberLogLevel = numberLogLevel;
+    }
+
+    public void setEventRecorder(EventRecorder eventRecorder) {
+        this.eventRecorder = eventRecorder;
+    }
+
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setLockProfile(LockProfile lockProfile) {
+        this.lockProfile = lockProfile;
+    }
+
     @Override
     public void run() {
         logger.entering(getClass().getName(), "run");
         if (isAtomicInteger){
             runWithAtomicInteger();
+        }else if (isTurnLock){
+            runWithTurnLock();
         }else {
             runWithSnippetClass();
         }
@@ -40,6 +93,7 @@ public class EvenNumberGenerator implements Runnable{
     private void runWithAtomicInteger(){
         logger.entering(getClass().getName(), "runWithAtomicInteger");
         AtomicInteger aiLock = (AtomicInteger)lock;
+        int nextNumber;
         while (!shallHalt){
             synchronized (lock){
                 while (aiLock.get() % 2 != 1){
@@ -48,21 +102,72 @@ public class EvenNumberGenerator implements Runnable{
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
+                    wokeUp(aiLock.get() % 2 == 1);
                 }
-                logger.info("Next even number: "+aiLock.addAndGet(1));
+                long enteredAt = enterLock();
+                onTurnTaken();
+                nextNumber = aiLock.addAndGet(1);
                 lock.notify();
+                exitLock(enteredAt);
+            }
+            logNextNumber(nextNumber);
+            if (lastNumber > 0 && nextNumber + 2 > lastNumber){
+                // the other generator takes the last number, if it's not this one
+                break;
+            }
+            if (throttleMillis > 0){
+                try {
+                    // just to slow down the log/console entries for human monitoring :)
+                    Thread.sleep(throttleMillis);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
             }
+        }
+    }
+
+    private void runWithTurnLock(){
+        logger.entering(getClass().getName(), "runWithTurnLock");
+        TurnLock turnLock = (TurnLock)lock;
+        int nextNumber;
+        while (!shallHalt){
+            turnLock.getLock().lock();
             try {
-                // just to slow down the log/console entries for human monitoring :)
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+                while (turnLock.getCurrentNumber() % 2 != 1){
+                    try {
+                        turnLock.getTurnChanged().await();
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                    }
+                    wokeUp(turnLock.getCurrentNumber() % 2 == 1);
+                }
+                long enteredAt = enterLock();
+                onTurnTaken();
+                nextNumber = turnLock.incrementAndGet();
+                turnLock.getTurnChanged().signal();
+                exitLock(enteredAt);
+            } finally {
+                turnLock.getLock().unlock();
+            }
+            logNextNumber(nextNumber);
+            if (lastNumber > 0 && nextNumber + 2 > lastNumber){
+                // the other generator takes the last number, if it's not this one
+                break;
+            }
+            if (throttleMillis > 0){
+                try {
+                    // just to slow down the log/console entries for human monitoring :)
+                    Thread.sleep(throttleMillis);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
             }
         }
     }
 
     private void runWithSnippetClass(){
         logger.entering(getClass().getName(), "runWithSnippetClass");
+        int nextNumber;
         while (!shallHalt){
             synchronized (lock){
                 while (OddEvenTurnByTurnGenerationSnippet.getCurrentNumber() % 2 != 1){
@@ -71,18 +176,75 @@ public class EvenNumberGenerator implements Runnable{
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
+                    wokeUp(OddEvenTurnByTurnGenerationSnippet.getCurrentNumber() % 2 == 1);
                 }
-                OddEvenTurnByTurnGenerationSnippet.setCurrentNumber(
-                        OddEvenTurnByTurnGenerationSnippet.getCurrentNumber() + 1);
-                logger.info("Next even number: "+OddEvenTurnByTurnGenerationSnippet.getCurrentNumber());
+                long enteredAt = enterLock();
+                onTurnTaken();
+                nextNumber = OddEvenTurnByTurnGenerationSnippet.getCurrentNumber() + 1;
+                OddEvenTurnByTurnGenerationSnippet.setCurrentNumber(nextNumber);
                 lock.notify();
+                exitLock(enteredAt);
             }
-            try {
-                // just to slow down the log/console entries for human monitoring :)
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+            logNextNumber(nextNumber);
+            if (lastNumber > 0 && nextNumber + 2 > lastNumber){
+                // the other generator takes the last number, if it's not this one
+                break;
             }
+            if (throttleMillis > 0){
+                try {
+                    // just to slow down the log/console entries for human monitoring :)
+                    Thread.sleep(throttleMillis);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * To be called with the lock held, right after waking up to this generator's turn: the turn is handed off to the
+     * other generator as soon as the lock is released.
+     */
+    private void onTurnTaken(){
+        if (metrics != null){
+            takenAt = System.nanoTime();
+            handedOffAt = metrics.markHandoff(takenAt);
+        }
+    }
+
+    private void wokeUp(boolean myTurn){
+        if (lockProfile != null){
+            // woken up by the other generator's notify()/signal(), a time-out or spuriously
+            lockProfile.wokeUp(myTurn);
+        }
+    }
+
+    /**
+     * @return the time this generator took its turn, from which on it holds the lock (the waiting for the turn
+     * releases it).
+     */
+    private long enterLock(){
+        return lockProfile != null ? lockProfile.enter() : 0;
+    }
+
+    private void exitLock(long enteredAt){
+        if (lockProfile != null){
+            lockProfile.exit(enteredAt);
+        }
+    }
+
+    /**
+     * Logs the number after the lock is released, so that the other generator isn't kept waiting on the console.
+     */
+    private void logNextNumber(int nextNumber){
+        if (eventRecorder != null){
+            eventRecorder.record(Event.NEXT_EVEN_NUMBER, nextNumber);
+        }else if (logger.isLoggable(numberLogLevel)){
+            logger.log(numberLogLevel, "Next even number: "+nextNumber);
+        }
+        if (metrics != null && handedOffAt != 0){
+            // the turn taken is the "message": handed off, taken and done with once the number is logged
+            metrics.recordConsumed(handedOffAt, takenAt, System.nanoTime());
         }
     }
 }
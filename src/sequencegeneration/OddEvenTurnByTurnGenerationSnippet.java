@@ -1,9 +1,26 @@
 package sequencegeneration;
 
+import eventlog.EventRecorder;
+import main.ExecutionMode;
+import main.Scenario;
+import main.ScenarioResult;
 import main.Snippet;
+import metrics.ContentionProfiler;
+import metrics.LockProfile;
+import metrics.PipelineMetrics;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -89,11 +106,94 @@ import java.util.logging.Logger;
  *
  * One option is to keep both the generator classes in the OddEvenTurnByTurnGenerationSnippet and make those
  * non-public.
+ *
+ * Solution 3
+ * ==========
+ * Use a {@link sequencegeneration.TurnLock}: a ReentrantLock and its Condition guarding the currentNumber, with
+ * the generators awaiting/signalling the condition instead of waiting on/notifying a monitor.
+ *
+ * Solution 4
+ * ==========
+ * Generalize to K generators taking turns in strict round-robin order over a {@link sequencegeneration.TurnRing}:
+ * the turn is handed off directly to the next generator's thread with LockSupport.unpark(), and no generator but
+ * the next one is ever woken up - whereas a monitor shared by K generators needs a notifyAll() and K - 1 wake-ups
+ * per turn, all but one of them to find it's not their turn.
+ *
+ * Beyond turn-taking
+ * ===================
+ * When the numbers are IDs, all that matters is that they're unique (and maybe odd or even): there's no need for the
+ * threads to take turns at all. A {@link sequencegeneration.BlockSequenceAllocator} has every thread reserve a block
+ * of numbers with a single atomic getAndAdd() and hand them out of its own block, rather than going through the
+ * monitor for every number.
+ * And when the order does matter, the threads can still work on the sequence in parallel, and out of order: a
+ * {@link sequencegeneration.ReorderBuffer} puts the elements back in order for a single sink, holding back the
+ * workers which run too far ahead of it.
+ *
+ * Modes (1st argument): 1 - AtomicInteger lock, 2 - class lock, 4 - TurnLock, 5 - K round-robin generators,
+ * 6 - K round-robin generators benchmarked for K = 2, 4, 8... up to ROUND_ROBIN_MAX_GENERATORS, 7 - odd IDs allocated
+ * by 1, 2, 4... up to ALLOCATOR_MAX_THREADS threads through the AtomicInteger lock vs. a BlockSequenceAllocator,
+ * 8 - REORDER_ELEMENTS odd numbers worked out by parallel workers and logged in order by a sink through a
+ * ReorderBuffer (modes 6, 7 and 8 need no keyboard i/p), anything else - AtomicInteger lock with daemon threads.
+ * The optional 2nd argument - platform (default) or virtual - tells how to run the generator threads; see
+ * main.ExecutionMode. The synchronized modes pin the carrier threads of virtual threads while waiting on the monitor;
+ * there's only two generators here so it does no harm, but mode 4 is the one which doesn't pin.
+ * Any of the further optional arguments:
+ * - recorder: the generators record the numbers with an asynchronous {@link eventlog.EventRecorder} rather than
+ * logging each of them themselves.
+ * - metrics: the generators measure the latency of every handoff of the turn into {@link metrics.PipelineMetrics},
+ * registered with JMX as cs0x65:type=PipelineMetrics,name="odd-even" and summarized in the log every
+ * METRICS_REPORTING_SECONDS. As each generator sleeps for a second after its turn, a turn is often handed off to a
+ * generator which is still asleep; the p99 and max hence sit at about a second, while p50 is the actual wake-up
+ * latency.
+ * - profile: in modes 1, 2 and 4, a {@link metrics.ContentionProfiler} samples the generator threads' states and
+ * blocked/waited counts and times, and the generators measure how long they hold the lock per turn and how many of
+ * their wake-ups find it's not their turn; the contention report is logged on halting. Mode 1 and 2 generators block
+ * on the monitor only when the other one still holds it, and spend the rest of the time waiting for their turn in
+ * wait() (or asleep in between turns).
+ * - generators=&lt;K&gt;: the number of generators in mode 5 (default ROUND_ROBIN_GENERATORS).
+ * - throttle=&lt;millis&gt;: the sleep of the generators after each turn in mode 5 (default 0 i.e. as fast as the turn
+ * goes round, the numbers being logged at FINE level only); each generator logs the handoffs/sec on halting.
+ * - workers=&lt;W&gt;: the number of workers in mode 8 (default the number of processors, at least 2).
+ *
+ * Modes 1, 2, 4, 5, 7 and 8 can also be run as a repeatable, timed scenario (see main.ScenarioRunner), which halts
+ * on its own rather than on the keyboard i/p: the odd and even generators of modes 1, 2 and 4 take messages turns
+ * without sleeping in between (the numbers logged at FINE level only), the latency being that of the handoffs;
+ * otherwise threads stands for the generators (mode 5 - taking messages turns, likewise), the allocating threads
+ * (mode 7 - allocating messages IDs; the allocator=&lt;monitor|block|gapfree&gt; option picks the allocator) or the
+ * workers (mode 8 - working out messages numbers through a reorder buffer of the given capacity).
+ * For e.g:   java Main --scenario sequencegeneration.OddEvenTurnByTurnGenerationSnippet mode=5 threads=8
  */
 public class OddEvenTurnByTurnGenerationSnippet implements Snippet {
+    static final long METRICS_REPORTING_SECONDS = 5;
+    static final int ROUND_ROBIN_GENERATORS = 4;
+    static final int ROUND_ROBIN_MAX_GENERATORS = 64;
+    static final long ROUND_ROBIN_BENCHMARK_MILLIS = 2000;
+    static final int ALLOCATOR_MAX_THREADS = 64;
+    // split evenly over the threads
+    static final int ALLOCATOR_IDS = 4_096_000;
+    static final int ALLOCATOR_BLOCK_SIZE = 1024;
+    static final int REORDER_ELEMENTS = 200_000;
+    static final int REORDER_CAPACITY = 1024;
+    // the work on sequence s takes (s % 8) times this long, so that the workers finish out of order
+    static final long REORDER_WORK_NANOS = 500;
     private static int currentNumber = 0;
     private EvenNumberGenerator evenNumberGenerator;
     private OddNumberGenerator oddNumberGenerator;
+    private final List<RoundRobinGenerator> roundRobinGenerators = new ArrayList<>();
+    private final List<Thread> roundRobinThreads = new ArrayList<>();
+    private final List<Thread> oddEvenThreads = new ArrayList<>();
+    // Defaults to 1000 milliseconds i.e. a number a second, for human monitoring of the console
+    private long oddEvenThrottleMillis = 1000;
+    // Defaults to 0 i.e. the odd/even generators generate until halted
+    private int oddEvenLastNumber;
+    // Defaults to null i.e. the generators log every number themselves
+    private EventRecorder eventRecorder;
+    // Defaults to null i.e. no metrics
+    private PipelineMetrics metrics;
+    // Defaults to null i.e. the generators aren't profiled
+    private ContentionProfiler contentionProfiler;
+    private LockProfile lockProfile;
+    private ThreadFactory threadFactory = ExecutionMode.PLATFORM.threadFactory("Th-Gen-cs0x65-");
     Logger logger = Logger.getLogger(getClass().getName());
 
     public static int getCurrentNumber() {
@@ -106,12 +206,49 @@ public class OddEvenTurnByTurnGenerationSnippet implements Snippet {
 
     @Override
     public void runSnippet(String[] args) {
-        System.out.println("Press any key to terminate the program!");
-
         int mode = 1;
         if (args != null && args.length > 0){
             mode = Integer.parseInt(args[0]);
         }
+        if (mode < 6 || mode > 8){
+            System.out.println("Press any key to terminate the program!");
+        }
+        ExecutionMode executionMode = ExecutionMode.PLATFORM;
+        if (args != null && args.length > 1){
+            executionMode = ExecutionMode.of(args[1]);
+        }
+        threadFactory = executionMode.threadFactory("Th-Gen-cs0x65-");
+        if (executionMode == ExecutionMode.VIRTUAL && mode != 4 && mode != 5 && mode != 6){
+            logger.warning("The generators wait on a monitor in this mode - pinning the virtual threads' carrier " +
+                    "threads; use mode 4 for a non-pinning TurnLock");
+        }
+        List<String> options = args != null && args.length > 2 ? Arrays.asList(args).subList(2, args.length) :
+                List.of();
+        if (options.contains("recorder")){
+            eventRecorder = new EventRecorder(Level.INFO);
+        }
+        if (options.contains("metrics")){
+            metrics = new PipelineMetrics("odd-even");
+            metrics.register();
+            metrics.startReporting(METRICS_REPORTING_SECONDS, TimeUnit.SECONDS);
+        }
+        if (options.contains("profile") && (mode == 1 || mode == 2 || mode == 4)){
+            contentionProfiler = new ContentionProfiler("odd-even");
+            lockProfile = contentionProfiler.newLockProfile(mode == 4 ? "TurnLock" : "monitor");
+            contentionProfiler.start();
+        }
+        int generators = ROUND_ROBIN_GENERATORS;
+        long throttleMillis = 0;
+        int workers = Math.max(2, Runtime.getRuntime().availableProcessors());
+        for (String option : options) {
+            if (option.startsWith("generators=")){
+                generators = Integer.parseInt(option.substring("generators=".length()));
+            }else if (option.startsWith("throttle=")){
+                throttleMillis = Long.parseLong(option.substring("throttle=".length()));
+            }else if (option.startsWith("workers=")){
+                workers = Integer.parseInt(option.substring("workers=".length()));
+            }
+        }
         switch (mode) {
             case 1:
                 runWithAtomicIntegerLockSnippet();
@@ -121,6 +258,26 @@ public class OddEvenTurnByTurnGenerationSnippet implements Snippet {
                 runWithClassLockSnippet();
                 break;
 
+            case 4:
+                runWithTurnLockSnippet();
+                break;
+
+            case 5:
+                runRoundRobinSnippet(generators, throttleMillis);
+                break;
+
+            case 6:
+                runRoundRobinBenchmarkSnippet();
+                return;
+
+            case 7:
+                runAllocatorBenchmarkSnippet();
+                return;
+
+            case 8:
+                runReorderBufferSnippet(workers);
+                return;
+
             default:
                 runWithAtomicIntegerLockAndDaemonModeSnippet();
                 break;
@@ -135,40 +292,101 @@ public class OddEvenTurnByTurnGenerationSnippet implements Snippet {
         } catch (IOException e) {
             e.printStackTrace();
         }
-        if (mode == 1 || mode == 2){
+        if (mode == 5){
+            System.out.println("Halting: cleaning up generator threads...");
+            haltRoundRobinGenerators();
+        }else if (mode == 1 || mode == 2 || mode == 4){
             System.out.println("Halting: cleaning up generator threads...");
             oddNumberGenerator.setShallHalt(true);
             evenNumberGenerator.setShallHalt(true);
         }else {
             System.out.println("Halting: daemon generator threads will be auto-cleaned");
         }
+        if (eventRecorder != null){
+            eventRecorder.close();
+        }
+        if (contentionProfiler != null){
+            try {
+                contentionProfiler.stop();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            logger.info(contentionProfiler.report());
+        }
+        if (metrics != null){
+            metrics.stopReporting();
+            logger.info(metrics.getSummary());
+            metrics.unregister();
+        }
+    }
+
+    @Override
+    public ScenarioResult runScenario(Scenario scenario) throws InterruptedException {
+        threadFactory = scenario.getExecutionMode().threadFactory("Th-Gen-cs0x65-");
+        switch (scenario.getMode()){
+            case 1:
+            case 2:
+            case 4:{
+                metrics = new PipelineMetrics("odd-even");
+                oddEvenThrottleMillis = 0;
+                oddEvenLastNumber = scenario.getMessages();
+                setCurrentNumber(0);
+                long startedAt = System.nanoTime();
+                if (scenario.getMode() == 1){
+                    runWithAtomicIntegerLockSnippet();
+                }else if (scenario.getMode() == 2){
+                    runWithClassLockSnippet();
+                }else {
+                    runWithTurnLockSnippet();
+                }
+                for (Thread thread : oddEvenThreads) {
+                    thread.join();
+                }
+                long elapsedNanos = System.nanoTime() - startedAt;
+                oddEvenThreads.clear();
+                // a number per turn taken
+                return new ScenarioResult(metrics.getProducedCount(), elapsedNanos, metrics.getEnqueueToDequeue());
+            }
+
+            case 5:{
+                metrics = new PipelineMetrics("odd-even");
+                long startedAt = System.nanoTime();
+                runRoundRobinSnippet(scenario.getThreads(), 0, scenario.getMessages());
+                for (Thread thread : roundRobinThreads) {
+                    thread.join();
+                }
+                long elapsedNanos = System.nanoTime() - startedAt;
+                roundRobinGenerators.clear();
+                roundRobinThreads.clear();
+                return new ScenarioResult(metrics.getProducedCount(), elapsedNanos, metrics.getEnqueueToDequeue());
+            }
+
+            case 7:
+                return allocate(scenario.getThreads(), scenario.getMessages(),
+                        newAllocator(scenario.getOption("allocator", "block")), new LongAdder());
+
+            case 8:
+                return reorder(scenario.getThreads(), scenario.getMessages(), scenario.getCapacity());
+
+            default:
+                throw new UnsupportedOperationException("Mode "+scenario.getMode()+" doesn't support scenario runs");
+        }
     }
 
     public void runWithAtomicIntegerLockSnippet(){
         logger.info("Generator launched in mode: runWithAtomicIntegerLockSnippet");
         AtomicInteger ai = new AtomicInteger(0);
-        // don't start the threads immediately
-        oddNumberGenerator = new OddNumberGenerator(ai);
-        Thread tOdd = new Thread(oddNumberGenerator);
-        tOdd.setName("Th-Odd-Gen-cs0x65");
-        evenNumberGenerator = new EvenNumberGenerator(ai);
-        Thread tEven = new Thread(evenNumberGenerator);
-        tEven.setName("Th-Even-Gen-cs0x65");
-        tOdd.start();
-        tEven.start();
+        startOddEvenGenerators(ai, false);
     }
 
     public void runWithClassLockSnippet(){
         logger.info("Generator launched in mode: runWithClassLockSnippet");
-        // don't start the threads immediately
-        oddNumberGenerator = new OddNumberGenerator(OddEvenTurnByTurnGenerationSnippet.class);
-        Thread tOdd = new Thread(oddNumberGenerator);
-        tOdd.setName("Th-Odd-Gen-cs0x65");
-        evenNumberGenerator = new EvenNumberGenerator(OddEvenTurnByTurnGenerationSnippet.class);
-        Thread tEven = new Thread(evenNumberGenerator);
-        tEven.setName("Th-Even-Gen-cs0x65");
-        tOdd.start();
-        tEven.start();
+        startOddEvenGenerators(OddEvenTurnByTurnGenerationSnippet.class, false);
+    }
+
+    public void runWithTurnLockSnippet(){
+        logger.info("Generator launched in mode: runWithTurnLockSnippet");
+        startOddEvenGenerators(new TurnLock(), false);
     }
 
     /**
@@ -178,16 +396,278 @@ public class OddEvenTurnByTurnGenerationSnippet implements Snippet {
     public void runWithAtomicIntegerLockAndDaemonModeSnippet(){
         logger.info("Generator launched in mode: runWithAtomicIntegerLockAndDaemonModeSnippet");
         AtomicInteger ai = new AtomicInteger(0);
+        startOddEvenGenerators(ai, true);
+    }
+
+    /**
+     * Starts an odd and an even number generator sharing the given lock, throttled and halting at the last number
+     * as per oddEvenThrottleMillis and oddEvenLastNumber.
+     */
+    private void startOddEvenGenerators(Object lock, boolean daemon){
+        Level numberLogLevel = oddEvenThrottleMillis > 0 ? Level.INFO : Level.FINE;
         // don't start the threads immediately
-        oddNumberGenerator = new OddNumberGenerator(ai);
-        Thread tOdd = new Thread(oddNumberGenerator);
+        oddNumberGenerator = new OddNumberGenerator(lock);
+        oddNumberGenerator.setEventRecorder(eventRecorder);
+        oddNumberGenerator.setMetrics(metrics);
+        oddNumberGenerator.setLockProfile(lockProfile);
+        oddNumberGenerator.setThrottleMillis(oddEvenThrottleMillis);
+        oddNumberGenerator.setLastNumber(oddEvenLastNumber);
+        oddNumberGenerator.setNumberLogLevel(numberLogLevel);
+        Thread tOdd = threadFactory.newThread(oddNumberGenerator);
         tOdd.setName("Th-Odd-Gen-cs0x65");
-        tOdd.setDaemon(true);
-        evenNumberGenerator = new EvenNumberGenerator(ai);
-        Thread tEven = new Thread(evenNumberGenerator);
+        tOdd.setDaemon(daemon);
+        evenNumberGenerator = new EvenNumberGenerator(lock);
+        evenNumberGenerator.setEventRecorder(eventRecorder);
+        evenNumberGenerator.setMetrics(metrics);
+        evenNumberGenerator.setLockProfile(lockProfile);
+        evenNumberGenerator.setThrottleMillis(oddEvenThrottleMillis);
+        evenNumberGenerator.setLastNumber(oddEvenLastNumber);
+        evenNumberGenerator.setNumberLogLevel(numberLogLevel);
+        Thread tEven = threadFactory.newThread(evenNumberGenerator);
         tEven.setName("Th-Even-Gen-cs0x65");
-        tEven.setDaemon(true);
+        tEven.setDaemon(daemon);
+        oddEvenThreads.clear();
+        oddEvenThreads.add(tOdd);
+        oddEvenThreads.add(tEven);
         tOdd.start();
         tEven.start();
     }
+
+    public void runRoundRobinSnippet(int generators, long throttleMillis){
+        runRoundRobinSnippet(generators, throttleMillis, 0);
+    }
+
+    /**
+     * @param lastNumber the generators halt on their own once lastNumber has been generated; 0 for never.
+     */
+    private void runRoundRobinSnippet(int generators, long throttleMillis, long lastNumber){
+        logger.info("Generator launched in mode: runRoundRobinSnippet with "+generators+" generators");
+        TurnRing turnRing = new TurnRing(generators);
+        for (int slot = 0; slot < generators; slot++) {
+            RoundRobinGenerator generator = new RoundRobinGenerator(turnRing, slot);
+            generator.setThrottleMillis(throttleMillis);
+            generator.setLastNumber(lastNumber);
+            generator.setEventRecorder(eventRecorder);
+            generator.setMetrics(metrics);
+            Thread thread = threadFactory.newThread(generator);
+            thread.setName("Th-Gen-"+slot+"-cs0x65");
+            roundRobinGenerators.add(generator);
+            roundRobinThreads.add(thread);
+        }
+        for (Thread thread : roundRobinThreads) {
+            thread.start();
+        }
+    }
+
+    /**
+     * Lets K = 2, 4, 8... round-robin generators take turns as fast as they can for ROUND_ROBIN_BENCHMARK_MILLIS each
+     * and logs how many times a second the turn was handed off.
+     */
+    public void runRoundRobinBenchmarkSnippet(){
+        logger.info("Generator launched in mode: runRoundRobinBenchmarkSnippet");
+        StringBuilder report = new StringBuilder("Round-robin handoffs/sec:");
+        for (int generators = 2; generators <= ROUND_ROBIN_MAX_GENERATORS; generators *= 2) {
+            runRoundRobinSnippet(generators, 0);
+            long startedAt = System.nanoTime();
+            try {
+                Thread.sleep(ROUND_ROBIN_BENCHMARK_MILLIS);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+            long turns = haltRoundRobinGenerators();
+            long elapsedNanos = System.nanoTime() - startedAt;
+            report.append(String.format("%n  K=%d: %d handoffs/sec", generators,
+                    turns * TimeUnit.SECONDS.toNanos(1) / elapsedNanos));
+        }
+        logger.info(report.toString());
+        if (eventRecorder != null){
+            eventRecorder.close();
+        }
+        if (metrics != null){
+            metrics.stopReporting();
+            logger.info(metrics.getSummary());
+            metrics.unregister();
+        }
+    }
+
+    /**
+     * @return the number of turns the generators took.
+     */
+    private long haltRoundRobinGenerators(){
+        for (RoundRobinGenerator generator : roundRobinGenerators) {
+            generator.setShallHalt(true);
+        }
+        long turns = 0;
+        try {
+            for (Thread thread : roundRobinThreads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        for (RoundRobinGenerator generator : roundRobinGenerators) {
+            turns += generator.getTurnsTaken();
+        }
+        roundRobinGenerators.clear();
+        roundRobinThreads.clear();
+        return turns;
+    }
+
+    /**
+     * Has 1, 2, 4... threads allocate ALLOCATOR_IDS odd numbers between them, through the AtomicInteger lock as the
+     * generators do and through a BlockSequenceAllocator in both its modes, and logs the IDs/sec of each; the IDs are
+     * summed up to tell whether any were skipped - the first N odd numbers add up to N * N. The blocks mostly leave
+     * gaps; the gap-free blocks tell how many numbers they hold back instead, once every thread has released them -
+     * and have gaps only if some were lost, i.e. the numbers handed out and held back don't add up to those reserved.
+     */
+    public void runAllocatorBenchmarkSnippet(){
+        logger.info("Generator launched in mode: runAllocatorBenchmarkSnippet");
+        StringBuilder report = new StringBuilder("Odd IDs/sec (monitor | block | gap-free block):");
+        for (int threads = 1; threads <= ALLOCATOR_MAX_THREADS; threads *= 2) {
+            report.append(String.format("%n  %2d threads: %s | %s | %s", threads,
+                    allocate(threads, ALLOCATOR_IDS, "monitor"), allocate(threads, ALLOCATOR_IDS, "block"),
+                    allocate(threads, ALLOCATOR_IDS, "gapfree")));
+        }
+        logger.info(report.toString());
+    }
+
+    private String allocate(int threads, int ids, String allocatorType){
+        LongAdder sum = new LongAdder();
+        BlockSequenceAllocator allocator = newAllocator(allocatorType);
+        ScenarioResult result = allocate(threads, ids, allocator, sum);
+        if (sum.sum() == result.getMessages() * result.getMessages()){
+            return String.format("%,d", result.getMessagesPerSecond());
+        }
+        if (allocator != null && allocator.getMode() == BlockSequenceAllocator.Mode.GAP_FREE &&
+                result.getMessages() + allocator.getUnusedCount() == allocator.getReservedCount()){
+            return String.format("%,d (%,d held back)", result.getMessagesPerSecond(), allocator.getUnusedCount());
+        }
+        return String.format("%,d (gaps)", result.getMessagesPerSecond());
+    }
+
+    /**
+     * @param allocatorType monitor (the AtomicInteger lock), block or gapfree (a BlockSequenceAllocator in the
+     *                      MONOTONIC_PER_THREAD or GAP_FREE mode).
+     * @return the allocator; null for the monitor.
+     */
+    private static BlockSequenceAllocator newAllocator(String allocatorType){
+        if (allocatorType.equals("monitor")){
+            return null;
+        }
+        return new BlockSequenceAllocator(1, 2, ALLOCATOR_BLOCK_SIZE, allocatorType.equals("gapfree") ?
+                BlockSequenceAllocator.Mode.GAP_FREE : BlockSequenceAllocator.Mode.MONOTONIC_PER_THREAD);
+    }
+
+    /**
+     * @param blockAllocator the allocator to allocate through; null for the AtomicInteger lock, as the generators do.
+     * @param sum adds up the odd numbers allocated.
+     */
+    private ScenarioResult allocate(int threads, int ids, BlockSequenceAllocator blockAllocator, LongAdder sum){
+        LongSupplier nextId;
+        if (blockAllocator == null){
+            AtomicInteger ai = new AtomicInteger(0);
+            nextId = () -> {
+                synchronized (ai){
+                    return 2L * ai.incrementAndGet() - 1;
+                }
+            };
+        }else {
+            nextId = blockAllocator::next;
+        }
+        int idsPerThread = ids / threads;
+        CountDownLatch startGate = new CountDownLatch(1);
+        List<Thread> allocators = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread thread = threadFactory.newThread(() -> {
+                try {
+                    startGate.await();
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                long threadSum = 0;
+                for (int j = 0; j < idsPerThread; j++) {
+                    threadSum += nextId.getAsLong();
+                }
+                if (blockAllocator != null){
+                    blockAllocator.release();
+                }
+                sum.add(threadSum);
+            });
+            allocators.add(thread);
+            thread.start();
+        }
+        long startedAt = System.nanoTime();
+        startGate.countDown();
+        try {
+            for (Thread thread : allocators) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        return new ScenarioResult((long) idsPerThread * threads, System.nanoTime() - startedAt);
+    }
+
+    /**
+     * The workers claim the next sequence s off a shared counter, work out the odd number 2s + 1 - spinning for a
+     * varying while to finish out of order - and put it into a ReorderBuffer; the sink takes the numbers back in
+     * order, checks that each one is the next odd number and logs them (every number at FINE level, every
+     * REORDER_CAPACITY-th at INFO).
+     */
+    public void runReorderBufferSnippet(int workers){
+        logger.info("Generator launched in mode: runReorderBufferSnippet with "+workers+" workers");
+        reorder(workers, REORDER_ELEMENTS, REORDER_CAPACITY);
+    }
+
+    private ScenarioResult reorder(int workers, int elements, int capacity){
+        ReorderBuffer<Long> reorderBuffer = new ReorderBuffer<>(capacity);
+        AtomicLong claimed = new AtomicLong();
+        List<Thread> workerThreads = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            Thread thread = threadFactory.newThread(() -> {
+                long sequence;
+                try {
+                    while ((sequence = claimed.getAndIncrement()) < elements){
+                        long until = System.nanoTime() + (sequence % 8) * REORDER_WORK_NANOS;
+                        while (System.nanoTime() < until){
+                            Thread.onSpinWait();
+                        }
+                        reorderBuffer.put(sequence, 2 * sequence + 1);
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            });
+            thread.setName("Th-Worker-"+i+"-cs0x65");
+            workerThreads.add(thread);
+        }
+        long startedAt = System.nanoTime();
+        for (Thread thread : workerThreads) {
+            thread.start();
+        }
+        long outOfOrder = 0;
+        try {
+            for (long sequence = 0; sequence < elements; sequence++) {
+                long nextNumber = reorderBuffer.take();
+                if (nextNumber != 2 * sequence + 1){
+                    outOfOrder++;
+                }
+                if (sequence % capacity == 0){
+                    logger.info("Next odd number: "+nextNumber);
+                }else {
+                    logger.fine("Next odd number: "+nextNumber);
+                }
+            }
+            for (Thread thread : workerThreads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+        }
+        long elapsedNanos = System.nanoTime() - startedAt;
+        logger.info("Sink took "+elements+" numbers ("+outOfOrder+" out of order) at "+
+                elements * TimeUnit.SECONDS.toNanos(1) / elapsedNanos+" numbers/sec; "+reorderBuffer);
+        return new ScenarioResult(elements - outOfOrder, elapsedNanos);
+    }
 }
@@ -0,0 +1,132 @@
+package sequencegeneration;
+
+import producerconsumer.MessageHandler;
+import producerconsumer.waitstrategy.BackoffParkWaitStrategy;
+import producerconsumer.waitstrategy.WaitStrategy;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The opposite trade-off of the turn-by-turn generators: rather than having the threads take turns to keep the
+ * sequence in order, any number of workers put() the elements of the sequence in parallel, in whatever order they're
+ * done with them, and a single ordered sink take()s them back in strict sequence order.
+ * The characteristics exhibited by this class are:
+ * - a bounded, lock-free buffer of capacity (a power of 2) slots indexed by the sequence number: the element of
+ * sequence s goes into slot s &amp; (capacity - 1), with a volatile write (no CAS - no two workers ever put the same
+ * sequence) and the sink clears the slot before moving on to the next sequence.
+ * - back pressure: a worker which has run capacity or more sequences ahead of the sink waits - as per its
+ * {@link producerconsumer.waitstrategy.WaitStrategy}, backing off and parking by default - until the sink catches up;
+ * the sink's cursor is the only shared state it checks. The waits are counted as stalls.
+ * - the sink waits for the very next sequence as per the same wait strategy, even if later ones are already there:
+ * that's the price of the strict order, paid only by the sink.
+ * - there's no end of stream; the sink knows how many elements to take, or the workers put a closing element of
+ * their own choice at the last sequence.
+ */
+public class ReorderBuffer<T> {
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+    // the sequence of the next element for the sink; only ever written by the sink
+    private volatile long nextSequence;
+    // Defaults to BackoffParkWaitStrategy
+    private WaitStrategy waitStrategy = new BackoffParkWaitStrategy();
+    private final LongAdder stalls = new LongAdder();
+
+    public ReorderBuffer(int capacity, long firstSequence) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1){
+            throw new IllegalArgumentException("The capacity needs to be a power of 2. Received capacity = "+capacity);
+        }
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.nextSequence = firstSequence;
+    }
+
+    public ReorderBuffer(int capacity) {
+        this(capacity, 0);
+    }
+
+    public WaitStrategy getWaitStrategy() {
+        return waitStrategy;
+    }
+
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    public long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * @return the number of times a worker had to wait for the sink to make space.
+     */
+    public long getStalledCount() {
+        return stalls.sum();
+    }
+
+    /**
+     * Puts the element of the given sequence, waiting while it's capacity or more sequences ahead of the sink.
+     */
+    public void put(long sequence, T element) throws InterruptedException {
+        if (element == null){
+            throw new NullPointerException("A reorder buffer can't hold null elements");
+        }
+        if (sequence < nextSequence){
+            throw new IllegalArgumentException("The sequence "+sequence+" has already been taken by the sink; " +
+                    "next sequence = "+nextSequence);
+        }
+        int attempt = 0;
+        while (sequence - nextSequence > mask){
+            waitStrategy.idle(null, attempt++, Long.MAX_VALUE, false);
+        }
+        if (attempt > 0){
+            stalls.increment();
+        }
+        slots.set((int) sequence & mask, element);
+    }
+
+    /**
+     * To be called by the sink only: waits for the element of the next sequence and takes it.
+     */
+    public T take() throws InterruptedException {
+        long sequence = nextSequence;
+        int index = (int) sequence & mask;
+        T element;
+        int attempt = 0;
+        while ((element = slots.get(index)) == null){
+            waitStrategy.idle(null, attempt++, Long.MAX_VALUE, false);
+        }
+        // cleared before the cursor moves on, so that the worker of sequence + capacity finds the slot free
+        slots.lazySet(index, null);
+        nextSequence = sequence + 1;
+        return element;
+    }
+
+    /**
+     * To be called by the sink only: hands the elements from the next sequence on, for as long as there's no gap and
+     * up to max elements, to the handler without waiting.
+     * @return the number of elements handed to the handler.
+     */
+    public int drainTo(MessageHandler<? super T> handler, int max) {
+        long sequence = nextSequence;
+        int drained = 0;
+        T element;
+        while (drained < max && (element = slots.get((int) sequence & mask)) != null){
+            slots.lazySet((int) sequence & mask, null);
+            // the cursor moves on element by element, so that the workers get going as soon as possible
+            nextSequence = ++sequence;
+            handler.handle(element);
+            drained++;
+        }
+        return drained;
+    }
+
+    @Override
+    public String toString() {
+        return "ReorderBuffer[capacity="+slots.length()+", nextSequence="+nextSequence+", stalls="+stalls.sum()+"]";
+    }
+}
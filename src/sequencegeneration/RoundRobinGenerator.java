@@ -0,0 +1,169 @@
+package sequencegeneration;
+
+import eventlog.Event;
+import eventlog.EventRecorder;
+import metrics.PipelineMetrics;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Generalization of {@link sequencegeneration.OddNumberGenerator} and {@link sequencegeneration.EvenNumberGenerator}
+ * to any number of generators: K of them sharing a {@link sequencegeneration.TurnRing} generate 1, 2, 3... in strict
+ * round-robin order, the one in slot i generating the numbers i + 1, i + 1 + K, i + 1 + 2K...
+ * The other characteristics exhibited by this class are:
+ * - each turn is handed off directly to the generator in the next slot (see TurnRing), rather than through a shared
+ * monitor every generator waits on.
+ * - the number is logged after the turn has been handed off, so that the next generator isn't kept waiting on the
+ * console; at FINE level by default when unthrottled, so that the handoffs/sec reflect the handoff and not the
+ * console.
+ * - the old fixed Thread.sleep(1000) after every turn is optional: set with setThrottleMillis(); 0 (the default)
+ * doesn't sleep at all.
+ * - when provided an {@link eventlog.EventRecorder} it records a NEXT_NUMBER event per number rather than logging it,
+ * and when provided {@link metrics.PipelineMetrics} it measures the latency of every handoff, as the odd/even
+ * generators do.
+ * - it halts when setShallHalt(true), or on its own once the last number set with setLastNumber() is generated.
+ * Halting one generator halts the whole ring (see TurnRing.halt()): the others would otherwise wait for ever for the
+ * turn it no longer hands on.
+ * - on halting, it logs the number of turns it took and the rate (handoffs/sec) of the whole ring while it ran.
+ */
+public class RoundRobinGenerator implements Runnable {
+    private final TurnRing turnRing;
+    private final int slot;
+    private volatile boolean shallHalt;
+    // Defaults to 0 milliseconds i.e. no throttling
+    private long throttleMillis;
+    // Defaults to 0 i.e. generate until halted
+    private long lastNumber;
+    // Defaults to null i.e. every number is logged right away
+    private EventRecorder eventRecorder;
+    // Defaults to null i.e. no metrics
+    private PipelineMetrics metrics;
+    // Defaults to INFO if throttled, FINE otherwise
+    private Level numberLogLevel;
+    // when this generator took its current turn, and when the previous generator handed it off
+    private long takenAt;
+    private long handedOffAt;
+    private long turnsTaken;
+    Logger logger = Logger.getLogger(getClass().getName());
+
+    public RoundRobinGenerator(TurnRing turnRing, int slot) {
+        if (slot < 0 || slot >= turnRing.getParties()){
+            throw new IllegalArgumentException("The slot needs to be in between 0 and "+(turnRing.getParties() - 1)+
+                    ". Received slot = "+slot);
+        }
+        this.turnRing = turnRing;
+        this.slot = slot;
+    }
+
+    public void setShallHalt(boolean shallHalt) {
+        this.shallHalt = shallHalt;
+        if (shallHalt){
+            turnRing.halt();
+        }
+    }
+
+    public long getThrottleMillis() {
+        return throttleMillis;
+    }
+
+    public void setThrottleMillis(long throttleMillis) {
+        this.throttleMillis = throttleMillis;
+    }
+
+    public long getLastNumber() {
+        return lastNumber;
+    }
+
+    /**
+     * Has the generators halt on their own once the given number has been generated: the generator taking the turn
+     * past it hands the turn on and halts, and so does every other generator in turn.
+     */
+    public void setLastNumber(long lastNumber) {
+        this.lastNumber = lastNumber;
+    }
+
+    public void setEventRecorder(EventRecorder eventRecorder) {
+        this.eventRecorder = eventRecorder;
+    }
+
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void setNumberLogLevel(Level numberLogLevel) {
+        this.numberLogLevel = numberLogLevel;
+    }
+
+    public long getTurnsTaken() {
+        return turnsTaken;
+    }
+
+    @Override
+    public void run() {
+        logger.entering(getClass().getName(), "run");
+        turnRing.join(slot, Thread.currentThread());
+        Level level = numberLogLevel != null ? numberLogLevel : throttleMillis > 0 ? Level.INFO : Level.FINE;
+        long startedAt = System.nanoTime();
+        long firstTurn = -1;
+        long lastTurn = -1;
+        try {
+            while (!shallHalt){
+                long turn = turnRing.awaitTurn(slot);
+                if (turn < 0){
+                    break;
+                }
+                if (lastNumber > 0 && turn >= lastNumber){
+                    turnRing.handOff(slot, turn);
+                    break;
+                }
+                onTurnTaken();
+                turnRing.handOff(slot, turn);
+                turnsTaken++;
+                if (firstTurn < 0){
+                    firstTurn = turn;
+                }
+                lastTurn = turn;
+                logNextNumber(turn + 1, level);
+                if (throttleMillis > 0){
+                    try {
+                        // just to slow down the log/console entries for human monitoring :)
+                        Thread.sleep(throttleMillis);
+                    } catch (InterruptedException e) {
+                        e.printStackTrace();
+                        break;
+                    }
+                }
+            }
+        } finally {
+            // whichever way this generator stops, the others mustn't stay parked for a turn it will never hand on
+            turnRing.halt();
+        }
+        long elapsedNanos = System.nanoTime() - startedAt;
+        long handoffs = lastTurn - firstTurn;
+        logger.info("Generator in slot "+slot+" halting: took "+turnsTaken+" turns; the ring handed off "+
+                (elapsedNanos > 0 && handoffs > 0 ? handoffs * 1_000_000_000L / elapsedNanos : 0)+" turns/sec");
+        logger.exiting(getClass().getName(), "run");
+    }
+
+    /**
+     * To be called right after taking the turn, before handing it off.
+     */
+    private void onTurnTaken(){
+        if (metrics != null){
+            takenAt = System.nanoTime();
+            handedOffAt = metrics.markHandoff(takenAt);
+        }
+    }
+
+    private void logNextNumber(long nextNumber, Level level){
+        if (eventRecorder != null){
+            eventRecorder.record(Event.NEXT_NUMBER, nextNumber);
+        }else if (logger.isLoggable(level)){
+            logger.log(level, "Next number: "+nextNumber);
+        }
+        if (metrics != null && handedOffAt != 0){
+            metrics.recordConsumed(handedOffAt, takenAt, System.nanoTime());
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package sequencegeneration;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Solution 3 of OddEvenTurnByTurnGenerationSnippet: a ReentrantLock with a single Condition, guarding the
+ * currentNumber itself.
+ * The other characteristics exhibited by this class are:
+ * - the generators await()/signal() the condition instead of wait()/notify() on a monitor; a virtual thread awaiting
+ * the condition parks and releases its carrier thread, whereas one waiting inside a synchronized block pins it.
+ * - currentNumber is only ever read and written with the lock held, so it needs neither to be volatile nor atomic.
+ */
+public class TurnLock {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition turnChanged = lock.newCondition();
+    private int currentNumber;
+
+    public ReentrantLock getLock() {
+        return lock;
+    }
+
+    public Condition getTurnChanged() {
+        return turnChanged;
+    }
+
+    public int getCurrentNumber() {
+        return currentNumber;
+    }
+
+    public int incrementAndGet() {
+        return ++currentNumber;
+    }
+}
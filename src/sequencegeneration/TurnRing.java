@@ -0,0 +1,98 @@
+package sequencegeneration;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The turn shared by K {@link sequencegeneration.RoundRobinGenerator}s, taken in strict round-robin order: the
+ * generator in slot i takes the turns i, i + K, i + 2K... and generates the number turn + 1.
+ * The characteristics exhibited by this class are:
+ * - there's no lock nor monitor: the turn is a volatile counter, which only the generator whose turn it is ever
+ * writes, so a plain volatile write (no CAS) is enough to hand the turn on.
+ * - the turn is handed off directly to the thread in the next slot, which is LockSupport.unpark()ed; none of the
+ * other K - 2 generators is woken up to re-check the turn only to wait again, as they'd be by a notifyAll() or
+ * signalAll() on a shared monitor/condition.
+ * - a generator waiting for its turn spins for SPIN_TRIES on a multi-core machine before it parks, as the turn is
+ * often handed on sooner than a park/unpark round trip takes; on a single core it parks straight away, since it
+ * would otherwise only be spinning away the time slice the generator in turn needs.
+ * - unpark() before park() isn't lost (the permit is kept), and a spurious wake-up only re-checks the turn, so there's
+ * no lost hand-off.
+ * - halt() halts the whole ring: every party waiting for its turn, or awaiting it later, gets -1 rather than the turn,
+ * so that no generator is left parked for a turn which a halted generator will never hand on.
+ */
+public class TurnRing {
+    static final int SPIN_TRIES = 100;
+    private static final boolean MULTI_CORE = Runtime.getRuntime().availableProcessors() > 1;
+    // volatile reads/writes of the threads, so that a generator joining late can't miss its very first handoff
+    private final AtomicReferenceArray<Thread> parties;
+    private volatile long turn;
+    private volatile boolean halted;
+
+    public TurnRing(int parties) {
+        if (parties < 2){
+            throw new IllegalArgumentException("A turn needs at least two parties to go round. Received parties = "+
+                    parties);
+        }
+        this.parties = new AtomicReferenceArray<>(parties);
+    }
+
+    public int getParties() {
+        return parties.length();
+    }
+
+    public long getTurn() {
+        return turn;
+    }
+
+    /**
+     * To be called by the thread of each slot before it first awaits its turn.
+     */
+    public void join(int slot, Thread thread) {
+        parties.set(slot, thread);
+    }
+
+    /**
+     * Waits until it's the given slot's turn, the ring is halted or the waiting thread is interrupted.
+     * @return the turn taken; -1 if halted or interrupted.
+     */
+    public long awaitTurn(int slot) {
+        long current;
+        int tries = MULTI_CORE ? SPIN_TRIES : 0;
+        while ((current = turn) % parties.length() != slot){
+            if (halted){
+                return -1;
+            }
+            if (tries > 0){
+                tries--;
+                Thread.onSpinWait();
+            }else if (Thread.interrupted()){
+                return -1;
+            }else {
+                LockSupport.park(this);
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Hands the turn, taken by the given slot with awaitTurn(), on to the next slot.
+     */
+    public void handOff(int slot, long takenTurn) {
+        turn = takenTurn + 1;
+        LockSupport.unpark(parties.get((slot + 1) % parties.length()));
+    }
+
+    /**
+     * Halts the ring: wakes up every party, and has awaitTurn() return -1 from then on.
+     */
+    public void halt() {
+        halted = true;
+        for (int i = 0; i < parties.length(); i++) {
+            LockSupport.unpark(parties.get(i));
+        }
+    }
+
+    public boolean isHalted() {
+        return halted;
+    }
+}